@@ -14,6 +14,7 @@
 
 package com.google.enterprise.connector.filesystem;
 
+import com.google.enterprise.connector.filesystem.OperationTrace.Operation;
 import com.google.enterprise.connector.spi.RepositoryDocumentException;
 import com.google.enterprise.connector.spi.RepositoryException;
 
@@ -114,9 +115,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean exists() throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      return delegate.exists();
+      return OperationTrace.end(Operation.EXISTS, delegate, begin,
+                                delegate.exists());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.EXISTS, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(e);
     }
@@ -124,9 +128,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean canRead() throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      return delegate.canRead();
+      return OperationTrace.end(Operation.CAN_READ, delegate, begin,
+                                delegate.canRead());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.CAN_READ, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(e);
     }
@@ -134,9 +141,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean isHidden() throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      return delegate.isHidden();
+      return OperationTrace.end(Operation.IS_HIDDEN, delegate, begin,
+                                delegate.isHidden());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.IS_HIDDEN, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(e);
     }
@@ -144,9 +154,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean isDirectory() throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      return delegate.isDirectory();
+      return OperationTrace.end(Operation.IS_DIRECTORY, delegate, begin,
+                                delegate.isDirectory());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.IS_DIRECTORY, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(e);
     }
@@ -154,9 +167,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean isRegularFile() throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      return delegate.isFile();
+      return OperationTrace.end(Operation.IS_FILE, delegate, begin,
+                                delegate.isFile());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.IS_FILE, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(e);
     }
@@ -165,9 +181,12 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
   @Override
   public long getLastModified() throws IOException, RepositoryException {
     long lastModified;
+    long begin = OperationTrace.begin();
     try {
-      lastModified = delegate.lastModified();
+      lastModified = OperationTrace.end(Operation.LAST_MODIFIED, delegate,
+                                        begin, delegate.lastModified());
     } catch (IOException e) {
+      OperationTrace.fail(Operation.LAST_MODIFIED, delegate, begin, e);
       detectGeneralErrors(e);
       throw new IOException(
           "Failed to get last modified time for " + getPath(), e);
@@ -177,10 +196,13 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public boolean isModifiedSince(long time) throws RepositoryException {
+    long begin = OperationTrace.begin();
     try {
-      long lastModified = delegate.lastModified();
+      long lastModified = OperationTrace.end(Operation.LAST_MODIFIED,
+          delegate, begin, delegate.lastModified());
       return (lastModified > 0L) ? (lastModified >= time) : true;
     } catch (IOException e) {
+      OperationTrace.fail(Operation.LAST_MODIFIED, delegate, begin, e);
       detectGeneralErrors(e);
       throw new RepositoryDocumentException(
           "Failed to get last modified time for " + getPath(), e);
@@ -189,7 +211,17 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
 
   @Override
   public long length() throws IOException, RepositoryException {
-    return isRegularFile() ? delegate.length() : 0L;
+    if (!isRegularFile()) {
+      return 0L;
+    }
+    long begin = OperationTrace.begin();
+    try {
+      return OperationTrace.end(Operation.LENGTH, delegate, begin,
+                                delegate.length());
+    } catch (IOException e) {
+      OperationTrace.fail(Operation.LENGTH, delegate, begin, e);
+      throw e;
+    }
   }
 
   @Override
@@ -235,12 +267,16 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
     // Can not throw RepositoryException here because of the
     // InputStreamFactory interface signature, so we avoid calling
     // isRegularFile or detectServerDown.
+    long begin = OperationTrace.begin();
     try {
       if (!delegate.isFile()) {
         throw new IOException("Not a regular file: " + getPath());
       }
-      return delegate.getInputStream();
+      InputStream in = delegate.getInputStream();
+      OperationTrace.end(Operation.OPEN, delegate, begin, 0L);
+      return OperationTrace.traceContent(delegate, in);
     } catch (IOException e) {
+      OperationTrace.fail(Operation.OPEN, delegate, begin, e);
       // Call detectServerDown for the benefit of logging, but
       // don't allow RepositoryException to propagate.
       try {
@@ -252,24 +288,41 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
     }
   }
 
+  /** This implementation does nothing. */
+  @Override
+  public void openHandle() throws RepositoryException {
+  }
+
+  /** This implementation does nothing. */
+  @Override
+  public void closeHandle() {
+  }
+
+  /** This implementation does not support change notification. */
+  @Override
+  public ChangeWatcher newChangeWatcher()
+      throws IOException, RepositoryException {
+    return null;
+  }
+
+  /** This implementation does not identify files. */
+  @Override
+  public Object getFileKey() throws RepositoryException {
+    return null;
+  }
+
   @Override
   public List<T> listFiles() throws IOException, RepositoryException,
       DirectoryListingException {
+    long begin = OperationTrace.begin();
     String[] fileNames;
     try {
-      fileNames = delegate.list();
+      fileNames = listNames();
     } catch (IOException e) {
-      detectGeneralErrors(e);
-      throw new IOException(
-           "Failed to list files in directory " + getPath(), e);
-    }
-    if (fileNames == null) {
-      throw new DirectoryListingException("Failed to list files in "
-                                          + getPath());
-    } else if (fileNames.length == 0 && LOG.isLoggable(Level.FINEST)) {
-      // Log empty directories for traceability.
-      LOG.finest("Found no files in directory " + getPath());
+      OperationTrace.fail(Operation.LIST, delegate, begin, e);
+      throw e;
     }
+    OperationTrace.end(Operation.LIST, delegate, begin, fileNames.length);
     List<T> result = new ArrayList<T>(fileNames.length);
     for (int k = 0; k < fileNames.length; ++k) {
       result.add(newChild(fileNames[k]));
@@ -283,6 +336,121 @@ public abstract class AbstractReadonlyFile<T extends AbstractReadonlyFile<T>>
     return result;
   }
 
+  @Override
+  public DirectoryIterator<T> iterateFiles() throws IOException,
+      RepositoryException, DirectoryListingException {
+    return iterateFiles(NameTable.Budget.UNLIMITED);
+  }
+
+  @Override
+  public DirectoryIterator<T> iterateFiles(NameTable.Budget budget)
+      throws IOException, RepositoryException, DirectoryListingException {
+    long begin = OperationTrace.begin();
+    try {
+      return OperationTrace.traceListing(delegate, begin,
+                                         newDirectoryIterator(budget));
+    } catch (IOException e) {
+      OperationTrace.fail(Operation.LIST, delegate, begin, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Factory method for creating the iterator returned by
+   * {@link #iterateFiles(NameTable.Budget)}.  This implementation holds
+   * only the names of the directory entries, sorted by name, and creates
+   * the children using {@link #newChild(String)} as they are returned.
+   * The names are counted against {@code budget} as the directory is
+   * read, and written to disk once it is exhausted.  Implementations that
+   * are able to stream directory entries are expected to override this.
+   */
+  protected DirectoryIterator<T> newDirectoryIterator(NameTable.Budget budget)
+      throws IOException, RepositoryException, DirectoryListingException {
+    NameTable.Builder builder = new NameTable.Builder(budget);
+    final NameTable names;
+    try {
+      boolean listed;
+      try {
+        listed = listNames(builder);
+      } catch (IOException e) {
+        detectGeneralErrors(e);
+        throw new IOException(
+            "Failed to list files in directory " + getPath(), e);
+      }
+      if (!listed) {
+        throw new DirectoryListingException("Failed to list files in "
+                                            + getPath());
+      }
+      names = builder.build();
+    } finally {
+      builder.close();
+    }
+    if (names.size() == 0 && LOG.isLoggable(Level.FINEST)) {
+      // Log empty directories for traceability.
+      LOG.finest("Found no files in directory " + getPath());
+    }
+    return new DirectoryIterator<T>() {
+      @Override
+      public boolean hasNext() {
+        return names.hasNext();
+      }
+
+      @Override
+      public T next() throws IOException, RepositoryException {
+        return newChild(names.next());
+      }
+
+      @Override
+      public void close() {
+        names.close();
+      }
+    };
+  }
+
+  /**
+   * Adds the names of the files and directories in this directory to the
+   * table.  This implementation adds the names returned by
+   * {@link FileDelegate#list()}.  Implementations that can read a directory
+   * incrementally are expected to override this, so that the names of a
+   * wide directory may be written to disk as they are read, rather than
+   * all held in memory first.
+   *
+   * @return {@code false} if this is not a directory, or it cannot be read
+   * @throws IOException if the directory could not be read, or the names
+   *         could not be written to disk
+   */
+  protected boolean listNames(NameTable.Builder names) throws IOException {
+    String[] fileNames = delegate.list();
+    if (fileNames == null) {
+      return false;
+    }
+    for (String name : fileNames) {
+      names.add(name);
+    }
+    return true;
+  }
+
+  /** Returns the names of the files and directories in this directory. */
+  private String[] listNames() throws IOException, RepositoryException,
+      DirectoryListingException {
+    String[] fileNames;
+    try {
+      fileNames = delegate.list();
+    } catch (IOException e) {
+      detectGeneralErrors(e);
+      throw new IOException(
+           "Failed to list files in directory " + getPath(), e);
+    }
+    if (fileNames == null) {
+      throw new DirectoryListingException("Failed to list files in "
+                                          + getPath());
+    } else if (fileNames.length == 0 && LOG.isLoggable(Level.FINEST)) {
+      // Log empty directories for traceability.
+      LOG.finest("Found no files in directory " + getPath());
+    }
+    return fileNames;
+  }
+
   @Override
   public String toString() {
     return getPath();
@@ -119,18 +119,26 @@ abstract class AbstractSmbAclBuilder implements AclBuilder {
    */
   protected final String localNamespace;
 
+  /**
+   * The cache of share-level ACEs, may be null.
+   */
+  protected final ShareAclCache shareAclCache;
+
   /**
    * Creates an {@link AbstractSmbAclBuilder}.
    *
    * @param file the {@link SmbFileDelegate} whose {@link Acl} we build.
    * @param propertyFetcher Object containing the required properties.
+   * @param shareAclCache the {@link ShareAclCache} from which to fetch
+   *        share-level ACEs, or {@code null} to fetch them from the server
    */
   protected AbstractSmbAclBuilder(SmbFileDelegate file,
-                                  AclProperties propertyFetcher) {
+      AclProperties propertyFetcher, ShareAclCache shareAclCache) {
     Preconditions.checkNotNull(file, "file may not be null");
     Preconditions.checkNotNull(propertyFetcher,
                                "propertyFetcher may not be null");
     this.file = file;
+    this.shareAclCache = shareAclCache;
     this.globalNamespace = propertyFetcher.getGlobalNamespace();
     this.localNamespace = propertyFetcher.getLocalNamespace();
     AclFormat tempFormat = AclFormat.getAclFormat(
@@ -155,6 +163,19 @@ abstract class AbstractSmbAclBuilder implements AclBuilder {
     }
   }
 
+  /**
+   * Returns the share-level ACEs for the file, resolving the SIDs within
+   * each ACE. The ACEs are served from the {@link ShareAclCache}, if one
+   * was supplied.
+   */
+  protected ACE[] getShareSecurity() throws IOException {
+    if (shareAclCache == null) {
+      return file.getShareSecurity(true);
+    } else {
+      return shareAclCache.getShareSecurity(file);
+    }
+  }
+
   /*
    * Returns ACL from the list of ACEs
    */
@@ -124,6 +124,28 @@ public abstract class
     }
   }
 
+  @Override
+  public DirectoryIterator<T> iterateFiles(NameTable.Budget budget)
+      throws IOException, RepositoryException, DirectoryListingException {
+    if (accessTimeResetFlag) {
+      addToMap(this);
+      boolean success = false;
+      try {
+        DirectoryIterator<T> iterator =
+            new AccessTimePreservingDirectoryIterator<T>(this,
+                super.iterateFiles(budget));
+        success = true;
+        return iterator;
+      } finally {
+        if (!success) {
+          setLastAccessTime(removeFromMap(this));
+        }
+      }
+    } else {
+      return super.iterateFiles(budget);
+    }
+  }
+
   /**
    * Keep track of the original last access time for all instances of the
    * ReadonlyFile.
@@ -204,4 +226,44 @@ public abstract class
       }
     }
   }
+
+  /**
+   * Wrapper DirectoryIterator that resets the last access time of the
+   * directory when the iterator is closed.
+   */
+  private static class AccessTimePreservingDirectoryIterator<T>
+      implements DirectoryIterator<T> {
+    private final AccessTimePreservingReadonlyFile<?> dir;
+    private final DirectoryIterator<T> iterator;
+    private boolean closed = false;
+
+    AccessTimePreservingDirectoryIterator(
+        AccessTimePreservingReadonlyFile<?> dir,
+        DirectoryIterator<T> iterator) {
+      this.dir = dir;
+      this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException, RepositoryException {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public T next() throws IOException, RepositoryException {
+      return iterator.next();
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        try {
+          iterator.close();
+        } finally {
+          dir.setLastAccessTime(removeFromMap(dir));
+        }
+      }
+    }
+  }
 }
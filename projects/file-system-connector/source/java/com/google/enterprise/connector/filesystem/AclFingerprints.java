@@ -0,0 +1,198 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.enterprise.connector.spi.Principal;
+
+import java.util.Collection;
+
+/**
+ * A compact map from document IDs to fingerprints of the ACLs last fed
+ * for them.
+ * <p/>
+ * Incremental traversals and ACL sweeps feed the inheritable ACLs of a
+ * directory, or the share ACL of a start path, only if they have changed
+ * since they were last fed.  That requires an entry for every directory
+ * under the start paths, so, as in {@link FeedFingerprints}, the entries
+ * are held in primitive arrays using open addressing, rather than as
+ * objects in a map.  Each entry is a 64-bit hash of the document ID,
+ * together with a 64-bit fingerprint of the ACLs.
+ * <p/>
+ * This class is not thread-safe.
+ */
+class AclFingerprints {
+  /** Marks an empty slot.  No key is ever zero. */
+  private static final long EMPTY = 0L;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private long[] keys;
+  private long[] fingerprints;
+  private int size;
+
+  AclFingerprints() {
+    clear();
+  }
+
+  /** Returns the number of documents in the map. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns {@code true} if the given fingerprint is the one last
+   * {@link #put} for the document.
+   */
+  boolean contains(String docid, long fingerprint) {
+    int i = find(key(docid));
+    return keys[i] != EMPTY && fingerprints[i] == fingerprint;
+  }
+
+  /** Records the fingerprint of the ACLs fed for the document. */
+  void put(String docid, long fingerprint) {
+    if (2 * (size + 1) > keys.length) {
+      resize(2 * keys.length);
+    }
+    long key = key(docid);
+    int i = find(key);
+    if (keys[i] == EMPTY) {
+      keys[i] = key;
+      size++;
+    }
+    fingerprints[i] = fingerprint;
+  }
+
+  /**
+   * Removes the document from the map.
+   *
+   * @return {@code true} if the document was in the map
+   */
+  boolean remove(String docid) {
+    int i = find(key(docid));
+    if (keys[i] == EMPTY) {
+      return false;
+    }
+    // Move back any following entries that would no longer be found.
+    int mask = keys.length - 1;
+    for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+      int home = slot(keys[j], keys.length);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        keys[i] = keys[j];
+        fingerprints[i] = fingerprints[j];
+        i = j;
+      }
+    }
+    keys[i] = EMPTY;
+    size--;
+    return true;
+  }
+
+  /** Removes all the documents from the map. */
+  void clear() {
+    keys = new long[MIN_CAPACITY];
+    fingerprints = new long[MIN_CAPACITY];
+    size = 0;
+  }
+
+  /** Returns the slot holding the key, or the empty slot it would go in. */
+  private int find(long key) {
+    for (int i = slot(key, keys.length); ; i = (i + 1) & (keys.length - 1)) {
+      if (keys[i] == key || keys[i] == EMPTY) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Rehashes the entries into new arrays of the given capacity, which must
+   * be a power of two.
+   */
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldFingerprints = fingerprints;
+    keys = new long[capacity];
+    fingerprints = new long[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int j = find(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        fingerprints[j] = oldFingerprints[i];
+      }
+    }
+  }
+
+  private static int slot(long key, int capacity) {
+    return (int) (key ^ (key >>> 32)) & (capacity - 1);
+  }
+
+  /** Returns a 64-bit hash of the document ID. */
+  @VisibleForTesting
+  static long key(String docid) {
+    long key = HASH_FUNCTION.hashString(docid).asLong();
+    return (key == EMPTY) ? 1L : key;
+  }
+
+  /**
+   * Returns a 64-bit fingerprint of the ACLs, any of which may be
+   * {@code null}, and of whether they are inherited.
+   */
+  static long fingerprint(boolean hasInheritedAcls, Acl... acls) {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putBoolean(hasInheritedAcls);
+    for (Acl acl : acls) {
+      if (acl == null) {
+        hasher.putInt(-1);
+      } else {
+        hasher.putInt(acl.isPublic() ? 1 : 0);
+        putPrincipals(hasher, acl.getUsers());
+        putPrincipals(hasher, acl.getGroups());
+        putPrincipals(hasher, acl.getDenyUsers());
+        putPrincipals(hasher, acl.getDenyGroups());
+      }
+    }
+    return hasher.hash().asLong();
+  }
+
+  private static void putPrincipals(Hasher hasher,
+      Collection<Principal> principals) {
+    if (principals == null) {
+      hasher.putInt(-1);
+      return;
+    }
+    hasher.putInt(principals.size());
+    for (Principal principal : principals) {
+      putString(hasher, String.valueOf(principal.getPrincipalType()));
+      putString(hasher, principal.getNamespace());
+      putString(hasher, principal.getName());
+      putString(hasher, String.valueOf(principal.getCaseSensitivityType()));
+    }
+  }
+
+  /** Adds the string, with its length so that strings cannot run together. */
+  private static void putString(Hasher hasher, String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length());
+      hasher.putString(value);
+    }
+  }
+}
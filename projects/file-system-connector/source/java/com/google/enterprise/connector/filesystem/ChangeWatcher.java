@@ -0,0 +1,65 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reports changes to the files under a directory as they are made, as
+ * returned by {@link ReadonlyFile#newChangeWatcher()}.
+ * <p/>
+ * A watcher holds resources in the file system, such as an open handle
+ * to the directory, and must be {@link #close closed} when it is no
+ * longer needed.
+ */
+public interface ChangeWatcher {
+
+  /** The kinds of changes reported by a watcher. */
+  public enum Action {
+    /** The file was created, or renamed or moved to this path. */
+    ADDED,
+    /** The contents, attributes, or security of the file changed. */
+    MODIFIED,
+    /** The file was deleted, or renamed or moved away from this path. */
+    REMOVED
+  }
+
+  /**
+   * Waits up to {@code timeout} milliseconds for changes, and returns them.
+   * If the same path changed more than once, only the last change is
+   * returned.
+   *
+   * @param timeout the maximum time to wait, in milliseconds
+   * @return a map from the paths of the changed files and directories to
+   *         the changes made to them, which is empty if there were no
+   *         changes, or {@code null} if some changes may have been missed,
+   *         so the directory must be traversed to find them
+   * @throws IOException if the directory can no longer be watched
+   * @throws RepositoryException if there was an error accessing the
+   *         repository.  For instance, a network file share is off-line.
+   */
+  public Map<String, Action> getChanges(long timeout)
+      throws IOException, RepositoryException;
+
+  /**
+   * Stops watching the directory.  A call to {@link #getChanges} in
+   * another thread fails.  Calling {@code close} more than once has no
+   * effect.
+   */
+  public void close();
+}
@@ -0,0 +1,63 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.io.IOException;
+
+/**
+ * An iterator over the contents of a directory, as returned by
+ * {@link ReadonlyFile#iterateFiles()}.
+ * <p/>
+ * Unlike {@link ReadonlyFile#listFiles()}, implementations may return
+ * entries as they are read from the underlying file system, without
+ * holding the entire directory in memory.  Entries are not necessarily
+ * returned in sorted order.
+ * <p/>
+ * An iterator may hold resources in the file system, such as an open
+ * directory search, and must be {@link #close closed} when it is no
+ * longer needed.
+ *
+ * @param <T> the type of {@link ReadonlyFile} returned by this iterator
+ */
+public interface DirectoryIterator<T> {
+
+  /**
+   * Returns {@code true} if the directory has more entries.
+   *
+   * @throws IOException if the directory cannot be read
+   * @throws RepositoryException if there was an error accessing the
+   *         repository.  For instance, a network file share is off-line.
+   */
+  public boolean hasNext() throws IOException, RepositoryException;
+
+  /**
+   * Returns the next entry in the directory.
+   *
+   * @throws java.util.NoSuchElementException if there are no more entries
+   * @throws IOException if the directory cannot be read
+   * @throws RepositoryException if there was an error accessing the
+   *         repository.  For instance, a network file share is off-line.
+   */
+  public T next() throws IOException, RepositoryException;
+
+  /**
+   * Releases any resources held by this iterator.  Calling {@code close}
+   * more than once has no effect.
+   */
+  public void close();
+}
@@ -0,0 +1,167 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A compact set of fingerprints of the versions of files that have been
+ * fed, identified by path, last modified time, and size.
+ * <p/>
+ * Incremental traversals return every file modified since the start of
+ * the previous traversal, less the ifModifiedSince cushion, so files that
+ * were modified shortly before a traversal are returned again by the
+ * following traversals until they age out of the cushion.  Remembering
+ * the versions that have already been fed allows those files to be skipped.
+ * <p/>
+ * Each entry is a 64-bit hash, together with the last modified time of
+ * the file, which is used to discard entries that incremental traversals
+ * would no longer return.  The entries are held in primitive arrays using
+ * open addressing, rather than as objects in a map.
+ * <p/>
+ * This class is not thread-safe.
+ */
+class FeedFingerprints {
+  /** Marks an empty slot.  No fingerprint is ever zero. */
+  private static final long EMPTY = 0L;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] fingerprints;
+  private long[] lastModified;
+  private int size;
+
+  FeedFingerprints() {
+    clear();
+  }
+
+  /** Returns the number of fingerprints in the set. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns {@code true} if the given version of the file has been
+   * {@link #add added} to the set.
+   */
+  boolean contains(String path, long lastModified, long length) {
+    long fingerprint = fingerprint(path, lastModified, length);
+    for (int i = slot(fingerprint, fingerprints.length); ;
+         i = (i + 1) & (fingerprints.length - 1)) {
+      if (fingerprints[i] == fingerprint) {
+        return true;
+      } else if (fingerprints[i] == EMPTY) {
+        return false;
+      }
+    }
+  }
+
+  /** Adds the given version of the file to the set. */
+  void add(String path, long lastModified, long length) {
+    if (2 * (size + 1) > fingerprints.length) {
+      resize(2 * fingerprints.length, Long.MIN_VALUE);
+    }
+    if (insert(fingerprint(path, lastModified, length), lastModified)) {
+      size++;
+    }
+  }
+
+  /**
+   * Removes the fingerprints of all the files last modified before the
+   * given time, and shrinks the set if it is mostly empty.
+   */
+  void retainModifiedSince(long time) {
+    int count = 0;
+    for (int i = 0; i < fingerprints.length; i++) {
+      if (fingerprints[i] != EMPTY && lastModified[i] >= time) {
+        count++;
+      }
+    }
+    if (count == size) {
+      return;
+    }
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2 * count) {
+      capacity *= 2;
+    }
+    resize(capacity, time);
+  }
+
+  /** Removes all the fingerprints from the set. */
+  void clear() {
+    fingerprints = new long[MIN_CAPACITY];
+    lastModified = new long[MIN_CAPACITY];
+    size = 0;
+  }
+
+  /**
+   * Rehashes the entries last modified at or after {@code time} into new
+   * arrays of the given capacity, which must be a power of two.
+   */
+  private void resize(int capacity, long time) {
+    long[] oldFingerprints = fingerprints;
+    long[] oldLastModified = lastModified;
+    fingerprints = new long[capacity];
+    lastModified = new long[capacity];
+    size = 0;
+    for (int i = 0; i < oldFingerprints.length; i++) {
+      if (oldFingerprints[i] != EMPTY && oldLastModified[i] >= time) {
+        insert(oldFingerprints[i], oldLastModified[i]);
+        size++;
+      }
+    }
+  }
+
+  /** Returns {@code false} if the fingerprint was already present. */
+  private boolean insert(long fingerprint, long time) {
+    for (int i = slot(fingerprint, fingerprints.length); ;
+         i = (i + 1) & (fingerprints.length - 1)) {
+      if (fingerprints[i] == fingerprint) {
+        return false;
+      } else if (fingerprints[i] == EMPTY) {
+        fingerprints[i] = fingerprint;
+        lastModified[i] = time;
+        return true;
+      }
+    }
+  }
+
+  private static int slot(long fingerprint, int capacity) {
+    return (int) (fingerprint ^ (fingerprint >>> 32)) & (capacity - 1);
+  }
+
+  /** Returns a 64-bit hash of the file path, modification time, and size. */
+  @VisibleForTesting
+  static long fingerprint(String path, long lastModified, long length) {
+    // 64-bit FNV-1a hash of the path.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < path.length(); i++) {
+      hash ^= path.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash = mix(hash ^ mix(lastModified)) ^ mix(length + 0x9e3779b97f4a7c15L);
+    return (hash == EMPTY) ? 1L : hash;
+  }
+
+  /** The MurmurHash3 64-bit finalizer. */
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
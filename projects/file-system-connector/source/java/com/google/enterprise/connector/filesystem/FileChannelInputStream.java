@@ -0,0 +1,227 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An {@code InputStream} that reads a local file through a
+ * {@link FileChannel}, in large chunks.
+ * <p/>
+ * Chunks are read into a direct buffer, so the file system copies the
+ * content once, into memory outside the Java heap, and it is copied once
+ * more into the caller's array.  Reads at least as large as the buffer
+ * bypass it, and {@link #skip} and {@link #reset} move the channel
+ * position without reading.  A {@code BufferedInputStream} over a
+ * {@code FileInputStream} instead makes a system call for every 8 KB,
+ * and copies small reads twice.
+ * <p/>
+ * Direct memory is only freed when the buffer is garbage collected, so
+ * rather than allocate a buffer for every file, a stream takes one from a
+ * small pool, and returns it when it is closed.
+ * <p/>
+ * The file is not memory mapped, as a mapping holds the file open until
+ * it is garbage collected, which prevents it being deleted on Windows,
+ * and truncating a mapped file while it is read is a fatal error.
+ */
+class FileChannelInputStream extends InputStream {
+
+  /** The size of the chunks read from the file. */
+  @VisibleForTesting
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  /** The most buffers held in the pool while no stream is using them. */
+  private static final int MAX_POOLED_BUFFERS = 16;
+
+  private static final BlockingQueue<ByteBuffer> pool =
+      new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BUFFERS);
+
+  private final FileInputStream in;
+  private final FileChannel channel;
+  private ByteBuffer buffer;
+  private long mark = -1L;
+
+  FileChannelInputStream(File file) throws IOException {
+    this(file, CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  FileChannelInputStream(File file, int chunkSize) throws IOException {
+    in = new FileInputStream(file);
+    channel = in.getChannel();
+    buffer = takeBuffer(chunkSize);
+    buffer.flip();
+  }
+
+  /** Returns a pooled buffer of the given size, or a new one. */
+  private static ByteBuffer takeBuffer(int size) {
+    ByteBuffer pooled = pool.poll();
+    if (pooled != null && pooled.capacity() == size) {
+      pooled.clear();
+      return pooled;
+    }
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  @VisibleForTesting
+  static int getPooledBuffers() {
+    return pool.size();
+  }
+
+  @Override
+  public int read() throws IOException {
+    ensureOpen();
+    if (!fill()) {
+      return -1;
+    }
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    ensureOpen();
+    if (len == 0) {
+      return 0;
+    }
+    int count = 0;
+    if (buffer.hasRemaining()) {
+      count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      if (count == len) {
+        return count;
+      }
+      off += count;
+      len -= count;
+    }
+    if (len >= buffer.capacity()) {
+      // Read straight into the caller's array.
+      int n = channel.read(ByteBuffer.wrap(b, off, len));
+      return (n < 0) ? ((count == 0) ? -1 : count) : count + n;
+    }
+    if (count > 0) {
+      // Return what was buffered, rather than block for more.
+      return count;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    count = Math.min(len, buffer.remaining());
+    buffer.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    ensureOpen();
+    if (n <= 0) {
+      return 0;
+    }
+    if (n <= buffer.remaining()) {
+      buffer.position(buffer.position() + (int) n);
+      return n;
+    }
+    long skipped = buffer.remaining();
+    buffer.position(buffer.limit());
+    long position = channel.position();
+    long count = Math.min(n - skipped, channel.size() - position);
+    if (count > 0) {
+      channel.position(position + count);
+      skipped += count;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    long count = buffer.remaining() + channel.size() - channel.position();
+    return (int) Math.max(0, Math.min(count, Integer.MAX_VALUE));
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  /** Marks the current position.  There is no limit on the read ahead. */
+  @Override
+  public synchronized void mark(int readlimit) {
+    if (buffer == null) {
+      mark = -1L;
+      return;
+    }
+    try {
+      mark = channel.position() - buffer.remaining();
+    } catch (IOException e) {
+      mark = -1L;
+    }
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    ensureOpen();
+    if (mark < 0) {
+      throw new IOException("Resetting to invalid mark");
+    }
+    buffer.clear();
+    buffer.flip();
+    channel.position(mark);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffer != null) {
+      // If the pool is full, the buffer is left to the garbage collector.
+      pool.offer(buffer);
+      buffer = null;
+    }
+    in.close();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (buffer == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  /**
+   * Reads the next chunk into the buffer if it is empty.
+   *
+   * @return {@code false} at the end of the file
+   */
+  private boolean fill() throws IOException {
+    while (!buffer.hasRemaining()) {
+      buffer.clear();
+      int n = channel.read(buffer);
+      buffer.flip();
+      if (n < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -438,9 +438,10 @@ public class FileConnectorType implements ConnectorType {
      */
     private String assureStartPathsReadable() {
       MultiLineField startPaths = startField;
-      Credentials credentials = getCredentials();
+      final Credentials credentials = getCredentials();
       StringBuilder buf = new StringBuilder();
 
+      List<String> paths = new ArrayList<String>();
       for (String path : startPaths.lines) {
         path = path.trim();
         if ((path.length() == 0)) {
@@ -449,29 +450,47 @@ public class FileConnectorType implements ConnectorType {
         if (!path.endsWith("/")) {
           path += "/";
         }
+        paths.add(path);
+      }
 
-        try {
-          ReadonlyFile<?> file = pathParser.getFile(path, credentials);
-          if (file.isDirectory()) {
-            for (ReadonlyFile<?> sub : file.listFiles()) {
-              LOG.finest("list: " + sub.getPath());
-            }
-          }
+      // Probe the start paths concurrently, so that one slow or unreachable
+      // server does not hold up validation of the others.
+      Map<String, Exception> errors =
+          new StartPathProber(StartPathProber.DEFAULT_TIMEOUT).probe(paths,
+              new StartPathProber.Probe() {
+                @Override
+                public void probe(String path) throws IOException,
+                    RepositoryException, DirectoryListingException {
+                  ReadonlyFile<?> file = pathParser.getFile(path, credentials);
+                  if (file.isDirectory()) {
+                    for (ReadonlyFile<?> sub : file.listFiles()) {
+                      LOG.finest("list: " + sub.getPath());
+                    }
+                  }
+                }
+              });
+
+      for (String path : paths) {
+        Exception e = errors.get(path);
+        if (e == null) {
           LOG.info("successfully read " + path);
-        } catch (FilesystemRepositoryDocumentException e) {
-          addErrorToBuffer(buf, e.getMessage(), path, e, e.getErrorMessage());
-        } catch (DocumentAccessException e) {
+        } else if (e instanceof FilesystemRepositoryDocumentException) {
+          addErrorToBuffer(buf, e.getMessage(), path, e,
+              ((FilesystemRepositoryDocumentException) e).getErrorMessage());
+        } else if (e instanceof DocumentAccessException) {
           addErrorToBuffer(buf, "failed to access start path: ", path, e, FileSystemConnectorErrorMessages.ACCESS_DENIED);
-        } catch (RepositoryDocumentException e) {
+        } else if (e instanceof RepositoryDocumentException) {
           addErrorToBuffer(buf, "failed to list start path: ", path, e, FileSystemConnectorErrorMessages.READ_START_PATH_FAILED);
-        } catch (RepositoryLoginException e) {
+        } else if (e instanceof RepositoryLoginException) {
           addErrorToBuffer(buf, "failed to access start path: ", path, e, FileSystemConnectorErrorMessages.INVALID_USER);
-        } catch (RepositoryException e) {
+        } else if (e instanceof RepositoryException) {
           addErrorToBuffer(buf, "failed to access start path: ", path, e, FileSystemConnectorErrorMessages.READ_START_PATH_FAILED);
-        } catch (IOException e) {
+        } else if (e instanceof IOException) {
           addErrorToBuffer(buf, "failed to list start path: ", path, e, FileSystemConnectorErrorMessages.READ_START_PATH_FAILED);
-        } catch (DirectoryListingException e) {
+        } else if (e instanceof DirectoryListingException) {
           addErrorToBuffer(buf, "Cannot fetch list of files from start path: ", path, e, FileSystemConnectorErrorMessages.LISTING_FAILED);
+        } else {
+          addErrorToBuffer(buf, "failed to access start path: ", path, e, FileSystemConnectorErrorMessages.READ_START_PATH_FAILED);
         }
       }
       return XML.escape(buf.toString());
@@ -15,24 +15,34 @@
 package com.google.enterprise.connector.filesystem;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.enterprise.connector.spi.DocumentAccessException;
 import com.google.enterprise.connector.spi.RepositoryDocumentException;
 import com.google.enterprise.connector.spi.RepositoryException;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Iterator for returning files from a directory in the order encountered
  * by a depth-first traversal.  Within each directory entries are traversed
- * in lexigraphic order. Directories are not returned though they are
+ * in the order returned by {@link ReadonlyFile#iterateFiles()}, which
+ * need not be sorted. Directories are not returned though they are
  * traversed to obtain contained files.
+ * <p/>
+ * Directory contents are consumed as they are read from the file system,
+ * so only the directories along the current path of the traversal are
+ * held open.
  *
  * Files are filtered according to {@link #isQualifyingFile(ReadonlyFile)}.
+ * <p/>
+ * On file systems that identify files by {@link ReadonlyFile#getFileKey
+ * key}, each directory is traversed at most once, so cycles of symbolic
+ * links are not followed, and directories that are reachable by more
+ * than one path, such as through bind mounts, are traversed only once.
  */
 public class FileIterator {
 
@@ -42,33 +52,59 @@ public class FileIterator {
   private final ReadonlyFile<?> root;
   private final DocumentContext context;
   private final long ifModifiedSince;
+  private final FeedFingerprints fedFiles;
   private final boolean returnDirectories;
+  private final boolean returnFiles;
+  private final NameTable.Budget frontierMemory;
 
   private boolean positioned;
 
+  /** The keys of the directories that have been traversed. */
+  private final Set<Object> visitedDirectories = Sets.newHashSet();
+
   /**
    * Stack for tracking the state of the ongoing depth-first traversal.
    * Each level starting with the root at level 0 contains files and
    * directories at that level which have not yet been traversed.
    * The stack becomes empty when the traversal completes.
    */
-  private final List<List<ReadonlyFile<?>>> traversalStateStack;
+  private final List<DirectoryState> traversalStateStack;
 
   public FileIterator(ReadonlyFile<?> root,
                       DocumentContext context,
                       long ifModifiedSince,
                       boolean returnDirectories) {
+    this(root, context, ifModifiedSince, null, returnDirectories, true,
+         NameTable.Budget.UNLIMITED);
+  }
+
+  /**
+   * @param fedFiles if not {@code null}, files whose current versions are
+   *        in the set are skipped, as they have already been fed
+   * @param returnFiles if {@code false}, regular files are skipped, and
+   *        only directories are returned (if {@code returnDirectories})
+   * @param frontierMemory the memory that may be used to hold the pending
+   *        entries of the directories being traversed
+   */
+  public FileIterator(ReadonlyFile<?> root,
+                      DocumentContext context,
+                      long ifModifiedSince,
+                      FeedFingerprints fedFiles,
+                      boolean returnDirectories,
+                      boolean returnFiles,
+                      NameTable.Budget frontierMemory) {
     this.root = root;
     this.context = context;
     this.ifModifiedSince = ifModifiedSince;
+    this.fedFiles = fedFiles;
     this.traversalStateStack = Lists.newArrayList();
     this.returnDirectories = returnDirectories;
+    this.returnFiles = returnFiles;
+    this.frontierMemory = frontierMemory;
     this.positioned = false;
 
     // Prime the traversal with the root directory.
-    List<ReadonlyFile<?>> list = Lists.newArrayList();
-    list.add(root);
-    traversalStateStack.add(list);
+    traversalStateStack.add(new DirectoryState(root));
   }
 
   public boolean hasNext() throws RepositoryException {
@@ -82,7 +118,7 @@ public class FileIterator {
     }
     // Reset the flag for next setPositionToNextFile run.
     positioned = false;
-    return traversalStateStack.get(traversalStateStack.size() - 1).remove(0);
+    return traversalStateStack.get(traversalStateStack.size() - 1).take();
   }
 
   public void remove() {
@@ -97,28 +133,35 @@ public class FileIterator {
    */
   public void pushBack(ReadonlyFile<?> file) {
     if (file != null) {
-      ArrayList<ReadonlyFile<?>> al = new ArrayList<ReadonlyFile<?>>(1);
-      al.add(file);
-      traversalStateStack.add(al);
+      traversalStateStack.add(new DirectoryState(file));
       positioned = true;
     }
   }
 
+  /**
+   * Closes any directory listings held open by an incomplete traversal.
+   * The iterator returns no more files after it has been closed.
+   */
+  public void close() {
+    while (!traversalStateStack.isEmpty()) {
+      traversalStateStack.remove(traversalStateStack.size() - 1).close();
+    }
+  }
+
   private void setPositionToNextFile() throws RepositoryException {
     if (positioned) {
       return;
     }
 
     while (traversalStateStack.size() > 0) {
-      List<ReadonlyFile<?>> l =
-          traversalStateStack.get(traversalStateStack.size() - 1);
+      DirectoryState l = traversalStateStack.get(traversalStateStack.size() - 1);
 
-      if (l.isEmpty()) {
-        traversalStateStack.remove(traversalStateStack.size() - 1);
+      ReadonlyFile<?> f = l.take();
+      if (f == null) {
+        traversalStateStack.remove(traversalStateStack.size() - 1).close();
         continue;
-      } 
+      }
 
-      ReadonlyFile<?> f = l.remove(0);
       // Check for a pattern mismatch before hitting the server.
       if (!f.acceptedBy(context.getFilePatternMatcher())) {
         LOGGER.log(Level.FINER, "Skipping {0} - pattern mismatch.",
@@ -135,27 +178,34 @@ public class FileIterator {
                        f.getPath());
             continue;
           }
-          List<? extends ReadonlyFile<?>> files = listFiles(f);
-          if (!files.isEmpty()) {
+          Object key = f.getFileKey();
+          if (key != null && visitedDirectories.contains(key)) {
+            LOGGER.log(Level.FINER, "Skipping directory {0} - already "
+                       + "traversed.", f.getPath());
+            continue;
+          }
+          DirectoryIterator<? extends ReadonlyFile<?>> files =
+              iterateFiles(f);
+          if (key != null) {
+            // Added only once listed, so that it is retried after a
+            // RepositoryException.
+            visitedDirectories.add(key);
+          }
+          if (files != null) {
+            DirectoryState child = new DirectoryState(f, files);
+            traversalStateStack.add(child);
             if (returnDirectories) {
-              // Copy of the returned list because we modify our copy.
-              ArrayList<ReadonlyFile<?>> al =
-                new ArrayList<ReadonlyFile<?>>(files.size() + 1);
-              // Add the proccessed dir to the top of the list for
+              // Add the proccessed dir to the top of the directory state for
               // next method's immediate consumption.
               // TODO: Handle ifModifiedSince for directories?
-              al.add(f);
-              al.addAll(files);
-              traversalStateStack.add(al);
+              child.putBack(f);
               positioned = true;
               return;
-            } else {
-              traversalStateStack.add(new ArrayList<ReadonlyFile<?>>(files));
             }
           }
-        } else if (isQualifyingFile(f)) {
+        } else if (returnFiles && isQualifyingFile(f)) {
           // Put it back on the stack to be returned as next.
-          l.add(0, f);
+          l.putBack(f);
           positioned = true;
           return;
         }
@@ -167,7 +217,7 @@ public class FileIterator {
                    " - access error.", rde);
       } catch (RepositoryException re) {
         // Put it back on the stack to try again.
-        l.add(0, f);
+        l.putBack(f);
         throw re;
       }
     }
@@ -175,7 +225,6 @@ public class FileIterator {
 
   private boolean isQualifyingFile(ReadonlyFile<?> f)
       throws RepositoryException {
-
     if (!f.isRegularFile()) {
       LOGGER.log(Level.FINER, "Skipping {0} - not a regular file.",
                  f.getPath());
@@ -206,13 +255,33 @@ public class FileIterator {
       }
     }
 
+    if (fedFiles != null) {
+      try {
+        if (fedFiles.contains(f.getPath(), f.getLastModified(), f.length())) {
+          LOGGER.log(Level.FINER, "Skipping file {0} - already fed.",
+                     f.getPath());
+          return false;
+        }
+      } catch (IOException e) {
+        // Could not get lastModified time or size, so feed it again.
+      }
+    }
+
     return true;
   }
 
-  private List<? extends ReadonlyFile<?>> listFiles(ReadonlyFile<?> dir)
-      throws RepositoryException {
+  /**
+   * Returns an iterator over the contents of {@code dir}, or {@code null}
+   * if the directory is empty or cannot be listed.
+   */
+  private DirectoryIterator<? extends ReadonlyFile<?>> iterateFiles(
+      ReadonlyFile<?> dir) throws RepositoryException {
+    DirectoryIterator<? extends ReadonlyFile<?>> files = null;
     try {
-      return dir.listFiles();
+      files = dir.iterateFiles(frontierMemory);
+      if (files.hasNext()) {
+        return files;
+      }
     } catch (DirectoryListingException e) {
       LOGGER.log(Level.WARNING, "Failed to list files in " + dir.getPath(),
                  e);
@@ -222,7 +291,95 @@ public class FileIterator {
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Failed to list files in " + dir.getPath(),
                  e);
+    } catch (RepositoryException e) {
+      if (files != null) {
+        files.close();
+      }
+      throw e;
+    }
+    if (files != null) {
+      files.close();
+    }
+    return null;
+  }
+
+  /**
+   * The state of one level of the traversal: the remaining contents of a directory,
+   * which are read from the directory as they are needed, and a slot
+   * for an entry that has been taken but put back to be returned next.
+   */
+  private class DirectoryState {
+    private final ReadonlyFile<?> dir;
+    private DirectoryIterator<? extends ReadonlyFile<?>> files;
+    private ReadonlyFile<?> head;
+
+    /** Creates a level that contains only the given file. */
+    DirectoryState(ReadonlyFile<?> file) {
+      this.dir = null;
+      this.files = null;
+      this.head = file;
+    }
+
+    DirectoryState(ReadonlyFile<?> dir,
+        DirectoryIterator<? extends ReadonlyFile<?>> files) {
+      this.dir = dir;
+      this.files = files;
+      this.head = null;
+    }
+
+    /** Makes {@code file} the next entry returned by {@link #take}. */
+    void putBack(ReadonlyFile<?> file) {
+      head = file;
+    }
+
+    /**
+     * Removes and returns the next entry at this level, or returns
+     * {@code null} if there are no more entries.
+     *
+     * @throws RepositoryException if the repository could not be reached
+     *         while reading the directory.  The directory listing will be
+     *         restarted on the next call, so some entries may be returned
+     *         more than once.
+     */
+    ReadonlyFile<?> take() throws RepositoryException {
+      if (head != null) {
+        ReadonlyFile<?> file = head;
+        head = null;
+        return file;
+      }
+      try {
+        if (files == null) {
+          if (dir == null) {
+            return null;
+          }
+          files = dir.iterateFiles(frontierMemory);
+        }
+        if (files.hasNext()) {
+          return files.next();
+        }
+      } catch (DirectoryListingException e) {
+        LOGGER.log(Level.WARNING, "Failed to list files in " + dir.getPath(),
+                   e);
+      } catch (RepositoryDocumentException e) {
+        LOGGER.log(Level.WARNING, "Failed to list files in " + dir.getPath(),
+                   e);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to list files in " + dir.getPath(),
+                   e);
+      } catch (RepositoryException e) {
+        // Restart the listing when we try again.
+        close();
+        throw e;
+      }
+      close();
+      return null;
+    }
+
+    void close() {
+      if (files != null) {
+        files.close();
+        files = null;
+      }
     }
-    return Collections.emptyList();
   }
 }
@@ -15,8 +15,10 @@
 package com.google.enterprise.connector.filesystem;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.enterprise.connector.filesystem.AclBuilder.AclProperties;
 import com.google.enterprise.connector.logging.NDC;
 import com.google.enterprise.connector.spi.Document;
@@ -27,6 +29,7 @@ import com.google.enterprise.connector.spi.Principal;
 import com.google.enterprise.connector.spi.RepositoryDocumentException;
 import com.google.enterprise.connector.spi.RepositoryException;
 import com.google.enterprise.connector.spi.SecureDocument;
+import com.google.enterprise.connector.spi.SimpleDocument;
 import com.google.enterprise.connector.spi.SpiConstants;
 import com.google.enterprise.connector.spi.SpiConstants.FeedType;
 import com.google.enterprise.connector.spi.TraversalContext;
@@ -37,12 +40,15 @@ import com.google.enterprise.connector.spi.Value;
 import com.google.enterprise.connector.util.Clock;
 import com.google.enterprise.connector.util.SystemClock;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -62,7 +68,13 @@ import java.util.logging.Logger;
  * and directories are fed to to {@link DocumentAcceptor}.  If this
  * succeeds, subsequent travarsals of the same filesystem will be
  * incremental - only files modified since the previous traversal
- * will be fed. (If sending ACLs, directories will always be fed.)
+ * will be fed.  If sending ACLs, a full traversal feeds the inheritable
+ * ACLs of every directory, and incremental traversals feed them only for
+ * the directories whose ACLs have changed since they were last fed, as
+ * determined by a fingerprint of the ACLs.  Directory ACL changes do not
+ * change the directory's modification time, so if an ACL sweep interval
+ * is configured, the directories are also visited every sweep interval
+ * between traversals, and any changed ACLs fed.
  * Periodically, a forced full traversal will be done to ensure
  * that the GSA's view of the filesystem does not drift too far
  * from reality.
@@ -74,9 +86,25 @@ class FileLister implements Lister, TraversalContextAware,
 
   private final PathParser pathParser;
   private final DocumentContext context;
+
+  /**
+   * The memory that may be used to hold the pending directory entries of
+   * all the traversals of this lister.
+   */
+  private final NameTable.Budget frontierMemory;
+
   private final AtomicReference<TraversalService> traversalService =
       new AtomicReference<TraversalService>();;
 
+  /**
+   * Start path roots being opened by {@link #warmUp}, waiting to be used by
+   * the first traversal of each start path.  A root is {@code null} if it
+   * could not be opened in time.
+   */
+  private final ConcurrentMap<String, SettableFuture<ReadonlyFile<?>>>
+      warmRoots =
+          new ConcurrentHashMap<String, SettableFuture<ReadonlyFile<?>>>();
+
   private Clock clock = new SystemClock();
 
   /**
@@ -93,6 +121,15 @@ class FileLister implements Lister, TraversalContextAware,
   /** Cushion for inaccurate timestamps in ifModifiedSince calculations. */
   private long ifModifiedSinceCushion = 60 * 60 * 1000L;;
 
+  /**
+   * How often to sweep the directory ACLs between traversals.
+   * If 0, never sweep.
+   */
+  private long aclSweepInterval = 0L;
+
+  /** If true, watch the start paths for changes between traversals. */
+  private boolean watchForChanges = false;
+
   private DocumentAcceptor documentAcceptor;
   private TraversalSchedule schedule;
   private TraversalContext traversalContext;
@@ -116,6 +153,10 @@ class FileLister implements Lister, TraversalContextAware,
     this.context = context;
     setIfModifiedSinceCushion(
         context.getPropertyManager().getIfModifiedSinceCushion());
+    this.frontierMemory = new NameTable.Budget(
+        context.getPropertyManager().getFrontierMemoryThreshold());
+    setAclSweepInterval(context.getPropertyManager().getAclSweepInterval());
+    setWatchForChanges(context.getPropertyManager().isWatchForChanges());
   }
 
   @Override
@@ -162,6 +203,16 @@ class FileLister implements Lister, TraversalContextAware,
     this.ifModifiedSinceCushion = cushion;
   }
 
+  @VisibleForTesting
+  synchronized void setAclSweepInterval(long interval) {
+    this.aclSweepInterval = interval;
+  }
+
+  @VisibleForTesting
+  synchronized void setWatchForChanges(boolean watchForChanges) {
+    this.watchForChanges = watchForChanges;
+  }
+
   @VisibleForTesting
   Traverser newTraverser(String startPath) {
     return new Traverser(startPath, documentAcceptor,
@@ -171,9 +222,11 @@ class FileLister implements Lister, TraversalContextAware,
   @Override
   public void start() throws RepositoryException {
     TraversalService service = newTraversalService(true);
-    Collection<Callable<Void>> traversers = newTraversers(service);
+    Collection<Traverser> traversers = newTraversers(service);
 
     LOGGER.fine("Starting File Lister");
+    startTrace();
+    warmUp();
     try {
       while (!service.isShutdown()) {
         try {
@@ -188,7 +241,13 @@ class FileLister implements Lister, TraversalContextAware,
             }
           }
           if (!service.isShutdown()) {
-            sleep(gotError ? Sleep.ERROR_DELAY : Sleep.RETRY_DELAY);
+            if (gotError) {
+              sleep(Sleep.ERROR_DELAY);
+            } else if (isWatchForChanges()) {
+              watchUntilRetry(service, traversers);
+            } else {
+              sweepUntilRetry(service, traversers);
+            }
           }
         } catch (InterruptedException ie) {
           // Awoken from sleep. If not shutdown, then there was a schedule
@@ -196,6 +255,7 @@ class FileLister implements Lister, TraversalContextAware,
           // new schedule.
           if (!service.isShutdown()) {
             service = newTraversalService(false);
+            closeWatchers(traversers);
             traversers = newTraversers(service);
           }
         }
@@ -213,12 +273,105 @@ class FileLister implements Lister, TraversalContextAware,
       } catch (DocumentAcceptorException e) {
         LOGGER.log(Level.WARNING, "Error shutting down Lister", e);
       } finally {
+        closeWatchers(traversers);
         service.clearListerThread();
+        OperationTrace.stopTrace();
         Thread.interrupted();
       }        
     }
   }
 
+  /** Starts recording file system operations, if configured to. */
+  private void startTrace() {
+    String traceFile = context.getPropertyManager().getTraceFile();
+    if (!Strings.isNullOrEmpty(traceFile)) {
+      try {
+        OperationTrace.startTrace(new File(traceFile));
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to create the trace file "
+                   + traceFile, e);
+      }
+    }
+  }
+
+  /** Closes the change watchers held open by the traversers. */
+  private void closeWatchers(Collection<Traverser> traversers) {
+    for (Traverser traverser : traversers) {
+      traverser.closeWatcher();
+    }
+  }
+
+  /**
+   * Starts opening all the start paths concurrently, grouped by server, for
+   * the first traversal.  This establishes the connections, sessions and
+   * DFS referrals that the traversers need, without one slow or unreachable
+   * server delaying the others.  Each opened root is handed to the first
+   * traversal of its start path as soon as it is open, so that traversal
+   * waits only for its own server.  Failures are left for the traversers to
+   * report.
+   */
+  @VisibleForTesting
+  void warmUp() {
+    final Collection<String> startPaths = context.getStartPaths();
+    // The traversers remove the roots from warmRoots as they wait for them.
+    final Map<String, SettableFuture<ReadonlyFile<?>>> roots =
+        Maps.newHashMap();
+    for (String path : startPaths) {
+      SettableFuture<ReadonlyFile<?>> root = SettableFuture.create();
+      roots.put(path, root);
+      warmRoots.put(path, root);
+    }
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Map<String, Exception> errors =
+            new StartPathProber(StartPathProber.DEFAULT_TIMEOUT).probe(
+                startPaths, new StartPathProber.Probe() {
+                  @Override
+                  public void probe(String path) throws RepositoryException {
+                    ReadonlyFile<?> root = null;
+                    try {
+                      root = pathParser.getFile(path, context.getCredentials());
+                    } finally {
+                      roots.get(path).set(root);
+                    }
+                  }
+                });
+        for (Map.Entry<String, Exception> entry : errors.entrySet()) {
+          LOGGER.log(Level.INFO, "Failed to open start path {0}: {1}",
+              new Object[] { entry.getKey(), entry.getValue() });
+        }
+        // Release the traversals of any paths that timed out.
+        for (SettableFuture<ReadonlyFile<?>> root : roots.values()) {
+          root.set(null);
+        }
+      }
+    }, "FileLister warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the root opened by {@link #warmUp} for the start path, waiting
+   * for it to be opened if need be, or {@code null} if there is none.
+   */
+  @VisibleForTesting
+  ReadonlyFile<?> takeWarmRoot(String startPath) {
+    Future<ReadonlyFile<?>> future = warmRoots.remove(startPath);
+    if (future == null) {
+      return null;
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      // The future is never set to fail.
+      return null;
+    }
+  }
+
   /** Returns true if we are in a shutdown scenario. */
   @VisibleForTesting
   boolean isShutdown() {
@@ -236,6 +389,20 @@ class FileLister implements Lister, TraversalContextAware,
   }
 
   private void sleep(Sleep delay) throws InterruptedException {
+    int seconds = getSleepSeconds(delay);
+    if (seconds == 0) {
+      return; // Don't sleep at all.
+    }
+    try {
+      LOGGER.finest("Sleeping for " + seconds + " seconds.");
+      Thread.sleep(1000L * seconds);
+    } finally {
+      LOGGER.finest("Awake from sleep.");
+    }
+  }
+
+  /** Returns the number of seconds to sleep, or 0 to not sleep at all. */
+  private int getSleepSeconds(Sleep delay) {
     int seconds = 0;
     synchronized (this) {
       if (schedule.isDisabled()) {
@@ -253,22 +420,110 @@ class FileLister implements Lister, TraversalContextAware,
           break;
         case SCHEDULE_DELAY:
           seconds = schedule.nextScheduledInterval();
-          if (seconds == 0) {
-            return; // Don't sleep at all.
-          } else if (seconds < 0) {
+          if (seconds < 0) {
             seconds = Integer.MAX_VALUE;
           }
           break;
         }
       }
     }
+    return seconds;
+  }
 
-    try {
-      LOGGER.finest("Sleeping for " + seconds + " seconds.");
-      Thread.sleep(1000L * seconds);
-    } finally {
-      LOGGER.finest("Awake from sleep.");
+  /**
+   * Waits for the retry delay at the end of a successful traversal.
+   * If ACL sweeps are enabled, the directory ACLs are swept every
+   * sweep interval during the wait, while within the traversal schedule.
+   */
+  private void sweepUntilRetry(TraversalService service,
+      Collection<Traverser> traversers) throws InterruptedException {
+    long interval;
+    synchronized (this) {
+      interval = aclSweepInterval;
+    }
+    if (interval <= 0L) {
+      sleep(Sleep.RETRY_DELAY);
+      return;
+    }
+    long end = System.currentTimeMillis()
+        + 1000L * getSleepSeconds(Sleep.RETRY_DELAY);
+    List<Callable<Void>> sweepers = Lists.newArrayList();
+    for (Traverser traverser : traversers) {
+      sweepers.add(traverser.newSweeper());
     }
+    while (!service.isShutdown()
+           && end - System.currentTimeMillis() > interval) {
+      LOGGER.finest("Sleeping for " + (interval / 1000)
+                    + " seconds before sweeping ACLs.");
+      Thread.sleep(interval);
+      if (isInSchedule() && !service.isShutdown()) {
+        for (Future<Void> future : service.invokeAll(sweepers)) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            // Already logged in child thread context.
+          }
+        }
+      }
+    }
+    sleepUntil(service, end);
+  }
+
+  /**
+   * Waits for the retry delay at the end of a successful traversal,
+   * watching the start paths for changes while within the traversal
+   * schedule.  The next traversal finds any changes that were missed.
+   * <p/>
+   * Each watch holds its thread until the retry delay ends, so the pool
+   * is grown to a thread per start path while watching.
+   */
+  private void watchUntilRetry(TraversalService service,
+      Collection<Traverser> traversers) throws InterruptedException {
+    long end = System.currentTimeMillis()
+        + 1000L * getSleepSeconds(Sleep.RETRY_DELAY);
+    if (isInSchedule() && !service.isShutdown()) {
+      List<Callable<Void>> watchers = Lists.newArrayList();
+      for (Traverser traverser : traversers) {
+        watchers.add(traverser.newWatcher(end));
+      }
+      int poolSize = service.getCorePoolSize();
+      service.resize(Math.max(poolSize, watchers.size()));
+      try {
+        for (Future<Void> future : service.invokeAll(watchers)) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            // Already logged in child thread context.
+          }
+        }
+      } finally {
+        service.resize(poolSize);
+      }
+    }
+    sleepUntil(service, end);
+  }
+
+  /** Sleeps until the given time, unless shutdown. */
+  private void sleepUntil(TraversalService service, long end)
+      throws InterruptedException {
+    long remaining = end - System.currentTimeMillis();
+    if (remaining > 0L && !service.isShutdown()) {
+      try {
+        LOGGER.finest("Sleeping for " + (remaining / 1000) + " seconds.");
+        Thread.sleep(remaining);
+      } finally {
+        LOGGER.finest("Awake from sleep.");
+      }
+    }
+  }
+
+  private synchronized boolean isWatchForChanges() {
+    return watchForChanges;
+  }
+
+  /** Returns true if the current time is within the traversal schedule. */
+  private synchronized boolean isInSchedule() {
+    return !schedule.isDisabled() && schedule.inScheduledInterval();
   }
 
   /**
@@ -296,8 +551,8 @@ class FileLister implements Lister, TraversalContextAware,
   /**
    * Returns a Collection of Traversers targeted for the TraversalService.
    */
-  private Collection<Callable<Void>> newTraversers(TraversalService service) {
-    Collection<Callable<Void>> traversers = Lists.newArrayList();
+  private Collection<Traverser> newTraversers(TraversalService service) {
+    Collection<Traverser> traversers = Lists.newArrayList();
     for (String startPath : context.getStartPaths()) {
       traversers.add(new Traverser(startPath, documentAcceptor, service));
     }
@@ -316,6 +571,20 @@ class FileLister implements Lister, TraversalContextAware,
     synchronized void clearListerThread() {
       listerThread = null;
     }
+
+    /**
+     * Changes the number of threads in the pool.  Excess threads exit
+     * once they are idle.
+     */
+    void resize(int numThreads) {
+      if (numThreads > getMaximumPoolSize()) {
+        setMaximumPoolSize(numThreads);
+        setCorePoolSize(numThreads);
+      } else {
+        setCorePoolSize(numThreads);
+        setMaximumPoolSize(numThreads);
+      }
+    }
       
     /** Wake listerThread from sleep() to notice a change. */
     synchronized void interrupt() {
@@ -337,6 +606,8 @@ class FileLister implements Lister, TraversalContextAware,
     }
   }
 
+  private static enum Task { TRAVERSE, SWEEP, WATCH }
+
   @VisibleForTesting
   class Traverser implements Callable<Void> {
     private final String startPath;
@@ -346,6 +617,30 @@ class FileLister implements Lister, TraversalContextAware,
     private long lastFullTraversal = 0L;
     private long lastTraversal = 0L;
 
+    /**
+     * Fingerprints of the inheritable ACLs last fed for each directory, and
+     * of the share ACL, keyed by document ID.  Used to feed only the ACLs
+     * that have changed in incremental traversals and ACL sweeps.
+     */
+    private final AclFingerprints fedAcls = new AclFingerprints();
+
+    /**
+     * The versions of recently modified files that have been fed, which
+     * incremental traversals would otherwise feed again while the files
+     * are within the ifModifiedSince cushion.
+     */
+    private final FeedFingerprints fedFiles = new FeedFingerprints();
+
+    /** Fed files modified before this time need not be remembered. */
+    private long rememberFedFilesSince = Long.MAX_VALUE;
+
+    /**
+     * The change watcher for the start path, which is kept open between
+     * watches so that the file system keeps track of the changes made in
+     * the meantime, and local directory trees need not be registered again.
+     */
+    private volatile ChangeWatcher watcher;
+
     public Traverser(String startPath, DocumentAcceptor documentAcceptor,
                      TraversalService service) {
       this.startPath = startPath;
@@ -356,11 +651,53 @@ class FileLister implements Lister, TraversalContextAware,
 
     @Override
     public Void call() throws Exception {
+      run(Task.TRAVERSE, 0L);
+      return null;
+    }
+
+    /**
+     * Returns a task that sweeps the directory ACLs under the start path.
+     */
+    Callable<Void> newSweeper() {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          run(Task.SWEEP, 0L);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Returns a task that watches the start path for changes until the
+     * given time.
+     */
+    Callable<Void> newWatcher(final long until) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          run(Task.WATCH, until);
+          return null;
+        }
+      };
+    }
+
+    private void run(Task task, long until) throws Exception {
       NDC.clear();
       NDC.push(ndc);
       NDC.pushAppend(Thread.currentThread().getName());
       try {
-        traverse();
+        switch (task) {
+          case TRAVERSE:
+            traverse();
+            break;
+          case SWEEP:
+            sweepAcls();
+            break;
+          case WATCH:
+            watchChanges(until);
+            break;
+        }
       } catch (DocumentAcceptorException e) {
         LOGGER.log(Level.WARNING, "Lister feed error.", e);
         throw e;
@@ -373,7 +710,6 @@ class FileLister implements Lister, TraversalContextAware,
       } finally {
         NDC.remove();
       }
-      return null;
     }
 
     /**
@@ -409,105 +745,435 @@ class FileLister implements Lister, TraversalContextAware,
     private void traverse() throws DocumentAcceptorException,
         RepositoryException {
       LOGGER.fine("Start traversal: " + startPath);
-      ReadonlyFile<?> root =
-          pathParser.getFile(startPath, context.getCredentials());
+      ReadonlyFile<?> root = takeWarmRoot(startPath);
+      if (root == null) {
+        root = pathParser.getFile(startPath, context.getCredentials());
+      }
       if (root == null) {
         LOGGER.warning("Failed to open start path: " + startPath);
         return;
       }
       long startTime = clock.getTimeMillis();
-      AclProperties aclProps = context.getPropertyManager();
-      boolean returnDirectories = root.getFileSystemType().supportsAcls()
-        && aclProps.isPushAcls() && aclProps.supportsInheritedAcls()
-        && !aclProps.isMarkAllDocumentsPublic();
+      boolean returnDirectories = isReturnDirectories(root);
+      long ifModifiedSince = getIfModifiedSince(startTime);
+      if (ifModifiedSince == 0L) {
+        // Feed everything in a full traversal, and forget the ACLs of
+        // directories that no longer exist.
+        fedAcls.clear();
+        fedFiles.clear();
+      } else {
+        // Forget files this traversal will not return anyway.
+        fedFiles.retainModifiedSince(ifModifiedSince);
+      }
+      // The next incremental traversal will return files modified since
+      // the start of this one, less the cushion.
+      rememberFedFilesSince = startTime - ifModifiedSinceCushion;
 
+      FileIterator iter = new FileIterator(root, context, ifModifiedSince,
+          (ifModifiedSince == 0L) ? null : fedFiles, returnDirectories, true,
+          frontierMemory);
       try {
-        FileIterator iter = new FileIterator(root, context,
-            getIfModifiedSince(startTime), returnDirectories);
-
         if (returnDirectories) {
-          try {          
-            Document rootShareAclDoc = createRootShareAcl(root);
-            if (rootShareAclDoc != null) {
-              documentAcceptor.take(rootShareAclDoc);
+          feedRootShareAcl(root, ifModifiedSince != 0L);
+        }
+        feedAll(iter, root, ifModifiedSince != 0L);
+        // If we succeeded, remember the last completed pass.
+        finishedTraversal(startTime);
+      } catch (DocumentAcceptorException e) {
+        // Documents taken but not yet sent may be lost.
+        fedFiles.clear();
+        throw e;
+      } finally {
+        iter.close();
+        LOGGER.fine("End traversal: " + startPath);
+        documentAcceptor.flush();
+      }
+    }
+
+    /**
+     * Visits only the directories under the start path, and feeds the
+     * inheritable ACLs of those whose ACLs have changed since they were
+     * last fed.  Nothing is done until a traversal has completed, so that
+     * there are fed ACLs to compare against.
+     */
+    private void sweepAcls() throws DocumentAcceptorException,
+        RepositoryException {
+      if (lastTraversal == 0L) {
+        return;
+      }
+      LOGGER.fine("Start ACL sweep: " + startPath);
+      ReadonlyFile<?> root =
+          pathParser.getFile(startPath, context.getCredentials());
+      if (root == null) {
+        LOGGER.warning("Failed to open start path: " + startPath);
+        return;
+      }
+      if (!isReturnDirectories(root)) {
+        return;
+      }
+      FileIterator iter =
+          new FileIterator(root, context, 0L, null, true, false,
+                           frontierMemory);
+      try {
+        feedRootShareAcl(root, true);
+        feedAll(iter, root, true);
+      } finally {
+        iter.close();
+        LOGGER.fine("End ACL sweep: " + startPath);
+        documentAcceptor.flush();
+      }
+    }
+
+    /**
+     * Watches the start path for changes until the given time, while
+     * within the traversal schedule.  Changed files and directory ACLs are
+     * fed, and deleted files are removed from the index, as the changes
+     * are reported.  If some changes were missed, the start path is
+     * traversed to find them.  Nothing is done until a traversal has
+     * completed, or if the file system does not support change
+     * notification.
+     * <p/>
+     * The watcher is left open for the next watch, unless it fails or
+     * the traverser is shut down.
+     */
+    private void watchChanges(long until) throws DocumentAcceptorException,
+        RepositoryException {
+      if (lastTraversal == 0L) {
+        return;
+      }
+      ReadonlyFile<?> root =
+          pathParser.getFile(startPath, context.getCredentials());
+      if (root == null) {
+        LOGGER.warning("Failed to open start path: " + startPath);
+        return;
+      }
+      ChangeWatcher watcher = this.watcher;
+      if (watcher == null) {
+        try {
+          watcher = root.newChangeWatcher();
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "Failed to watch " + startPath, e);
+          return;
+        }
+        if (watcher == null) {
+          LOGGER.fine("Change notification is not supported: " + startPath);
+          return;
+        }
+        this.watcher = watcher;
+      }
+      LOGGER.fine("Start watching: " + startPath);
+      try {
+        long remaining;
+        while (!isShutdown() && isInSchedule()
+               && (remaining = until - System.currentTimeMillis()) > 0L) {
+          Map<String, ChangeWatcher.Action> changes;
+          try {
+            changes = watcher.getChanges(remaining);
+          } catch (IOException e) {
+            if (!isShutdown()) {
+              LOGGER.log(Level.WARNING, "Failed to watch " + startPath, e);
             }
-          } catch (RepositoryException e) {
-            LOGGER.log(Level.WARNING,
-                "Failed to feed root share ACL document " + root.getPath(), e);
-            throw e;
+            closeWatcher();
+            return;
+          }
+          if (changes == null) {
+            LOGGER.fine("Changes were missed, traversing " + startPath);
+            traverse();
+          } else if (!changes.isEmpty()) {
+            feedChanges(root, changes);
           }
         }
-        while (!isShutdown()) {
-          String path = "";
-          ReadonlyFile<?> file = null;
+      } finally {
+        if (isShutdown()) {
+          closeWatcher();
+        }
+        LOGGER.fine("End watching: " + startPath);
+      }
+    }
+
+    /** Closes the change watcher, if it is open. */
+    void closeWatcher() {
+      ChangeWatcher watcher = this.watcher;
+      this.watcher = null;
+      if (watcher != null) {
+        watcher.close();
+      }
+    }
+
+    private void feedChanges(ReadonlyFile<?> root,
+        Map<String, ChangeWatcher.Action> changes)
+        throws DocumentAcceptorException, RepositoryException {
+      try {
+        for (Map.Entry<String, ChangeWatcher.Action> change :
+             changes.entrySet()) {
+          if (isShutdown()) {
+            break;
+          }
           try {
-            file = iter.next();
-            if (file == null) {
-              break;	// No more files.
-            }          
-            path = file.getPath();
-            for (Document document : 
-                 FileDocument.getDocuments(file, context, root)) {
-              documentAcceptor.take(document);
-            }
+            feedChange(root, change.getKey(), change.getValue());
           } catch (RepositoryDocumentException rde) {
-            LOGGER.log(Level.WARNING, "Failed to feed document " + path, rde);
-          } catch (RepositoryException e) {
-            // TODO (bmj): Ideally we should retry the failed file a few times
-            // after increasing delays (1, 2, 4, 8 minutes to see if we can
-            // overcome apparently transient errors) before skipping over it.
-            LOGGER.log(Level.WARNING, "Encountered an error traversing "
-                       + startPath + " at document " + path, e);
-            if (!isShutdown()) {
-              iter.pushBack(file);
-              try {
-                sleep(Sleep.ERROR_DELAY);
-              } catch (InterruptedException ie) {
-                // Awake early from sleep.
-              }
-            }
+            LOGGER.log(Level.WARNING,
+                "Failed to feed document " + change.getKey(), rde);
           }
         }
-        // If we succeeded, remember the last completed pass.
-        finishedTraversal(startTime);
       } finally {
-        LOGGER.fine("End traversal: " + startPath);
         documentAcceptor.flush();
       }
     }
 
-    /*
-     * Create and return share ACL as secure document for the root.
+    /**
+     * Feeds a changed file, applying the same filters as a traversal.
+     * A directory that was added is traversed, as its contents are not
+     * reported separately.
+     */
+    private void feedChange(ReadonlyFile<?> root, String path,
+        ChangeWatcher.Action action) throws DocumentAcceptorException,
+        RepositoryException {
+      LOGGER.log(Level.FINEST, "{0} {1}", new Object[] { action, path });
+      ReadonlyFile<?> file = (action == ChangeWatcher.Action.REMOVED)
+          ? null : pathParser.getFile(path, context.getCredentials());
+      if (file == null || !file.exists()) {
+        feedDelete(path);
+        return;
+      }
+      if (!file.acceptedBy(context.getFilePatternMatcher())
+          || isInHiddenDirectory(root, file)) {
+        return;
+      }
+      if (file.isDirectory()) {
+        if (file.isHidden()) {
+          return;
+        }
+        if (action == ChangeWatcher.Action.ADDED) {
+          FileIterator iter = new FileIterator(file, context, 0L, null,
+              isReturnDirectories(root), true, frontierMemory);
+          try {
+            feedAll(iter, root, false);
+          } finally {
+            iter.close();
+          }
+        } else if (isReturnDirectories(root)) {
+          feed(file, root, true);
+        }
+      } else if (file.isRegularFile() && file.canRead() && !file.isHidden()) {
+        feed(file, root, false);
+      }
+    }
+
+    /**
+     * Returns true if the file is under a hidden directory below the root,
+     * which traversals skip.
+     */
+    private boolean isInHiddenDirectory(ReadonlyFile<?> root,
+        ReadonlyFile<?> file) throws RepositoryException {
+      String rootPath = root.getPath();
+      String path = file.getPath();
+      for (int i = path.lastIndexOf('/', path.length() - 2);
+           i >= rootPath.length(); i = path.lastIndexOf('/', i - 1)) {
+        ReadonlyFile<?> dir = pathParser.getFile(path.substring(0, i + 1),
+                                                 context.getCredentials());
+        if (dir != null && dir.isHidden()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Removes a deleted file from the index, or the inheritable ACL
+     * documents of a deleted directory.  The documents for the files
+     * under a deleted directory are removed when they are recrawled.
+     */
+    private void feedDelete(String path) throws DocumentAcceptorException,
+        RepositoryException {
+      // The path of a directory may have a trailing separator, which the
+      // reported change lacks.
+      for (String dirPath : new String[] { path, path + "/" }) {
+        if (fedAcls.remove(dirPath)) {
+          feedDeleteDocument(
+              FileDocument.CONTAINER_INHERIT_ACL_PREFIX + dirPath);
+          feedDeleteDocument(FileDocument.FILE_INHERIT_ACL_PREFIX + dirPath);
+        }
+      }
+      feedDeleteDocument(path);
+    }
+
+    /** Removes the document with the given ID from the index. */
+    private void feedDeleteDocument(String docid)
+        throws DocumentAcceptorException, RepositoryException {
+      Map<String, List<Value>> values = Maps.newHashMap();
+      putStringValue(values, SpiConstants.PROPNAME_DOCID, docid);
+      putStringValue(values, SpiConstants.PROPNAME_ACTION,
+          SpiConstants.ActionType.DELETE.toString());
+      putStringValue(values, SpiConstants.PROPNAME_FEEDTYPE,
+          FeedType.CONTENTURL.toString());
+      documentAcceptor.take(new SimpleDocument(values));
+    }
+
+    /** Returns true if directories are fed, for their inheritable ACLs. */
+    private boolean isReturnDirectories(ReadonlyFile<?> root) {
+      AclProperties aclProps = context.getPropertyManager();
+      return root.getFileSystemType().supportsAcls()
+        && aclProps.isPushAcls() && aclProps.supportsInheritedAcls()
+        && !aclProps.isMarkAllDocumentsPublic();
+    }
+
+    /**
+     * Feeds the documents for all the files returned by the iterator.
      *
-     * @throws RepositoryException
+     * @param onlyIfAclChanged if true, the inheritable ACLs of directories
+     *        are fed only if they have changed since they were last fed
      */
-    private Document createRootShareAcl(ReadonlyFile<?> root)
+    private void feedAll(FileIterator iter, ReadonlyFile<?> root,
+        boolean onlyIfAclChanged) throws DocumentAcceptorException,
+        RepositoryException {
+      while (!isShutdown()) {
+        String path = "";
+        ReadonlyFile<?> file = null;
+        try {
+          file = iter.next();
+          if (file == null) {
+            break;	// No more files.
+          }          
+          path = file.getPath();
+          feed(file, root, onlyIfAclChanged);
+        } catch (RepositoryDocumentException rde) {
+          LOGGER.log(Level.WARNING, "Failed to feed document " + path, rde);
+        } catch (RepositoryException e) {
+          // TODO (bmj): Ideally we should retry the failed file a few times
+          // after increasing delays (1, 2, 4, 8 minutes to see if we can
+          // overcome apparently transient errors) before skipping over it.
+          LOGGER.log(Level.WARNING, "Encountered an error traversing "
+                     + startPath + " at document " + path, e);
+          if (!isShutdown()) {
+            iter.pushBack(file);
+            try {
+              sleep(Sleep.ERROR_DELAY);
+            } catch (InterruptedException ie) {
+              // Awake early from sleep.
+            }
+          }
+        }
+      }
+    }
+
+    private void feed(ReadonlyFile<?> file, ReadonlyFile<?> root,
+        boolean onlyIfAclChanged) throws DocumentAcceptorException,
+        RepositoryException {
+      boolean isAclDirectory =
+          file.isDirectory() && context.getPropertyManager().isPushAcls();
+      long fingerprint = 0L;
+      if (isAclDirectory) {
+        fingerprint = getAclFingerprint(file, root);
+        if (onlyIfAclChanged && fedAcls.contains(file.getPath(), fingerprint)) {
+          LOGGER.log(Level.FINEST, "Skipping {0} - ACL unchanged.",
+                     file.getPath());
+          return;
+        }
+      }
+      for (Document document : 
+           FileDocument.getDocuments(file, context, root)) {
+        documentAcceptor.take(document);
+      }
+      if (isAclDirectory) {
+        fedAcls.put(file.getPath(), fingerprint);
+      } else if (!file.isDirectory()) {
+        rememberFedFile(file);
+      }
+    }
+
+    /**
+     * Remembers the version of a file that has been fed, if the next
+     * incremental traversal would return it again.
+     */
+    private void rememberFedFile(ReadonlyFile<?> file)
         throws RepositoryException {
       try {
-        Acl shareAcl = root.getShareAcl();
-        if (shareAcl != null && !shareAcl.equals(Acl.USE_HEAD_REQUEST)) {
-          Map<String, List<Value>> aclValues = Maps.newHashMap();
-          putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLUSERS,
-              shareAcl.getUsers());
-          putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLGROUPS,
-              shareAcl.getGroups());
-          putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLDENYUSERS,
-              shareAcl.getDenyUsers());
-          putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLDENYGROUPS,
-              shareAcl.getDenyGroups());
-          putStringValue(aclValues, SpiConstants.PROPNAME_DOCID,
-              FileDocument.getRootShareAclId(root));
-          putStringValue(aclValues, SpiConstants.PROPNAME_FEEDTYPE,
-              FeedType.CONTENTURL.toString());
-          putStringValue(aclValues, SpiConstants.PROPNAME_ACLINHERITANCETYPE,
-              SpiConstants.AclInheritanceType.AND_BOTH_PERMIT.toString());
-          return SecureDocument.createAcl(aclValues);
-        } else {
-          return null;
+        long lastModified = file.getLastModified();
+        if (lastModified >= rememberFedFilesSince) {
+          fedFiles.add(file.getPath(), lastModified, file.length());
         }
       } catch (IOException e) {
-        throw new RepositoryDocumentException("Failed to create share ACL for "
-            + root.getPath(), e);
+        // It will be fed again if it is returned again.
+      }
+    }
+
+    /**
+     * Returns a fingerprint of the ACLs that determine the inheritable ACL
+     * documents fed for a directory.
+     */
+    private long getAclFingerprint(ReadonlyFile<?> dir, ReadonlyFile<?> root)
+        throws RepositoryException {
+      try {
+        return AclFingerprints.fingerprint(dir.hasInheritedAcls(),
+            dir.getContainerInheritAcl(), dir.getFileInheritAcl(),
+            root.getPath().equals(dir.getPath())
+            ? dir.getInheritedAcl() : null);
+      } catch (IOException e) {
+        throw new RepositoryDocumentException(
+            "Failed to get inheritable ACLs", e);
+      }
+    }
+
+    /**
+     * Feeds the share ACL document for the root.
+     *
+     * @param onlyIfAclChanged if true, the share ACL is fed only if it has
+     *        changed since it was last fed
+     */
+    private void feedRootShareAcl(ReadonlyFile<?> root,
+        boolean onlyIfAclChanged) throws DocumentAcceptorException,
+        RepositoryException {
+      try {
+        Acl shareAcl;
+        try {
+          shareAcl = root.getShareAcl();
+        } catch (IOException e) {
+          throw new RepositoryDocumentException(
+              "Failed to create share ACL for " + root.getPath(), e);
+        }
+        String docid = FileDocument.getRootShareAclId(root);
+        long fingerprint = AclFingerprints.fingerprint(false, shareAcl);
+        if (onlyIfAclChanged && fedAcls.contains(docid, fingerprint)) {
+          return;
+        }
+        Document rootShareAclDoc = createRootShareAcl(root, shareAcl);
+        if (rootShareAclDoc != null) {
+          documentAcceptor.take(rootShareAclDoc);
+        }
+        fedAcls.put(docid, fingerprint);
+      } catch (RepositoryException e) {
+        LOGGER.log(Level.WARNING,
+            "Failed to feed root share ACL document " + root.getPath(), e);
+        throw e;
+      }
+    }
+
+    /*
+     * Create and return share ACL as secure document for the root.
+     *
+     * @throws RepositoryException
+     */
+    private Document createRootShareAcl(ReadonlyFile<?> root, Acl shareAcl) {
+      if (shareAcl != null && !shareAcl.equals(Acl.USE_HEAD_REQUEST)) {
+        Map<String, List<Value>> aclValues = Maps.newHashMap();
+        putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLUSERS,
+            shareAcl.getUsers());
+        putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLGROUPS,
+            shareAcl.getGroups());
+        putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLDENYUSERS,
+            shareAcl.getDenyUsers());
+        putPrincipalValues(aclValues, SpiConstants.PROPNAME_ACLDENYGROUPS,
+            shareAcl.getDenyGroups());
+        putStringValue(aclValues, SpiConstants.PROPNAME_DOCID,
+            FileDocument.getRootShareAclId(root));
+        putStringValue(aclValues, SpiConstants.PROPNAME_FEEDTYPE,
+            FeedType.CONTENTURL.toString());
+        putStringValue(aclValues, SpiConstants.PROPNAME_ACLINHERITANCETYPE,
+            SpiConstants.AclInheritanceType.AND_BOTH_PERMIT.toString());
+        return SecureDocument.createAcl(aclValues);
+      } else {
+        return null;
       }
     }
 
@@ -24,6 +24,7 @@ import com.google.enterprise.connector.spi.TraversalContext;
 import com.google.enterprise.connector.spi.TraversalContextAware;
 import com.google.enterprise.connector.util.MimeTypeDetector;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
@@ -53,15 +54,31 @@ class FileRetriever implements Retriever, TraversalContextAware {
   @Override
   public InputStream getContent(String docid) throws RepositoryException {
     LOGGER.log(Level.FINEST, "Retrieving content for {0}", docid);
-    ReadonlyFile<?> file = getFile(docid);
+    final ReadonlyFile<?> file = getFile(docid);
     if (file.isRegularFile()) {
+      // Share one handle for detecting the MIME type, reading the content,
+      // and restoring the last access time. The handle is closed when the
+      // returned content stream is closed.
+      file.openHandle();
+      boolean streamOwnsHandle = false;
       try {
         String mimeType = mimeTypeDetector.getMimeType(file.getName(), file);
         int supportLevel = traversalContext.mimeTypeSupportLevel(mimeType);
         long len = file.length();
         if (supportLevel > 0 && len > 0 &&
             len <= traversalContext.maxDocumentSize()) {
-          return file.getInputStream();
+          InputStream is = new FilterInputStream(file.getInputStream()) {
+              @Override
+              public void close() throws IOException {
+                try {
+                  super.close();
+                } finally {
+                  file.closeHandle();
+                }
+              }
+            };
+          streamOwnsHandle = true;
+          return is;
         } else {
           if (supportLevel < 0) {
             throw new SkippedDocumentException("Skipping file " + docid
@@ -82,6 +99,10 @@ class FileRetriever implements Retriever, TraversalContextAware {
       } catch (IOException e) {
         throw new RepositoryDocumentException("Failed to open file: " + docid,
                                               e);
+      } finally {
+        if (!streamOwnsHandle) {
+          file.closeHandle();
+        }
       }
     } else {
       LOGGER.log(Level.FINER, "Returning no content for file {0}"
@@ -94,7 +115,13 @@ class FileRetriever implements Retriever, TraversalContextAware {
   public Document getMetaData(String docid) throws RepositoryException {
     LOGGER.log(Level.FINEST, "Retrieving meta-data for {0}", docid);
     ReadonlyFile<?> file = getFile(docid);
-    return new FileDocument(file, context, getRoot(file));
+    // Share one handle for reading the ACL and attributes of the file.
+    file.openHandle();
+    try {
+      return new FileDocument(file, context, getRoot(file));
+    } finally {
+      file.closeHandle();
+    }
   }
 
   private ReadonlyFile<?> getFile(String docid) throws RepositoryException {
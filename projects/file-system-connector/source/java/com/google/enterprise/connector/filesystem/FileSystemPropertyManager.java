@@ -100,6 +100,28 @@ public class FileSystemPropertyManager implements SmbFileProperties,
   /** The maximum number of threads in the traversal thread pool. */
   private int threadPoolSize;
 
+  /**
+   * Time after which cached share-level ACEs expire, in milliseconds.
+   */
+  private long shareAclCacheExpiration;
+
+  /**
+   * Memory, in bytes, that may be used to hold pending directory entries
+   * during traversals before they are written to disk.
+   */
+  private long frontierMemoryThreshold;
+
+  /**
+   * Time between sweeps of the directory ACLs, in milliseconds.
+   */
+  private long aclSweepInterval;
+
+  /** If true, watch the start paths for changes between traversals. */
+  private boolean watchForChanges;
+
+  /** The file to which file system operations are recorded, if any. */
+  private String traceFile;
+
   /**
    * @return the aceSecurityLevel
    */
@@ -334,6 +356,126 @@ public class FileSystemPropertyManager implements SmbFileProperties,
     return threadPoolSize;
   }
 
+  /**
+   * Share-level ACLs are cached, so that they need not be fetched from
+   * the server for every file on the share.  This sets the number of
+   * minutes after which a cached share ACL is fetched anew.  The share
+   * ACL is also refreshed at the start of each traversal of a share.
+   * A value of 0 disables the cache.
+   * <p/>
+   * The default value is 60 minutes (1 hour).
+   *
+   * @param minutes number of minutes to cache share-level ACLs.
+   */
+  public void setShareAclCacheMinutes(int minutes) {
+    if (minutes < 0) {
+      throw new IllegalArgumentException(
+          "shareAclCacheMinutes must not be negative.");
+    }
+    shareAclCacheExpiration = minutes * 60 * 1000L;
+  }
+
+  /** Returns the shareAclCacheExpiration in milliseconds. */
+  @Override
+  public long getShareAclCacheExpiration() {
+    return shareAclCacheExpiration;
+  }
+
+  /**
+   * Traversals hold the names of the directory entries that they have yet
+   * to visit.  This sets the number of megabytes of memory that may be used
+   * to hold those names, across all traversals of this connector instance.
+   * Beyond that, the names are written to temporary files on disk as the
+   * directories are read, and read back as the traversal proceeds.  This
+   * allows very wide directory trees to be traversed within a fixed amount
+   * of memory.
+   * A value of 0 means the names are never written to disk.
+   * <p/>
+   * The default value is 64 megabytes.
+   *
+   * @param megabytes number of megabytes of pending directory entries to
+   *        hold in memory.
+   */
+  public void setFrontierMemoryMegabytes(int megabytes) {
+    if (megabytes < 0) {
+      throw new IllegalArgumentException(
+          "frontierMemoryMegabytes must not be negative.");
+    }
+    frontierMemoryThreshold = megabytes * 1024L * 1024L;
+  }
+
+  /** Returns the frontierMemoryThreshold in bytes. */
+  public long getFrontierMemoryThreshold() {
+    return frontierMemoryThreshold;
+  }
+
+  /**
+   * Changes to the ACL of a directory do not change its last modified
+   * time, so they are not noticed by incremental traversals of the files.
+   * This sets the number of minutes between sweeps that visit only the
+   * directories, and feed the inheritable ACLs of those whose ACLs have
+   * changed since they were last fed.  Sweeps are done between traversals,
+   * and only when feeding inherited ACLs.  A value of 0 disables sweeps.
+   * <p/>
+   * The default value is 0 minutes.
+   *
+   * @param minutes number of minutes between sweeps of the directory ACLs
+   */
+  public void setAclSweepIntervalMinutes(int minutes) {
+    if (minutes < 0) {
+      throw new IllegalArgumentException(
+          "aclSweepIntervalMinutes must not be negative.");
+    }
+    aclSweepInterval = minutes * 60 * 1000L;
+  }
+
+  /** Returns the aclSweepInterval in milliseconds. */
+  public long getAclSweepInterval() {
+    return aclSweepInterval;
+  }
+
+  /**
+   * If true, start paths on file systems that support change notification,
+   * currently SMB, and local paths when running on Java 7 or later, are
+   * watched for changes between traversals.  Files
+   * are fed, and deleted files are removed from the index, as the changes
+   * are reported, rather than waiting for the next traversal.  Traversals
+   * are still done, to find any changes that were missed.  ACL sweeps are
+   * not done while watching, as changes to directory ACLs are reported.
+   * <p/>
+   * The default value is false.
+   *
+   * @param watchForChanges if true, watch the start paths for changes
+   */
+  public void setWatchForChanges(boolean watchForChanges) {
+    this.watchForChanges = watchForChanges;
+  }
+
+  /** Returns true if the start paths are watched for changes. */
+  public boolean isWatchForChanges() {
+    return watchForChanges;
+  }
+
+  /**
+   * Sets the file to which the connector records each file system
+   * operation and SMB request, with its latency, size, and status, for
+   * later analysis or replay.  Paths are recorded only as hashes.  The file
+   * is replaced each time the connector starts.  An empty value disables
+   * the trace.
+   * <p/>
+   * The default value is empty.
+   *
+   * @param traceFile the path of the trace file, or empty
+   */
+  public void setTraceFile(String traceFile) {
+    this.traceFile = traceFile;
+  }
+
+  /** Returns the path of the trace file, or empty or {@code null}. */
+  public String getTraceFile() {
+    return traceFile;
+  }
+
   /* Obsolete properties. */
   public void setDelayBetweenTwoScansInMillis(long ignored) {}
   public void setIntroduceDelayAfterEveryScan(boolean ignored) {}
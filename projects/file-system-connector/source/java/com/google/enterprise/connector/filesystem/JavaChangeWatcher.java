@@ -0,0 +1,190 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ChangeWatcher} for local file systems, including network file
+ * systems mounted on the connector host, that uses the
+ * {@code java.nio.file.WatchService} API.  The connector is built for
+ * Java 6, so the API is called reflectively, and no watcher is available
+ * on earlier JREs.
+ * <p/>
+ * A {@code WatchService} only reports changes to the entries of the
+ * directories registered with it, so every directory in the tree is
+ * registered, and new directories are registered as they are reported.
+ * Note that on Linux, changes made to a network file system by other
+ * hosts are not reported; they are found by the next traversal.
+ */
+class JavaChangeWatcher implements ChangeWatcher {
+  private static final Logger LOGGER =
+      Logger.getLogger(JavaChangeWatcher.class.getName());
+
+  /** The reflected WatchService API, or null if it is not available. */
+  private static final Nio NIO = Nio.INSTANCE;
+
+  private static final FileFilter DIRECTORIES = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return file.isDirectory();
+    }
+  };
+
+  private final Object watchService;
+
+  /** The registered directories, with a trailing separator, by WatchKey. */
+  private final Map<Object, String> directories = Maps.newHashMap();
+
+  private volatile boolean closed = false;
+
+  /**
+   * Returns a watcher for the given directory and all of its
+   * subdirectories, or {@code null} if the WatchService API is not
+   * available.
+   *
+   * @throws IOException if the directory cannot be watched
+   */
+  static ChangeWatcher newInstance(File dir) throws IOException {
+    if (NIO == null) {
+      return null;
+    }
+    JavaChangeWatcher watcher = new JavaChangeWatcher();
+    try {
+      watcher.registerTree(dir);
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    return watcher;
+  }
+
+  private JavaChangeWatcher() throws IOException {
+    watchService =
+        NIO.invoke(NIO.newWatchService, NIO.invoke(NIO.getDefault, null));
+  }
+
+  @Override
+  public synchronized Map<String, Action> getChanges(long timeout)
+      throws IOException {
+    Map<String, Action> changes = Maps.newLinkedHashMap();
+    boolean overflow = false;
+    Object key = poll(timeout);
+    while (key != null) {
+      String dir = directories.get(key);
+      for (Object event : (List<?>) NIO.invoke(NIO.pollEvents, key)) {
+        Object kind = NIO.invoke(NIO.kind, event);
+        if (kind == NIO.overflow) {
+          overflow = true;
+        } else if (dir != null) {
+          String path = dir + NIO.invoke(NIO.context, event);
+          if (kind == NIO.entryCreate) {
+            changes.put(path, Action.ADDED);
+            File file = new File(path);
+            if (file.isDirectory()) {
+              registerTree(file);
+            }
+          } else if (kind == NIO.entryDelete) {
+            changes.put(path, Action.REMOVED);
+          } else if (changes.get(path) != Action.ADDED) {
+            // A modification does not undo an earlier addition.
+            changes.put(path, Action.MODIFIED);
+          }
+        }
+      }
+      if (!(Boolean) NIO.invoke(NIO.reset, key)) {
+        // The directory was deleted or is no longer accessible.
+        directories.remove(key);
+        if (directories.isEmpty()) {
+          throw new IOException("No directories left to watch");
+        }
+      }
+      // Coalesce any other events that are already queued.
+      key = poll(0L);
+    }
+    return overflow ? null : changes;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      try {
+        NIO.invoke(NIO.close, watchService);
+      } catch (IOException e) {
+        LOGGER.log(Level.FINEST, "Failed to close watch service", e);
+      }
+    }
+  }
+
+  /** Waits up to {@code timeout} milliseconds for a signalled WatchKey. */
+  private Object poll(long timeout) throws IOException {
+    try {
+      return NIO.invoke(NIO.poll, watchService, timeout,
+                        TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // ClosedWatchServiceException, if closed by another thread.
+      if (closed) {
+        throw new IOException("Watcher was closed", e);
+      }
+      throw e;
+    }
+  }
+
+  /** Registers the directory and all of its subdirectories. */
+  private void registerTree(File root) throws IOException {
+    LinkedList<File> pending = Lists.newLinkedList();
+    pending.add(root);
+    while (!pending.isEmpty() && !closed) {
+      File dir = pending.removeFirst();
+      Object key;
+      try {
+        key = NIO.invoke(NIO.register, NIO.invoke(NIO.toPath, dir),
+                         watchService, NIO.kinds);
+      } catch (IOException e) {
+        if (dir == root) {
+          throw e;
+        }
+        LOGGER.log(Level.WARNING, "Failed to watch directory " + dir, e);
+        continue;
+      }
+      String path = dir.getAbsolutePath();
+      if (!path.endsWith(File.separator)) {
+        path += File.separator;
+      }
+      // A directory reached again through a symbolic link returns the
+      // same key, so its subdirectories are not walked again.
+      if (!directories.containsKey(key)) {
+        directories.put(key, path);
+        File[] subdirs = dir.listFiles(DIRECTORIES);
+        if (subdirs != null) {
+          pending.addAll(Arrays.asList(subdirs));
+        }
+      }
+    }
+  }
+}
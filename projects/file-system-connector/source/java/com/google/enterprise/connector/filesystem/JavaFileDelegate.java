@@ -14,17 +14,22 @@
 
 package com.google.enterprise.connector.filesystem;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 /**
  * An implementation of {@link FileDelegate} that wraps {@code java.io.File}.
+ * <p/>
+ * Each attribute query on a {@code java.io.File} is a separate call to the
+ * file system, which is a network round trip on a mounted file system.
+ * When running on Java 7 or later, the basic attributes are read together
+ * when first needed, and cached for the life of the delegate.
  */
 public class JavaFileDelegate extends File implements FileDelegate {
 
+  private Nio.Attributes attributes;
+
   public JavaFileDelegate(String path) {
     super(path);
   }
@@ -33,8 +38,78 @@ public class JavaFileDelegate extends File implements FileDelegate {
     super(f, name);
   }
 
+  /** Returns the cached attributes, or null if they are not available. */
+  private synchronized Nio.Attributes getAttributes() {
+    if (attributes == null && Nio.INSTANCE != null) {
+      attributes = Nio.INSTANCE.readAttributes(this);
+    }
+    return attributes;
+  }
+
+  @Override
+  public boolean exists() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? super.exists() : attrs.exists;
+  }
+
+  @Override
+  public boolean isDirectory() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? super.isDirectory() : attrs.isDirectory;
+  }
+
+  @Override
+  public boolean isFile() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? super.isFile() : attrs.isRegularFile;
+  }
+
+  @Override
+  public long length() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? super.length() : attrs.size;
+  }
+
+  @Override
+  public long lastModified() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? super.lastModified() : attrs.lastModified;
+  }
+
+  /**
+   * Returns an object that uniquely identifies the file, or {@code null}
+   * if the file system does not provide one.
+   */
+  public Object getFileKey() {
+    Nio.Attributes attrs = getAttributes();
+    return (attrs == null) ? null : attrs.fileKey;
+  }
+
+  /**
+   * Adds the names of the entries in this directory to the table.  When
+   * running on Java 7 or later, the names are added as they are read,
+   * rather than after the whole directory has been read into an array.
+   *
+   * @return {@code false} if this is not a directory, or it cannot be read
+   * @throws IOException if the directory could not be read, or the names
+   *         could not be written to disk
+   */
+  boolean list(NameTable.Builder names) throws IOException {
+    if (Nio.INSTANCE != null && Nio.INSTANCE.list(this, names)) {
+      return true;
+    }
+    String[] fileNames = list();
+    if (fileNames == null) {
+      return false;
+    }
+    for (String name : fileNames) {
+      names.add(name);
+    }
+    return true;
+  }
+
   @Override
   public InputStream getInputStream() throws IOException {
-    return new BufferedInputStream(new FileInputStream(this));
+    return new FileChannelInputStream(this);
   }
 }
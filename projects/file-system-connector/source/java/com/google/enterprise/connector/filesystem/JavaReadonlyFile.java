@@ -14,7 +14,10 @@
 
 package com.google.enterprise.connector.filesystem;
 
+import com.google.enterprise.connector.spi.RepositoryException;
+
 import java.io.File;
+import java.io.IOException;
 
 /**
  * An implementation of {@link ReadonlyFile} that delegates to an underlying
@@ -46,4 +49,29 @@ public class JavaReadonlyFile extends AbstractReadonlyFile<JavaReadonlyFile> {
     String path = delegate.getAbsolutePath();
     return (delegate.isDirectory()) ? path + File.separatorChar : path;
   }
+
+  /** Reads the directory incrementally, when running on Java 7 or later. */
+  @Override
+  protected boolean listNames(NameTable.Builder names) throws IOException {
+    return delegate.list(names);
+  }
+
+  /**
+   * Returns a watcher that uses the {@code java.nio.file.WatchService}
+   * API, or {@code null} if it is not available.
+   */
+  @Override
+  public ChangeWatcher newChangeWatcher()
+      throws IOException, RepositoryException {
+    return JavaChangeWatcher.newInstance(delegate);
+  }
+
+  /**
+   * Returns the file key from the {@code java.nio.file} attributes of the
+   * file, or {@code null} if they are not available.
+   */
+  @Override
+  public Object getFileKey() {
+    return delegate.getFileKey();
+  }
 }
@@ -43,7 +43,20 @@ class LegacySmbAclBuilder extends AbstractSmbAclBuilder {
    * @param propertyFetcher Object containing the required properties.
    */
   LegacySmbAclBuilder(SmbFileDelegate file, AclProperties propertyFetcher) {
-    super(file, propertyFetcher);
+    this(file, propertyFetcher, null);
+  }
+
+  /**
+   * Creates a {@link LegacySmbAclBuilder}.
+   *
+   * @param file the {@link SmbFileDelegate} whose {@link Acl} we build.
+   * @param propertyFetcher Object containing the required properties.
+   * @param shareAclCache the {@link ShareAclCache} from which to fetch
+   *        share-level ACEs, may be null.
+   */
+  LegacySmbAclBuilder(SmbFileDelegate file, AclProperties propertyFetcher,
+                      ShareAclCache shareAclCache) {
+    super(file, propertyFetcher, shareAclCache);
     AceSecurityLevel securityLevel = AceSecurityLevel.getSecurityLevel(
         propertyFetcher.getAceSecurityLevel());
     if (securityLevel == null) {
@@ -112,7 +125,7 @@ class LegacySmbAclBuilder extends AbstractSmbAclBuilder {
       ACE securityAces[];
       String operation;
       if (isShare) {
-        securityAces = file.getShareSecurity(true);
+        securityAces = getShareSecurity();
         operation = "getShareSecurity()";
       } else {
         securityAces = file.getSecurity();
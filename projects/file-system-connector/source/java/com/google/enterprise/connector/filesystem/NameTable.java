@@ -0,0 +1,543 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A sorted table of file names, read in order.
+ * <p/>
+ * A directory listing held as {@code ReadonlyFile} objects costs a
+ * kilobyte or more per entry, for the file's path, URL, credentials,
+ * and so on.  Holding only the names, and creating the {@code ReadonlyFile}
+ * for an entry from its parent when the entry is needed, reduces the cost
+ * to two bytes per character of the name, plus four bytes.
+ * <p/>
+ * A table is filled by a {@link Builder} as the directory is read.  The
+ * memory used by the tables of a traversal is limited by a {@link Budget}.
+ * Once the budget is exhausted, the names being added to a table are
+ * sorted in runs and written to a temporary file, and the runs are merged
+ * as the table is read.  This bounds the heap used by traversals of
+ * arbitrarily wide trees, even while a wide directory is being read.  A
+ * table releases its memory, or deletes its file, when the last name has
+ * been read or it is closed.
+ */
+abstract class NameTable {
+  private static final Logger LOGGER =
+      Logger.getLogger(NameTable.class.getName());
+
+  /**
+   * The memory, in bytes, of names that a table holds before writing them
+   * to disk as a run, even when the budget is exhausted.  This avoids
+   * writing many tiny runs.
+   */
+  private static final long MIN_RUN_BYTES = 1L << 20;
+
+  /** The number of runs merged at once, each read from its own stream. */
+  private static final int MAX_MERGE_RUNS = 16;
+
+  /** The size of the buffer used to read each run. */
+  private static final int RUN_BUFFER_SIZE = 4096;
+
+  /**
+   * The memory that may be used by a group of tables, such as those of the
+   * traversals of one connector instance, before further names are written
+   * to disk.
+   */
+  static class Budget {
+    /** A budget under which tables are never written to disk. */
+    static final Budget UNLIMITED = new Budget(0L);
+
+    private final long threshold;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * @param threshold the memory, in bytes, that may be used by the tables
+     *        before further names are written to disk.  A value of zero
+     *        means that tables are never written to disk.
+     */
+    Budget(long threshold) {
+      if (threshold < 0) {
+        throw new IllegalArgumentException(
+            "memory threshold must not be negative.");
+      }
+      this.threshold = threshold;
+    }
+
+    /** Returns the memory, in bytes, used by the open in-memory tables. */
+    @VisibleForTesting
+    long getUsed() {
+      return used.get();
+    }
+
+    /** Adds to the memory used, returning {@code true} if over budget. */
+    private boolean use(long bytes) {
+      return used.addAndGet(bytes) > threshold && threshold > 0;
+    }
+
+    private void release(long bytes) {
+      used.addAndGet(-bytes);
+    }
+  }
+
+  /**
+   * Builds a table from names added one at a time, as a directory is read.
+   * A builder that is not {@link #build built} must be {@link #close closed}.
+   */
+  static class Builder {
+    private final Budget budget;
+    private final long minRunBytes;
+
+    /** The names not yet written to disk. */
+    private List<String> names = new ArrayList<String>();
+
+    /** The number of characters in {@code names}. */
+    private int length = 0;
+
+    /** The memory counted against the budget for {@code names}. */
+    private long memory = 0L;
+
+    /** The runs written to disk, or {@code null} if there are none. */
+    private RunFile runs = null;
+
+    Builder(Budget budget) {
+      this(budget, MIN_RUN_BYTES);
+    }
+
+    @VisibleForTesting
+    Builder(Budget budget, long minRunBytes) {
+      this.budget = budget;
+      this.minRunBytes = minRunBytes;
+    }
+
+    /**
+     * Adds a name to the table.
+     *
+     * @throws IOException if the names could not be written to disk
+     */
+    void add(String name) throws IOException {
+      long bytes = 2L * name.length() + 4L;
+      names.add(name);
+      length += name.length();
+      memory += bytes;
+      if (budget.use(bytes) && memory >= minRunBytes) {
+        writeRun();
+      }
+    }
+
+    /**
+     * Returns a table of the names added, sorted in lexicographic order.
+     * The builder may not be used afterwards.
+     *
+     * @throws IOException if the names could not be written to disk
+     */
+    NameTable build() throws IOException {
+      if (runs == null) {
+        String[] sorted = names.toArray(new String[names.size()]);
+        names = null;
+        Arrays.sort(sorted);
+        NameTable table = new MemoryNameTable(sorted, length, memory, budget);
+        memory = 0L;
+        return table;
+      }
+      if (!names.isEmpty()) {
+        writeRun();
+      }
+      names = null;
+      runs.finish();
+      while (runs.size() > MAX_MERGE_RUNS) {
+        RunFile merged = runs.merge();
+        runs.delete();
+        runs = merged;
+      }
+      NameTable table = runs.open();
+      runs = null;
+      return table;
+    }
+
+    /** Discards the names added, if the table has not been built. */
+    void close() {
+      if (names != null) {
+        names = null;
+        budget.release(memory);
+        memory = 0L;
+      }
+      if (runs != null) {
+        runs.delete();
+        runs = null;
+      }
+    }
+
+    /** Sorts the names held in memory, and writes them to disk. */
+    private void writeRun() throws IOException {
+      if (runs == null) {
+        runs = new RunFile();
+      }
+      Collections.sort(names);
+      runs.write(names);
+      names = new ArrayList<String>();
+      length = 0;
+      budget.release(memory);
+      memory = 0L;
+    }
+  }
+
+  /** Returns the number of names in the table. */
+  abstract int size();
+
+  /** Returns {@code true} if there are more names to read. */
+  abstract boolean hasNext();
+
+  /**
+   * Returns the next name in the table.
+   *
+   * @throws NoSuchElementException if there are no more names
+   * @throws IOException if the name could not be read from disk
+   */
+  abstract String next() throws IOException;
+
+  /** Releases the resources held by the table. */
+  abstract void close();
+
+  /** A table of names packed into a single character array. */
+  private static class MemoryNameTable extends NameTable {
+    /** The characters of all the names, concatenated in sorted order. */
+    private char[] chars;
+
+    /** Name {@code i} is {@code chars[offsets[i]]..chars[offsets[i + 1]]}. */
+    private int[] offsets;
+
+    private final int size;
+    private final long memory;
+    private final Budget budget;
+    private int index = 0;
+
+    MemoryNameTable(String[] names, int length, long memory, Budget budget) {
+      this.size = names.length;
+      this.memory = memory;
+      this.budget = budget;
+      chars = new char[length];
+      offsets = new int[names.length + 1];
+      int offset = 0;
+      for (int i = 0; i < names.length; i++) {
+        offsets[i] = offset;
+        names[i].getChars(0, names[i].length(), chars, offset);
+        offset += names[i].length();
+      }
+      offsets[names.length] = offset;
+      if (size == 0) {
+        close();
+      }
+    }
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    boolean hasNext() {
+      return chars != null && index < size;
+    }
+
+    @Override
+    String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      String name = new String(chars, offsets[index],
+                               offsets[index + 1] - offsets[index]);
+      if (++index == size) {
+        close();
+      }
+      return name;
+    }
+
+    @Override
+    void close() {
+      if (chars != null) {
+        chars = null;
+        offsets = null;
+        budget.release(memory);
+      }
+    }
+  }
+
+  /** A temporary file of sorted runs of names, written one after another. */
+  private static class RunFile {
+    private File file;
+    private CountingOutputStream counter;
+    private DataOutputStream out;
+    private final List<Long> offsets = new ArrayList<Long>();
+    private final List<Integer> counts = new ArrayList<Integer>();
+
+    RunFile() throws IOException {
+      file = File.createTempFile("frontier", ".tmp");
+      boolean success = false;
+      try {
+        counter = new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+        out = new DataOutputStream(counter);
+        success = true;
+      } finally {
+        if (!success) {
+          delete();
+        }
+      }
+    }
+
+    /** Returns the number of runs in the file. */
+    int size() {
+      return offsets.size();
+    }
+
+    /** Appends a run of sorted names. */
+    void write(List<String> names) throws IOException {
+      LOGGER.log(Level.FINE, "Writing {0} names to {1}",
+                 new Object[] { names.size(), file });
+      offsets.add(counter.getCount());
+      counts.add(names.size());
+      for (String name : names) {
+        out.writeUTF(name);
+      }
+    }
+
+    /** Finishes writing the file. */
+    void finish() throws IOException {
+      out.close();
+      out = null;
+    }
+
+    /**
+     * Merges the runs of this finished file in groups, returning a finished
+     * file with fewer runs.
+     */
+    RunFile merge() throws IOException {
+      RunFile merged = new RunFile();
+      boolean success = false;
+      try {
+        for (int from = 0; from < size(); from += MAX_MERGE_RUNS) {
+          int to = Math.min(from + MAX_MERGE_RUNS, size());
+          MergedNameTable group = new MergedNameTable(file, null,
+              offsets.subList(from, to), counts.subList(from, to));
+          try {
+            merged.offsets.add(merged.counter.getCount());
+            merged.counts.add(group.size());
+            while (group.hasNext()) {
+              merged.out.writeUTF(group.next());
+            }
+          } finally {
+            group.close();
+          }
+        }
+        merged.finish();
+        success = true;
+        return merged;
+      } finally {
+        if (!success) {
+          merged.delete();
+        }
+      }
+    }
+
+    /**
+     * Returns a table that merges the runs of this finished file, and
+     * deletes it when closed.
+     */
+    NameTable open() throws IOException {
+      File owned = file;
+      file = null;
+      return new MergedNameTable(owned, owned, offsets, counts);
+    }
+
+    /** Deletes the file. */
+    void delete() {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          LOGGER.log(Level.FINEST, "Failed to close " + file, e);
+        }
+        out = null;
+      }
+      if (file != null) {
+        if (!file.delete()) {
+          LOGGER.log(Level.WARNING, "Failed to delete {0}", file);
+        }
+        file = null;
+      }
+    }
+  }
+
+  /** A table of names merged from sorted runs in a temporary file. */
+  private static class MergedNameTable extends NameTable {
+    private final int size;
+    private File deleteOnClose;
+    private PriorityQueue<Run> runs;
+    private int index = 0;
+
+    /**
+     * @param file the file holding the runs
+     * @param deleteOnClose the file to delete when the table is closed,
+     *        or {@code null}
+     * @param offsets the offset in the file of each run
+     * @param counts the number of names in each run
+     */
+    MergedNameTable(File file, File deleteOnClose, List<Long> offsets,
+        List<Integer> counts) throws IOException {
+      this.deleteOnClose = deleteOnClose;
+      this.runs = new PriorityQueue<Run>(Math.max(1, offsets.size()));
+      int total = 0;
+      boolean success = false;
+      try {
+        for (int i = 0; i < offsets.size(); i++) {
+          add(new Run(file, offsets.get(i), counts.get(i)));
+          total += counts.get(i);
+        }
+        success = true;
+      } finally {
+        if (!success) {
+          close();
+        }
+      }
+      this.size = total;
+      if (size == 0) {
+        close();
+      }
+    }
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    boolean hasNext() {
+      return runs != null && index < size;
+    }
+
+    @Override
+    String next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Run run = runs.poll();
+      String name = run.name;
+      add(run);
+      if (++index == size) {
+        close();
+      }
+      return name;
+    }
+
+    /** Advances the run, and queues it if it has a name to return. */
+    private void add(Run run) throws IOException {
+      boolean advanced = false;
+      try {
+        advanced = run.advance();
+      } finally {
+        if (advanced) {
+          runs.add(run);
+        } else {
+          run.close();
+        }
+      }
+    }
+
+    @Override
+    void close() {
+      if (runs != null) {
+        for (Run run : runs) {
+          run.close();
+        }
+        runs = null;
+      }
+      if (deleteOnClose != null) {
+        if (!deleteOnClose.delete()) {
+          LOGGER.log(Level.WARNING, "Failed to delete {0}", deleteOnClose);
+        }
+        deleteOnClose = null;
+      }
+    }
+  }
+
+  /** A sorted run of names, read from its own stream on the file. */
+  private static class Run implements Comparable<Run> {
+    private final File file;
+    private final DataInputStream in;
+    private int remaining;
+
+    /** The current name, set by {@link #advance}. */
+    String name;
+
+    Run(File file, long offset, int count) throws IOException {
+      this.file = file;
+      FileInputStream stream = new FileInputStream(file);
+      try {
+        ByteStreams.skipFully(stream, offset);
+      } catch (IOException e) {
+        stream.close();
+        throw e;
+      }
+      in = new DataInputStream(
+          new BufferedInputStream(stream, RUN_BUFFER_SIZE));
+      remaining = count;
+    }
+
+    /** Reads the next name, returning {@code false} if there are none. */
+    boolean advance() throws IOException {
+      if (remaining == 0) {
+        return false;
+      }
+      name = in.readUTF();
+      remaining--;
+      return true;
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINEST, "Failed to close " + file, e);
+      }
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      return name.compareTo(other.name);
+    }
+  }
+}
@@ -13,13 +13,60 @@
 // limitations under the License.
 package com.google.enterprise.connector.filesystem;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.sun.nfs.NfsException;
+import com.sun.rpc.RpcException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
  * Implementation of ReadonlyFile that delegates to {@code com.sun.xfile.XFile}.
+ * <p/>
+ * WebNFS already reads directories with READDIRPLUS, caching the file
+ * handles and attributes that it returns, and reads content ahead.  But
+ * {@code XFile} reports most failures, including an unreachable server,
+ * as a missing file or a failed listing.  So when a file is not found or
+ * a directory cannot be listed, this implementation tries to connect to
+ * the server to tell the difference.  WebNFS falls back to UDP if it
+ * cannot connect with TCP, and a UDP server cannot be probed by
+ * connecting to it, so a failed probe is only taken to mean the server
+ * is down if the server is known to accept TCP connections.
  *
  * @see PathParser
  */
-/* TODO: Implement detectServerDown() for NFS failures. */
 public class NfsReadonlyFile extends AbstractReadonlyFile<NfsReadonlyFile> {
+  private static final Logger LOG =
+      Logger.getLogger(NfsReadonlyFile.class.getName());
+
+  /** The default NFS port, used by WebNFS. */
+  private static final int NFS_PORT = 2049;
+
+  /** The time to wait when connecting to the server, in milliseconds. */
+  private static final int PROBE_TIMEOUT = 10 * 1000;
+
+  /** The time that a server is assumed to be up after a probe. */
+  private static final long PROBE_INTERVAL = 30 * 1000L;
+
+  /** The times that servers were last found to be up, by host and port. */
+  private static final ConcurrentMap<String, Long> serversUp =
+      new ConcurrentHashMap<String, Long>();
+
+  /** The servers, by host and port, that have accepted a TCP connection. */
+  private static final Set<String> tcpServers =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   private final NfsFileDelegate delegate;
 
@@ -45,4 +92,147 @@ public class NfsReadonlyFile extends AbstractReadonlyFile<NfsReadonlyFile> {
   public String getPath() {
     return delegate.getAbsolutePath();
   }
+
+  @Override
+  public boolean exists() throws RepositoryException {
+    if (super.exists()) {
+      return true;
+    }
+    probeServer(getPath());
+    return false;
+  }
+
+  @Override
+  protected DirectoryIterator<NfsReadonlyFile> newDirectoryIterator(
+      NameTable.Budget budget)
+      throws IOException, RepositoryException, DirectoryListingException {
+    try {
+      return super.newDirectoryIterator(budget);
+    } catch (DirectoryListingException e) {
+      probeServer(getPath());
+      throw e;
+    }
+  }
+
+  /** If repository cannot be contacted throws RepositoryException. */
+  @Override
+  protected void detectServerDown(IOException e) throws RepositoryException {
+    if (e instanceof NfsException) {
+      // The error code is only available in the message.  JUKEBOX means
+      // the file is temporarily unavailable, such as on migrated storage.
+      if (("NFS error: " + NfsException.NFSERR_JUKEBOX).equals(
+          e.getMessage())) {
+        throw new RepositoryException("Server busy", e);
+      }
+      return;
+    }
+    if (e instanceof RpcException
+        || e instanceof ConnectException
+        || e instanceof NoRouteToHostException
+        || e instanceof UnknownHostException
+        || e instanceof InterruptedIOException) {
+      throw new RepositoryException("Server down", e);
+    }
+  }
+
+  /**
+   * Throws a {@code RepositoryException} if the server for the given
+   * {@code nfs:} URL cannot be contacted.  Other paths are ignored, as are
+   * servers that are, or may be, accessed using UDP.
+   */
+  @VisibleForTesting
+  static void probeServer(String path) throws RepositoryException {
+    Server server = Server.parse(path);
+    if (server == null || Server.UDP.equals(server.transport)) {
+      return;
+    }
+    String address = server.host + ":" + server.port;
+    Long lastUp = serversUp.get(address);
+    if (lastUp != null
+        && System.currentTimeMillis() - lastUp < PROBE_INTERVAL) {
+      return;
+    }
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(server.host, server.port),
+                     PROBE_TIMEOUT);
+      serversUp.put(address, System.currentTimeMillis());
+      tcpServers.add(address);
+    } catch (IOException e) {
+      serversUp.remove(address);
+      if (server.transport == null && !tcpServers.contains(address)) {
+        LOG.log(Level.FINE, "Failed to connect to " + address
+            + " using TCP; it may only serve NFS over UDP", e);
+        return;
+      }
+      LOG.log(Level.FINEST, "Failed to connect to " + address, e);
+      throw new RepositoryException("Server down: " + address, e);
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Ignored.
+      }
+    }
+  }
+
+  /**
+   * The server named by an {@code nfs:} URL.  The URL is parsed as WebNFS
+   * parses it, rather than as a {@code java.net.URI}, since the path is
+   * not percent-encoded, and the port may be followed by options.
+   */
+  @VisibleForTesting
+  static class Server {
+    static final String TCP = "tcp";
+    static final String UDP = "udp";
+
+    final String host;
+    final int port;
+
+    /** The transport named in the URL, or {@code null} if unspecified. */
+    final String transport;
+
+    private Server(String host, int port, String transport) {
+      this.host = host;
+      this.port = port;
+      this.transport = transport;
+    }
+
+    /**
+     * Returns the server named by an {@code nfs:} URL, or {@code null} if
+     * the path is not an {@code nfs:} URL.
+     */
+    static Server parse(String path) {
+      if (!path.regionMatches(true, 0, "nfs://", 0, 6)) {
+        return null;
+      }
+      int end = path.indexOf('/', 6);
+      String authority = path.substring(6, (end < 0) ? path.length() : end);
+      int colon = authority.indexOf(':');
+      String host = (colon < 0) ? authority : authority.substring(0, colon);
+      if (host.length() == 0) {
+        return null;
+      }
+      int port = 0;
+      String transport = null;
+      if (colon >= 0) {
+        // The port may be followed by "t" or "u" to choose the transport,
+        // "v" and a digit to choose the NFS version, and other options.
+        String options = authority.substring(colon + 1).toLowerCase();
+        for (int i = 0; i < options.length(); i++) {
+          char c = options.charAt(i);
+          if (c >= '0' && c <= '9') {
+            port = port * 10 + (c - '0');
+          } else if (c == 't') {
+            transport = TCP;
+          } else if (c == 'u') {
+            transport = UDP;
+          } else if (c == 'v') {
+            i++;
+          }
+        }
+      }
+      return new Server(host, (port == 0) ? NFS_PORT : port, transport);
+    }
+  }
 }
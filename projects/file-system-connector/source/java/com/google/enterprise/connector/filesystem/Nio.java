@@ -0,0 +1,245 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The parts of the Java 7 {@code java.nio.file} API used by the connector
+ * for local files.  The connector is built for Java 6, so the API is
+ * called reflectively, and is not available on earlier JREs.
+ */
+final class Nio {
+  private static final Logger LOGGER = Logger.getLogger(Nio.class.getName());
+
+  /** The reflected API, or null if it is not available. */
+  static final Nio INSTANCE = load();
+
+  final Method getDefault;
+  final Method newWatchService;
+  final Method toPath;
+  final Method register;
+  final Method poll;
+  final Method close;
+  final Method pollEvents;
+  final Method reset;
+  final Method kind;
+  final Method context;
+  final Object entryCreate;
+  final Object entryDelete;
+  final Object overflow;
+  final Object kinds;
+
+  private final Method newDirectoryStream;
+  private final Method getFileName;
+  private final Class<?> directoryIteratorException;
+  private final Method readAttributes;
+  private final Method isDirectory;
+  private final Method isRegularFile;
+  private final Method size;
+  private final Method lastModifiedTime;
+  private final Method toMillis;
+  private final Method fileKey;
+  private final Class<?> basicFileAttributes;
+  private final Object noLinkOptions;
+
+  /** Returns the reflected API, or null if it is not available. */
+  private static Nio load() {
+    try {
+      return new Nio();
+    } catch (Exception e) {
+      LOGGER.log(Level.CONFIG, "The java.nio.file API is not available", e);
+      return null;
+    }
+  }
+
+  private Nio() throws Exception {
+    Class<?> files = Class.forName("java.nio.file.Files");
+    Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+    Class<?> fileSystem = Class.forName("java.nio.file.FileSystem");
+    Class<?> path = Class.forName("java.nio.file.Path");
+    Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+    Class<?> watchService = Class.forName("java.nio.file.WatchService");
+    Class<?> watchKey = Class.forName("java.nio.file.WatchKey");
+    Class<?> watchEvent = Class.forName("java.nio.file.WatchEvent");
+    Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+    Class<?> standardKinds =
+        Class.forName("java.nio.file.StandardWatchEventKinds");
+    Class<?> fileTime = Class.forName("java.nio.file.attribute.FileTime");
+    basicFileAttributes =
+        Class.forName("java.nio.file.attribute.BasicFileAttributes");
+
+    getDefault = fileSystems.getMethod("getDefault");
+    newWatchService = fileSystem.getMethod("newWatchService");
+    toPath = File.class.getMethod("toPath");
+    kinds = Array.newInstance(kindClass, 3);
+    register = path.getMethod("register", watchService, kinds.getClass());
+    poll = watchService.getMethod("poll", long.class, TimeUnit.class);
+    close = watchService.getMethod("close");
+    pollEvents = watchKey.getMethod("pollEvents");
+    reset = watchKey.getMethod("reset");
+    kind = watchEvent.getMethod("kind");
+    context = watchEvent.getMethod("context");
+
+    entryCreate = standardKinds.getField("ENTRY_CREATE").get(null);
+    entryDelete = standardKinds.getField("ENTRY_DELETE").get(null);
+    overflow = standardKinds.getField("OVERFLOW").get(null);
+    Array.set(kinds, 0, entryCreate);
+    Array.set(kinds, 1, entryDelete);
+    Array.set(kinds, 2, standardKinds.getField("ENTRY_MODIFY").get(null));
+
+    newDirectoryStream = files.getMethod("newDirectoryStream", path);
+    getFileName = path.getMethod("getFileName");
+    directoryIteratorException =
+        Class.forName("java.nio.file.DirectoryIteratorException");
+
+    noLinkOptions = Array.newInstance(linkOption, 0);
+    readAttributes = files.getMethod("readAttributes", path, Class.class,
+                                     noLinkOptions.getClass());
+    isDirectory = basicFileAttributes.getMethod("isDirectory");
+    isRegularFile = basicFileAttributes.getMethod("isRegularFile");
+    size = basicFileAttributes.getMethod("size");
+    lastModifiedTime = basicFileAttributes.getMethod("lastModifiedTime");
+    toMillis = fileTime.getMethod("toMillis");
+    fileKey = basicFileAttributes.getMethod("fileKey");
+  }
+
+  /**
+   * The basic attributes of a file, read with a single call to the file
+   * system, following symbolic links.
+   */
+  static class Attributes {
+    /** The attributes of a file that does not exist or cannot be read. */
+    static final Attributes MISSING =
+        new Attributes(false, false, false, 0L, 0L, null);
+
+    final boolean exists;
+    final boolean isDirectory;
+    final boolean isRegularFile;
+    final long size;
+    final long lastModified;
+    /** The device and inode, or null if the file system has no such key. */
+    final Object fileKey;
+
+    private Attributes(boolean exists, boolean isDirectory,
+        boolean isRegularFile, long size, long lastModified, Object fileKey) {
+      this.exists = exists;
+      this.isDirectory = isDirectory;
+      this.isRegularFile = isRegularFile;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+  }
+
+  /**
+   * Returns the attributes of the file.  As with {@code java.io.File},
+   * a file whose attributes cannot be read is treated as missing.
+   */
+  Attributes readAttributes(File file) {
+    try {
+      Object attrs = invoke(readAttributes, null, invoke(toPath, file),
+                            basicFileAttributes, noLinkOptions);
+      return new Attributes(true,
+          (Boolean) invoke(isDirectory, attrs),
+          (Boolean) invoke(isRegularFile, attrs),
+          (Long) invoke(size, attrs),
+          (Long) invoke(toMillis, invoke(lastModifiedTime, attrs)),
+          invoke(fileKey, attrs));
+    } catch (IOException e) {
+      return Attributes.MISSING;
+    } catch (IllegalArgumentException e) {
+      // InvalidPathException.
+      return Attributes.MISSING;
+    } catch (SecurityException e) {
+      return Attributes.MISSING;
+    }
+  }
+
+  /**
+   * Adds the names of the entries in the directory to the table as they
+   * are read, rather than reading the whole directory first.
+   *
+   * @return {@code false} if the directory could not be opened
+   * @throws IOException if the directory could not be read, or the names
+   *         could not be written to disk
+   */
+  boolean list(File dir, NameTable.Builder names) throws IOException {
+    Closeable stream;
+    try {
+      stream = (Closeable) invoke(newDirectoryStream, null,
+                                  invoke(toPath, dir));
+    } catch (IOException e) {
+      return false;
+    } catch (IllegalArgumentException e) {
+      // InvalidPathException.
+      return false;
+    } catch (SecurityException e) {
+      return false;
+    }
+    try {
+      for (Object path : (Iterable<?>) stream) {
+        names.add(invoke(getFileName, path).toString());
+      }
+    } catch (RuntimeException e) {
+      if (directoryIteratorException.isInstance(e)
+          && e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    } finally {
+      stream.close();
+    }
+    return true;
+  }
+
+  /**
+   * Invokes the method, rethrowing any {@code IOException} or unchecked
+   * exception that it throws.
+   */
+  Object invoke(Method method, Object target, Object... args)
+      throws IOException {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else if (cause instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException iioe = new InterruptedIOException();
+        iioe.initCause(cause);
+        throw iioe;
+      } else {
+        throw new IOException(cause);
+      }
+    }
+  }
+}
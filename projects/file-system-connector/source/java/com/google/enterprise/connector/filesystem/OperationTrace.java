@@ -0,0 +1,455 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import jcifs.smb.NtStatus;
+import jcifs.smb.SmbCommandListener;
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbTransport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An optional trace of the file system operations made by the connector,
+ * for offline performance analysis.  Two kinds of operation are
+ * recorded: the {@link FileDelegate} operations made by
+ * {@link AbstractReadonlyFile}, for every file system, and the SMB
+ * requests sent by jcifs, which include those made to read ACLs.
+ * <p/>
+ * The trace is a compact binary file.  Paths are not recorded, only
+ * their hashes, so a trace taken at a customer site reveals the shape
+ * of the tree and the latency of the servers, but not the names of the
+ * files.  Each record holds:
+ * <ul>
+ * <li>the operation, or SMB command and subcommand
+ * <li>the hash of the path, and of its parent
+ * <li>the latency, in microseconds
+ * <li>the bytes transferred; for listings, the number of entries; for
+ *     tests such as {@code isDirectory}, 1 if true or 0 if false; and
+ *     for {@code lastModified}, the time returned
+ * <li>the NT status, 0 for success, or {@code NT_STATUS_UNSUCCESSFUL}
+ *     for errors other than SMB errors
+ * </ul>
+ * Tracing is enabled by the {@code traceFile} advanced configuration
+ * property, and there is at most one trace in the JVM.  When tracing is
+ * disabled, the cost to each operation is a volatile read.
+ */
+public class OperationTrace implements SmbCommandListener {
+  private static final Logger LOGGER =
+      Logger.getLogger(OperationTrace.class.getName());
+
+  /** The {@link FileDelegate} operations that are recorded. */
+  public static enum Operation {
+    EXISTS, IS_DIRECTORY, IS_FILE, LAST_MODIFIED, LENGTH, CAN_READ,
+    IS_HIDDEN, LIST, OPEN, READ
+  }
+
+  /** The first bytes of a trace file: "FSTR", and the format version. */
+  private static final int MAGIC = 0x46535452;
+  private static final int VERSION = 1;
+
+  /** The type of the records of SMB requests. */
+  private static final int SMB_COMMAND = 0x80;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private static volatile OperationTrace current = null;
+
+  private final DataOutputStream out;
+  private boolean failed = false;
+
+  private OperationTrace(File file) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), 64 * 1024));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+  }
+
+  /**
+   * Starts recording to the given file, replacing any existing trace in
+   * the file.  Any trace already being recorded is stopped.
+   */
+  public static synchronized void startTrace(File file) throws IOException {
+    stopTrace();
+    OperationTrace trace = new OperationTrace(file);
+    current = trace;
+    SmbTransport.setCommandListener(trace);
+    LOGGER.info("Recording file system operations to " + file);
+  }
+
+  /** Stops recording, and closes the trace file. */
+  public static synchronized void stopTrace() {
+    OperationTrace trace = current;
+    if (trace != null) {
+      current = null;
+      SmbTransport.setCommandListener(null);
+      trace.close();
+    }
+  }
+
+  @VisibleForTesting
+  static OperationTrace getCurrentTrace() {
+    return current;
+  }
+
+  /** Returns true if operations are being recorded. */
+  public static boolean isTracing() {
+    return current != null;
+  }
+
+  /**
+   * Returns the start time of an operation, to be passed to one of the
+   * {@code end} methods, or 0 if operations are not being recorded.
+   */
+  static long begin() {
+    return (current == null) ? 0L : System.nanoTime();
+  }
+
+  /** Records the successful end of a test, and returns its result. */
+  static boolean end(Operation operation, FileDelegate file, long begin,
+      boolean result) {
+    end(operation, file, begin, result ? 1L : 0L);
+    return result;
+  }
+
+  /**
+   * Records the successful end of an operation, and returns its result,
+   * which is the bytes or entries returned, or a time.
+   */
+  static long end(Operation operation, FileDelegate file, long begin,
+      long result) {
+    OperationTrace trace = current;
+    if (trace != null && begin != 0L) {
+      trace.write(operation, file.getPath(), file.getParent(),
+                  System.nanoTime() - begin, result, NtStatus.NT_STATUS_OK);
+    }
+    return result;
+  }
+
+  /** Records the failure of an operation. */
+  static void fail(Operation operation, FileDelegate file, long begin,
+      IOException e) {
+    OperationTrace trace = current;
+    if (trace != null && begin != 0L) {
+      trace.write(operation, file.getPath(), file.getParent(),
+                  System.nanoTime() - begin, 0L, getStatus(e));
+    }
+  }
+
+  private static int getStatus(IOException e) {
+    return (e instanceof SmbException)
+        ? ((SmbException) e).getNtStatus() : NtStatus.NT_STATUS_UNSUCCESSFUL;
+  }
+
+  /**
+   * Returns the content stream, which records a {@link Operation#READ}
+   * with the total bytes and time of the reads when it is closed, if
+   * operations are being recorded.
+   */
+  static InputStream traceContent(final FileDelegate file, InputStream in) {
+    if (current == null) {
+      return in;
+    }
+    return new FilterInputStream(in) {
+      private long bytes = 0L;
+      private long nanos = 0L;
+      private int status = NtStatus.NT_STATUS_OK;
+      private boolean closed = false;
+
+      @Override
+      public int read() throws IOException {
+        long begin = System.nanoTime();
+        try {
+          int b = super.read();
+          if (b >= 0) {
+            bytes++;
+          }
+          return b;
+        } catch (IOException e) {
+          status = getStatus(e);
+          throw e;
+        } finally {
+          nanos += System.nanoTime() - begin;
+        }
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        long begin = System.nanoTime();
+        try {
+          int n = super.read(b, off, len);
+          if (n > 0) {
+            bytes += n;
+          }
+          return n;
+        } catch (IOException e) {
+          status = getStatus(e);
+          throw e;
+        } finally {
+          nanos += System.nanoTime() - begin;
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          OperationTrace trace = current;
+          if (trace != null && !closed) {
+            trace.write(Operation.READ, file.getPath(), file.getParent(),
+                        nanos, bytes, status);
+          }
+          closed = true;
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the directory iterator, which records a
+   * {@link Operation#LIST} with the number of entries and the total time
+   * of opening and reading the listing when it is closed, if operations
+   * are being recorded.
+   */
+  static <T> DirectoryIterator<T> traceListing(final FileDelegate dir,
+      final long begin, final DirectoryIterator<T> iterator) {
+    if (begin == 0L) {
+      return iterator;
+    }
+    return new DirectoryIterator<T>() {
+      private long entries = 0L;
+      private long nanos = System.nanoTime() - begin;
+      private int status = NtStatus.NT_STATUS_OK;
+      private boolean closed = false;
+
+      @Override
+      public boolean hasNext() throws IOException, RepositoryException {
+        long begin = System.nanoTime();
+        try {
+          return iterator.hasNext();
+        } catch (IOException e) {
+          status = getStatus(e);
+          throw e;
+        } finally {
+          nanos += System.nanoTime() - begin;
+        }
+      }
+
+      @Override
+      public T next() throws IOException, RepositoryException {
+        long begin = System.nanoTime();
+        try {
+          T next = iterator.next();
+          entries++;
+          return next;
+        } catch (IOException e) {
+          status = getStatus(e);
+          throw e;
+        } finally {
+          nanos += System.nanoTime() - begin;
+        }
+      }
+
+      @Override
+      public void close() {
+        iterator.close();
+        OperationTrace trace = current;
+        if (trace != null && !closed) {
+          trace.write(Operation.LIST, dir.getPath(), dir.getParent(), nanos,
+                      entries, status);
+        }
+        closed = true;
+      }
+    };
+  }
+
+  @Override
+  public void commandCompleted(String server, int command, int subcommand,
+      String path, long nanos, int bytesSent, int bytesReceived,
+      int status) {
+    String name = (path == null) ? null : server + path;
+    synchronized (this) {
+      if (failed) {
+        return;
+      }
+      try {
+        out.writeByte(SMB_COMMAND);
+        out.writeByte(command);
+        out.writeByte(subcommand);
+        out.writeLong(hash(name));
+        writeVarLong(nanos / 1000L);
+        writeVarLong((long) bytesSent + bytesReceived);
+        out.writeInt(status);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+  }
+
+  private synchronized void write(Operation operation, String path,
+      String parent, long nanos, long bytes, int status) {
+    if (failed) {
+      return;
+    }
+    try {
+      out.writeByte(operation.ordinal());
+      out.writeLong(hash(path));
+      out.writeLong(hash(parent));
+      writeVarLong(nanos / 1000L);
+      writeVarLong(bytes);
+      out.writeInt(status);
+    } catch (IOException e) {
+      writeFailed(e);
+    }
+  }
+
+  /** Stops writing records after a write fails, such as a full disk. */
+  private void writeFailed(IOException e) {
+    LOGGER.log(Level.WARNING, "Failed to write the operation trace", e);
+    failed = true;
+  }
+
+  private synchronized void close() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to close the operation trace", e);
+    }
+  }
+
+  /** Writes a non-negative value, seven bits to a byte. */
+  private void writeVarLong(long value) throws IOException {
+    value = Math.max(0L, value);
+    while ((value & ~0x7FL) != 0L) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /** Returns the hash of a path, or 0 for {@code null}. */
+  static long hash(String path) {
+    return (path == null) ? 0L : HASH.hashString(path).asLong();
+  }
+
+  /** A record read from a trace file. */
+  public static class Record {
+    /** The operation, or {@code null} for an SMB request. */
+    public final Operation operation;
+    /** The SMB command, or -1 for a {@link FileDelegate} operation. */
+    public final int command;
+    /** The SMB transaction subcommand, or -1. */
+    public final int subcommand;
+    public final long pathHash;
+    /** The hash of the parent path, or 0 for an SMB request. */
+    public final long parentHash;
+    public final long latencyMicros;
+    public final long bytes;
+    public final int status;
+
+    Record(Operation operation, int command, int subcommand, long pathHash,
+        long parentHash, long latencyMicros, long bytes, int status) {
+      this.operation = operation;
+      this.command = command;
+      this.subcommand = subcommand;
+      this.pathHash = pathHash;
+      this.parentHash = parentHash;
+      this.latencyMicros = latencyMicros;
+      this.bytes = bytes;
+      this.status = status;
+    }
+  }
+
+  /** Reads the records of a trace file, in the order they were written. */
+  public static class Reader implements Closeable {
+    private final DataInputStream in;
+
+    public Reader(File file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file), 64 * 1024));
+      try {
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+          throw new IOException("Not an operation trace: " + file);
+        }
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    /** Returns the next record, or {@code null} at the end of the trace. */
+    public Record next() throws IOException {
+      int type = in.read();
+      if (type < 0) {
+        return null;
+      }
+      try {
+        if (type == SMB_COMMAND) {
+          int command = in.readUnsignedByte();
+          int subcommand = in.readByte();
+          long pathHash = in.readLong();
+          return new Record(null, command, subcommand, pathHash, 0L,
+              readVarLong(), readVarLong(), in.readInt());
+        } else if (type < Operation.values().length) {
+          Operation operation = Operation.values()[type];
+          long pathHash = in.readLong();
+          long parentHash = in.readLong();
+          return new Record(operation, -1, -1, pathHash, parentHash,
+              readVarLong(), readVarLong(), in.readInt());
+        } else {
+          throw new IOException("Invalid record type: " + type);
+        }
+      } catch (EOFException e) {
+        // The last record is incomplete if the trace was not closed.
+        return null;
+      }
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0L;
+      for (int shift = 0; ; shift += 7) {
+        int b = in.readUnsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -163,6 +163,35 @@ public interface ReadonlyFile<T extends ReadonlyFile<T>>
   public List<T> listFiles() throws IOException, DirectoryListingException,
       RepositoryException;
 
+  /**
+   * Returns an iterator over the contents of this directory.  Unlike
+   * {@link #listFiles()}, the entries are not necessarily sorted, and
+   * implementations may return entries as they are read rather than
+   * reading the entire directory first.  The returned iterator must be
+   * closed when it is no longer needed.
+   *
+   * @return an iterator over the files and directories within this directory
+   * @throws IOException if this is not a directory, or if it can't be read
+   * @throws DirectoryListingException if the user is not authorized to read
+   */
+  public DirectoryIterator<T> iterateFiles() throws IOException,
+      DirectoryListingException, RepositoryException;
+
+  /**
+   * Returns an iterator over the contents of this directory, like
+   * {@link #iterateFiles()}.  Implementations that hold the names of the
+   * entries until they are returned count them against {@code budget},
+   * and write them to disk once it is exhausted.
+   *
+   * @param budget the memory that may be used by the pending entries of
+   *        a traversal
+   * @return an iterator over the files and directories within this directory
+   * @throws IOException if this is not a directory, or if it can't be read
+   * @throws DirectoryListingException if the user is not authorized to read
+   */
+  public DirectoryIterator<T> iterateFiles(NameTable.Budget budget)
+      throws IOException, DirectoryListingException, RepositoryException;
+
   /**
    * Returns the display url for this file.
    */
@@ -211,4 +240,45 @@ public interface ReadonlyFile<T extends ReadonlyFile<T>>
    *         {@code time}, or if the last modified time of the file is unknown.
    */
   public boolean isModifiedSince(long time) throws RepositoryException;
+
+  /**
+   * Opens a handle to this file that is shared by subsequent operations on
+   * it, such as reading its ACL, attributes and content, until
+   * {@link #closeHandle} is called.  This is purely an optimization;
+   * implementations that do not benefit from it may ignore it, and a
+   * failure to open the handle is not reported to the caller.
+   *
+   * @throws RepositoryException if there was an error accessing the repository.
+   *         For instance, a network file share is off-line.
+   */
+  public void openHandle() throws RepositoryException;
+
+  /**
+   * Closes the handle opened by {@link #openHandle}, if any.
+   */
+  public void closeHandle();
+
+  /**
+   * Returns a {@link ChangeWatcher} that reports changes to the files
+   * in this directory and all of its subdirectories, or {@code null} if
+   * the file system does not support change notification.
+   *
+   * @throws IOException if the directory cannot be watched
+   * @throws RepositoryException if there was an error accessing the repository.
+   *         For instance, a network file share is off-line.
+   */
+  public ChangeWatcher newChangeWatcher()
+      throws IOException, RepositoryException;
+
+  /**
+   * Returns an object that uniquely identifies this file within the file
+   * system, such as its device and inode numbers, or {@code null} if the
+   * file system does not provide one.  Two files with equal keys are the
+   * same file, reached through different paths, as with symbolic links,
+   * hard links, and bind mounts.
+   *
+   * @throws RepositoryException if there was an error accessing the repository.
+   *         For instance, a network file share is off-line.
+   */
+  public Object getFileKey() throws RepositoryException;
 }
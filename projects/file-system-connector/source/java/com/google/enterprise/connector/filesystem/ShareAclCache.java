@@ -0,0 +1,181 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.util.Clock;
+import com.google.enterprise.connector.util.SystemClock;
+
+import jcifs.smb.ACE;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of share-level security descriptors, keyed by server and share.
+ * <p/>
+ * Every file on a share has the same share ACL, but fetching it requires
+ * a DCE/RPC round trip to the server's srvsvc pipe, followed by SID
+ * resolution over lsarpc.  This cache allows those ACEs to be fetched
+ * once per share, rather than once per file.
+ * <p/>
+ * Cached entries expire after a configurable time.  In addition, callers
+ * may {@link #refreshShareSecurity refresh} an entry, typically once at the
+ * start of each traversal of a share, which fetches the ACEs anew and logs
+ * any changes to the share ACL.
+ */
+class ShareAclCache {
+  private static final Logger LOGGER =
+      Logger.getLogger(ShareAclCache.class.getName());
+
+  /** Time, in milliseconds, after which cached entries expire. */
+  private final long expiration;
+
+  private final ConcurrentMap<String, Entry> cache =
+      new ConcurrentHashMap<String, Entry>();
+
+  private Clock clock = new SystemClock();
+
+  /**
+   * Creates a {@code ShareAclCache}.
+   *
+   * @param expiration time, in milliseconds, after which cached share ACEs
+   *        expire; if zero, share ACEs are not cached
+   */
+  ShareAclCache(long expiration) {
+    if (expiration < 0) {
+      throw new IllegalArgumentException("expiration must not be negative.");
+    }
+    this.expiration = expiration;
+  }
+
+  /** Allows tests to set adjustable clock. */
+  @VisibleForTesting
+  void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the share-level ACEs for the share containing {@code file},
+   * as returned by {@code file.getShareSecurity(true)}. The ACEs are
+   * served from the cache, if a current entry exists for the share.
+   *
+   * @param file an {@link SmbFileDelegate}
+   * @return the share ACEs, or {@code null} if the share has no ACL
+   * @throws IOException
+   */
+  ACE[] getShareSecurity(SmbFileDelegate file) throws IOException {
+    if (expiration == 0) {
+      return file.getShareSecurity(true);
+    }
+    String key = getShareKey(file);
+    Entry entry = cache.get(key);
+    if (entry != null && entry.expires > clock.getTimeMillis()) {
+      return entry.aces;
+    }
+    return fetch(file, key, entry);
+  }
+
+  /**
+   * Fetches the share-level ACEs for the share containing {@code file}
+   * from the server, replacing any cached entry for that share.
+   * Logs a message if the share ACL has changed since it was cached.
+   *
+   * @param file an {@link SmbFileDelegate}
+   * @return the share ACEs, or {@code null} if the share has no ACL
+   * @throws IOException
+   */
+  ACE[] refreshShareSecurity(SmbFileDelegate file) throws IOException {
+    if (expiration == 0) {
+      return file.getShareSecurity(true);
+    }
+    String key = getShareKey(file);
+    return fetch(file, key, cache.get(key));
+  }
+
+  /** Removes all entries from the cache. */
+  void clear() {
+    cache.clear();
+  }
+
+  private ACE[] fetch(SmbFileDelegate file, String key, Entry oldEntry)
+      throws IOException {
+    ACE[] aces = file.getShareSecurity(true);
+    Entry newEntry = new Entry(aces, clock.getTimeMillis() + expiration);
+    if (oldEntry != null && !oldEntry.signature.equals(newEntry.signature)) {
+      LOGGER.log(Level.INFO, "Share ACL for {0} has changed.", key);
+      if (LOGGER.isLoggable(Level.FINEST)) {
+        LOGGER.log(Level.FINEST, "Share ACEs for {0} were {1}, now {2}",
+            new Object[] { key, Arrays.toString(oldEntry.aces),
+                           Arrays.toString(aces) });
+      }
+    }
+    cache.put(key, newEntry);
+    return aces;
+  }
+
+  /**
+   * Returns the cache key for the share containing {@code file}.
+   * If the file resides in DFS, the key identifies the share that the
+   * DFS link resolves to, rather than the DFS namespace share.
+   */
+  @VisibleForTesting
+  static String getShareKey(SmbFileDelegate file) throws IOException {
+    String dfsPath = file.getDfsPath();
+    if (dfsPath != null) {
+      // The DFS path takes the form smb:/server/share/path.
+      String[] parts = dfsPath.substring("smb:".length())
+          .replaceFirst("^/+", "").split("/", 3);
+      if (parts.length >= 2) {
+        return (parts[0] + "/" + parts[1]).toLowerCase();
+      }
+    }
+    return (file.getServer() + "/" + file.getShare()).toLowerCase();
+  }
+
+  /**
+   * Returns a String that identifies the access granted by the supplied
+   * ACEs, suitable for detecting changes to a share ACL.
+   */
+  private static String getSignature(ACE[] aces) {
+    if (aces == null) {
+      return "";
+    }
+    StringBuilder builder = new StringBuilder();
+    for (ACE ace : aces) {
+      builder.append(ace.isAllow() ? '+' : '-')
+          .append(Integer.toHexString(ace.getFlags())).append(':')
+          .append(Integer.toHexString(ace.getAccessMask())).append(':')
+          .append(ace.getSID().toString()).append(';');
+    }
+    return builder.toString();
+  }
+
+  private static class Entry {
+    final ACE[] aces;
+    final String signature;
+    final long expires;
+
+    Entry(ACE[] aces, long expires) {
+      this.aces = aces;
+      this.signature = getSignature(aces);
+      this.expires = expires;
+    }
+  }
+}
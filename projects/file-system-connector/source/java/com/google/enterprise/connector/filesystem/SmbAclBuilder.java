@@ -118,7 +118,20 @@ class SmbAclBuilder extends AbstractSmbAclBuilder {
    */
   SmbAclBuilder(SmbFileDelegate file, AclProperties propertyFetcher)
       throws IOException {
-    super(file, propertyFetcher);
+    this(file, propertyFetcher, null);
+  }
+
+  /**
+   * Creates an {@link SmbAclBuilder}.
+   *
+   * @param file the {@link SmbFileDelegate} whose {@link Acl} we build.
+   * @param propertyFetcher Object containing the required properties.
+   * @param shareAclCache the {@link ShareAclCache} from which to fetch
+   *        share-level ACEs, may be null.
+   */
+  SmbAclBuilder(SmbFileDelegate file, AclProperties propertyFetcher,
+                ShareAclCache shareAclCache) throws IOException {
+    super(file, propertyFetcher, shareAclCache);
 
     // Get the security ACEs on the file, if not already available.
     // Also determines if any of those ACEs are inherited.
@@ -167,9 +180,12 @@ class SmbAclBuilder extends AbstractSmbAclBuilder {
   @Override
   public Acl getShareAcl() throws IOException {
     // SmbFile.getShareSecurity with true argument attempts to resolve
-    // the SIDs within each ACE form.
-    return getAcl(file.getShareSecurity(true), Predicates.<ACE>alwaysTrue(),
-                  "Share");
+    // the SIDs within each ACE form. The share ACL is requested once per
+    // traversal, so use this opportunity to refresh the cached share ACEs.
+    ACE[] shareAces = (shareAclCache == null)
+        ? file.getShareSecurity(true)
+        : shareAclCache.refreshShareSecurity(file);
+    return getAcl(shareAces, Predicates.<ACE>alwaysTrue(), "Share");
   }
 
   private Acl getAcl(ACE[] aces, Predicate<ACE> predicate, String type)
@@ -35,6 +35,14 @@ public class SmbFileDelegate extends SmbFile
     super(path, auth);
   }
 
+  /**
+   * Creates a SmbFileDelegate for a {@code SmbFile}, such as one returned
+   * from a directory listing, retaining any attributes it has cached.
+   */
+  public SmbFileDelegate(SmbFile file) {
+    super(file);
+  }
+
   @Override
   public FileTime getLastAccessTime() throws IOException {
     return new SmbFileTime(lastAccess());
@@ -57,6 +57,9 @@ public class SmbFileSystemType extends AbstractFileSystemType<SmbReadonlyFile> {
   @VisibleForTesting
   protected final SmbFileProperties propertyFetcher;
 
+  /** Share-level ACEs, shared by all the files on a share. */
+  private final ShareAclCache shareAclCache;
+
   /**
    * Configures the jcifs library by loading configuration properties from
    * the supplied InputStream.  Note that this must be called before the jcifs
@@ -89,6 +92,13 @@ public class SmbFileSystemType extends AbstractFileSystemType<SmbReadonlyFile> {
 
   public SmbFileSystemType(DocumentContext context) {
     this.propertyFetcher = context.getPropertyManager();
+    this.shareAclCache =
+        new ShareAclCache(propertyFetcher.getShareAclCacheExpiration());
+  }
+
+  /** Returns the cache of share-level ACEs for this file system. */
+  ShareAclCache getShareAclCache() {
+    return shareAclCache;
   }
 
   @Override
@@ -160,5 +170,12 @@ public class SmbFileSystemType extends AbstractFileSystemType<SmbReadonlyFile> {
      * @return Flag to decide whether or not to reset the last access time of file.
      */
     boolean isLastAccessResetFlagForSmb();
+
+    /**
+     * Gets the time after which cached share-level ACEs expire.
+     * @return expiration time in milliseconds, or 0 if share-level ACEs
+     *         should not be cached.
+     */
+    long getShareAclCacheExpiration();
   }
 }
@@ -15,20 +15,25 @@
 package com.google.enterprise.connector.filesystem;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.enterprise.connector.filesystem.SmbFileSystemType.SmbFileProperties;
 import com.google.enterprise.connector.spi.DocumentAccessException;
 import com.google.enterprise.connector.spi.DocumentNotFoundException;
 import com.google.enterprise.connector.spi.RepositoryDocumentException;
 import com.google.enterprise.connector.spi.RepositoryException;
 
+import jcifs.smb.FileNotifyInformation;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
+import jcifs.smb.SmbFileIterator;
+import jcifs.smb.SmbFileWatcher;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +52,18 @@ public class SmbReadonlyFile
   private static final Logger LOG =
       Logger.getLogger(SmbReadonlyFile.class.getName());
 
+  /**
+   * The changes reported by change notification.  Last access times are
+   * not watched, as they are changed by reading the files.
+   */
+  private static final int WATCH_FILTER =
+      SmbFileWatcher.FILE_NOTIFY_CHANGE_FILE_NAME
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_DIR_NAME
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_ATTRIBUTES
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_SIZE
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_LAST_WRITE
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_SECURITY;
+
   /** The delegate file implementation. */
   @VisibleForTesting
   protected final SmbFileDelegate delegate;
@@ -128,6 +145,56 @@ public class SmbReadonlyFile
                                 path, credentials, smbPropertyFetcher);
   }
 
+  /**
+   * Returns an iterator that streams the directory entries from the server,
+   * in the order the server returns them.  The children are created from
+   * the attributes returned in the listing, avoiding a round trip to the
+   * server for each entry.  The pending entries stay on the server, so
+   * none are counted against {@code budget}.
+   */
+  @Override
+  protected DirectoryIterator<SmbReadonlyFile> newDirectoryIterator(
+      NameTable.Budget budget) throws IOException, RepositoryException {
+    final SmbFileIterator iterator;
+    try {
+      iterator = delegate.listFilesIterator();
+    } catch (SmbException e) {
+      detectGeneralErrors(e);
+      throw new IOException("Failed to list files in directory " + getPath(),
+                            e);
+    }
+    return new DirectoryIterator<SmbReadonlyFile>() {
+      @Override
+      public boolean hasNext() throws IOException, RepositoryException {
+        try {
+          return iterator.hasNext();
+        } catch (SmbException e) {
+          detectServerDown(e);
+          throw new IOException(
+              "Failed to list files in directory " + getPath(), e);
+        }
+      }
+
+      @Override
+      public SmbReadonlyFile next() throws IOException, RepositoryException {
+        try {
+          return new SmbReadonlyFile((SmbFileSystemType) getFileSystemType(),
+              new SmbFileDelegate(iterator.next()), credentials,
+              smbPropertyFetcher);
+        } catch (SmbException e) {
+          detectServerDown(e);
+          throw new IOException(
+              "Failed to list files in directory " + getPath(), e);
+        }
+      }
+
+      @Override
+      public void close() {
+        iterator.close();
+      }
+    };
+  }
+
   /** If repository cannot be contacted throws RepositoryException. */
   private static void staticDetectServerDown(IOException e)
       throws RepositoryException {
@@ -321,13 +388,102 @@ public class SmbReadonlyFile
     }
   }
 
+  /**
+   * Opens a single SMB handle that is used to read the security descriptor,
+   * attributes and content of this file, and to restore its last access
+   * time, rather than opening a new handle for each.  If the handle cannot
+   * be opened, those operations open their own handles, as usual.
+   */
+  @Override
+  public void openHandle() throws RepositoryException {
+    try {
+      delegate.openHandle(smbPropertyFetcher.isLastAccessResetFlagForSmb());
+    } catch (SmbException e) {
+      detectServerDown(e);
+      LOG.log(Level.FINEST, "Failed to open handle for " + getPath(), e);
+    }
+  }
+
+  @Override
+  public void closeHandle() {
+    try {
+      delegate.closeHandle();
+    } catch (SmbException e) {
+      LOG.log(Level.FINEST, "Failed to close handle for " + getPath(), e);
+    }
+  }
+
+  /**
+   * Returns a watcher that uses SMB change notification to report changes
+   * to the files in this directory and its subdirectories, including
+   * changes to their security descriptors.
+   */
+  @Override
+  public ChangeWatcher newChangeWatcher()
+      throws IOException, RepositoryException {
+    final SmbFileWatcher watcher;
+    try {
+      watcher = delegate.watch(WATCH_FILTER, true);
+    } catch (SmbException e) {
+      detectServerDown(e);
+      throw new IOException("Failed to watch directory " + getPath(), e);
+    }
+    final String prefix = delegate.getPath();
+    return new ChangeWatcher() {
+      @Override
+      public Map<String, Action> getChanges(long timeout)
+          throws IOException, RepositoryException {
+        FileNotifyInformation[] changes;
+        try {
+          changes = watcher.next(timeout);
+        } catch (SmbException e) {
+          detectServerDown(e);
+          throw new IOException("Failed to watch directory " + prefix, e);
+        }
+        if (changes == null) {
+          return null;
+        }
+        Map<String, Action> result = Maps.newLinkedHashMap();
+        for (FileNotifyInformation change : changes) {
+          String path = prefix + change.getFileName().replace('\\', '/');
+          switch (change.getAction()) {
+            case FileNotifyInformation.FILE_ACTION_ADDED:
+            case FileNotifyInformation.FILE_ACTION_RENAMED_NEW_NAME:
+              result.put(path, Action.ADDED);
+              break;
+            case FileNotifyInformation.FILE_ACTION_REMOVED:
+            case FileNotifyInformation.FILE_ACTION_RENAMED_OLD_NAME:
+              result.put(path, Action.REMOVED);
+              break;
+            default:
+              // A modification does not undo an earlier addition.
+              if (result.get(path) != Action.ADDED) {
+                result.put(path, Action.MODIFIED);
+              }
+              break;
+          }
+        }
+        return result;
+      }
+
+      @Override
+      public void close() {
+        watcher.close();
+      }
+    };
+  }
+
   @VisibleForTesting
   protected synchronized AclBuilder getAclBuilder() throws IOException {
     if (aclBuilder == null) {
+      ShareAclCache shareAclCache =
+          ((SmbFileSystemType) getFileSystemType()).getShareAclCache();
       if (smbPropertyFetcher.supportsInheritedAcls()) {
-        aclBuilder = new SmbAclBuilder(delegate, smbPropertyFetcher);
+        aclBuilder = new SmbAclBuilder(delegate, smbPropertyFetcher,
+                                       shareAclCache);
       } else {
-        aclBuilder = new LegacySmbAclBuilder(delegate, smbPropertyFetcher);
+        aclBuilder = new LegacySmbAclBuilder(delegate, smbPropertyFetcher,
+                                             shareAclCache);
       }
     }
     return aclBuilder;
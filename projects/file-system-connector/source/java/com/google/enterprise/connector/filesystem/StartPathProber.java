@@ -0,0 +1,222 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Probes a number of start paths concurrently.
+ * <p/>
+ * Opening the first path on a host may require name resolution,
+ * connecting, authenticating and resolving DFS referrals, each of which
+ * may time out if the host is slow or unreachable.  The start paths are
+ * therefore grouped by host, and each host is probed in its own thread,
+ * so that an unreachable host does not delay the others.  The paths on
+ * a host are probed in order, so that they share the connection made for
+ * the first.  Each host must be probed within a deadline, after which its
+ * remaining paths are reported as having failed.
+ * <p/>
+ * The connections made by successful probes are retained by the
+ * underlying file system libraries, so later operations on those hosts,
+ * such as traversals, do not have to connect again.
+ */
+class StartPathProber {
+  private static final Logger LOGGER =
+      Logger.getLogger(StartPathProber.class.getName());
+
+  /** Default time, in milliseconds, allowed for probing each host. */
+  static final long DEFAULT_TIMEOUT = 2 * 60 * 1000L;
+
+  /** The operation performed on each start path. */
+  interface Probe {
+    void probe(String path)
+        throws IOException, RepositoryException, DirectoryListingException;
+  }
+
+  private final long timeout;
+
+  /**
+   * Creates a {@code StartPathProber}.
+   *
+   * @param timeout time, in milliseconds, allowed for probing all the
+   *        start paths on a host
+   */
+  StartPathProber(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be positive.");
+    }
+    this.timeout = timeout;
+  }
+
+  /**
+   * Applies {@code probe} to each of the start paths.
+   *
+   * @param paths the start paths
+   * @param probe the operation to perform on each path
+   * @return a map of the paths that failed to the exceptions thrown by
+   *         {@code probe}, in the order of {@code paths}; paths that were
+   *         not probed within the deadline for their host map to a
+   *         {@link RepositoryException}
+   */
+  Map<String, Exception> probe(Collection<String> paths, final Probe probe) {
+    Map<String, List<String>> hosts = new LinkedHashMap<String, List<String>>();
+    for (String path : paths) {
+      String host = getHost(path);
+      List<String> hostPaths = hosts.get(host);
+      if (hostPaths == null) {
+        hostPaths = new ArrayList<String>();
+        hosts.put(host, hostPaths);
+      }
+      hostPaths.add(path);
+    }
+
+    final Map<String, Exception> errors =
+        new LinkedHashMap<String, Exception>();
+    final Set<String> probed = new HashSet<String>();
+    // Set once the deadline has passed or the caller has been interrupted,
+    // after which results are ignored.
+    final AtomicBoolean finished = new AtomicBoolean();
+    if (hosts.isEmpty()) {
+      return errors;
+    }
+    ExecutorService executor =
+        Executors.newFixedThreadPool(hosts.size(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StartPathProber");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      Map<String, Future<Void>> futures =
+          new LinkedHashMap<String, Future<Void>>();
+      for (Map.Entry<String, List<String>> entry : hosts.entrySet()) {
+        final List<String> hostPaths = entry.getValue();
+        futures.put(entry.getKey(), executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (String path : hostPaths) {
+              if (finished.get() || Thread.currentThread().isInterrupted()) {
+                break;
+              }
+              Exception error = null;
+              try {
+                probe.probe(path);
+              } catch (Exception e) {
+                error = e;
+              }
+              synchronized (errors) {
+                if (finished.get()) {
+                  break;
+                }
+                probed.add(path);
+                if (error != null) {
+                  errors.put(path, error);
+                }
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      long deadline = System.currentTimeMillis() + timeout;
+      for (Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
+        String host = entry.getKey();
+        Future<Void> future = entry.getValue();
+        try {
+          future.get(Math.max(0L, deadline - System.currentTimeMillis()),
+                     TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          LOGGER.log(Level.WARNING, "Timed out probing start paths on {0}",
+                     host);
+          finished.set(true);
+          future.cancel(true);
+        } catch (ExecutionException e) {
+          // The probe task does not throw.
+          throw new AssertionError(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          finished.set(true);
+          future.cancel(true);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Report the paths that were not probed in time, and restore the
+    // order of the paths.
+    Map<String, Exception> result = new LinkedHashMap<String, Exception>();
+    synchronized (errors) {
+      finished.set(true);
+      for (String path : paths) {
+        if (!probed.contains(path)) {
+          result.put(path, new RepositoryException(
+              "Timed out accessing start path " + path));
+        } else if (errors.containsKey(path)) {
+          result.put(path, errors.get(path));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the host part of a path URL or UNC path, or the empty string
+   * if the path is local.
+   */
+  @VisibleForTesting
+  static String getHost(String path) {
+    int start;
+    char separator;
+    if (path.startsWith("\\\\")) {
+      start = 2;
+      separator = '\\';
+    } else {
+      start = path.indexOf("://");
+      if (start < 0) {
+        return "";
+      }
+      start += 3;
+      separator = '/';
+    }
+    int end = path.indexOf(separator, start);
+    return ((end < 0) ? path.substring(start) : path.substring(start, end))
+        .toLowerCase();
+  }
+}
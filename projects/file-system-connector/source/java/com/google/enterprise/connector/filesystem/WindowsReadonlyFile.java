@@ -60,6 +60,12 @@ public class WindowsReadonlyFile
     return (delegate.isDirectory()) ? path + File.separatorChar : path;
   }
 
+  /** Reads the directory incrementally, when running on Java 7 or later. */
+  @Override
+  protected boolean listNames(NameTable.Builder names) throws IOException {
+    return delegate.list(names);
+  }
+
   /**
    * Returns true if either the create timestamp or the last modified
    * timestamp of the file is newer than the supplied time.
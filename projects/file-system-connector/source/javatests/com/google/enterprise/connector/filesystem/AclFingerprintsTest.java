@@ -0,0 +1,121 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the {@link AclFingerprints} class.
+ */
+public class AclFingerprintsTest extends TestCase {
+  private final AclFingerprints fingerprints = new AclFingerprints();
+
+  public void testEmpty() {
+    assertEquals(0, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1L));
+    assertFalse(fingerprints.remove("/a/b"));
+  }
+
+  public void testPut() {
+    fingerprints.put("/a/b", 1L);
+    assertEquals(1, fingerprints.size());
+    assertTrue(fingerprints.contains("/a/b", 1L));
+    assertFalse(fingerprints.contains("/a/b", 2L));
+    assertFalse(fingerprints.contains("/a/c", 1L));
+  }
+
+  public void testPutTwice() {
+    fingerprints.put("/a/b", 1L);
+    fingerprints.put("/a/b", 2L);
+    assertEquals(1, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1L));
+    assertTrue(fingerprints.contains("/a/b", 2L));
+  }
+
+  public void testRemove() {
+    fingerprints.put("/a/b", 1L);
+    assertTrue(fingerprints.remove("/a/b"));
+    assertEquals(0, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1L));
+    assertFalse(fingerprints.remove("/a/b"));
+  }
+
+  public void testGrow() {
+    for (int i = 0; i < 10000; i++) {
+      fingerprints.put("/a/" + i, i);
+    }
+    assertEquals(10000, fingerprints.size());
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(fingerprints.contains("/a/" + i, i));
+      assertFalse(fingerprints.contains("/b/" + i, i));
+    }
+  }
+
+  /** Removing entries must not lose the entries that probed past them. */
+  public void testRemoveMany() {
+    for (int i = 0; i < 10000; i++) {
+      fingerprints.put("/a/" + i, i);
+    }
+    for (int i = 0; i < 10000; i += 3) {
+      assertTrue(fingerprints.remove("/a/" + i));
+    }
+    assertEquals(10000 - 3334, fingerprints.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i % 3 != 0, fingerprints.contains("/a/" + i, i));
+    }
+  }
+
+  public void testClear() {
+    fingerprints.put("/a/b", 1L);
+    fingerprints.clear();
+    assertEquals(0, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1L));
+  }
+
+  public void testKeyNotZero() {
+    assertFalse(0L == AclFingerprints.key(""));
+  }
+
+  public void testFingerprint() {
+    List<String> empty = Collections.emptyList();
+    List<String> wheel = Collections.singletonList("wheel");
+    List<String> staff = Collections.singletonList("staff");
+    Acl acl = Acl.newAcl(empty, wheel, empty, empty);
+
+    assertEquals(AclFingerprints.fingerprint(false, acl),
+        AclFingerprints.fingerprint(false,
+            Acl.newAcl(empty, wheel, empty, empty)));
+    assertFalse(AclFingerprints.fingerprint(false, acl)
+        == AclFingerprints.fingerprint(true, acl));
+    assertFalse(AclFingerprints.fingerprint(false, acl)
+        == AclFingerprints.fingerprint(false, (Acl) null));
+    assertFalse(AclFingerprints.fingerprint(false, acl)
+        == AclFingerprints.fingerprint(false,
+            Acl.newAcl(empty, staff, empty, empty)));
+    // The same principal as a user, or as a denied group, differs.
+    assertFalse(AclFingerprints.fingerprint(false, acl)
+        == AclFingerprints.fingerprint(false,
+            Acl.newAcl(wheel, empty, empty, empty)));
+    assertFalse(AclFingerprints.fingerprint(false, acl)
+        == AclFingerprints.fingerprint(false,
+            Acl.newAcl(empty, empty, empty, wheel)));
+    // The same ACL in a different position differs.
+    assertFalse(AclFingerprints.fingerprint(false, acl, null)
+        == AclFingerprints.fingerprint(false, null, acl));
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link FeedFingerprints} class.
+ */
+public class FeedFingerprintsTest extends TestCase {
+  private final FeedFingerprints fingerprints = new FeedFingerprints();
+
+  public void testEmpty() {
+    assertEquals(0, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1000L, 10L));
+  }
+
+  public void testAdd() {
+    fingerprints.add("/a/b", 1000L, 10L);
+    assertEquals(1, fingerprints.size());
+    assertTrue(fingerprints.contains("/a/b", 1000L, 10L));
+  }
+
+  public void testAddTwice() {
+    fingerprints.add("/a/b", 1000L, 10L);
+    fingerprints.add("/a/b", 1000L, 10L);
+    assertEquals(1, fingerprints.size());
+  }
+
+  public void testDifferentVersions() {
+    fingerprints.add("/a/b", 1000L, 10L);
+    assertFalse(fingerprints.contains("/a/b", 1001L, 10L));
+    assertFalse(fingerprints.contains("/a/b", 1000L, 11L));
+    assertFalse(fingerprints.contains("/a/c", 1000L, 10L));
+  }
+
+  public void testGrow() {
+    for (int i = 0; i < 10000; i++) {
+      fingerprints.add("/a/" + i, 1000L + i, i);
+    }
+    assertEquals(10000, fingerprints.size());
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(fingerprints.contains("/a/" + i, 1000L + i, i));
+      assertFalse(fingerprints.contains("/b/" + i, 1000L + i, i));
+    }
+  }
+
+  public void testRetainModifiedSince() {
+    for (int i = 0; i < 1000; i++) {
+      fingerprints.add("/a/" + i, 1000L + i, i);
+    }
+    fingerprints.retainModifiedSince(1990L);
+    assertEquals(10, fingerprints.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i >= 990, fingerprints.contains("/a/" + i, 1000L + i, i));
+    }
+  }
+
+  public void testClear() {
+    fingerprints.add("/a/b", 1000L, 10L);
+    fingerprints.clear();
+    assertEquals(0, fingerprints.size());
+    assertFalse(fingerprints.contains("/a/b", 1000L, 10L));
+  }
+
+  public void testFingerprintNotZero() {
+    assertFalse(0L == FeedFingerprints.fingerprint("", 0L, 0L));
+  }
+}
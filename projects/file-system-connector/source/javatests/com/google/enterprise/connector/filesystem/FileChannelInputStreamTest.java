@@ -0,0 +1,166 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link FileChannelInputStream}.
+ */
+public class FileChannelInputStreamTest extends TestCase {
+  private static final int CHUNK_SIZE = 16;
+
+  private File file;
+  private byte[] contents;
+
+  @Override
+  protected void setUp() throws Exception {
+    contents = new byte[100];
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) (i * 7);
+    }
+    file = File.createTempFile("FileChannelInputStreamTest", null);
+    Files.write(contents, file);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private InputStream newStream() throws IOException {
+    return new FileChannelInputStream(file, CHUNK_SIZE);
+  }
+
+  public void testReadSingleBytes() throws Exception {
+    InputStream in = newStream();
+    try {
+      for (int i = 0; i < contents.length; i++) {
+        assertEquals(contents[i] & 0xff, in.read());
+      }
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testReadAll() throws Exception {
+    InputStream in = newStream();
+    try {
+      assertTrue(Arrays.equals(contents, ByteStreams.toByteArray(in)));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testReadSmallAndLarge() throws Exception {
+    InputStream in = newStream();
+    try {
+      byte[] b = new byte[contents.length];
+      assertEquals(5, in.read(b, 0, 5));
+      // Empties the buffer, then reads the rest directly.
+      assertEquals(40, in.read(b, 5, 40));
+      // Refills the buffer.
+      assertEquals(10, in.read(b, 45, 10));
+      // Returns only what is buffered.
+      assertEquals(CHUNK_SIZE - 10, in.read(b, 55, 10));
+      ByteStreams.readFully(in, b, 55 + CHUNK_SIZE - 10,
+                            contents.length - 55 - CHUNK_SIZE + 10);
+      assertTrue(Arrays.equals(contents, b));
+      assertEquals(-1, in.read(b, 0, 10));
+      assertEquals(0, in.read(b, 0, 0));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testSkip() throws Exception {
+    InputStream in = newStream();
+    try {
+      assertEquals(contents[0] & 0xff, in.read());
+      assertEquals(10, in.skip(10));
+      assertEquals(contents[11] & 0xff, in.read());
+      assertEquals(50, in.skip(50));
+      assertEquals(contents[62] & 0xff, in.read());
+      assertEquals(37, in.available());
+      assertEquals(37, in.skip(1000));
+      assertEquals(-1, in.read());
+      assertEquals(0, in.available());
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testMarkReset() throws Exception {
+    InputStream in = newStream();
+    try {
+      assertTrue(in.markSupported());
+      in.skip(3);
+      in.mark(0);
+      byte[] b = new byte[50];
+      ByteStreams.readFully(in, b);
+      in.reset();
+      assertEquals(contents[3] & 0xff, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testResetWithoutMark() throws Exception {
+    InputStream in = newStream();
+    try {
+      in.reset();
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testBufferReused() throws Exception {
+    InputStream in = newStream();
+    in.close();
+    int pooled = FileChannelInputStream.getPooledBuffers();
+    assertTrue(pooled > 0);
+
+    in = newStream();
+    try {
+      assertEquals(pooled - 1, FileChannelInputStream.getPooledBuffers());
+      assertTrue(Arrays.equals(contents, ByteStreams.toByteArray(in)));
+    } finally {
+      in.close();
+    }
+    assertEquals(pooled, FileChannelInputStream.getPooledBuffers());
+  }
+
+  public void testReadAfterClose() throws Exception {
+    InputStream in = newStream();
+    in.close();
+    in.close();
+    try {
+      in.read();
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.enterprise.connector.filesystem;
 
 import com.google.enterprise.connector.filesystem.MockDirectoryBuilder.ConfigureFile;
+import com.google.enterprise.connector.spi.RepositoryException;
 import com.google.enterprise.connector.spi.SimpleTraversalContext;
 import com.google.enterprise.connector.util.MimeTypeDetector;
 
@@ -81,6 +82,113 @@ public class FileIteratorTest extends TestCase {
     assertNull(it.next());
   }        
 
+  /** Test that files already fed, and unchanged since, are skipped. */
+  public void testSkipsFedFiles() throws Exception {
+    MockDirectoryBuilder builder = new MockDirectoryBuilder();
+    MockReadonlyFile root = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, null,
+        "/foo/bar", "f1", "f2", "f3");
+    MockReadonlyFile f2 = root.get("f2");
+    MockReadonlyFile f3 = root.get("f3");
+
+    FeedFingerprints fedFiles = new FeedFingerprints();
+    fedFiles.add(f2.getPath(), f2.getLastModified(), f2.length());
+    fedFiles.add(f3.getPath(), f3.getLastModified(), f3.length());
+    // A newer version of f3 should be returned again.
+    f3.setLastModified(f3.getLastModified() + 1000L);
+
+    FileIterator it =
+        new FileIterator(root, newContext(), 0L, fedFiles, false, true,
+                         NameTable.Budget.UNLIMITED);
+    assertEquals("f1", it.next().getName());
+    assertEquals("f3", it.next().getName());
+    assertNull(it.next());
+  }
+
+  /** Test that a directory reached by two paths is traversed once. */
+  public void testSkipsDirectoriesAlreadyTraversed() throws Exception {
+    MockDirectoryBuilder builder = new MockDirectoryBuilder();
+    MockReadonlyFile root = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, null, "/foo/bar");
+    MockReadonlyFile d1 = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d1", "d1f1");
+    MockReadonlyFile d2 = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d2", "d2f1");
+    MockReadonlyFile d3 = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d3", "d3f1");
+    d1.setFileKey("same");
+    d2.setFileKey("same");
+    d3.setFileKey("other");
+
+    FileIterator it = new FileIterator(root, newContext(), 0L, false);
+    assertEquals("d1f1", it.next().getName());
+    assertEquals("d3f1", it.next().getName());
+    assertNull(it.next());
+  }
+
+  /** Test that directory iterators are closed when they are exhausted. */
+  public void testIteratorsClosed() throws Exception {
+    MockDirectoryBuilder builder = new MockDirectoryBuilder();
+    MockReadonlyFile root = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, null,
+        "/foo/bar", "f1", "f2");
+    MockReadonlyFile dir = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d1", "d1f1");
+
+    FileIterator it = new FileIterator(root, newContext(), 0L, false);
+    assertEquals("d1f1", it.next().getName());
+    assertEquals(1, root.getOpenIterators());
+    assertEquals(1, dir.getOpenIterators());
+    assertEquals("f1", it.next().getName());
+    assertEquals(0, dir.getOpenIterators());
+    assertEquals("f2", it.next().getName());
+    assertNull(it.next());
+    assertEquals(0, root.getOpenIterators());
+  }
+
+  /** Test that close() closes the directory iterators. */
+  public void testClose() throws Exception {
+    MockDirectoryBuilder builder = new MockDirectoryBuilder();
+    MockReadonlyFile root = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, null,
+        "/foo/bar", "f1", "f2");
+    MockReadonlyFile dir = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d1", "d1f1", "d1f2");
+
+    FileIterator it = new FileIterator(root, newContext(), 0L, false);
+    assertEquals("d1f1", it.next().getName());
+    it.close();
+    assertEquals(0, root.getOpenIterators());
+    assertEquals(0, dir.getOpenIterators());
+    assertFalse(it.hasNext());
+  }
+
+  /** Test that a directory is listed again after a RepositoryException. */
+  public void testRepositoryExceptionListingDirectory() throws Exception {
+    MockDirectoryBuilder builder = new MockDirectoryBuilder();
+    MockReadonlyFile root = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, null,
+        "/foo/bar", "f1");
+    MockReadonlyFile dir = builder.addDir(
+        MockDirectoryBuilder.CONFIGURE_FILE_ALL, root, "d1", "d1f1");
+    dir.setException(MockReadonlyFile.Where.LIST_FILES,
+                     new RepositoryException("Test Exception"));
+
+    FileIterator it = new FileIterator(root, newContext(), 0L, false);
+    try {
+      it.next();
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+
+    dir.setException(MockReadonlyFile.Where.NONE, null);
+    assertEquals("d1f1", it.next().getName());
+    assertEquals("f1", it.next().getName());
+    assertNull(it.next());
+    assertEquals(0, root.getOpenIterators());
+    assertEquals(0, dir.getOpenIterators());
+  }
+
   public void testFullTraversal() throws Exception {
     ConfigureFile configureFile = new ConfigureFile() {
         @Override
@@ -150,6 +258,17 @@ public class FileIteratorTest extends TestCase {
     noDirectoriesTest();
   }
 
+  /** When sweeping ACLs, return only the directories. */
+  public void testDirectoriesOnly() throws Exception {
+    ConfigureFile configureFile = new ConfigureFile() {
+        @Override
+        public boolean configure(MockReadonlyFile file) throws Exception {
+          return file.isDirectory();
+        }
+      };
+    runIterator(0L, configureFile, false);
+  }
+
   private void noDirectoriesTest() throws Exception {
     ConfigureFile configureFile = new ConfigureFile() {
         @Override
@@ -160,9 +279,14 @@ public class FileIteratorTest extends TestCase {
     runIterator(0L, configureFile);
   }
 
-  @SuppressWarnings("unchecked")
   private void runIterator(long ifModifiedSince,
       ConfigureFile configureFile) throws Exception {
+    runIterator(ifModifiedSince, configureFile, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void runIterator(long ifModifiedSince,
+      ConfigureFile configureFile, boolean returnFiles) throws Exception {
     MockDirectoryBuilder builder = new MockDirectoryBuilder();
     MockReadonlyFile root = builder.addDir(configureFile, null,
         "/foo/bar", "f1", "newer.txt", "f2");
@@ -181,7 +305,9 @@ public class FileIteratorTest extends TestCase {
         && !propertyManager.isMarkAllDocumentsPublic();
 
     FileIterator it =
-        new FileIterator(root, context, ifModifiedSince, returnDirectories);
+        new FileIterator(root, context, ifModifiedSince, null,
+                         returnDirectories, returnFiles,
+                         NameTable.Budget.UNLIMITED);
     for (MockReadonlyFile file : builder.getExpected()) {
       assertTrue(it.hasNext());
       assertEquals(file.getPath(), it.next().getPath());
@@ -191,6 +317,15 @@ public class FileIteratorTest extends TestCase {
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private DocumentContext newContext() {
+    DocumentContext context = new DocumentContext(null, null, null,
+        mimeTypeDetector, propertyManager, null,
+        Collections.singletonList("/"), (List<String>) Collections.EMPTY_LIST);
+    context.setTraversalContext(traversalContext);
+    return context;
+  }
+
   /* Useful for debugging, but it consumes the iterator. */
   private void expectedVsActual(MockDirectoryBuilder builder,
       FileIterator it) throws Exception {
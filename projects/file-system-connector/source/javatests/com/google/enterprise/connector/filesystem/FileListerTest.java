@@ -15,6 +15,7 @@
 package com.google.enterprise.connector.filesystem;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.enterprise.connector.filesystem.MockDirectoryBuilder.ConfigureFile;
 import com.google.enterprise.connector.spi.Document;
 import com.google.enterprise.connector.spi.DocumentAcceptor;
@@ -37,6 +38,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -579,6 +581,168 @@ public class FileListerTest extends TestCase {
         startTime + fullTraversalInterval + 1000));
   }
 
+  public void testWatchChanges() throws Exception {
+    final MockReadonlyFile root = MockReadonlyFile.createRoot("/root");
+    root.addFile("f1", "");
+    root.addSubdir("d1").addFile("f2", "");
+    FileLister lister = newLister(root, INCLUDE_ALL_PATTERNS,
+        EXCLUDE_NONE_PATTERNS, TRAVERSAL_SCHEDULE, PUSH_ACLS);
+    DocidRecordingDocumentAcceptor acceptor =
+        new DocidRecordingDocumentAcceptor();
+    lister.setDocumentAcceptor(acceptor);
+    FileLister.Traverser traverser = lister.newTraverser("/root");
+    traverser.call();
+    assertTrue(acceptor.toString(),
+               acceptor.contains("foldersAcl:/root/d1"));
+    acceptor.clear();
+
+    ScriptedChangeWatcher watcher = new ScriptedChangeWatcher() {
+        @Override
+        Map<String, ChangeWatcher.Action> next(int call) {
+          switch (call) {
+            case 0:
+              root.addFile("new.txt", "");
+              return ImmutableMap.of("/root/new.txt",
+                                     ChangeWatcher.Action.ADDED);
+            case 1:
+              root.remove("f1");
+              root.remove("d1");
+              return ImmutableMap.of(
+                  "/root/f1", ChangeWatcher.Action.REMOVED,
+                  "/root/d1", ChangeWatcher.Action.REMOVED);
+            case 2:
+              // Too many changes to report, so the root is traversed.
+              root.addFile("f3", "");
+              return null;
+            default:
+              return Collections.emptyMap();
+          }
+        }
+      };
+    root.setChangeWatcher(watcher);
+    traverser.newWatcher(System.currentTimeMillis() + 500L).call();
+
+    assertEquals(ImmutableList.of(
+        "/root/new.txt",
+        "delete /root/f1",
+        "delete foldersAcl:/root/d1",
+        "delete filesAcl:/root/d1",
+        "delete /root/d1",
+        "/root/f3"), acceptor);
+    assertFalse(watcher.closed);
+    traverser.closeWatcher();
+    assertTrue(watcher.closed);
+  }
+
+  public void testFeedOnlyChangedAcls() throws Exception {
+    List<String> empty = Collections.emptyList();
+    MockReadonlyFile root = MockReadonlyFile.createRoot("/root");
+    root.setShareAcl(Acl.newAcl(empty, Collections.singletonList("wheel"),
+                                empty, empty));
+    root.addFile("f1", "");
+    MockReadonlyFile d1 = root.addSubdir("d1");
+    d1.addFile("f2", "");
+    MockReadonlyFile d2 = root.addSubdir("d2");
+    d2.addFile("f3", "");
+    FileLister lister = newLister(root, INCLUDE_ALL_PATTERNS,
+        EXCLUDE_NONE_PATTERNS, TRAVERSAL_SCHEDULE, PUSH_ACLS);
+    DocidRecordingDocumentAcceptor acceptor =
+        new DocidRecordingDocumentAcceptor();
+    lister.setDocumentAcceptor(acceptor);
+    FileLister.Traverser traverser = lister.newTraverser("/root");
+    traverser.call();
+    assertTrue(acceptor.toString(), acceptor.contains("shareAcl:/root"));
+    assertTrue(acceptor.toString(),
+               acceptor.contains("foldersAcl:/root/d1"));
+    assertTrue(acceptor.toString(),
+               acceptor.contains("foldersAcl:/root/d2"));
+    acceptor.clear();
+
+    // Nothing has changed.
+    traverser.newSweeper().call();
+    assertEquals(ImmutableList.of(), acceptor);
+
+    d1.setContainerInheritAcl(Acl.newAcl(Collections.singletonList("joe"),
+                                         empty, empty, empty));
+    traverser.newSweeper().call();
+    assertEquals(ImmutableList.of(
+        "foldersAcl:/root/d1",
+        "filesAcl:/root/d1"), acceptor);
+    acceptor.clear();
+
+    root.setShareAcl(Acl.newAcl(empty, Collections.singletonList("staff"),
+                                empty, empty));
+    traverser.newSweeper().call();
+    assertEquals(ImmutableList.of("shareAcl:/root"), acceptor);
+    acceptor.clear();
+
+    // An incremental traversal feeds only the changed directory ACLs too.
+    d2.setFileInheritAcl(Acl.newAcl(Collections.singletonList("joe"),
+                                    empty, empty, empty));
+    traverser.call();
+    assertFalse(acceptor.toString(), acceptor.contains("shareAcl:/root"));
+    assertFalse(acceptor.toString(),
+                acceptor.contains("foldersAcl:/root/d1"));
+    assertTrue(acceptor.toString(),
+               acceptor.contains("foldersAcl:/root/d2"));
+    assertTrue(acceptor.toString(), acceptor.contains("filesAcl:/root/d2"));
+  }
+
+  /** A ChangeWatcher that returns a scripted series of changes. */
+  private abstract static class ScriptedChangeWatcher
+      implements ChangeWatcher {
+    private int calls = 0;
+    volatile boolean closed = false;
+
+    /** Returns the changes for the given call, counting from zero. */
+    abstract Map<String, Action> next(int call);
+
+    @Override
+    public Map<String, Action> getChanges(long timeout) throws IOException {
+      if (closed) {
+        throw new IOException("Watcher closed");
+      }
+      Map<String, Action> changes = next(calls++);
+      if (changes != null && changes.isEmpty()) {
+        try {
+          Thread.sleep(Math.min(timeout, 100L));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return changes;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /**
+   * Records the IDs of the documents taken, with the IDs of deleted
+   * documents prefixed by "delete ".
+   */
+  private static class DocidRecordingDocumentAcceptor extends ArrayList<String>
+      implements DocumentAcceptor {
+    @Override
+    public void take(Document document)
+        throws DocumentAcceptorException, RepositoryException {
+      String docid =
+          Value.getSingleValueString(document, SpiConstants.PROPNAME_DOCID);
+      String action =
+          Value.getSingleValueString(document, SpiConstants.PROPNAME_ACTION);
+      add(SpiConstants.ActionType.DELETE.toString().equals(action)
+          ? "delete " + docid : docid);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void cancel() {}
+  }
+
   private static class RecordingDocumentAcceptor extends ArrayList<FileDocument>
       implements DocumentAcceptor {
     @Override
@@ -146,6 +146,19 @@ public class FileRetrieverTest extends TestCase {
     assertEquals(testFileName, ((FileDocument) document).getDocumentId());
   }
 
+  public void testGetMetaDataReadsAclWithHandle() throws Exception {
+    context = new DocumentContext(null, null, null, MIME_TYPE_DETECTOR,
+        new TestFileSystemPropertyManager(true),
+        Collections.singletonList(root.getPath()),
+        ImmutableList.of("/"), ImmutableList.of("/.Trash$", ".exe$"));
+    retriever = new FileRetriever(pathParser, context);
+    retriever.setTraversalContext(TRAVERSAL_CONTEXT);
+
+    retriever.getMetaData(testFileName);
+    assertEquals(1, testFile.getAclReadsWithHandle());
+    assertEquals(0, testFile.getOpenHandles());
+  }
+
   public void testGetMetaDataRepositoryDocumentException() throws Exception {
     testFile.setException(MockReadonlyFile.Where.ALL,
                           new RepositoryDocumentException("Test Exception"));
@@ -219,6 +232,14 @@ public class FileRetrieverTest extends TestCase {
     assertEquals(TEST_DATA, streamToString(is));
   }
 
+  public void testGetContentClosesHandle() throws Exception {
+    InputStream is = retriever.getContent(testFileName);
+    assertNotNull(is);
+    assertEquals(1, testFile.getOpenHandles());
+    is.close();
+    assertEquals(0, testFile.getOpenHandles());
+  }
+
   public void testGetContentDirectory() throws Exception {
     // Directories have no content.
     assertNull(retriever.getContent(testDir.getPath()));
@@ -284,6 +305,12 @@ public class FileRetrieverTest extends TestCase {
     assertNull(retriever.getContent(testFileName));
   }
 
+  public void testGetContentNoContentClosesHandle() throws Exception {
+    testFile.setFileContents(TOO_BIG_DATA);
+    assertNull(retriever.getContent(testFileName));
+    assertEquals(0, testFile.getOpenHandles());
+  }
+
   public void testGetContentBigFile() throws Exception {
     testFile.setFileContents(MAX_SIZE_DATA);
     InputStream is = retriever.getContent(testFileName);
@@ -324,6 +351,17 @@ public class FileRetrieverTest extends TestCase {
     }
   }
 
+  public void testGetContentIOExceptionClosesHandle() throws Exception {
+    testFile.setException(MockReadonlyFile.Where.GET_INPUT_STREAM,
+                          new IOException("Test Exception"));
+    try {
+      retriever.getContent(testFileName);
+      fail("Expected RepositoryDocumentException, but got none.");
+    } catch (RepositoryDocumentException expected) {
+      assertEquals(0, testFile.getOpenHandles());
+    }
+  }
+
   public void testGetContentServerDown() throws Exception {
     testFile.setException(MockReadonlyFile.Where.ALL,
                           new RepositoryException("Server down."));
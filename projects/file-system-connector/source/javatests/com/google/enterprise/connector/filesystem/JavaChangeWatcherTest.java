@@ -0,0 +1,129 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.enterprise.connector.filesystem.ChangeWatcher.Action;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests for {@link JavaChangeWatcher}.  These tests do nothing on JREs
+ * that do not support the {@code java.nio.file.WatchService} API.
+ */
+public class JavaChangeWatcherTest extends TestCase {
+  /** The time to wait for an expected change to be reported. */
+  private static final long TIMEOUT = 30 * 1000L;
+
+  private File root;
+  private File dir;
+  private ChangeWatcher watcher;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    dir = new File(root, "dir");
+    assertTrue(dir.mkdir());
+    Files.write("existing".getBytes("UTF-8"), new File(dir, "existing"));
+    watcher = JavaChangeWatcher.newInstance(root);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (watcher != null) {
+      watcher.close();
+    }
+    ConcreteReadonlyFileTestAbstract.deleteAllFiles(root);
+  }
+
+  /** Waits until the watcher reports a change to the given file. */
+  private Map<String, Action> waitForChange(File file) throws Exception {
+    Map<String, Action> changes = Maps.newHashMap();
+    long end = System.currentTimeMillis() + TIMEOUT;
+    long remaining;
+    while (!changes.containsKey(file.getPath())
+           && (remaining = end - System.currentTimeMillis()) > 0L) {
+      Map<String, Action> more = watcher.getChanges(remaining);
+      assertNotNull(more);
+      changes.putAll(more);
+    }
+    return changes;
+  }
+
+  public void testNoChanges() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    assertEquals(0, watcher.getChanges(10L).size());
+  }
+
+  public void testAddedInSubdirectory() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    File file = new File(dir, "added");
+    Files.write("added".getBytes("UTF-8"), file);
+    assertEquals(Action.ADDED, waitForChange(file).get(file.getPath()));
+  }
+
+  public void testModified() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    File file = new File(dir, "existing");
+    Files.append("more", file, Charsets.UTF_8);
+    assertEquals(Action.MODIFIED, waitForChange(file).get(file.getPath()));
+  }
+
+  public void testRemoved() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    File file = new File(dir, "existing");
+    assertTrue(file.delete());
+    assertEquals(Action.REMOVED, waitForChange(file).get(file.getPath()));
+  }
+
+  public void testAddedDirectoryIsWatched() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    File newDir = new File(root, "newdir");
+    assertTrue(newDir.mkdir());
+    assertEquals(Action.ADDED, waitForChange(newDir).get(newDir.getPath()));
+
+    File file = new File(newDir, "added");
+    Files.write("added".getBytes("UTF-8"), file);
+    assertEquals(Action.ADDED, waitForChange(file).get(file.getPath()));
+  }
+
+  public void testClosed() throws Exception {
+    if (watcher == null) {
+      return;
+    }
+    watcher.close();
+    try {
+      watcher.getChanges(10L);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -14,6 +14,10 @@
 
 package com.google.enterprise.connector.filesystem;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -63,4 +67,25 @@ public class JavaReadonlyFileTest extends ConcreteReadonlyFileTestAbstract
     assertEquals(getAbsolutePath(file1), x.get(3).getPath());
     assertEquals(getAbsolutePath(file2), x.get(4).getPath());
   }
+
+  public void testAttributesAreCached() throws Exception {
+    JavaFileDelegate delegate = getDelegate(getAbsolutePath(file1));
+    long length = delegate.length();
+    Files.append("more", new File(getAbsolutePath(file1)), Charsets.UTF_8);
+    if (Nio.INSTANCE == null) {
+      assertEquals(length + 4, delegate.length());
+    } else {
+      assertEquals(length, delegate.length());
+    }
+    assertEquals(length + 4, getDelegate(getAbsolutePath(file1)).length());
+  }
+
+  public void testMissingAttributes() throws Exception {
+    JavaFileDelegate delegate = getDelegate(getAbsolutePath(root) + "/nope");
+    assertFalse(delegate.exists());
+    assertFalse(delegate.isDirectory());
+    assertFalse(delegate.isFile());
+    assertEquals(0L, delegate.length());
+    assertEquals(0L, delegate.lastModified());
+  }
 }
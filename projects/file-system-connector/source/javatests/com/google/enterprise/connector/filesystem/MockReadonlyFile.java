@@ -51,7 +51,13 @@ public class MockReadonlyFile implements ReadonlyFile<MockReadonlyFile> {
   private boolean exists = true;
   private boolean isHidden = false;
   private boolean isRegularFile = true;
+  private Object fileKey = null;
   private FileSystemType<?> fileSystemType = null;
+  private ChangeWatcher changeWatcher = null;
+
+  private int openIterators = 0;    // Number of unclosed iterateFiles().
+  private int openHandles = 0;      // Number of unclosed openHandle().
+  private int aclReadsWithHandle = 0; // getAcl() calls with a handle open.
 
   private Where where = Where.NONE; // Where to throw an Exception.
   private Exception exception;      // What exception to throw.
@@ -248,6 +254,9 @@ public class MockReadonlyFile implements ReadonlyFile<MockReadonlyFile> {
   public Acl getAcl() throws RepositoryException, IOException {
     maybeThrowRepositoryException(Where.GET_ACL);
     maybeThrowIOException(Where.GET_ACL);
+    if (openHandles > 0) {
+      aclReadsWithHandle++;
+    }
     return acl;
   }
 
@@ -432,6 +441,89 @@ public class MockReadonlyFile implements ReadonlyFile<MockReadonlyFile> {
     return directoryContents;
   }
 
+  @Override
+  public DirectoryIterator<MockReadonlyFile> iterateFiles()
+      throws DirectoryListingException, RepositoryException, IOException {
+    final Iterator<MockReadonlyFile> files = listFiles().iterator();
+    openIterators++;
+    return new DirectoryIterator<MockReadonlyFile>() {
+      private boolean closed = false;
+
+      @Override
+      public boolean hasNext() {
+        return files.hasNext();
+      }
+
+      @Override
+      public MockReadonlyFile next() {
+        return files.next();
+      }
+
+      @Override
+      public void close() {
+        if (!closed) {
+          closed = true;
+          openIterators--;
+        }
+      }
+    };
+  }
+
+  @Override
+  public DirectoryIterator<MockReadonlyFile> iterateFiles(
+      NameTable.Budget budget)
+      throws DirectoryListingException, RepositoryException, IOException {
+    return iterateFiles();
+  }
+
+  /** Returns the number of iterators returned by iterateFiles() that
+   *  have not been closed. */
+  int getOpenIterators() {
+    return openIterators;
+  }
+
+  @Override
+  public void openHandle() throws RepositoryException {
+    openHandles++;
+  }
+
+  @Override
+  public void closeHandle() {
+    if (openHandles > 0) {
+      openHandles--;
+    }
+  }
+
+  /** Sets the watcher returned by newChangeWatcher(). */
+  public void setChangeWatcher(ChangeWatcher changeWatcher) {
+    this.changeWatcher = changeWatcher;
+  }
+
+  @Override
+  public ChangeWatcher newChangeWatcher() {
+    return changeWatcher;
+  }
+
+  public void setFileKey(Object fileKey) {
+    this.fileKey = fileKey;
+  }
+
+  @Override
+  public Object getFileKey() {
+    return fileKey;
+  }
+
+  /** Returns the number of calls to openHandle() that have not been
+   *  matched by a call to closeHandle(). */
+  int getOpenHandles() {
+    return openHandles;
+  }
+
+  /** Returns the number of calls to getAcl() made while a handle was open. */
+  int getAclReadsWithHandle() {
+    return aclReadsWithHandle;
+  }
+
   @Override
   public FileSystemType<?> getFileSystemType() {
     return (fileSystemType != null) ? fileSystemType
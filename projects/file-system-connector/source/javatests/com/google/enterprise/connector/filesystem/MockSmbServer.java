@@ -0,0 +1,1927 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import jcifs.dcerpc.UnicodeString;
+import jcifs.dcerpc.msrpc.lsarpc;
+import jcifs.dcerpc.msrpc.srvsvc;
+import jcifs.dcerpc.ndr.NdrBuffer;
+import jcifs.dcerpc.ndr.NdrException;
+import jcifs.dcerpc.rpc;
+import jcifs.smb.ACE;
+import jcifs.smb.NtStatus;
+import jcifs.smb.SID;
+import jcifs.smb.SmbException;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-process SMB1 server, for testing the connector against jcifs
+ * without a Windows file server.  It serves local directories as
+ * read-only shares, and speaks only the subset of the protocol that jcifs
+ * uses to traverse and read them: negotiate, session setup and tree
+ * connect, {@code FIND_FIRST2} and {@code FIND_NEXT2}, path information
+ * queries, {@code NT_CREATE_ANDX}, {@code READ_ANDX}, security
+ * descriptor queries and change notification, and the {@code srvsvc} and
+ * {@code lsarpc} named pipes, for share ACLs and SID resolution.
+ * <p/>
+ * Any credentials are accepted.  Security descriptors are synthetic:
+ * each share root has a default DACL unless one is set, and inheritable
+ * entries are inherited by the descendants of a directory.  Latency can
+ * be added to every response, and errors can be injected into chosen
+ * operations, for load and regression tests.
+ * <p/>
+ * The shares do not change on their own, so changes are reported to
+ * watching clients only when the test calls {@link #notifyChange}.
+ * <p/>
+ * Chained AndX requests are answered one at a time, which jcifs handles
+ * by sending the chained request again, and multi-part transactions are
+ * not supported.
+ */
+public class MockSmbServer {
+  private static final Logger LOGGER =
+      Logger.getLogger(MockSmbServer.class.getName());
+
+  /** The operations that are counted, and that errors can be injected into. */
+  public enum Operation {
+    NEGOTIATE, SESSION_SETUP, TREE_CONNECT, FIND_FIRST, FIND_NEXT,
+    QUERY_PATH_INFO, SET_FILE_INFO, NT_CREATE, READ, CLOSE,
+    QUERY_SECURITY_DESC, SHARE_GET_INFO, LOOKUP_SIDS, NOTIFY_CHANGE, CANCEL
+  }
+
+  /**
+   * A pseudo status that makes the server drop the connection, rather
+   * than respond to the request.
+   */
+  public static final int DISCONNECT = -1;
+
+  public static final String EVERYONE = "S-1-1-0";
+  public static final String ADMINISTRATORS = "S-1-5-32-544";
+  public static final String SYSTEM = "S-1-5-18";
+  public static final String AUTHENTICATED_USERS = "S-1-5-11";
+
+  private static final int SMB_COM_CLOSE = 0x04;
+  private static final int SMB_COM_TRANSACTION = 0x25;
+  private static final int SMB_COM_ECHO = 0x2B;
+  private static final int SMB_COM_READ_ANDX = 0x2E;
+  private static final int SMB_COM_TRANSACTION2 = 0x32;
+  private static final int SMB_COM_FIND_CLOSE2 = 0x34;
+  private static final int SMB_COM_TREE_DISCONNECT = 0x71;
+  private static final int SMB_COM_NEGOTIATE = 0x72;
+  private static final int SMB_COM_SESSION_SETUP_ANDX = 0x73;
+  private static final int SMB_COM_LOGOFF_ANDX = 0x74;
+  private static final int SMB_COM_TREE_CONNECT_ANDX = 0x75;
+  private static final int SMB_COM_NT_TRANSACT = 0xA0;
+  private static final int SMB_COM_NT_CREATE_ANDX = 0xA2;
+  private static final int SMB_COM_NT_CANCEL = 0xA4;
+
+  private static final int TRANS_TRANSACT_NAMED_PIPE = 0x26;
+  private static final int TRANS2_FIND_FIRST2 = 0x01;
+  private static final int TRANS2_FIND_NEXT2 = 0x02;
+  private static final int TRANS2_QUERY_PATH_INFORMATION = 0x05;
+  private static final int TRANS2_SET_FILE_INFORMATION = 0x08;
+  private static final int NT_TRANSACT_NOTIFY_CHANGE = 0x04;
+  private static final int NT_TRANSACT_QUERY_SECURITY_DESC = 0x06;
+
+  private static final int SMB_QUERY_FILE_BASIC_INFO = 0x101;
+  private static final int SMB_QUERY_FILE_STANDARD_INFO = 0x102;
+  private static final int SMB_FIND_FILE_BOTH_DIRECTORY_INFO = 0x104;
+
+  private static final int FLAGS2_UNICODE = 0x8000;
+  private static final int FLAGS2_STATUS32 = 0x4000;
+  private static final int FLAGS2_LONG_FILENAMES = 0x0001;
+
+  private static final int CAPABILITIES =
+      0x0004    // CAP_UNICODE
+      | 0x0008  // CAP_LARGE_FILES
+      | 0x0010  // CAP_NT_SMBS
+      | 0x0020  // CAP_RPC_REMOTE_APIS
+      | 0x0040  // CAP_STATUS32
+      | 0x0200; // CAP_NT_FIND
+
+  private static final int ATTR_READONLY = 0x01;
+  private static final int ATTR_HIDDEN = 0x02;
+  private static final int ATTR_DIRECTORY = 0x10;
+  private static final int ATTR_ARCHIVE = 0x20;
+
+  private static final int FILE_DIRECTORY_FILE = 0x01;
+  private static final int FILE_NON_DIRECTORY_FILE = 0x40;
+
+  /** The access rights refused by a read-only share. */
+  private static final int WRITE_ACCESS = ACE.FILE_WRITE_DATA
+      | ACE.FILE_APPEND_DATA | ACE.FILE_WRITE_EA | ACE.FILE_DELETE
+      | ACE.DELETE | ACE.WRITE_DAC | ACE.WRITE_OWNER | ACE.GENERIC_ALL
+      | ACE.GENERIC_WRITE;
+
+  private static final int STATUS_BUFFER_OVERFLOW = 0x80000005;
+  private static final int STATUS_CANCELLED = 0xC0000120;
+  private static final int STATUS_NOTIFY_CLEANUP = 0x0000010B;
+  private static final int STATUS_NOTIFY_ENUM_DIR = 0x0000010C;
+  private static final int STATUS_NOT_SUPPORTED = 0xC00000BB;
+  private static final int STATUS_PIPE_EMPTY = 0xC00000D9;
+  private static final int STATUS_SOME_NOT_MAPPED = 0x00000107;
+  private static final int WERR_UNKNOWN_LEVEL = 124;
+  private static final int WERR_NET_NAME_NOT_FOUND = 2310;
+
+  /** The largest message jcifs accepts, less the 4 byte session header. */
+  private static final int MAX_MESSAGE_SIZE = 60416 - 4;
+  /** The room left for transaction data in a response. */
+  private static final int MAX_DATA_SIZE = MAX_MESSAGE_SIZE - 128;
+  /** The largest DCE RPC fragment sent to jcifs. */
+  private static final int MAX_FRAGMENT_SIZE = 4280;
+
+  private static final int DCERPC_REQUEST = 0;
+  private static final int DCERPC_RESPONSE = 2;
+  private static final int DCERPC_FAULT = 3;
+  private static final int DCERPC_BIND = 11;
+  private static final int DCERPC_BIND_ACK = 12;
+  private static final int DCERPC_FIRST_FRAG = 0x01;
+  private static final int DCERPC_LAST_FRAG = 0x02;
+  private static final int DCERPC_FAULT_OP_RNG_ERROR = 0x1C010002;
+
+  private static final int SRVSVC_SHARE_GET_INFO = 0x10;
+  private static final int LSARPC_CLOSE = 0x00;
+  private static final int LSARPC_LOOKUP_SIDS = 0x0F;
+  private static final int LSARPC_OPEN_POLICY2 = 0x2C;
+
+  /** The NDR transfer syntax, 8a885d04-1ceb-11c9-9fe8-08002b104860 v2. */
+  private static final byte[] NDR_SYNTAX = {
+    (byte) 0x04, (byte) 0x5d, (byte) 0x88, (byte) 0x8a,
+    (byte) 0xeb, (byte) 0x1c, (byte) 0xc9, (byte) 0x11,
+    (byte) 0x9f, (byte) 0xe8, (byte) 0x08, (byte) 0x00,
+    (byte) 0x2b, (byte) 0x10, (byte) 0x48, (byte) 0x60,
+    (byte) 0x02, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+
+  /** Milliseconds between the FILETIME and Java epochs. */
+  private static final long MILLISECONDS_BETWEEN_1970_AND_1601 =
+      11644473600000L;
+
+  /** An access control entry in a synthetic security descriptor. */
+  public static class Ace {
+    private final String sid;
+    private final boolean allow;
+    private final int access;
+    private final int flags;
+
+    /**
+     * @param sid the textual SID of the trustee
+     * @param allow {@code true} to allow access, {@code false} to deny it
+     * @param access the access mask, using the {@link ACE} constants
+     * @param flags the inheritance flags, using the {@link ACE} constants
+     */
+    public Ace(String sid, boolean allow, int access, int flags) {
+      this.sid = sid;
+      this.allow = allow;
+      this.access = access;
+      this.flags = flags;
+    }
+  }
+
+  /** An account that SIDs are resolved to. */
+  private static class Account {
+    final String domain;
+    final String name;
+    final int type;
+
+    Account(String domain, String name, int type) {
+      this.domain = domain;
+      this.name = name;
+      this.type = type;
+    }
+  }
+
+  /** An error to be injected into an operation. */
+  private static class Fault {
+    final Operation operation;
+    final File file;
+    final int status;
+    int remaining;
+
+    Fault(Operation operation, File file, int status, int count) {
+      this.operation = operation;
+      this.file = file;
+      this.status = status;
+      this.remaining = count;
+    }
+  }
+
+  private static final List<Ace> DEFAULT_ROOT_ACES = Arrays.asList(
+      new Ace(EVERYONE, true, 0x1200A9,
+          ACE.FLAGS_OBJECT_INHERIT | ACE.FLAGS_CONTAINER_INHERIT),
+      new Ace(ADMINISTRATORS, true, 0x1F01FF,
+          ACE.FLAGS_OBJECT_INHERIT | ACE.FLAGS_CONTAINER_INHERIT));
+
+  private static final List<Ace> DEFAULT_SHARE_ACES = Collections.singletonList(
+      new Ace(EVERYONE, true, 0x1F01FF, 0));
+
+  private final Map<String, File> shares = Maps.newHashMap();
+  private final Map<File, List<Ace>> fileAces = Maps.newHashMap();
+  private final Map<String, List<Ace>> shareAces = Maps.newHashMap();
+  private final Map<String, Account> accounts = Maps.newHashMap();
+  private final List<Fault> faults = Lists.newLinkedList();
+  private final ConcurrentMap<Operation, AtomicInteger> requestCounts =
+      Maps.newConcurrentMap();
+  private final Set<Connection> connections = Sets.newHashSet();
+  private final List<Watch> watches = Lists.newArrayList();
+
+  private volatile long latency = 0L;
+  private ServerSocket serverSocket;
+  private ScheduledExecutorService scheduler;
+
+  public MockSmbServer() {
+    addAccount(EVERYONE, "", "Everyone", SID.SID_TYPE_WKN_GRP);
+    addAccount(ADMINISTRATORS, "BUILTIN", "Administrators",
+               SID.SID_TYPE_ALIAS);
+    addAccount(SYSTEM, "NT AUTHORITY", "SYSTEM", SID.SID_TYPE_WKN_GRP);
+    addAccount(AUTHENTICATED_USERS, "NT AUTHORITY", "Authenticated Users",
+               SID.SID_TYPE_WKN_GRP);
+    for (Operation operation : Operation.values()) {
+      requestCounts.put(operation, new AtomicInteger());
+    }
+  }
+
+  /** Serves the directory as a read-only share with the given name. */
+  public synchronized void addShare(String name, File dir) {
+    shares.put(name.toUpperCase(Locale.ENGLISH), dir.getAbsoluteFile());
+  }
+
+  /**
+   * Sets the explicit ACEs of a file or directory.  Inheritable ACEs of
+   * its parent directory are still inherited, except by share roots.
+   */
+  public synchronized void setAces(File file, Ace... aces) {
+    fileAces.put(file.getAbsoluteFile(), Arrays.asList(aces));
+  }
+
+  /** Sets the ACEs of a share, returned by {@code NetrShareGetInfo}. */
+  public synchronized void setShareAces(String share, Ace... aces) {
+    shareAces.put(share.toUpperCase(Locale.ENGLISH), Arrays.asList(aces));
+  }
+
+  /**
+   * Adds an account that {@code LsarLookupSids} resolves the SID to.
+   *
+   * @param type one of the {@code SID.SID_TYPE_} constants
+   */
+  public synchronized void addAccount(String sid, String domain, String name,
+      int type) {
+    accounts.put(sid, new Account(domain, name, type));
+  }
+
+  /** Delays every response by the given number of milliseconds. */
+  public void setLatency(long millis) {
+    latency = millis;
+  }
+
+  /**
+   * Fails the next {@code count} requests for the operation with the
+   * given NT status, or drops the connection if the status is
+   * {@link #DISCONNECT}.
+   *
+   * @param file the file the requests must be for, or {@code null} for
+   *        any file.  Tree connects are for the share root directory.
+   */
+  public synchronized void injectError(Operation operation, File file,
+      int status, int count) {
+    faults.add(new Fault(operation,
+        (file == null) ? null : file.getAbsoluteFile(), status, count));
+  }
+
+  /**
+   * Reports a change to a file to the clients watching its directory, or
+   * a directory above it if they watch the whole tree.  Changes made while
+   * a client is not waiting for them are kept until it asks again, unless
+   * there are more than fit in a response, in which case the client is
+   * told that changes were missed.
+   *
+   * @param action one of the {@code FileNotifyInformation.FILE_ACTION_}
+   *        constants
+   */
+  public void notifyChange(File file, int action) {
+    file = file.getAbsoluteFile();
+    Map<Connection, Buffer> responses = Maps.newHashMap();
+    synchronized (this) {
+      for (Watch watch : watches) {
+        String name = watch.getName(file);
+        if (name != null) {
+          watch.add(action, name);
+          Buffer response = watch.connection.notifyResponse(watch);
+          if (response != null) {
+            responses.put(watch.connection, response);
+          }
+        }
+      }
+    }
+    for (Map.Entry<Connection, Buffer> entry : responses.entrySet()) {
+      try {
+        entry.getKey().send(entry.getValue());
+      } catch (IOException e) {
+        entry.getKey().close();
+      }
+    }
+  }
+
+  /** Removes any errors that have not yet been injected. */
+  public synchronized void clearErrors() {
+    faults.clear();
+  }
+
+  /** Returns the number of requests received for the operation. */
+  public int getRequestCount(Operation operation) {
+    return requestCounts.get(operation).get();
+  }
+
+  /** Listens for connections on an ephemeral port of the loopback address. */
+  public synchronized void start() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "MockSmbServer-responder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    Thread acceptor = new Thread("MockSmbServer-acceptor") {
+        @Override
+        public void run() {
+          acceptConnections();
+        }
+      };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /** Stops listening, and closes all connections. */
+  public void stop() {
+    List<Connection> open;
+    synchronized (this) {
+      if (serverSocket == null) {
+        return;
+      }
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINEST, "Failed to close server socket", e);
+      }
+      scheduler.shutdownNow();
+      open = Lists.newArrayList(connections);
+    }
+    for (Connection connection : open) {
+      connection.close();
+    }
+  }
+
+  public synchronized int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Returns the URL of the share root, for jcifs. */
+  public String getUrl(String share) {
+    return "smb://127.0.0.1:" + getPort() + "/" + share + "/";
+  }
+
+  private void acceptConnections() {
+    while (true) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The server was stopped.
+        return;
+      }
+      Connection connection = new Connection(socket);
+      synchronized (this) {
+        if (serverSocket.isClosed()) {
+          connection.close();
+          return;
+        }
+        connections.add(connection);
+      }
+      Thread thread = new Thread(connection, "MockSmbServer-connection");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Counts a request for the operation, and returns the status injected
+   * into it, or zero.
+   */
+  private synchronized int operation(Operation operation, File file) {
+    requestCounts.get(operation).incrementAndGet();
+    for (Iterator<Fault> it = faults.iterator(); it.hasNext(); ) {
+      Fault fault = it.next();
+      if (fault.operation == operation
+          && (fault.file == null || fault.file.equals(file))) {
+        if (--fault.remaining <= 0) {
+          it.remove();
+        }
+        return fault.status;
+      }
+    }
+    return 0;
+  }
+
+  private synchronized File getShare(String name) {
+    return shares.get(name.toUpperCase(Locale.ENGLISH));
+  }
+
+  /** Returns the effective ACEs of a file in the share. */
+  private synchronized List<Ace> getAces(File root, File file) {
+    List<Ace> aces = Lists.newArrayList();
+    List<Ace> explicit = fileAces.get(file);
+    if (explicit == null && file.equals(root)) {
+      explicit = DEFAULT_ROOT_ACES;
+    }
+    if (explicit != null) {
+      aces.addAll(explicit);
+    }
+    if (file.equals(root)) {
+      return aces;
+    }
+    boolean isDirectory = file.isDirectory();
+    for (Ace parent : getAces(root, file.getParentFile())) {
+      int flags = parent.flags;
+      if (isDirectory && (flags & ACE.FLAGS_CONTAINER_INHERIT) != 0) {
+        flags = ((flags & ACE.FLAGS_NO_PROPAGATE) != 0)
+            ? 0 : flags & ~ACE.FLAGS_INHERIT_ONLY;
+      } else if (isDirectory && (flags & ACE.FLAGS_OBJECT_INHERIT) != 0
+          && (flags & ACE.FLAGS_NO_PROPAGATE) == 0) {
+        // Only inherited by the files below this directory.
+        flags = (flags & ~ACE.FLAGS_CONTAINER_INHERIT)
+            | ACE.FLAGS_INHERIT_ONLY;
+      } else if (!isDirectory && (flags & ACE.FLAGS_OBJECT_INHERIT) != 0) {
+        flags = 0;
+      } else {
+        continue;
+      }
+      aces.add(new Ace(parent.sid, parent.allow, parent.access,
+                       flags | ACE.FLAGS_INHERITED));
+    }
+    return aces;
+  }
+
+  private synchronized List<Ace> getShareAces(String share) {
+    List<Ace> aces = shareAces.get(share.toUpperCase(Locale.ENGLISH));
+    return (aces == null) ? DEFAULT_SHARE_ACES : aces;
+  }
+
+  private synchronized Account getAccount(String sid) {
+    return accounts.get(sid);
+  }
+
+  /** A connected share. */
+  private static class Tree {
+    final String share;
+    /** The share root directory, or null for IPC$. */
+    final File root;
+
+    Tree(String share, File root) {
+      this.share = share;
+      this.root = root;
+    }
+  }
+
+  /** An open file, directory or named pipe. */
+  private static class Open {
+    final File file;
+    final RandomAccessFile content;
+    final String pipe;
+    /** The fragments of the pending RPC response, for a named pipe. */
+    final LinkedList<byte[]> fragments = Lists.newLinkedList();
+    /** The number of bytes of the first fragment already read. */
+    int fragmentOffset;
+    /** The changes to a directory being watched. */
+    Watch watch;
+
+    Open(File file, RandomAccessFile content, String pipe) {
+      this.file = file;
+      this.content = content;
+      this.pipe = pipe;
+    }
+  }
+
+  /** A directory listing in progress. */
+  private static class Search {
+    final File dir;
+    final List<String> names;
+    int position = 0;
+
+    Search(File dir, List<String> names) {
+      this.dir = dir;
+      this.names = names;
+    }
+  }
+
+  /**
+   * A directory being watched for changes by a client.  Guarded by the
+   * server.
+   */
+  private static class Watch {
+    final Connection connection;
+    final File dir;
+    boolean watchTree;
+    /** The size of the largest response the client accepts. */
+    int maxSize;
+    /** The request waiting for changes, or null. */
+    byte[] pending;
+    /** The changes not yet reported, as FILE_NOTIFY_INFORMATION entries. */
+    Buffer changes = new Buffer();
+    int lastEntry = -1;
+
+    Watch(Connection connection, File dir) {
+      this.connection = connection;
+      this.dir = dir;
+    }
+
+    /**
+     * Returns the name of the file relative to the directory, or null if
+     * its changes are not reported.
+     */
+    String getName(File file) {
+      String name = file.getName();
+      for (File parent = file.getParentFile(); parent != null;
+           parent = parent.getParentFile()) {
+        if (parent.equals(dir)) {
+          return name;
+        } else if (!watchTree) {
+          return null;
+        }
+        name = parent.getName() + "\\" + name;
+      }
+      return null;
+    }
+
+    void add(int action, String name) {
+      byte[] nameBytes = utf16(name);
+      changes.align(4);
+      if (lastEntry >= 0) {
+        changes.set4(lastEntry, changes.length - lastEntry);
+      }
+      lastEntry = changes.length;
+      changes.put4(0);            // Next entry offset
+      changes.put4(action);
+      changes.put4(nameBytes.length);
+      changes.put(nameBytes);
+    }
+  }
+
+  /**
+   * A client connection.  Requests are handled by a single thread, so the
+   * connection state is not synchronized.
+   */
+  private class Connection implements Runnable {
+    private final Socket socket;
+    private final Map<Integer, Tree> trees = Maps.newHashMap();
+    private final Map<Integer, Open> opens = Maps.newHashMap();
+    private final Map<Integer, Search> searches = Maps.newHashMap();
+    private int nextId = 1;
+    private OutputStream out;
+
+    Connection(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setTcpNoDelay(true);
+        InputStream in = socket.getInputStream();
+        out = socket.getOutputStream();
+        byte[] header = new byte[4];
+        while (true) {
+          readFully(in, header, 4);
+          int length = ((header[1] & 0x01) << 16) | ((header[2] & 0xFF) << 8)
+              | (header[3] & 0xFF);
+          byte[] request = new byte[length];
+          readFully(in, request, length);
+          if (header[0] != 0) {
+            // A keep-alive or other session service message.
+            continue;
+          }
+          if (length < 35 || request[0] != (byte) 0xFF
+              || request[1] != 'S' || request[2] != 'M' || request[3] != 'B') {
+            throw new IOException("Not an SMB1 message");
+          }
+          Buffer response = handle(request);
+          if (response == null) {
+            continue;
+          } else if (response == Buffer.DISCONNECT) {
+            break;
+          }
+          send(response);
+        }
+      } catch (EOFException e) {
+        // The client closed the connection.
+      } catch (SocketException e) {
+        // The connection was reset or closed.
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "MockSmbServer connection failed", e);
+      } finally {
+        close();
+        for (Open open : opens.values()) {
+          closeQuietly(open);
+          synchronized (MockSmbServer.this) {
+            watches.remove(open.watch);
+          }
+        }
+      }
+    }
+
+    void close() {
+      synchronized (MockSmbServer.this) {
+        connections.remove(this);
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINEST, "Failed to close socket", e);
+      }
+    }
+
+    /** Sends the response, after the configured latency. */
+    void send(final Buffer response) throws IOException {
+      long delay = latency;
+      if (delay <= 0) {
+        write(response);
+        return;
+      }
+      scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              write(response);
+            } catch (IOException e) {
+              close();
+            }
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(Buffer response) throws IOException {
+      byte[] message = new byte[4 + response.length];
+      message[1] = (byte) (response.length >> 16);
+      message[2] = (byte) (response.length >> 8);
+      message[3] = (byte) response.length;
+      System.arraycopy(response.bytes, 0, message, 4, response.length);
+      synchronized (socket) {
+        out.write(message);
+        out.flush();
+      }
+    }
+
+    /** Returns the response to the request, or null if there is none. */
+    private Buffer handle(byte[] request) throws IOException {
+      int command = request[4] & 0xFF;
+      switch (command) {
+        case SMB_COM_NEGOTIATE:
+          return negotiate(request);
+        case SMB_COM_SESSION_SETUP_ANDX:
+          return sessionSetup(request);
+        case SMB_COM_TREE_CONNECT_ANDX:
+          return treeConnect(request);
+        case SMB_COM_TREE_DISCONNECT:
+          trees.remove(u16(request, 24));
+          return empty(request, 0);
+        case SMB_COM_LOGOFF_ANDX:
+          return andx(request, 0, 2).finish();
+        case SMB_COM_ECHO:
+          return echo(request);
+        case SMB_COM_NT_CREATE_ANDX:
+          return ntCreate(request);
+        case SMB_COM_READ_ANDX:
+          return read(request);
+        case SMB_COM_CLOSE:
+          return close(request);
+        case SMB_COM_FIND_CLOSE2:
+          searches.remove(u16(request, 33));
+          return empty(request, 0);
+        case SMB_COM_TRANSACTION2:
+          return transaction2(request);
+        case SMB_COM_TRANSACTION:
+          return transaction(request);
+        case SMB_COM_NT_TRANSACT:
+          return ntTransact(request);
+        case SMB_COM_NT_CANCEL:
+          return cancel(request);
+        default:
+          return empty(request, STATUS_NOT_SUPPORTED);
+      }
+    }
+
+    /**
+     * Returns an error response if a status was injected into the
+     * operation, or null.
+     */
+    private Buffer inject(byte[] request, Operation operation, File file) {
+      int status = operation(operation, file);
+      if (status == DISCONNECT) {
+        return Buffer.DISCONNECT;
+      } else if (status != 0) {
+        return empty(request, status);
+      } else {
+        return null;
+      }
+    }
+
+    private Buffer negotiate(byte[] request) {
+      Buffer error = inject(request, Operation.NEGOTIATE, null);
+      if (error != null) {
+        return error;
+      }
+      Buffer response = header(request, 0);
+      response.put1(17);
+      response.put2(0);           // Dialect index of "NT LM 0.12"
+      response.put1(0x03);        // User security, encrypted passwords
+      response.put2(50);          // Max multiplexed requests
+      response.put2(1);           // Max virtual circuits
+      response.put4(65535);       // Max buffer size
+      response.put4(65536);       // Max raw size
+      response.put4(0);           // Session key
+      response.put4(CAPABILITIES);
+      response.put8(filetime(System.currentTimeMillis()));
+      response.put2(0);           // Time zone
+      response.put1(8);           // Encryption key length
+      int bytes = response.startBytes();
+      response.put(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+      response.putUnicode("MOCK", false);
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer sessionSetup(byte[] request) {
+      Buffer error = inject(request, Operation.SESSION_SETUP, null);
+      if (error != null) {
+        return error;
+      }
+      Buffer response = andx(request, 0, 3);
+      response.put2(0);           // Not logged in as guest
+      response.setUid(nextId++);
+      int bytes = response.startBytes();
+      response.putUnicode("", true);
+      response.putUnicode("", true);
+      response.putUnicode("", true);
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer treeConnect(byte[] request) {
+      int passwordLength = u16(request, 33 + 6);
+      int offset = 33 + 2 * (request[32] & 0xFF) + 2 + passwordLength;
+      String path = unicode(request, offset);
+      String share = path.substring(path.lastIndexOf('\\') + 1);
+      File root = getShare(share);
+      Buffer error = inject(request, Operation.TREE_CONNECT, root);
+      if (error != null) {
+        return error;
+      }
+      boolean isIpc = share.equalsIgnoreCase("IPC$");
+      if (root == null && !isIpc) {
+        return empty(request, NtStatus.NT_STATUS_BAD_NETWORK_NAME);
+      }
+      int tid = nextId++;
+      trees.put(tid, new Tree(share, root));
+      Buffer response = andx(request, 0, 3);
+      response.put2(0);           // Optional support
+      response.setTid(tid);
+      int bytes = response.startBytes();
+      response.putAscii(isIpc ? "IPC" : "A:");
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer echo(byte[] request) {
+      Buffer response = header(request, 0);
+      response.put1(1);
+      response.put2(1);           // Sequence number
+      int bytes = response.startBytes();
+      int offset = 33 + 2 * (request[32] & 0xFF);
+      int count = u16(request, offset);
+      response.put(Arrays.copyOfRange(request, offset + 2, offset + 2 + count));
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer ntCreate(byte[] request) {
+      Tree tree = trees.get(u16(request, 24));
+      if (tree == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      int flags = u32(request, 40);
+      int access = u32(request, 48);
+      int options = u32(request, 72);
+      String path = unicode(request, 33 + 2 * (request[32] & 0xFF) + 2);
+
+      if (tree.root == null) {
+        String pipe = path.substring(path.lastIndexOf('\\') + 1)
+            .toLowerCase(Locale.ENGLISH);
+        if (!pipe.equals("srvsvc") && !pipe.equals("lsarpc")) {
+          return empty(request, NtStatus.NT_STATUS_OBJECT_NAME_NOT_FOUND);
+        }
+        return ntCreateResponse(request, new Open(null, null, pipe), flags);
+      }
+
+      File file = resolve(tree.root, path);
+      Buffer error = inject(request, Operation.NT_CREATE, file);
+      if (error != null) {
+        return error;
+      }
+      int status = checkExists(tree.root, file);
+      if (status != 0) {
+        return empty(request, status);
+      } else if ((access & WRITE_ACCESS) != 0) {
+        return empty(request, NtStatus.NT_STATUS_ACCESS_DENIED);
+      } else if (file.isDirectory()
+          && (options & FILE_NON_DIRECTORY_FILE) != 0) {
+        return empty(request, NtStatus.NT_STATUS_FILE_IS_A_DIRECTORY);
+      } else if (!file.isDirectory() && (options & FILE_DIRECTORY_FILE) != 0) {
+        return empty(request, NtStatus.NT_STATUS_NOT_A_DIRECTORY);
+      }
+      RandomAccessFile content = null;
+      if (!file.isDirectory()) {
+        try {
+          content = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+          return empty(request, NtStatus.NT_STATUS_ACCESS_DENIED);
+        }
+      }
+      return ntCreateResponse(request, new Open(file, content, null), flags);
+    }
+
+    private Buffer ntCreateResponse(byte[] request, Open open, int flags) {
+      int fid = nextId++;
+      opens.put(fid, open);
+      Buffer response = andx(request, 0, 34);
+      response.put1(0);           // No oplock
+      response.put2(fid);
+      response.put4(1);           // FILE_OPENED
+      if (open.file == null) {
+        response.put8(0L);
+        response.put8(0L);
+        response.put8(0L);
+        response.put8(0L);
+        response.put4(0x80);      // ATTR_NORMAL
+        response.put8(4096L);
+        response.put8(0L);
+        response.put2(2);         // Message mode named pipe
+        response.put2(0x05FF);    // Device state
+        response.put1(0);
+      } else {
+        long time = filetime(open.file.lastModified());
+        response.put8(time);
+        response.put8(time);
+        response.put8(time);
+        response.put8(time);
+        response.put4(attributes(open.file));
+        response.put8(allocationSize(open.file));
+        response.put8(open.file.isDirectory() ? 0L : open.file.length());
+        response.put2(0);         // Disk file
+        response.put2(0);
+        response.put1(open.file.isDirectory() ? 1 : 0);
+      }
+      if ((flags & 0x10) != 0) {
+        // The extended response has 16 more bytes than its word count.
+        response.put(new byte[16]);
+      }
+      response.endBytes(response.startBytes());
+      return response;
+    }
+
+    private Buffer read(byte[] request) throws IOException {
+      Open open = opens.get(u16(request, 33 + 4));
+      if (open == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      long offset = (u32(request, 33 + 6) & 0xFFFFFFFFL);
+      if ((request[32] & 0xFF) >= 12) {
+        offset |= ((long) u32(request, 33 + 20)) << 32;
+      }
+      int maxCount = u16(request, 33 + 10);
+      byte[] data;
+      int status = 0;
+      if (open.pipe != null) {
+        if (open.fragments.isEmpty()) {
+          return empty(request, STATUS_PIPE_EMPTY);
+        }
+        byte[] fragment = open.fragments.getFirst();
+        int count = Math.min(maxCount, fragment.length - open.fragmentOffset);
+        data = Arrays.copyOfRange(fragment, open.fragmentOffset,
+                                  open.fragmentOffset + count);
+        open.fragmentOffset += count;
+        if (open.fragmentOffset == fragment.length) {
+          open.fragments.removeFirst();
+          open.fragmentOffset = 0;
+        } else {
+          status = STATUS_BUFFER_OVERFLOW;
+        }
+      } else {
+        Buffer error = inject(request, Operation.READ, open.file);
+        if (error != null) {
+          return error;
+        }
+        if (open.content == null) {
+          return empty(request, NtStatus.NT_STATUS_ACCESS_DENIED);
+        }
+        maxCount = Math.min(maxCount, MAX_DATA_SIZE);
+        long available = Math.max(0L, open.content.length() - offset);
+        data = new byte[(int) Math.min(maxCount, available)];
+        open.content.seek(offset);
+        open.content.readFully(data);
+      }
+      Buffer response = andx(request, status, 12);
+      response.put2(0xFFFF);      // Available
+      response.put2(0);           // Data compaction mode
+      response.put2(0);
+      response.put2(data.length);
+      response.put2(60);          // Data offset
+      response.put(new byte[10]);
+      int bytes = response.startBytes();
+      if (data.length > 0) {
+        response.put1(0);         // Pad to the data offset
+        response.put(data);
+      }
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer close(byte[] request) throws IOException {
+      Open open = opens.remove(u16(request, 33));
+      if (open == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      closeQuietly(open);
+      if (open.watch != null) {
+        byte[] pending;
+        synchronized (MockSmbServer.this) {
+          watches.remove(open.watch);
+          pending = open.watch.pending;
+          open.watch.pending = null;
+        }
+        if (pending != null) {
+          send(empty(pending, STATUS_NOTIFY_CLEANUP));
+        }
+      }
+      if (open.file != null) {
+        Buffer error = inject(request, Operation.CLOSE, open.file);
+        if (error != null) {
+          return error;
+        }
+      }
+      return empty(request, 0);
+    }
+
+    private Buffer transaction2(byte[] request) throws IOException {
+      Tree tree = trees.get(u16(request, 24));
+      if (tree == null || tree.root == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      if (u16(request, 33) != u16(request, 33 + 18)
+          || u16(request, 33 + 2) != u16(request, 33 + 22)) {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      int paramOffset = u16(request, 33 + 20);
+      int paramEnd = paramOffset + u16(request, 33 + 18);
+      int maxData = Math.min(u16(request, 33 + 6), MAX_DATA_SIZE);
+      switch (u16(request, 33 + 28)) {
+        case TRANS2_FIND_FIRST2:
+          return findFirst(request, tree, paramOffset, paramEnd, maxData);
+        case TRANS2_FIND_NEXT2:
+          return findNext(request, paramOffset, maxData);
+        case TRANS2_QUERY_PATH_INFORMATION:
+          return queryPathInfo(request, tree, paramOffset, paramEnd);
+        case TRANS2_SET_FILE_INFORMATION:
+          Open open = opens.get(u16(request, paramOffset));
+          Buffer error = inject(request, Operation.SET_FILE_INFO,
+                                (open == null) ? null : open.file);
+          if (error != null) {
+            return error;
+          }
+          // Accepted, but ignored, as the shares are read-only.
+          return transactionResponse(request, 0, new byte[2], new byte[0]);
+        default:
+          return empty(request, STATUS_NOT_SUPPORTED);
+      }
+    }
+
+    private Buffer findFirst(byte[] request, Tree tree, int paramOffset,
+        int paramEnd, int maxData) {
+      int maxCount = u16(request, paramOffset + 2);
+      int level = u16(request, paramOffset + 6);
+      String path = paramString(request, paramOffset + 12, paramEnd);
+      int slash = path.lastIndexOf('\\');
+      File dir = resolve(tree.root, path.substring(0, slash + 1));
+      String pattern = path.substring(slash + 1);
+      Buffer error = inject(request, Operation.FIND_FIRST, dir);
+      if (error != null) {
+        return error;
+      }
+      if (level != SMB_FIND_FILE_BOTH_DIRECTORY_INFO) {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      int status = checkExists(tree.root, dir);
+      if (status != 0) {
+        return empty(request, (status == NtStatus.NT_STATUS_ACCESS_DENIED)
+            ? status : NtStatus.NT_STATUS_OBJECT_PATH_NOT_FOUND);
+      }
+      String[] list = dir.list();
+      if (list == null) {
+        return empty(request, dir.isDirectory()
+            ? NtStatus.NT_STATUS_ACCESS_DENIED
+            : NtStatus.NT_STATUS_OBJECT_PATH_NOT_FOUND);
+      }
+      Arrays.sort(list);
+      List<String> names = Lists.newArrayList();
+      names.add(".");
+      names.add("..");
+      names.addAll(Arrays.asList(list));
+      for (Iterator<String> it = names.iterator(); it.hasNext(); ) {
+        if (!matches(pattern, it.next())) {
+          it.remove();
+        }
+      }
+      if (names.isEmpty()) {
+        return empty(request, NtStatus.NT_STATUS_NO_SUCH_FILE);
+      }
+      int sid = nextId++;
+      Search search = new Search(dir, names);
+      searches.put(sid, search);
+      return findResponse(request, sid, search, maxCount, maxData);
+    }
+
+    private Buffer findNext(byte[] request, int paramOffset, int maxData) {
+      int sid = u16(request, paramOffset);
+      Search search = searches.get(sid);
+      Buffer error =
+          inject(request, Operation.FIND_NEXT, (search == null) ? null
+                 : search.dir);
+      if (error != null) {
+        return error;
+      }
+      if (search == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      return findResponse(request, -1, search, u16(request, paramOffset + 2),
+                          maxData);
+    }
+
+    /**
+     * Returns the next page of a search.
+     *
+     * @param sid the search ID, or -1 for a {@code FIND_NEXT2} response
+     */
+    private Buffer findResponse(byte[] request, int sid, Search search,
+        int maxCount, int maxData) {
+      Buffer data = new Buffer();
+      int count = 0;
+      int lastEntry = 0;
+      int previous = -1;
+      while (search.position < search.names.size() && count < maxCount) {
+        String name = search.names.get(search.position);
+        File file = name.equals(".") ? search.dir : name.equals("..")
+            ? search.dir.getParentFile() : new File(search.dir, name);
+        byte[] nameBytes = utf16(name);
+        int entryLength = (94 + nameBytes.length + 7) & ~7;
+        if (data.length + entryLength > maxData) {
+          break;
+        }
+        if (previous >= 0) {
+          data.set4(previous, data.length - previous);
+        }
+        previous = data.length;
+        lastEntry = data.length;
+        long time = filetime(file.lastModified());
+        data.put4(0);             // Next entry offset
+        data.put4(search.position);
+        data.put8(time);
+        data.put8(time);
+        data.put8(time);
+        data.put8(time);
+        data.put8(file.isDirectory() ? 0L : file.length());
+        data.put8(allocationSize(file));
+        data.put4(attributes(file));
+        data.put4(nameBytes.length);
+        data.put4(0);             // EA size
+        data.put1(0);             // Short name length
+        data.put1(0);
+        data.put(new byte[24]);   // Short name
+        data.put(nameBytes);
+        while (data.length < previous + entryLength) {
+          data.put1(0);
+        }
+        search.position++;
+        count++;
+      }
+      boolean endOfSearch = search.position == search.names.size();
+      Buffer params = new Buffer();
+      if (sid >= 0) {
+        params.put2(sid);
+      }
+      params.put2(count);
+      params.put2(endOfSearch ? 1 : 0);
+      params.put2(0);             // EA error offset
+      params.put2(lastEntry);
+      return transactionResponse(request, 0, params.toByteArray(),
+                                 data.toByteArray());
+    }
+
+    private Buffer queryPathInfo(byte[] request, Tree tree, int paramOffset,
+        int paramEnd) {
+      int level = u16(request, paramOffset);
+      File file = resolve(tree.root, paramString(request, paramOffset + 6,
+                                                 paramEnd));
+      Buffer error = inject(request, Operation.QUERY_PATH_INFO, file);
+      if (error != null) {
+        return error;
+      }
+      int status = checkExists(tree.root, file);
+      if (status != 0) {
+        return empty(request, status);
+      }
+      Buffer data = new Buffer();
+      if (level == SMB_QUERY_FILE_BASIC_INFO) {
+        long time = filetime(file.lastModified());
+        data.put8(time);
+        data.put8(time);
+        data.put8(time);
+        data.put8(time);
+        data.put4(attributes(file));
+        data.put4(0);
+      } else if (level == SMB_QUERY_FILE_STANDARD_INFO) {
+        data.put8(allocationSize(file));
+        data.put8(file.isDirectory() ? 0L : file.length());
+        data.put4(1);             // Links
+        data.put1(0);             // Delete pending
+        data.put1(file.isDirectory() ? 1 : 0);
+        data.put2(0);
+      } else {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      return transactionResponse(request, 0, new byte[2], data.toByteArray());
+    }
+
+    private Buffer ntTransact(byte[] request) {
+      int function = u16(request, 33 + 36);
+      if (function == NT_TRANSACT_NOTIFY_CHANGE) {
+        return notifyChange(request);
+      } else if (function != NT_TRANSACT_QUERY_SECURITY_DESC) {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      int paramOffset = u32(request, 33 + 23);
+      Open open = opens.get(u16(request, paramOffset));
+      if (open == null || open.file == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      Buffer error = inject(request, Operation.QUERY_SECURITY_DESC, open.file);
+      if (error != null) {
+        return error;
+      }
+      Tree tree = trees.get(u16(request, 24));
+      byte[] sd = securityDescriptor(getAces(tree.root, open.file));
+      Buffer params = new Buffer();
+      params.put4(sd.length);
+      return ntTransactResponse(request, params.toByteArray(), sd);
+    }
+
+    /**
+     * Starts watching a directory, and returns the changes made since it
+     * was last watched, or null if the request must wait for changes.
+     */
+    private Buffer notifyChange(byte[] request) {
+      int maxParams = u32(request, 33 + 11);
+      Open open = opens.get(u16(request, 33 + 42));
+      if (open == null || open.file == null || !open.file.isDirectory()) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      Buffer error = inject(request, Operation.NOTIFY_CHANGE, open.file);
+      if (error != null) {
+        return error;
+      }
+      synchronized (MockSmbServer.this) {
+        if (open.watch == null) {
+          open.watch = new Watch(this, open.file);
+          watches.add(open.watch);
+        }
+        open.watch.watchTree = request[33 + 44] != 0;
+        open.watch.maxSize = maxParams;
+        open.watch.pending = request;
+        return notifyResponse(open.watch);
+      }
+    }
+
+    /**
+     * Returns the response to the request waiting for changes to the
+     * directory, or null if there is no request or there are no changes.
+     */
+    Buffer notifyResponse(Watch watch) {
+      if (watch.pending == null || watch.changes.length == 0) {
+        return null;
+      }
+      Buffer response = (watch.changes.length > watch.maxSize)
+          ? empty(watch.pending, STATUS_NOTIFY_ENUM_DIR)
+          : ntTransactResponse(watch.pending, watch.changes.toByteArray(),
+                               new byte[0]);
+      watch.pending = null;
+      watch.changes = new Buffer();
+      watch.lastEntry = -1;
+      return response;
+    }
+
+    /** Cancels the request waiting for changes with the same message ID. */
+    private Buffer cancel(byte[] request) {
+      operation(Operation.CANCEL, null);
+      int mid = u16(request, 30);
+      synchronized (MockSmbServer.this) {
+        for (Open open : opens.values()) {
+          Watch watch = open.watch;
+          if (watch != null && watch.pending != null
+              && u16(watch.pending, 30) == mid) {
+            byte[] pending = watch.pending;
+            watch.pending = null;
+            return empty(pending, STATUS_CANCELLED);
+          }
+        }
+      }
+      // A cancel is not answered.
+      return null;
+    }
+
+    /**
+     * Returns an NT Trans response.  The parameters and data must fit in
+     * a single response.
+     */
+    private Buffer ntTransactResponse(byte[] request, byte[] params,
+        byte[] data) {
+      Buffer response = header(request, 0);
+      response.put1(18);
+      response.put(new byte[3]);
+      response.put4(params.length);   // Total parameter count
+      response.put4(data.length);     // Total data count
+      response.put4(params.length);   // Parameter count
+      int offsets = response.length;
+      response.put4(0);           // Parameter offset
+      response.put4(0);
+      response.put4(data.length);     // Data count
+      response.put4(0);           // Data offset
+      response.put4(0);
+      response.put1(0);           // Setup count
+      int bytes = response.startBytes();
+      response.align(4);
+      response.set4(offsets, response.length);
+      response.put(params);
+      response.align(4);
+      response.set4(offsets + 12, response.length);
+      response.put(data);
+      response.endBytes(bytes);
+      return response;
+    }
+
+    private Buffer transaction(byte[] request) throws IOException {
+      Tree tree = trees.get(u16(request, 24));
+      int setupCount = request[33 + 26] & 0xFF;
+      if (tree == null || tree.root != null || setupCount < 2
+          || u16(request, 33 + 28) != TRANS_TRANSACT_NAMED_PIPE) {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      Open open = opens.get(u16(request, 33 + 30));
+      if (open == null || open.pipe == null) {
+        return empty(request, NtStatus.NT_STATUS_INVALID_HANDLE);
+      }
+      int dataCount = u16(request, 33 + 22);
+      int dataOffset = u16(request, 33 + 24);
+      if (dataCount != u16(request, 33 + 2)) {
+        return empty(request, STATUS_NOT_SUPPORTED);
+      }
+      byte[] pdu = Arrays.copyOfRange(request, dataOffset,
+                                      dataOffset + dataCount);
+      open.fragments.clear();
+      open.fragmentOffset = 0;
+      Buffer error = rpc(request, open, pdu);
+      if (error != null) {
+        return error;
+      }
+      if (open.fragments.isEmpty()) {
+        return transactionResponse(request, 0, new byte[0], new byte[0]);
+      }
+      byte[] fragment = open.fragments.getFirst();
+      int maxData = u16(request, 33 + 6);
+      int count = Math.min(maxData, fragment.length);
+      byte[] data = Arrays.copyOf(fragment, count);
+      int status = 0;
+      if (count == fragment.length) {
+        open.fragments.removeFirst();
+      } else {
+        open.fragmentOffset = count;
+        status = STATUS_BUFFER_OVERFLOW;
+      }
+      return transactionResponse(request, status, new byte[0], data);
+    }
+
+    /**
+     * Handles a DCE RPC PDU written to a named pipe, queueing the response
+     * fragments on the pipe.
+     *
+     * @return an error response if an error was injected, or null
+     */
+    private Buffer rpc(byte[] request, Open open, byte[] pdu)
+        throws IOException {
+      int type = pdu[2] & 0xFF;
+      int callId = u32(pdu, 12);
+      if (type == DCERPC_BIND) {
+        Buffer ack = new Buffer();
+        ack.put2(MAX_FRAGMENT_SIZE);
+        ack.put2(MAX_FRAGMENT_SIZE);
+        ack.put4(0x1234);         // Association group
+        byte[] address;
+        try {
+          address = ("\\PIPE\\" + open.pipe + "\0").getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+          throw new AssertionError(e);
+        }
+        ack.put2(address.length);
+        ack.put(address);
+        ack.align(4, 16);
+        ack.put1(1);              // Number of results
+        ack.align(4, 16);
+        ack.put2(0);              // Acceptance
+        ack.put2(0);
+        ack.put(NDR_SYNTAX);
+        open.fragments.add(pdu(DCERPC_BIND_ACK,
+            DCERPC_FIRST_FRAG | DCERPC_LAST_FRAG, callId, ack.toByteArray()));
+        return null;
+      } else if (type != DCERPC_REQUEST
+          || (pdu[3] & DCERPC_LAST_FRAG) == 0) {
+        open.fragments.add(fault(callId, DCERPC_FAULT_OP_RNG_ERROR));
+        return null;
+      }
+
+      int opnum = u16(pdu, 22);
+      NdrBuffer in = new NdrBuffer(pdu, 0);
+      in.setIndex(24);
+      NdrBuffer out = new NdrBuffer(new byte[65536], 0);
+      out.setIndex(24);
+      try {
+        if (open.pipe.equals("srvsvc") && opnum == SRVSVC_SHARE_GET_INFO) {
+          Buffer error = shareGetInfo(request, in, out);
+          if (error != null) {
+            return error;
+          }
+        } else if (open.pipe.equals("lsarpc") && opnum == LSARPC_OPEN_POLICY2) {
+          rpc.policy_handle handle = new rpc.policy_handle();
+          handle.uuid = new rpc.uuid_t();
+          handle.uuid.time_low = nextId++;
+          handle.uuid.node = new byte[6];
+          handle.encode(out);
+          out.enc_ndr_long(0);
+        } else if (open.pipe.equals("lsarpc") && opnum == LSARPC_CLOSE) {
+          rpc.policy_handle handle = new rpc.policy_handle();
+          handle.uuid = new rpc.uuid_t();
+          handle.uuid.node = new byte[6];
+          handle.encode(out);
+          out.enc_ndr_long(0);
+        } else if (open.pipe.equals("lsarpc") && opnum == LSARPC_LOOKUP_SIDS) {
+          Buffer error = lookupSids(request, in, out);
+          if (error != null) {
+            return error;
+          }
+        } else {
+          open.fragments.add(fault(callId, DCERPC_FAULT_OP_RNG_ERROR));
+          return null;
+        }
+      } catch (NdrException e) {
+        throw new IOException(e);
+      }
+
+      // Split the stub into fragments of at most MAX_FRAGMENT_SIZE bytes.
+      byte[] stub = Arrays.copyOfRange(out.buf, 24, out.getIndex());
+      int maxStub = MAX_FRAGMENT_SIZE - 24;
+      int offset = 0;
+      do {
+        int count = Math.min(maxStub, stub.length - offset);
+        Buffer body = new Buffer();
+        body.put4(stub.length - offset);  // Allocation hint
+        body.put2(0);             // Context ID
+        body.put1(0);             // Cancel count
+        body.put1(0);
+        body.put(Arrays.copyOfRange(stub, offset, offset + count));
+        int flags = ((offset == 0) ? DCERPC_FIRST_FRAG : 0)
+            | ((offset + count == stub.length) ? DCERPC_LAST_FRAG : 0);
+        open.fragments.add(pdu(DCERPC_RESPONSE, flags, callId,
+                               body.toByteArray()));
+        offset += count;
+      } while (offset < stub.length);
+      return null;
+    }
+
+    private Buffer shareGetInfo(byte[] request, NdrBuffer in, NdrBuffer out)
+        throws NdrException {
+      if (in.dec_ndr_long() != 0) {
+        in.dec_ndr_string();      // Server name
+      }
+      String share = in.dec_ndr_string();
+      int level = in.dec_ndr_long();
+      File root = getShare(share);
+      Buffer error = inject(request, Operation.SHARE_GET_INFO, root);
+      if (error != null) {
+        return error;
+      }
+      out.enc_ndr_long(level);
+      if (root == null || level != 502) {
+        out.enc_ndr_referent(null, 1);
+        out.enc_ndr_long((root == null)
+                         ? WERR_NET_NAME_NOT_FOUND : WERR_UNKNOWN_LEVEL);
+        return null;
+      }
+      srvsvc.ShareInfo502 info = new srvsvc.ShareInfo502();
+      info.netname = share;
+      info.remark = "";
+      info.path = root.getPath();
+      info.max_uses = -1;
+      info.security_descriptor = securityDescriptor(getShareAces(share));
+      info.sd_size = info.security_descriptor.length;
+      out.enc_ndr_referent(info, 1);
+      info.encode(out);
+      out.enc_ndr_long(0);
+      return null;
+    }
+
+    private Buffer lookupSids(byte[] request, NdrBuffer in, NdrBuffer out)
+        throws IOException, NdrException {
+      Buffer error = inject(request, Operation.LOOKUP_SIDS, null);
+      if (error != null) {
+        return error;
+      }
+      rpc.policy_handle handle = new rpc.policy_handle();
+      handle.decode(in);
+      lsarpc.LsarSidArray sids = new lsarpc.LsarSidArray();
+      sids.decode(in);
+
+      List<String> domainNames = Lists.newArrayList();
+      lsarpc.LsarTransNameArray names = new lsarpc.LsarTransNameArray();
+      names.count = sids.num_sids;
+      names.names = new lsarpc.LsarTranslatedName[sids.num_sids];
+      int mapped = 0;
+      for (int i = 0; i < sids.num_sids; i++) {
+        String sid = new SID(SID.toByteArray(sids.sids[i].sid), 0).toString();
+        Account account = getAccount(sid);
+        lsarpc.LsarTranslatedName name = new lsarpc.LsarTranslatedName();
+        if (account == null) {
+          name.sid_type = (short) SID.SID_TYPE_UNKNOWN;
+          name.name = new UnicodeString(sid, false);
+          name.sid_index = -1;
+        } else {
+          mapped++;
+          name.sid_type = (short) account.type;
+          name.name = new UnicodeString(account.name, false);
+          name.sid_index = domainNames.indexOf(account.domain);
+          if (name.sid_index < 0) {
+            name.sid_index = domainNames.size();
+            domainNames.add(account.domain);
+          }
+        }
+        names.names[i] = name;
+      }
+      lsarpc.LsarRefDomainList domains = new lsarpc.LsarRefDomainList();
+      domains.count = domainNames.size();
+      domains.max_count = domainNames.size();
+      domains.domains = new lsarpc.LsarTrustInformation[domainNames.size()];
+      for (int i = 0; i < domainNames.size(); i++) {
+        domains.domains[i] = new lsarpc.LsarTrustInformation();
+        domains.domains[i].name =
+            new UnicodeString(domainNames.get(i), false);
+      }
+      out.enc_ndr_referent(domains, 1);
+      domains.encode(out);
+      names.encode(out);
+      out.enc_ndr_long(mapped);
+      out.enc_ndr_long((mapped == sids.num_sids) ? 0 : (mapped == 0)
+          ? NtStatus.NT_STATUS_NONE_MAPPED : STATUS_SOME_NOT_MAPPED);
+      return null;
+    }
+
+    /** Returns an empty response with the given status. */
+    private Buffer empty(byte[] request, int status) {
+      Buffer response = header(request, status);
+      response.put1(0);
+      response.put2(0);
+      return response;
+    }
+
+    /**
+     * Returns a Trans or Trans2 response.  The parameters and data must fit
+     * in a single response.
+     */
+    private Buffer transactionResponse(byte[] request, int status,
+        byte[] params, byte[] data) {
+      Buffer response = header(request, status);
+      response.put1(10);
+      response.put2(params.length);
+      response.put2(data.length);
+      response.put2(0);
+      response.put2(params.length);
+      int offsets = response.length;
+      response.put2(0);           // Parameter offset
+      response.put2(0);
+      response.put2(data.length);
+      response.put2(0);           // Data offset
+      response.put2(0);
+      response.put1(0);           // Setup count
+      response.put1(0);
+      int bytes = response.startBytes();
+      response.align(4);
+      response.set2(offsets, response.length);
+      response.put(params);
+      response.align(4);
+      response.set2(offsets + 6, response.length);
+      response.put(data);
+      response.endBytes(bytes);
+      return response;
+    }
+  }
+
+  /** Returns a response header for the request. */
+  private static Buffer header(byte[] request, int status) {
+    Buffer response = new Buffer();
+    response.put(Arrays.copyOf(request, 32));
+    response.set4(5, status);
+    response.bytes[9] = (byte) (request[9] | 0x80);
+    response.set2(10, FLAGS2_UNICODE | FLAGS2_STATUS32 | FLAGS2_LONG_FILENAMES);
+    return response;
+  }
+
+  /**
+   * Returns an AndX response header with the given word count, with no
+   * chained response.
+   */
+  private static Buffer andx(byte[] request, int status, int wordCount) {
+    Buffer response = header(request, status);
+    response.put1(wordCount);
+    response.put1(0xFF);          // No further commands
+    response.put1(0);
+    response.put2(0);
+    return response;
+  }
+
+  /** Returns a DCE RPC PDU with the given body. */
+  private static byte[] pdu(int type, int flags, int callId, byte[] body) {
+    Buffer pdu = new Buffer();
+    pdu.put1(5);
+    pdu.put1(0);
+    pdu.put1(type);
+    pdu.put1(flags);
+    pdu.put4(0x10);               // Little-endian, ASCII, IEEE
+    pdu.put2(16 + body.length);
+    pdu.put2(0);                  // Authentication length
+    pdu.put4(callId);
+    pdu.put(body);
+    return pdu.toByteArray();
+  }
+
+  private static byte[] fault(int callId, int status) {
+    Buffer body = new Buffer();
+    body.put4(0);                 // Allocation hint
+    body.put2(0);                 // Context ID
+    body.put1(0);                 // Cancel count
+    body.put1(0);
+    body.put4(status);
+    body.put4(0);
+    return pdu(DCERPC_FAULT, DCERPC_FIRST_FRAG | DCERPC_LAST_FRAG, callId,
+               body.toByteArray());
+  }
+
+  /** Returns a self-relative security descriptor with the given DACL. */
+  private static byte[] securityDescriptor(List<Ace> aces) {
+    try {
+      Buffer dacl = new Buffer();
+      dacl.put1(2);               // Revision
+      dacl.put1(0);
+      dacl.put2(0);               // Size
+      dacl.put2(aces.size());
+      dacl.put2(0);
+      for (Ace ace : aces) {
+        byte[] sid = SID.toByteArray(new SID(ace.sid));
+        dacl.put1(ace.allow ? 0 : 1);
+        dacl.put1(ace.flags);
+        dacl.put2(8 + sid.length);
+        dacl.put4(ace.access);
+        dacl.put(sid);
+      }
+      dacl.set2(2, dacl.length);
+      byte[] owner = SID.toByteArray(new SID(ADMINISTRATORS));
+      byte[] group = SID.toByteArray(new SID(SYSTEM));
+
+      Buffer sd = new Buffer();
+      sd.put1(1);                 // Revision
+      sd.put1(0);
+      sd.put2(0x8004);            // Self-relative, DACL present
+      sd.put4(20);                // Owner offset
+      sd.put4(20 + owner.length); // Group offset
+      sd.put4(0);                 // No SACL
+      sd.put4(20 + owner.length + group.length);
+      sd.put(owner);
+      sd.put(group);
+      sd.put(dacl.toByteArray());
+      return sd.toByteArray();
+    } catch (SmbException e) {
+      throw new IllegalArgumentException("Invalid SID", e);
+    }
+  }
+
+  /**
+   * Returns the local file for a path in the share, or null if the path
+   * refers to a parent of the share root.
+   */
+  private static File resolve(File root, String path) {
+    File file = root;
+    for (String name : path.split("\\\\")) {
+      if (name.equals("..")) {
+        return null;
+      } else if (name.length() > 0 && !name.equals(".")) {
+        file = new File(file, name);
+      }
+    }
+    return file;
+  }
+
+  /** Returns zero if the file exists and may be read, or an NT status. */
+  private static int checkExists(File root, File file) {
+    if (file == null) {
+      return NtStatus.NT_STATUS_OBJECT_NAME_INVALID;
+    } else if (file.exists()) {
+      return file.canRead() ? 0 : NtStatus.NT_STATUS_ACCESS_DENIED;
+    } else if (file.equals(root) || file.getParentFile().isDirectory()) {
+      return NtStatus.NT_STATUS_OBJECT_NAME_NOT_FOUND;
+    } else {
+      return NtStatus.NT_STATUS_OBJECT_PATH_NOT_FOUND;
+    }
+  }
+
+  /** Matches a name against a pattern with {@code *} and {@code ?}. */
+  private static boolean matches(String pattern, String name) {
+    return matches(pattern.toLowerCase(Locale.ENGLISH), 0,
+                   name.toLowerCase(Locale.ENGLISH), 0);
+  }
+
+  private static boolean matches(String pattern, int p, String name, int n) {
+    while (p < pattern.length()) {
+      char c = pattern.charAt(p);
+      if (c == '*') {
+        for (int i = n; i <= name.length(); i++) {
+          if (matches(pattern, p + 1, name, i)) {
+            return true;
+          }
+        }
+        return false;
+      } else if (n == name.length() || (c != '?' && c != name.charAt(n))) {
+        return false;
+      }
+      p++;
+      n++;
+    }
+    return n == name.length();
+  }
+
+  private static int attributes(File file) {
+    int attributes = file.isDirectory() ? ATTR_DIRECTORY : ATTR_ARCHIVE;
+    if (file.isHidden()) {
+      attributes |= ATTR_HIDDEN;
+    }
+    if (!file.canWrite()) {
+      attributes |= ATTR_READONLY;
+    }
+    return attributes;
+  }
+
+  private static long allocationSize(File file) {
+    return file.isDirectory() ? 0L : (file.length() + 4095L) & ~4095L;
+  }
+
+  private static long filetime(long millis) {
+    return (millis + MILLISECONDS_BETWEEN_1970_AND_1601) * 10000L;
+  }
+
+  private static void closeQuietly(Open open) {
+    if (open.content != null) {
+      try {
+        open.content.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINEST, "Failed to close " + open.file, e);
+      }
+    }
+  }
+
+  private static void readFully(InputStream in, byte[] b, int length)
+      throws IOException {
+    int off = 0;
+    while (off < length) {
+      int n = in.read(b, off, length - off);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      off += n;
+    }
+  }
+
+  private static int u16(byte[] b, int off) {
+    return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+  }
+
+  private static int u32(byte[] b, int off) {
+    return u16(b, off) | (u16(b, off + 2) << 16);
+  }
+
+  /**
+   * Returns the null terminated Unicode string at the offset, which is
+   * aligned to an even offset from the SMB header.
+   */
+  private static String unicode(byte[] b, int off) {
+    if (off % 2 != 0) {
+      off++;
+    }
+    int end = off;
+    while (end + 1 < b.length && (b[end] != 0 || b[end + 1] != 0)) {
+      end += 2;
+    }
+    try {
+      return new String(b, off, end - off, "UTF-16LE");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Returns the Unicode string that ends the transaction parameters.  It
+   * is padded to an even offset from the start of the client's buffer,
+   * which is found from its length, as the string is null terminated.
+   */
+  private static String paramString(byte[] b, int off, int end) {
+    if ((end - off) % 2 != 0) {
+      off++;
+    }
+    return unicode(b, off);
+  }
+
+  private static byte[] utf16(String s) {
+    try {
+      return s.getBytes("UTF-16LE");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** A growable little-endian buffer for building messages. */
+  private static class Buffer {
+    /** Signals that the connection should be dropped. */
+    static final Buffer DISCONNECT = new Buffer();
+
+    byte[] bytes = new byte[256];
+    int length = 0;
+
+    private void ensure(int count) {
+      if (length + count > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(length + count,
+                                              bytes.length * 2));
+      }
+    }
+
+    void put1(int value) {
+      ensure(1);
+      bytes[length++] = (byte) value;
+    }
+
+    void put2(int value) {
+      ensure(2);
+      set2(length, value);
+      length += 2;
+    }
+
+    void put4(int value) {
+      ensure(4);
+      set4(length, value);
+      length += 4;
+    }
+
+    void put8(long value) {
+      put4((int) value);
+      put4((int) (value >>> 32));
+    }
+
+    void put(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, bytes, length, b.length);
+      length += b.length;
+    }
+
+    void set2(int off, int value) {
+      bytes[off] = (byte) value;
+      bytes[off + 1] = (byte) (value >> 8);
+    }
+
+    void set4(int off, int value) {
+      set2(off, value);
+      set2(off + 2, value >> 16);
+    }
+
+    void align(int boundary) {
+      align(boundary, 0);
+    }
+
+    /** Pads to a multiple of the boundary from the given origin. */
+    void align(int boundary, int origin) {
+      while ((length - origin) % boundary != 0) {
+        put1(0);
+      }
+    }
+
+    /** Writes an ASCII string with a null terminator. */
+    void putAscii(String s) {
+      try {
+        put(s.getBytes("US-ASCII"));
+      } catch (UnsupportedEncodingException e) {
+        throw new AssertionError(e);
+      }
+      put1(0);
+    }
+
+    /** Writes a Unicode string with a null terminator. */
+    void putUnicode(String s, boolean align) {
+      if (align) {
+        align(2);
+      }
+      put(utf16(s));
+      put2(0);
+    }
+
+    void setUid(int uid) {
+      set2(28, uid);
+    }
+
+    void setTid(int tid) {
+      set2(24, tid);
+    }
+
+    /** Writes a placeholder byte count, and returns its offset. */
+    int startBytes() {
+      put2(0);
+      return length - 2;
+    }
+
+    /** Sets the byte count written at the offset. */
+    void endBytes(int offset) {
+      set2(offset, length - offset - 2);
+    }
+
+    /** Ends a response that has no bytes. */
+    Buffer finish() {
+      put2(0);
+      return this;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+}
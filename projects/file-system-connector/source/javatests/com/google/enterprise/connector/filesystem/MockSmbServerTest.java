@@ -0,0 +1,406 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.enterprise.connector.filesystem.MockSmbServer.Ace;
+import com.google.enterprise.connector.filesystem.MockSmbServer.Operation;
+
+import jcifs.smb.ACE;
+import jcifs.smb.FileNotifyInformation;
+import jcifs.smb.NtStatus;
+import jcifs.smb.NtlmPasswordAuthentication;
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+import jcifs.smb.SmbFileIterator;
+import jcifs.smb.SmbFileWatcher;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Tests for {@link MockSmbServer}, using jcifs and {@link SmbReadonlyFile}.
+ */
+public class MockSmbServerTest extends TestCase {
+  private static final String USER_SID = "S-1-5-21-1-2-3-1001";
+
+  private final NtlmPasswordAuthentication auth =
+      new NtlmPasswordAuthentication(null, "user", "password");
+  private File root;
+  private File dir;
+  private File file;
+  private MockSmbServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    dir = new File(root, "dir");
+    assertTrue(dir.mkdir());
+    file = new File(dir, "file.txt");
+    Files.write("Hello, world".getBytes("UTF-8"), file);
+    Files.write(new byte[0], new File(root, "empty.txt"));
+
+    server = new MockSmbServer();
+    server.addShare("share", root);
+    server.addAccount(USER_SID, "DOMAIN", "user", 1);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    ConcreteReadonlyFileTestAbstract.deleteAllFiles(root);
+  }
+
+  private SmbFile getSmbFile(String path) throws Exception {
+    return new SmbFile(server.getUrl("share") + path, auth);
+  }
+
+  private static Set<String> names(SmbFile[] files) {
+    Set<String> names = Sets.newHashSet();
+    for (SmbFile f : files) {
+      names.add(f.getName());
+    }
+    return names;
+  }
+
+  public void testListFiles() throws Exception {
+    assertEquals(Sets.newHashSet("dir/", "empty.txt"),
+                 names(getSmbFile("").listFiles()));
+    assertEquals(Collections.singleton("file.txt"),
+                 names(getSmbFile("dir/").listFiles()));
+  }
+
+  public void testListManyFiles() throws Exception {
+    Set<String> expected = Sets.newHashSet();
+    for (int i = 0; i < 1000; i++) {
+      String name = "file-with-a-fairly-long-name-" + i;
+      Files.write(new byte[0], new File(dir, name));
+      expected.add(name);
+    }
+    expected.add("file.txt");
+    assertEquals(expected, names(getSmbFile("dir/").listFiles()));
+    assertTrue(server.getRequestCount(Operation.FIND_NEXT) > 0);
+  }
+
+  public void testIteratorResumesLostSearch() throws Exception {
+    List<String> expected = Lists.newArrayList("file.txt");
+    for (int i = 0; i < 1000; i++) {
+      String name = "file-with-a-fairly-long-name-" + i;
+      Files.write(new byte[0], new File(dir, name));
+      expected.add(name);
+    }
+    server.injectError(Operation.FIND_NEXT, dir,
+                       NtStatus.NT_STATUS_INVALID_HANDLE, 1);
+    List<String> names = Lists.newArrayList();
+    SmbFileIterator iterator = getSmbFile("dir/").listFilesIterator();
+    try {
+      while (iterator.hasNext()) {
+        names.add(iterator.next().getName());
+      }
+    } finally {
+      iterator.close();
+    }
+    Collections.sort(expected);
+    assertEquals(expected, names);
+    assertEquals(2, server.getRequestCount(Operation.FIND_FIRST));
+  }
+
+  public void testAttributes() throws Exception {
+    SmbFile smbFile = getSmbFile("dir/file.txt");
+    assertTrue(smbFile.exists());
+    assertTrue(smbFile.isFile());
+    assertFalse(smbFile.isDirectory());
+    assertEquals(file.length(), smbFile.length());
+    assertEquals(file.lastModified(), smbFile.lastModified());
+    assertTrue(getSmbFile("dir/").isDirectory());
+    assertFalse(getSmbFile("missing.txt").exists());
+  }
+
+  public void testReadContent() throws Exception {
+    InputStream in = getSmbFile("dir/file.txt").getInputStream();
+    try {
+      assertEquals("Hello, world", new String(ByteStreams.toByteArray(in),
+                                              "UTF-8"));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testReadLargeContent() throws Exception {
+    byte[] content = new byte[1024 * 1024 + 17];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31);
+    }
+    Files.write(content, file);
+    InputStream in = getSmbFile("dir/file.txt").getInputStream();
+    try {
+      assertTrue(Arrays.equals(content, ByteStreams.toByteArray(in)));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testInheritedSecurity() throws Exception {
+    ACE[] aces = getSmbFile("dir/file.txt").getSecurity(true);
+    assertEquals(2, aces.length);
+    for (ACE ace : aces) {
+      assertTrue(ace.isAllow());
+      assertTrue(ace.isInherited());
+    }
+    assertEquals("Everyone", aces[0].getSID().getAccountName());
+    assertEquals("BUILTIN", aces[1].getSID().getDomainName());
+    assertEquals("Administrators", aces[1].getSID().getAccountName());
+  }
+
+  public void testExplicitSecurity() throws Exception {
+    server.setAces(dir, new Ace(USER_SID, false, ACE.FILE_READ_DATA,
+        ACE.FLAGS_OBJECT_INHERIT | ACE.FLAGS_CONTAINER_INHERIT));
+
+    ACE[] dirAces = getSmbFile("dir/").getSecurity(true);
+    assertEquals(3, dirAces.length);
+    assertFalse(dirAces[0].isAllow());
+    assertFalse(dirAces[0].isInherited());
+    assertEquals("DOMAIN\\user", dirAces[0].getSID().toDisplayString());
+
+    ACE[] fileAces = getSmbFile("dir/file.txt").getSecurity(true);
+    assertEquals(3, fileAces.length);
+    assertFalse(fileAces[0].isAllow());
+    assertTrue(fileAces[0].isInherited());
+    assertEquals(ACE.FILE_READ_DATA, fileAces[0].getAccessMask());
+  }
+
+  public void testShareSecurity() throws Exception {
+    server.setShareAces("share",
+        new Ace(MockSmbServer.AUTHENTICATED_USERS, true, 0x1200A9, 0),
+        new Ace(USER_SID, false, 0x1F01FF, 0));
+    ACE[] aces = getSmbFile("").getShareSecurity(true);
+    assertEquals(2, aces.length);
+    assertEquals("Authenticated Users", aces[0].getSID().getAccountName());
+    assertTrue(aces[0].isAllow());
+    assertEquals("user", aces[1].getSID().getAccountName());
+    assertFalse(aces[1].isAllow());
+    assertEquals(1, server.getRequestCount(Operation.SHARE_GET_INFO));
+  }
+
+  public void testUnknownSid() throws Exception {
+    String sid = "S-1-5-21-1-2-3-9999";
+    server.setAces(file, new Ace(sid, true, ACE.FILE_READ_DATA, 0));
+    ACE[] aces = getSmbFile("dir/file.txt").getSecurity(true);
+    assertEquals(sid, aces[0].getSID().toString());
+    assertEquals(sid, aces[0].getSID().toDisplayString());
+  }
+
+  public void testUnknownShare() throws Exception {
+    try {
+      new SmbFile(server.getUrl("missing"), auth).listFiles();
+      fail("Expected an SmbException");
+    } catch (SmbException expected) {
+      assertEquals(NtStatus.NT_STATUS_BAD_NETWORK_NAME,
+                   expected.getNtStatus());
+    }
+  }
+
+  public void testInjectedError() throws Exception {
+    server.injectError(Operation.NT_CREATE, file,
+                       NtStatus.NT_STATUS_ACCESS_DENIED, 1);
+    SmbFile smbFile = getSmbFile("dir/file.txt");
+    try {
+      smbFile.getInputStream();
+      fail("Expected an SmbException");
+    } catch (SmbException expected) {
+      assertEquals(NtStatus.NT_STATUS_ACCESS_DENIED, expected.getNtStatus());
+    }
+    smbFile.getInputStream().close();
+  }
+
+  public void testLatency() throws Exception {
+    getSmbFile("").listFiles();
+    server.setLatency(200L);
+    long start = System.currentTimeMillis();
+    getSmbFile("dir/file.txt").length();
+    assertTrue(System.currentTimeMillis() - start >= 200L);
+  }
+
+  private static final int WATCH_FILTER =
+      SmbFileWatcher.FILE_NOTIFY_CHANGE_FILE_NAME
+      | SmbFileWatcher.FILE_NOTIFY_CHANGE_DIR_NAME;
+
+  /** Reports the change to the file after the given delay. */
+  private void notifyChangeLater(final File file, final int action,
+      long delay) {
+    new Timer("notifyChange", true).schedule(new TimerTask() {
+        @Override
+        public void run() {
+          server.notifyChange(file, action);
+        }
+      }, delay);
+  }
+
+  public void testWatchCancelled() throws Exception {
+    SmbFileWatcher watcher = getSmbFile("").watch(WATCH_FILTER, true);
+    try {
+      assertEquals(0, watcher.next(100L).length);
+      assertEquals(1, server.getRequestCount(Operation.CANCEL));
+      assertEquals(0, watcher.next(100L).length);
+      assertEquals(2, server.getRequestCount(Operation.CANCEL));
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testWatchChanges() throws Exception {
+    SmbFileWatcher watcher = getSmbFile("").watch(WATCH_FILTER, true);
+    try {
+      notifyChangeLater(new File(dir, "new.txt"),
+                        FileNotifyInformation.FILE_ACTION_ADDED, 100L);
+      FileNotifyInformation[] changes = watcher.next(10000L);
+      assertEquals(1, changes.length);
+      assertEquals(FileNotifyInformation.FILE_ACTION_ADDED,
+                   changes[0].getAction());
+      assertEquals("dir\\new.txt", changes[0].getFileName());
+      assertEquals(0, server.getRequestCount(Operation.CANCEL));
+
+      // Changes made between requests are kept for the next one.
+      server.notifyChange(file, FileNotifyInformation.FILE_ACTION_REMOVED);
+      server.notifyChange(new File(root, "empty.txt"),
+                          FileNotifyInformation.FILE_ACTION_MODIFIED);
+      changes = watcher.next(10000L);
+      assertEquals(2, changes.length);
+      assertEquals(FileNotifyInformation.FILE_ACTION_REMOVED,
+                   changes[0].getAction());
+      assertEquals("dir\\file.txt", changes[0].getFileName());
+      assertEquals(FileNotifyInformation.FILE_ACTION_MODIFIED,
+                   changes[1].getAction());
+      assertEquals("empty.txt", changes[1].getFileName());
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testWatchSubtreeNotReported() throws Exception {
+    SmbFileWatcher watcher = getSmbFile("").watch(WATCH_FILTER, false);
+    try {
+      server.notifyChange(file, FileNotifyInformation.FILE_ACTION_ADDED);
+      assertEquals(0, watcher.next(100L).length);
+      server.notifyChange(dir, FileNotifyInformation.FILE_ACTION_MODIFIED);
+      assertEquals(1, watcher.next(10000L).length);
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testWatchOverflow() throws Exception {
+    SmbFileWatcher watcher = getSmbFile("").watch(WATCH_FILTER, true);
+    try {
+      assertEquals(0, watcher.next(100L).length);
+      for (int i = 0; i < 1000; i++) {
+        server.notifyChange(new File(dir, "file-with-a-fairly-long-name-" + i),
+                            FileNotifyInformation.FILE_ACTION_ADDED);
+      }
+      assertNull(watcher.next(10000L));
+      // The changes that were missed are forgotten.
+      assertEquals(0, watcher.next(100L).length);
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testWatchClosed() throws Exception {
+    final SmbFileWatcher watcher = getSmbFile("").watch(WATCH_FILTER, true);
+    new Timer("close", true).schedule(new TimerTask() {
+        @Override
+        public void run() {
+          watcher.close();
+        }
+      }, 100L);
+    long start = System.currentTimeMillis();
+    try {
+      watcher.next(10000L);
+      fail("Expected an SmbException");
+    } catch (SmbException expected) {
+      assertTrue(expected.toString(),
+                 expected.getMessage().startsWith("Watcher closed"));
+    }
+    assertTrue(System.currentTimeMillis() - start < 10000L);
+  }
+
+  public void testSmbReadonlyFileChangeWatcher() throws Exception {
+    List<String> empty = Collections.emptyList();
+    DocumentContext context = new DocumentContext(null, "user", "password",
+        null, new TestFileSystemPropertyManager(false), empty, empty, empty);
+    SmbFileSystemType type = new SmbFileSystemType(context);
+    SmbReadonlyFile share =
+        type.getFile(server.getUrl("share"), context.getCredentials());
+    ChangeWatcher watcher = share.newChangeWatcher();
+    try {
+      assertEquals(Collections.emptyMap(), watcher.getChanges(100L));
+      server.notifyChange(new File(dir, "new.txt"),
+                          FileNotifyInformation.FILE_ACTION_ADDED);
+      server.notifyChange(new File(dir, "new.txt"),
+                          FileNotifyInformation.FILE_ACTION_MODIFIED);
+      server.notifyChange(file, FileNotifyInformation.FILE_ACTION_REMOVED);
+      Map<String, ChangeWatcher.Action> changes = watcher.getChanges(10000L);
+      assertEquals(ImmutableMap.of(
+          server.getUrl("share") + "dir/new.txt", ChangeWatcher.Action.ADDED,
+          server.getUrl("share") + "dir/file.txt",
+          ChangeWatcher.Action.REMOVED), changes);
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testSmbReadonlyFile() throws Exception {
+    List<String> empty = Collections.emptyList();
+    DocumentContext context = new DocumentContext(null, "user", "password",
+        null, new TestFileSystemPropertyManager(false), empty, empty, empty);
+    SmbFileSystemType type = new SmbFileSystemType(context);
+    SmbReadonlyFile share =
+        type.getFile(server.getUrl("share"), context.getCredentials());
+    assertTrue(share.isDirectory());
+    List<String> names = Lists.newArrayList();
+    for (SmbReadonlyFile child : share.listFiles()) {
+      names.add(child.getName());
+    }
+    assertEquals(Lists.newArrayList("dir/", "empty.txt"), names);
+
+    SmbReadonlyFile smbFile = type.getFile(server.getUrl("share")
+        + "dir/file.txt", context.getCredentials());
+    assertTrue(smbFile.canRead());
+    assertEquals(file.length(), smbFile.length());
+    InputStream in = smbFile.getInputStream();
+    try {
+      assertEquals("Hello, world", new String(ByteStreams.toByteArray(in),
+                                              "UTF-8"));
+    } finally {
+      in.close();
+    }
+    Acl acl = smbFile.getAcl();
+    assertTrue(acl.toString(), acl.isDeterminate());
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.enterprise.connector.filesystem;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tests for the {@link NameTable} class.
+ */
+public class NameTableTest extends TestCase {
+  private static final String[] NAMES =
+      { "foo.bar", "abc", "", "foo", "Zed" };
+  private static final String[] SORTED_NAMES =
+      { "", "Zed", "abc", "foo", "foo.bar" };
+
+  private final NameTable.Budget unlimited = new NameTable.Budget(0L);
+
+  public void testEmpty() throws IOException {
+    NameTable table = newNameTable(unlimited, new String[0]);
+    assertEquals(0, table.size());
+    assertFalse(table.hasNext());
+    assertEquals(0L, unlimited.getUsed());
+  }
+
+  public void testSorted() throws IOException {
+    checkTable(newNameTable(unlimited, NAMES));
+  }
+
+  public void testMemoryUsed() throws IOException {
+    NameTable table = newNameTable(unlimited, NAMES);
+    assertTrue(unlimited.getUsed() > 0L);
+    table.close();
+    assertEquals(0L, unlimited.getUsed());
+  }
+
+  public void testMemoryReleasedWhenExhausted() throws IOException {
+    checkTable(newNameTable(unlimited, NAMES));
+    assertEquals(0L, unlimited.getUsed());
+  }
+
+  public void testBuilderClose() throws IOException {
+    NameTable.Builder builder = new NameTable.Builder(unlimited);
+    builder.add("foo");
+    assertTrue(unlimited.getUsed() > 0L);
+    builder.close();
+    assertEquals(0L, unlimited.getUsed());
+  }
+
+  /** Small tables are kept in memory, even over budget. */
+  public void testMinRunSize() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(1L);
+    NameTable table = newNameTable(budget, NAMES);
+    assertTrue(budget.getUsed() > 1L);
+    checkTable(table);
+    assertEquals(0L, budget.getUsed());
+  }
+
+  public void testSpillToDisk() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(1L);
+    NameTable table = newNameTable(new NameTable.Builder(budget, 1L), NAMES);
+    assertEquals(0L, budget.getUsed());
+    checkTable(table);
+  }
+
+  /** Names are written to disk as they are added, not once all are. */
+  public void testSpillWhileAdding() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(10L);
+    NameTable.Builder builder = new NameTable.Builder(budget, 10L);
+    try {
+      builder.add("abc");
+      assertEquals(10L, budget.getUsed());
+      builder.add("d");
+      assertEquals(0L, budget.getUsed());
+      builder.add("e");
+      assertEquals(6L, budget.getUsed());
+    } finally {
+      builder.close();
+    }
+    assertEquals(0L, budget.getUsed());
+  }
+
+  public void testSpillToDiskClose() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(1L);
+    NameTable table = newNameTable(new NameTable.Builder(budget, 1L), NAMES);
+    assertEquals(NAMES.length, table.size());
+    assertEquals("", table.next());
+    table.close();
+    assertFalse(table.hasNext());
+  }
+
+  /** More runs than are merged at once are merged in several passes. */
+  public void testMergeManyRuns() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(1L);
+    NameTable.Builder builder = new NameTable.Builder(budget, 20L);
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      names.add(String.format("%04d", i));
+    }
+    List<String> shuffled = new ArrayList<String>(names);
+    Collections.shuffle(shuffled, new Random(42));
+    for (String name : shuffled) {
+      builder.add(name);
+    }
+    NameTable table = builder.build();
+    assertEquals(names.size(), table.size());
+    for (String name : names) {
+      assertEquals(name, table.next());
+    }
+    assertFalse(table.hasNext());
+    assertEquals(0L, budget.getUsed());
+  }
+
+  /** The tables of one budget do not count against another. */
+  public void testSeparateBudgets() throws IOException {
+    NameTable.Budget budget = new NameTable.Budget(1L);
+    NameTable full = newNameTable(new NameTable.Builder(budget, 1L), NAMES);
+    NameTable table = newNameTable(unlimited, NAMES);
+    assertEquals(0L, budget.getUsed());
+    assertTrue(unlimited.getUsed() > 0L);
+    checkTable(table);
+    checkTable(full);
+  }
+
+  public void testNegativeThreshold() {
+    try {
+      new NameTable.Budget(-1L);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static NameTable newNameTable(NameTable.Budget budget,
+      String[] names) throws IOException {
+    return newNameTable(new NameTable.Builder(budget), names);
+  }
+
+  private static NameTable newNameTable(NameTable.Builder builder,
+      String[] names) throws IOException {
+    try {
+      for (String name : names) {
+        builder.add(name);
+      }
+      return builder.build();
+    } finally {
+      builder.close();
+    }
+  }
+
+  private void checkTable(NameTable table) throws IOException {
+    assertEquals(SORTED_NAMES.length, table.size());
+    for (String name : SORTED_NAMES) {
+      assertTrue(table.hasNext());
+      assertEquals(name, table.next());
+    }
+    assertFalse(table.hasNext());
+    try {
+      table.next();
+      fail("Expected NoSuchElementException");
+    } catch (NoSuchElementException expected) {
+    }
+  }
+}
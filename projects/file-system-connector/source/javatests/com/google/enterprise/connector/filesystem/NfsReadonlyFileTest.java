@@ -14,7 +14,13 @@
 
 package com.google.enterprise.connector.filesystem;
 
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.sun.nfs.NfsException;
+import com.sun.rpc.RpcException;
+
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
 
 /**
  * Tests for {@link NfsReadonlyFile}.
@@ -42,4 +48,100 @@ public class NfsReadonlyFileTest extends ConcreteReadonlyFileTestAbstract
       throws IOException {
     return new NfsFileDelegate(parent, name);
   }
+
+  public void testDetectServerDown() throws Exception {
+    try {
+      readonlyFile1.detectServerDown(new RpcException("Timed out"));
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+    try {
+      readonlyFile1.detectServerDown(new ConnectException());
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+    try {
+      readonlyFile1.detectServerDown(
+          new NfsException(NfsException.NFSERR_JUKEBOX));
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+    readonlyFile1.detectServerDown(
+        new NfsException(NfsException.NFSERR_NOENT));
+    readonlyFile1.detectServerDown(new IOException());
+  }
+
+  public void testProbeServerIgnoresLocalPaths() throws Exception {
+    NfsReadonlyFile.probeServer(getAbsolutePath(file1));
+    assertFalse(fileSystemType.getFile(
+        getAbsolutePath(root) + "/nonexistent", null).exists());
+  }
+
+  public void testProbeServer() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    int port = server.getLocalPort();
+    try {
+      NfsReadonlyFile.probeServer("nfs://localhost:" + port + "/export/a");
+    } finally {
+      server.close();
+    }
+  }
+
+  public void testProbeServerWithSpaceInPath() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    int port = server.getLocalPort();
+    server.close();
+    try {
+      NfsReadonlyFile.probeServer(
+          "nfs://localhost:" + port + "t/export/a b/c%d");
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+  }
+
+  public void testProbeServerDown() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    int port = server.getLocalPort();
+    server.close();
+    try {
+      NfsReadonlyFile.probeServer("nfs://localhost:" + port + "t/export/a");
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+    }
+  }
+
+  /** WebNFS may have fallen back to UDP, so the probe is inconclusive. */
+  public void testProbeServerDownUnknownTransport() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    int port = server.getLocalPort();
+    server.close();
+    NfsReadonlyFile.probeServer("nfs://localhost:" + port + "/export/a");
+  }
+
+  public void testProbeServerUdp() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    int port = server.getLocalPort();
+    server.close();
+    NfsReadonlyFile.probeServer("nfs://localhost:" + port + "u/export/a");
+  }
+
+  public void testParseServer() throws Exception {
+    NfsReadonlyFile.Server server =
+        NfsReadonlyFile.Server.parse("nfs://host/export/a b");
+    assertEquals("host", server.host);
+    assertEquals(2049, server.port);
+    assertNull(server.transport);
+
+    server = NfsReadonlyFile.Server.parse("NFS://host:1234v3u/export");
+    assertEquals("host", server.host);
+    assertEquals(1234, server.port);
+    assertEquals(NfsReadonlyFile.Server.UDP, server.transport);
+
+    server = NfsReadonlyFile.Server.parse("nfs://host:t");
+    assertEquals(2049, server.port);
+    assertEquals(NfsReadonlyFile.Server.TCP, server.transport);
+
+    assertNull(NfsReadonlyFile.Server.parse("/export/a"));
+    assertNull(NfsReadonlyFile.Server.parse("nfs:///export/a"));
+  }
 }
@@ -0,0 +1,203 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.connector.filesystem.OperationTrace.Operation;
+import com.google.enterprise.connector.filesystem.OperationTrace.Record;
+import com.google.enterprise.connector.util.diffing.testing.TestDirectoryManager;
+
+import jcifs.smb.NtStatus;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Tests for {@link OperationTrace} and {@link ReplayFileSystemType}.
+ */
+public class OperationTraceTest extends TestCase {
+  private File root;
+  private File traceFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    TestDirectoryManager testDirectoryManager = new TestDirectoryManager(this);
+    root = testDirectoryManager.makeDirectory("root");
+    testDirectoryManager.makeDirectory("root/dir");
+    testDirectoryManager.writeFile("root/dir/file1", "file1_data");
+    testDirectoryManager.writeFile("root/file2", "data");
+    traceFile = new File(root.getParentFile(), "trace");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    OperationTrace.stopTrace();
+  }
+
+  private List<Record> readTrace() throws IOException {
+    List<Record> records = Lists.newArrayList();
+    OperationTrace.Reader reader = new OperationTrace.Reader(traceFile);
+    try {
+      Record record;
+      while ((record = reader.next()) != null) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  /** Lists the tree, and reads the content of each file. */
+  private static <T extends ReadonlyFile<T>> int walk(T dir)
+      throws Exception {
+    int files = 0;
+    DirectoryIterator<T> iterator = dir.iterateFiles();
+    try {
+      while (iterator.hasNext()) {
+        T file = iterator.next();
+        if (file.isDirectory()) {
+          files += walk(file);
+        } else {
+          file.getLastModified();
+          InputStream in = file.getInputStream();
+          try {
+            ByteStreams.toByteArray(in);
+          } finally {
+            in.close();
+          }
+          files++;
+        }
+      }
+    } finally {
+      iterator.close();
+    }
+    return files;
+  }
+
+  public void testDisabled() throws Exception {
+    assertFalse(OperationTrace.isTracing());
+    assertEquals(0L, OperationTrace.begin());
+    JavaReadonlyFile file = new JavaFileSystemType().getFile(
+        root.getAbsolutePath(), null);
+    assertTrue(file.exists());
+    assertFalse(traceFile.exists());
+  }
+
+  public void testRecord() throws Exception {
+    JavaReadonlyFile dir = new JavaFileSystemType().getFile(
+        root.getAbsolutePath(), null);
+    OperationTrace.startTrace(traceFile);
+    assertTrue(OperationTrace.isTracing());
+    assertEquals(2, walk(dir));
+    try {
+      new JavaFileSystemType().getFile(root.getAbsolutePath() + "/missing",
+                                       null).listFiles();
+      fail("Expected an exception");
+    } catch (DirectoryListingException expected) {
+    } catch (IOException expected) {
+    }
+    OperationTrace.stopTrace();
+    assertFalse(OperationTrace.isTracing());
+
+    long rootHash = OperationTrace.hash(root.getAbsolutePath());
+    long dirHash = OperationTrace.hash(root.getAbsolutePath() + "/dir");
+    long file1Hash =
+        OperationTrace.hash(root.getAbsolutePath() + "/dir/file1");
+    boolean listedRoot = false;
+    boolean readFile1 = false;
+    for (Record record : readTrace()) {
+      assertNotNull(record.operation);
+      if (record.operation == Operation.LIST && record.pathHash == rootHash) {
+        assertEquals(2L, record.bytes);
+        assertEquals(NtStatus.NT_STATUS_OK, record.status);
+        listedRoot = true;
+      } else if (record.operation == Operation.READ
+                 && record.pathHash == file1Hash) {
+        assertEquals(dirHash, record.parentHash);
+        assertEquals("file1_data".length(), record.bytes);
+        readFile1 = true;
+      } else if (record.operation == Operation.IS_DIRECTORY
+                 && record.pathHash == dirHash) {
+        assertEquals(rootHash, record.parentHash);
+        assertEquals(1L, record.bytes);
+      }
+    }
+    assertTrue(listedRoot);
+    assertTrue(readFile1);
+  }
+
+  public void testCommandCompleted() throws Exception {
+    OperationTrace.startTrace(traceFile);
+    OperationTrace trace = OperationTrace.getCurrentTrace();
+    trace.commandCompleted("10.0.0.1", 0xA0, 6, "\\dir\\file", 2500000L,
+        100, 250, NtStatus.NT_STATUS_ACCESS_DENIED);
+    trace.commandCompleted("10.0.0.1", 0x2E, -1, null, 1000L, 60, 4096, 0);
+    OperationTrace.stopTrace();
+
+    List<Record> records = readTrace();
+    assertEquals(2, records.size());
+    Record record = records.get(0);
+    assertNull(record.operation);
+    assertEquals(0xA0, record.command);
+    assertEquals(6, record.subcommand);
+    assertEquals(OperationTrace.hash("10.0.0.1\\dir\\file"), record.pathHash);
+    assertEquals(2500L, record.latencyMicros);
+    assertEquals(350L, record.bytes);
+    assertEquals(NtStatus.NT_STATUS_ACCESS_DENIED, record.status);
+    record = records.get(1);
+    assertEquals(-1, record.subcommand);
+    assertEquals(0L, record.pathHash);
+    assertEquals(4156L, record.bytes);
+  }
+
+  public void testReplay() throws Exception {
+    JavaReadonlyFile dir = new JavaFileSystemType().getFile(
+        root.getAbsolutePath(), null);
+    OperationTrace.startTrace(traceFile);
+    walk(dir);
+    OperationTrace.stopTrace();
+
+    OperationTrace.Reader reader = new OperationTrace.Reader(traceFile);
+    ReplayFileSystemType type;
+    try {
+      type = new ReplayFileSystemType("/replay", reader);
+    } finally {
+      reader.close();
+    }
+    List<String> startPaths = type.getStartPaths();
+    assertEquals(1, startPaths.size());
+    ReplayFileSystemType.ReplayReadonlyFile replayRoot =
+        type.getFile(startPaths.get(0), null);
+    assertTrue(replayRoot.isDirectory());
+    assertEquals(2, walk(replayRoot));
+    assertEquals(2, type.getCount(Operation.LIST));
+    assertEquals(2, type.getCount(Operation.READ));
+
+    long length = 0L;
+    for (ReplayFileSystemType.ReplayReadonlyFile file
+             : replayRoot.listFiles()) {
+      if (file.isRegularFile()) {
+        length = file.length();
+      }
+    }
+    assertEquals("data".length(), length);
+  }
+}
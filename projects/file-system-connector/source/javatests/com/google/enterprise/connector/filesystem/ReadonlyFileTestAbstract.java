@@ -18,7 +18,9 @@ import junit.framework.TestCase;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This is an abstract test class that is used as a base class for testing
@@ -266,6 +268,30 @@ public abstract class ReadonlyFileTestAbstract<T extends FileSystemType<?>,
     }
   }
 
+  public void testIterateFiles() throws Exception {
+    Set<String> expected = new HashSet<String>();
+    for (ReadonlyFile<?> file : readonlyRoot.listFiles()) {
+      expected.add(file.getPath());
+    }
+    Set<String> actual = new HashSet<String>();
+    DirectoryIterator<?> it = readonlyRoot.iterateFiles();
+    try {
+      while (it.hasNext()) {
+        actual.add(((ReadonlyFile<?>) it.next()).getPath());
+      }
+    } finally {
+      it.close();
+    }
+    assertEquals(5, actual.size());
+    assertEquals(expected, actual);
+  }
+
+  public void testIterateFilesEmptyDir() throws Exception {
+    DirectoryIterator<?> it = readonlyDirB.iterateFiles();
+    assertFalse(it.hasNext());
+    it.close();
+  }
+
   public void testGetAcl() throws Exception {
     assertTrue(readonlyRoot.getAcl().isPublic());
   }
@@ -0,0 +1,433 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.enterprise.connector.filesystem.OperationTrace.Operation;
+import com.google.enterprise.connector.filesystem.OperationTrace.Record;
+import com.google.enterprise.connector.spi.RepositoryDocumentException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A virtual file system rebuilt from an {@link OperationTrace}, which
+ * spends the recorded latency of each operation.  The tree is rebuilt from
+ * the path and parent hashes of the records; each entry is named by the
+ * hash of its original path, and the directories with no recorded parent
+ * become start paths under the root path.  Lengths and last modified
+ * times are those recorded, and operations that failed when recorded fail
+ * again.  Operations on entries for which no latency was recorded spend
+ * the mean latency of that operation over the whole trace.
+ * <p/>
+ * The time spent in each operation is recorded, for use by
+ * {@link TraceReplay}.
+ */
+public class ReplayFileSystemType
+    extends AbstractFileSystemType<ReplayFileSystemType.ReplayReadonlyFile> {
+
+  private static final int OPERATIONS = Operation.values().length;
+
+  private final String rootPath;
+  private final Map<Long, Node> nodes = Maps.newHashMap();
+  private final List<Node> roots = Lists.newArrayList();
+  private final long[] meanLatencies = new long[OPERATIONS];
+  private double timeScale = 1.0;
+
+  private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS);
+  private final AtomicLongArray nanos = new AtomicLongArray(OPERATIONS);
+
+  /**
+   * Reads the trace.
+   *
+   * @param rootPath the path under which the start paths are placed,
+   *        such as "/replay"
+   * @param trace the trace to replay
+   */
+  public ReplayFileSystemType(String rootPath, OperationTrace.Reader trace)
+      throws IOException {
+    Preconditions.checkArgument(rootPath.startsWith("/")
+        && !rootPath.endsWith("/"), "Invalid root path: %s", rootPath);
+    this.rootPath = rootPath;
+
+    long[] totals = new long[OPERATIONS];
+    long[] recorded = new long[OPERATIONS];
+    Record record;
+    while ((record = trace.next()) != null) {
+      if (record.operation != null) {
+        addRecord(record);
+        totals[record.operation.ordinal()] += record.latencyMicros;
+        recorded[record.operation.ordinal()]++;
+      }
+    }
+    for (int i = 0; i < OPERATIONS; i++) {
+      meanLatencies[i] = (recorded[i] == 0) ? 0L : totals[i] / recorded[i];
+    }
+    linkNodes();
+  }
+
+  /** Remembers the first outcome of each operation on an entry. */
+  private void addRecord(Record record) {
+    Node node = nodes.get(record.pathHash);
+    if (node == null) {
+      node = new Node(record.pathHash, record.parentHash);
+      nodes.put(record.pathHash, node);
+    }
+    int op = record.operation.ordinal();
+    if (node.latencies[op] >= 0L) {
+      return;
+    }
+    node.latencies[op] = record.latencyMicros;
+    if (record.status != 0) {
+      node.failures |= 1 << op;
+      return;
+    }
+    switch (record.operation) {
+      case IS_DIRECTORY:
+        node.directory |= (record.bytes != 0L);
+        break;
+      case LIST:
+        node.directory = true;
+        break;
+      case LAST_MODIFIED:
+        node.lastModified = record.bytes;
+        break;
+      case LENGTH:
+      case READ:
+        node.length = Math.max(node.length, record.bytes);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Builds the tree, and names each entry. */
+  private void linkNodes() {
+    for (Node node : nodes.values()) {
+      Node parent = nodes.get(node.parentHash);
+      if (parent != null && parent != node) {
+        parent.directory = true;
+        parent.children.add(node);
+      } else if (node.directory) {
+        roots.add(node);
+      }
+    }
+    Comparator<Node> byName = new Comparator<Node>() {
+      @Override
+      public int compare(Node n1, Node n2) {
+        return n1.name.compareTo(n2.name);
+      }
+    };
+    Collections.sort(roots, byName);
+    for (Node node : nodes.values()) {
+      Collections.sort(node.children, byName);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "replay " + rootPath;
+  }
+
+  @Override
+  public boolean isPath(String path) {
+    return path != null && path.startsWith(rootPath + "/");
+  }
+
+  @Override
+  public ReplayReadonlyFile getFile(String path, Credentials credentials)
+      throws RepositoryDocumentException {
+    if (!isPath(path)) {
+      throw new IllegalArgumentException("Invalid path " + path);
+    }
+    String[] names = path.substring(rootPath.length() + 1).split("/");
+    Node node = find(roots, names[0]);
+    String parent = rootPath;
+    for (int i = 1; i < names.length && node != null; i++) {
+      parent = parent + "/" + node.name;
+      node = find(node.children, names[i]);
+    }
+    if (node == null) {
+      throw new RepositoryDocumentException(
+          "No such file or directory: " + path);
+    }
+    return new ReplayReadonlyFile(this, new Delegate(this, node, parent));
+  }
+
+  /** Returns the node with the given name from a sorted list, or null. */
+  private static Node find(List<Node> nodes, String name) {
+    int low = 0;
+    int high = nodes.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = nodes.get(mid).name.compareTo(name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return nodes.get(mid);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the paths of the start directories, in sorted order. */
+  public List<String> getStartPaths() {
+    List<String> paths = Lists.newArrayList();
+    for (Node root : roots) {
+      paths.add(rootPath + "/" + root.name);
+    }
+    return paths;
+  }
+
+  /** Returns the number of entries in the trace. */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Sets the factor by which the recorded latencies are multiplied when
+   * they are spent.
+   */
+  public void setTimeScale(double timeScale) {
+    this.timeScale = timeScale;
+  }
+
+  /** Returns the number of operations replayed. */
+  public long getCount(Operation operation) {
+    return counts.get(operation.ordinal());
+  }
+
+  /** Returns the total time of the operations replayed. */
+  public long getTotalNanos(Operation operation) {
+    return nanos.get(operation.ordinal());
+  }
+
+  /**
+   * Spends the latency of the operation on the entry, and throws an
+   * {@code IOException} if the operation failed when it was recorded.
+   */
+  private void replay(Node node, Operation operation) throws IOException {
+    long start = System.nanoTime();
+    int op = operation.ordinal();
+    long micros = (node.latencies[op] >= 0L)
+        ? node.latencies[op] : meanLatencies[op];
+    long latency = (long) (TimeUnit.MICROSECONDS.toNanos(micros) * timeScale);
+    long deadline = start + latency;
+    for (long remaining = latency; remaining > 0L;
+         remaining = deadline - System.nanoTime()) {
+      LockSupport.parkNanos(remaining);
+    }
+    counts.incrementAndGet(op);
+    nanos.addAndGet(op, System.nanoTime() - start);
+    if ((node.failures & (1 << op)) != 0) {
+      throw new IOException("Replayed failure of " + operation + " for "
+                            + node.name);
+    }
+  }
+
+  /** An entry in the trace. */
+  private static class Node {
+    final long parentHash;
+    final String name;
+    final long[] latencies = new long[OPERATIONS];
+    final List<Node> children = Lists.newArrayListWithCapacity(0);
+    int failures;
+    boolean directory;
+    long length;
+    long lastModified;
+
+    Node(long pathHash, long parentHash) {
+      this.parentHash = parentHash;
+      this.name = String.format("%016x", pathHash);
+      Arrays.fill(latencies, -1L);
+    }
+  }
+
+  /** A {@link FileDelegate} for an entry in the trace. */
+  private static class Delegate implements FileDelegate {
+    private final ReplayFileSystemType type;
+    private final Node node;
+    private final String parent;
+
+    Delegate(ReplayFileSystemType type, Node node, String parent) {
+      this.type = type;
+      this.node = node;
+      this.parent = parent;
+    }
+
+    Delegate newChild(String name) throws RepositoryDocumentException {
+      Node child = find(node.children, name);
+      if (child == null) {
+        throw new RepositoryDocumentException(
+            "No such file or directory: " + getPath() + "/" + name);
+      }
+      return new Delegate(type, child, getPath());
+    }
+
+    @Override
+    public String getPath() {
+      return parent + "/" + node.name;
+    }
+
+    @Override
+    public String getName() {
+      return node.name;
+    }
+
+    @Override
+    public String getParent() {
+      return parent;
+    }
+
+    @Override
+    public boolean exists() throws IOException {
+      type.replay(node, Operation.EXISTS);
+      return true;
+    }
+
+    @Override
+    public boolean isDirectory() throws IOException {
+      type.replay(node, Operation.IS_DIRECTORY);
+      return node.directory;
+    }
+
+    @Override
+    public boolean isFile() throws IOException {
+      type.replay(node, Operation.IS_FILE);
+      return !node.directory;
+    }
+
+    @Override
+    public long length() throws IOException {
+      type.replay(node, Operation.LENGTH);
+      return node.length;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+      type.replay(node, Operation.LAST_MODIFIED);
+      return node.lastModified;
+    }
+
+    @Override
+    public boolean canRead() throws IOException {
+      type.replay(node, Operation.CAN_READ);
+      return true;
+    }
+
+    @Override
+    public boolean isHidden() throws IOException {
+      type.replay(node, Operation.IS_HIDDEN);
+      return false;
+    }
+
+    @Override
+    public String[] list() throws IOException {
+      type.replay(node, Operation.LIST);
+      if (!node.directory) {
+        return null;
+      }
+      String[] names = new String[node.children.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = node.children.get(i).name;
+      }
+      return names;
+    }
+
+    /**
+     * Returns the recorded number of bytes, all zero, spending the
+     * recorded time of the whole read on the first read.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+      type.replay(node, Operation.OPEN);
+      return new InputStream() {
+        private long remaining = node.length;
+        private boolean started = false;
+
+        private void start() throws IOException {
+          if (!started) {
+            started = true;
+            type.replay(node, Operation.READ);
+          }
+        }
+
+        @Override
+        public int read() throws IOException {
+          start();
+          if (remaining <= 0L) {
+            return -1;
+          }
+          remaining--;
+          return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          start();
+          if (remaining <= 0L) {
+            return -1;
+          }
+          int n = (int) Math.min(len, remaining);
+          Arrays.fill(b, off, off + n, (byte) 0);
+          remaining -= n;
+          return n;
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Delegate
+          && getPath().equals(((Delegate) obj).getPath());
+    }
+
+    @Override
+    public int hashCode() {
+      return getPath().hashCode();
+    }
+  }
+
+  /** A {@link ReadonlyFile} for an entry in the trace. */
+  public static class ReplayReadonlyFile
+      extends AbstractReadonlyFile<ReplayReadonlyFile> {
+    private final Delegate delegate;
+
+    ReplayReadonlyFile(ReplayFileSystemType type, Delegate delegate) {
+      super(type, delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ReplayReadonlyFile newChild(String name)
+        throws RepositoryDocumentException {
+      return new ReplayReadonlyFile(
+          (ReplayFileSystemType) getFileSystemType(),
+          delegate.newChild(name));
+    }
+  }
+}
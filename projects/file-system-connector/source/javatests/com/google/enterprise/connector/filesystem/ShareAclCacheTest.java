@@ -0,0 +1,207 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import com.google.enterprise.connector.util.Clock;
+
+import jcifs.smb.ACE;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * Tests for the {@link ShareAclCache} class.
+ */
+public class ShareAclCacheTest extends TestCase {
+  private static final long EXPIRATION = 60 * 1000L;
+
+  private final TestClock clock = new TestClock();
+  private ShareAclCache cache;
+
+  @Override
+  protected void setUp() {
+    cache = new ShareAclCache(EXPIRATION);
+    cache.setClock(clock);
+  }
+
+  public void testNegativeExpiration() {
+    try {
+      new ShareAclCache(-1);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testGetShareKey() throws IOException {
+    SmbFileDelegate file = createFile("SERVER", "Share", null, null, 0);
+    assertEquals("server/share", ShareAclCache.getShareKey(file));
+    verify(file);
+  }
+
+  public void testGetShareKeyDfs() throws IOException {
+    SmbFileDelegate file = createMock(SmbFileDelegate.class);
+    expect(file.getDfsPath()).andReturn("smb://target/Real/dir/file.txt");
+    replay(file);
+    assertEquals("target/real", ShareAclCache.getShareKey(file));
+    verify(file);
+  }
+
+  public void testCachesPerShare() throws IOException {
+    ACE[] aces = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share", aces, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share", null, null, 0);
+    assertSame(aces, cache.getShareSecurity(file1));
+    assertSame(aces, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testDifferentShares() throws IOException {
+    ACE[] aces1 = new ACE[0];
+    ACE[] aces2 = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share1", aces1, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share2", aces2, null, 1);
+    assertSame(aces1, cache.getShareSecurity(file1));
+    assertSame(aces2, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testCachesNull() throws IOException {
+    SmbFileDelegate file1 = createFile("server", "share", null, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share", null, null, 0);
+    assertNull(cache.getShareSecurity(file1));
+    assertNull(cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testExpiration() throws IOException {
+    ACE[] aces1 = new ACE[0];
+    ACE[] aces2 = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share", aces1, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share", aces2, null, 1);
+    assertSame(aces1, cache.getShareSecurity(file1));
+    clock.advance(EXPIRATION);
+    assertSame(aces2, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testRefresh() throws IOException {
+    ACE[] aces1 = new ACE[0];
+    ACE[] aces2 = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share", aces1, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share", aces2, null, 1);
+    SmbFileDelegate file3 = createFile("server", "share", null, null, 0);
+    assertSame(aces1, cache.getShareSecurity(file1));
+    assertSame(aces2, cache.refreshShareSecurity(file2));
+    assertSame(aces2, cache.getShareSecurity(file3));
+    verify(file1);
+    verify(file2);
+    verify(file3);
+  }
+
+  public void testClear() throws IOException {
+    ACE[] aces1 = new ACE[0];
+    ACE[] aces2 = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share", aces1, null, 1);
+    SmbFileDelegate file2 = createFile("server", "share", aces2, null, 1);
+    assertSame(aces1, cache.getShareSecurity(file1));
+    cache.clear();
+    assertSame(aces2, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testDisabled() throws IOException {
+    cache = new ShareAclCache(0);
+    ACE[] aces1 = new ACE[0];
+    ACE[] aces2 = new ACE[0];
+    SmbFileDelegate file1 = createMock(SmbFileDelegate.class);
+    expect(file1.getShareSecurity(true)).andReturn(aces1);
+    replay(file1);
+    SmbFileDelegate file2 = createMock(SmbFileDelegate.class);
+    expect(file2.getShareSecurity(true)).andReturn(aces2);
+    replay(file2);
+    assertSame(aces1, cache.getShareSecurity(file1));
+    assertSame(aces2, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  public void testFailureNotCached() throws IOException {
+    ACE[] aces = new ACE[0];
+    SmbFileDelegate file1 = createFile("server", "share", null,
+        new IOException("Test Exception"), 1);
+    SmbFileDelegate file2 = createFile("server", "share", aces, null, 1);
+    try {
+      cache.getShareSecurity(file1);
+      fail("Expected IOException");
+    } catch (IOException expected) {
+    }
+    assertSame(aces, cache.getShareSecurity(file2));
+    verify(file1);
+    verify(file2);
+  }
+
+  /**
+   * Returns a mock SmbFileDelegate for a file on the specified share.
+   *
+   * @param server the server name
+   * @param share the share name
+   * @param aces the share ACEs to return
+   * @param exception if non-null, the exception thrown when fetching the
+   *        share ACEs
+   * @param fetches the number of times the share ACEs are expected to be
+   *        fetched from the server
+   */
+  private SmbFileDelegate createFile(String server, String share, ACE[] aces,
+      IOException exception, int fetches) throws IOException {
+    SmbFileDelegate file = createMock(SmbFileDelegate.class);
+    expect(file.getDfsPath()).andStubReturn(null);
+    expect(file.getServer()).andStubReturn(server);
+    expect(file.getShare()).andStubReturn(share);
+    if (fetches > 0) {
+      if (exception == null) {
+        expect(file.getShareSecurity(true)).andReturn(aces).times(fetches);
+      } else {
+        expect(file.getShareSecurity(true)).andThrow(exception)
+            .times(fetches);
+      }
+    }
+    replay(file);
+    return file;
+  }
+
+  private static class TestClock implements Clock {
+    private long time = 1000000L;
+
+    @Override
+    public long getTimeMillis() {
+      return time;
+    }
+
+    public void advance(long millis) {
+      time += millis;
+    }
+  }
+}
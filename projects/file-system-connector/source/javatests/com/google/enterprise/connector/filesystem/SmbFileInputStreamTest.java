@@ -0,0 +1,147 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.enterprise.connector.filesystem.MockSmbServer.Operation;
+
+import jcifs.smb.NtStatus;
+import jcifs.smb.NtlmPasswordAuthentication;
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Tests that the jcifs {@code SmbFileInputStream} resumes reading after a
+ * dropped connection, using {@link MockSmbServer}.
+ */
+public class SmbFileInputStreamTest extends TestCase {
+  private static final int HEAD = 100000;
+
+  private final NtlmPasswordAuthentication auth =
+      new NtlmPasswordAuthentication(null, "user", "password");
+  private final byte[] content = new byte[1024 * 1024 + 17];
+  private File root;
+  private File file;
+  private MockSmbServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31);
+    }
+    root = Files.createTempDir();
+    file = new File(root, "file.bin");
+    Files.write(content, file);
+
+    server = new MockSmbServer();
+    server.addShare("share", root);
+    server.addAccount("S-1-5-21-1-2-3-1001", "DOMAIN", "user", 1);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    ConcreteReadonlyFileTestAbstract.deleteAllFiles(root);
+  }
+
+  /** Opens the file, and reads the first {@code HEAD} bytes of it. */
+  private InputStream openAndReadHead() throws Exception {
+    InputStream in =
+        new SmbFile(server.getUrl("share") + "file.bin", auth).getInputStream();
+    byte[] head = new byte[HEAD];
+    ByteStreams.readFully(in, head);
+    assertTrue(Arrays.equals(Arrays.copyOf(content, HEAD), head));
+    return in;
+  }
+
+  private byte[] tail() {
+    return Arrays.copyOfRange(content, HEAD, content.length);
+  }
+
+  public void testResumeAfterDisconnect() throws Exception {
+    InputStream in = openAndReadHead();
+    try {
+      int opens = server.getRequestCount(Operation.NT_CREATE);
+      server.injectError(Operation.READ, file, MockSmbServer.DISCONNECT, 2);
+      long start = System.currentTimeMillis();
+      assertTrue(Arrays.equals(tail(), ByteStreams.toByteArray(in)));
+      // Without waking the waiting reader when the connection is dropped,
+      // each read would wait for the 30 second response timeout.
+      assertTrue(System.currentTimeMillis() - start < 10000L);
+      assertEquals(opens + 2, server.getRequestCount(Operation.NT_CREATE));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testRetriesExhausted() throws Exception {
+    InputStream in = openAndReadHead();
+    try {
+      server.injectError(Operation.READ, file, MockSmbServer.DISCONNECT, 10);
+      try {
+        ByteStreams.toByteArray(in);
+        fail("Expected an IOException");
+      } catch (IOException expected) {
+      }
+    } finally {
+      server.clearErrors();
+      in.close();
+    }
+  }
+
+  public void testFileChanged() throws Exception {
+    InputStream in = openAndReadHead();
+    try {
+      Files.write(Arrays.copyOf(content, content.length / 2), file);
+      server.injectError(Operation.READ, file, MockSmbServer.DISCONNECT, 1);
+      try {
+        ByteStreams.toByteArray(in);
+        fail("Expected an IOException");
+      } catch (IOException expected) {
+        assertTrue(expected.getMessage(),
+                   expected.getMessage().startsWith("File changed"));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testServerErrorNotRetried() throws Exception {
+    InputStream in = openAndReadHead();
+    try {
+      int opens = server.getRequestCount(Operation.NT_CREATE);
+      server.injectError(Operation.READ, file,
+                         NtStatus.NT_STATUS_ACCESS_DENIED, 1);
+      try {
+        ByteStreams.toByteArray(in);
+        fail("Expected an SmbException");
+      } catch (SmbException expected) {
+        assertEquals(NtStatus.NT_STATUS_ACCESS_DENIED, expected.getNtStatus());
+      }
+      assertEquals(opens, server.getRequestCount(Operation.NT_CREATE));
+    } finally {
+      in.close();
+    }
+  }
+}
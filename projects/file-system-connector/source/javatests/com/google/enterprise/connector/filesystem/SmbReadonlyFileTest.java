@@ -14,9 +14,12 @@
 
 package com.google.enterprise.connector.filesystem;
 
+import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 
 import com.google.common.base.Strings;
 import com.google.enterprise.connector.filesystem.SmbFileSystemType.SmbFileProperties;
@@ -26,6 +29,8 @@ import com.google.enterprise.connector.spi.RepositoryDocumentException;
 import com.google.enterprise.connector.spi.RepositoryException;
 
 import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+import jcifs.smb.SmbFileIterator;
 
 import java.io.IOException;
 import java.net.URL;
@@ -154,6 +159,131 @@ public class SmbReadonlyFileTest extends MockReadonlyFileTestAbstract
     assertEquals(getAbsolutePath(file2), x.get(4).getPath());
   }
 
+  /** Test that iterateFiles() streams the entries returned by the server. */
+  @Override
+  public void testIterateFiles() throws Exception {
+    SmbFile child1 = new SmbFile("smb://server/share/root/file1");
+    SmbFile child2 = new SmbFile("smb://server/share/root/dir/");
+    SmbFileIterator iterator = createMock(SmbFileIterator.class);
+    expect(iterator.hasNext()).andReturn(true);
+    expect(iterator.next()).andReturn(child1);
+    expect(iterator.hasNext()).andReturn(true);
+    expect(iterator.next()).andReturn(child2);
+    expect(iterator.hasNext()).andReturn(false);
+    iterator.close();
+    replay(iterator);
+
+    TestSmbReadonlyFile file = getIteratingFileToTest(iterator);
+    DirectoryIterator<SmbReadonlyFile> it = file.iterateFiles();
+    assertTrue(it.hasNext());
+    assertEquals(child1.getPath(), it.next().getPath());
+    assertTrue(it.hasNext());
+    assertEquals(child2.getPath(), it.next().getPath());
+    assertFalse(it.hasNext());
+    it.close();
+    verify(iterator);
+  }
+
+  @Override
+  public void testIterateFilesEmptyDir() throws Exception {
+    SmbFileIterator iterator = createMock(SmbFileIterator.class);
+    expect(iterator.hasNext()).andReturn(false);
+    iterator.close();
+    replay(iterator);
+
+    DirectoryIterator<SmbReadonlyFile> it =
+        getIteratingFileToTest(iterator).iterateFiles();
+    assertFalse(it.hasNext());
+    it.close();
+    verify(iterator);
+  }
+
+  public void testIterateFilesServerDown() throws Exception {
+    SmbFileIterator iterator = createMock(SmbFileIterator.class);
+    expect(iterator.hasNext()).andThrow(serverDownException);
+    iterator.close();
+    replay(iterator);
+
+    DirectoryIterator<SmbReadonlyFile> it =
+        getIteratingFileToTest(iterator).iterateFiles();
+    try {
+      it.hasNext();
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+      assertFalse(expected instanceof RepositoryDocumentException);
+    }
+    it.close();
+    verify(iterator);
+  }
+
+  public void testIterateFilesIOException() throws Exception {
+    SmbFileIterator iterator = createMock(SmbFileIterator.class);
+    expect(iterator.hasNext()).andThrow(smbException);
+    iterator.close();
+    replay(iterator);
+
+    DirectoryIterator<SmbReadonlyFile> it =
+        getIteratingFileToTest(iterator).iterateFiles();
+    try {
+      it.hasNext();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      assertSame(smbException, expected.getCause());
+    }
+    it.close();
+    verify(iterator);
+  }
+
+  private TestSmbReadonlyFile getIteratingFileToTest(SmbFileIterator iterator)
+      throws Exception {
+    SmbFileDelegate delegate = getMockDelegate();
+    expect(delegate.getPath()).andStubReturn("smb://server/share/root/");
+    expect(delegate.listFilesIterator()).andReturn(iterator);
+    replay(delegate);
+    return new TestSmbReadonlyFile(type, delegate, credentials,
+                                   propertyFetcher, null);
+  }
+
+  public void testOpenAndCloseHandle() throws Exception {
+    SmbFileDelegate delegate = getMockDelegate();
+    delegate.openHandle(propertyFetcher.isLastAccessResetFlagForSmb());
+    delegate.closeHandle();
+    replay(delegate);
+    TestSmbReadonlyFile file = new TestSmbReadonlyFile(type, delegate,
+        credentials, propertyFetcher, null);
+    file.openHandle();
+    file.closeHandle();
+    verify(delegate);
+  }
+
+  public void testOpenHandleIOException() throws Exception {
+    SmbFileDelegate delegate = getMockDelegate();
+    delegate.openHandle(propertyFetcher.isLastAccessResetFlagForSmb());
+    expectLastCall().andThrow(smbException);
+    replay(delegate);
+    TestSmbReadonlyFile file = new TestSmbReadonlyFile(type, delegate,
+        credentials, propertyFetcher, null);
+    // Failing to open the handle is not an error.
+    file.openHandle();
+    verify(delegate);
+  }
+
+  public void testOpenHandleServerDown() throws Exception {
+    SmbFileDelegate delegate = getMockDelegate();
+    delegate.openHandle(propertyFetcher.isLastAccessResetFlagForSmb());
+    expectLastCall().andThrow(serverDownException);
+    replay(delegate);
+    TestSmbReadonlyFile file = new TestSmbReadonlyFile(type, delegate,
+        credentials, propertyFetcher, null);
+    try {
+      file.openHandle();
+      fail("Expected RepositoryException");
+    } catch (RepositoryException expected) {
+      assertFalse(expected instanceof RepositoryDocumentException);
+    }
+    verify(delegate);
+  }
+
   /**
    * Test that isModifiedSince uses the newer of create timestamp and last
    * modified. Windows doesn't update last modified when copying, moving files,
@@ -0,0 +1,141 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import jcifs.smb.NtlmPasswordAuthentication;
+import jcifs.smb.SmbFile;
+import jcifs.smb.SmbStatistics;
+import jcifs.smb.SmbStatisticsMXBean;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tests for the jcifs {@link SmbStatistics}, using {@link MockSmbServer}.
+ */
+public class SmbStatisticsTest extends TestCase {
+  private static final byte[] CONTENT = new byte[100000];
+
+  /** The SMB header, parameters, and padding of a READ_ANDX response. */
+  private static final int MAX_READ_OVERHEAD = 64;
+
+  private final NtlmPasswordAuthentication auth =
+      new NtlmPasswordAuthentication(null, "user", "password");
+  private File root;
+  private MockSmbServer server;
+  private SmbStatistics statistics;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    Files.write(CONTENT, new File(root, "file.bin"));
+
+    server = new MockSmbServer();
+    server.addShare("share", root);
+    server.addAccount("S-1-5-21-1-2-3-1001", "DOMAIN", "user", 1);
+    server.start();
+    statistics = SmbStatistics.enable();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    ConcreteReadonlyFileTestAbstract.deleteAllFiles(root);
+  }
+
+  private SmbFile getSmbFile(String path) throws Exception {
+    return new SmbFile(server.getUrl("share") + path, auth);
+  }
+
+  /** Returns the statistics of the server, which listens on 127.0.0.1. */
+  private SmbStatisticsMXBean getServerStatistics() {
+    SmbStatisticsMXBean stats = statistics.getServerStatistics("127.0.0.1");
+    assertNotNull(stats);
+    return stats;
+  }
+
+  public void testEnable() {
+    assertSame(statistics, SmbStatistics.enable());
+  }
+
+  public void testRead() throws Exception {
+    InputStream in = getSmbFile("file.bin").getInputStream();
+    try {
+      assertEquals(CONTENT.length, ByteStreams.toByteArray(in).length);
+    } finally {
+      in.close();
+    }
+
+    SmbStatisticsMXBean read = statistics.getCommandStatistics(
+        "SmbComReadAndX");
+    assertNotNull(read);
+    assertTrue(read.getRequests() > 0);
+    // Each response carries at most a header and padding besides its data.
+    assertTrue(read.getBytesReceived() >= CONTENT.length);
+    assertTrue(read.getBytesReceived()
+        <= CONTENT.length + read.getRequests() * MAX_READ_OVERHEAD);
+    assertEquals(0, read.getOutstanding());
+    assertEquals(0, read.getWaiting());
+    assertTrue(read.getMaxLatencyMillis() >= read.getMeanLatencyMillis());
+
+    long total = 0L;
+    for (long count : read.getLatencyHistogram()) {
+      total += count;
+    }
+    assertEquals(read.getRequests(), total);
+    assertTrue(read.getMedianLatencyMillis() <= read.getMaxLatencyMillis());
+
+    SmbStatisticsMXBean serverStats = getServerStatistics();
+    assertTrue(serverStats.getRequests() >= read.getRequests());
+    assertTrue(serverStats.getBytesSent() > 0);
+    assertEquals(0, serverStats.getOutstanding());
+  }
+
+  public void testErrors() throws Exception {
+    assertFalse(getSmbFile("missing.txt").exists());
+    assertTrue(getServerStatistics().getErrors() > 0);
+  }
+
+  public void testReset() throws Exception {
+    assertTrue(getSmbFile("file.bin").exists());
+    SmbStatisticsMXBean serverStats = getServerStatistics();
+    assertTrue(serverStats.getRequests() > 0);
+    serverStats.reset();
+    assertEquals(0, serverStats.getRequests());
+    assertEquals(0.0, serverStats.getMaxLatencyMillis());
+  }
+
+  public void testJmx() throws Exception {
+    assertTrue(getSmbFile("file.bin").exists());
+    MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+    assertFalse(mbeans.queryNames(
+        new ObjectName("jcifs:type=SmbCommand,*"), null).isEmpty());
+    assertFalse(mbeans.queryNames(
+        new ObjectName("jcifs:type=SmbServer,*"), null).isEmpty());
+    for (ObjectName name : mbeans.queryNames(
+             new ObjectName("jcifs:type=SmbServer,*"), null)) {
+      assertTrue(((Long) mbeans.getAttribute(name, "Requests")) > 0);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link StartPathProber} class.
+ */
+public class StartPathProberTest extends TestCase {
+
+  public void testNonPositiveTimeout() {
+    try {
+      new StartPathProber(0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testGetHost() {
+    assertEquals("server", StartPathProber.getHost("smb://server/share/"));
+    assertEquals("server", StartPathProber.getHost("SMB://Server/share/"));
+    assertEquals("server", StartPathProber.getHost("smb://server"));
+    assertEquals("server", StartPathProber.getHost("\\\\Server\\share\\"));
+    assertEquals("", StartPathProber.getHost("/tmp/dir/"));
+    assertEquals("", StartPathProber.getHost("C:\\dir\\"));
+  }
+
+  public void testNoPaths() {
+    Map<String, Exception> errors = new StartPathProber(1000L).probe(
+        Collections.<String>emptyList(), new StartPathProber.Probe() {
+          @Override
+          public void probe(String path) {
+            fail("Unexpected probe of " + path);
+          }
+        });
+    assertTrue(errors.isEmpty());
+  }
+
+  public void testFailuresInPathOrder() {
+    final IOException e1 = new IOException("one");
+    final RepositoryException e3 = new RepositoryException("three");
+    List<String> paths = ImmutableList.of("smb://a/1/", "smb://b/2/",
+        "smb://a/3/", "/local/4/");
+    Map<String, Exception> errors = new StartPathProber(10000L).probe(paths,
+        new StartPathProber.Probe() {
+          @Override
+          public void probe(String path)
+              throws IOException, RepositoryException {
+            if (path.endsWith("/1/")) {
+              throw e1;
+            } else if (path.endsWith("/3/")) {
+              throw e3;
+            }
+          }
+        });
+    assertEquals(ImmutableList.of("smb://a/1/", "smb://a/3/"),
+        ImmutableList.copyOf(errors.keySet()));
+    assertSame(e1, errors.get("smb://a/1/"));
+    assertSame(e3, errors.get("smb://a/3/"));
+  }
+
+  public void testHostsProbedConcurrently() throws Exception {
+    // Each probe waits for the probe on the other host, which would
+    // time out if the hosts were probed one after the other.
+    final CountDownLatch latch = new CountDownLatch(2);
+    Map<String, Exception> errors = new StartPathProber(10000L).probe(
+        ImmutableList.of("smb://a/1/", "smb://b/2/"),
+        new StartPathProber.Probe() {
+          @Override
+          public void probe(String path) throws RepositoryException {
+            latch.countDown();
+            try {
+              if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new RepositoryException("Not concurrent");
+              }
+            } catch (InterruptedException e) {
+              throw new RepositoryException(e);
+            }
+          }
+        });
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+
+  public void testTimeout() {
+    final CountDownLatch never = new CountDownLatch(1);
+    List<String> paths = ImmutableList.of("smb://slow/1/", "smb://slow/2/",
+        "smb://fast/3/");
+    Map<String, Exception> errors = new StartPathProber(200L).probe(paths,
+        new StartPathProber.Probe() {
+          @Override
+          public void probe(String path) {
+            if (path.startsWith("smb://slow/")) {
+              try {
+                never.await();
+              } catch (InterruptedException e) {
+                // Cancelled by the prober.
+              }
+            }
+          }
+        });
+    assertEquals(ImmutableList.of("smb://slow/1/", "smb://slow/2/"),
+        ImmutableList.copyOf(errors.keySet()));
+    assertTrue(errors.get("smb://slow/1/") instanceof RepositoryException);
+    assertTrue(errors.get("smb://slow/2/") instanceof RepositoryException);
+  }
+}
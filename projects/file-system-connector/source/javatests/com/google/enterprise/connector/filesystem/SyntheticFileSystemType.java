@@ -0,0 +1,227 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.base.Preconditions;
+import com.google.enterprise.connector.spi.RepositoryDocumentException;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A deterministic, virtual file system of arbitrary size.  Nothing is
+ * stored: the entries of a directory, and their attributes and ACLs, are
+ * computed on demand from the seed and the position of the directory in
+ * the tree, so the same seed always presents the same tree, and a tree
+ * of 10^8 entries costs no more memory than one of ten.
+ * <p/>
+ * Each directory above the maximum depth has between zero and twice the
+ * mean number of subdirectories, and each directory has between one and
+ * twice the mean number of files.  File sizes are log-normal, with a
+ * median of 16 KB, and files were last modified an exponentially
+ * distributed time before a fixed date.  Most entries inherit their ACLs;
+ * some directories add a group, a few stop inheriting, and some files add
+ * a user.
+ * <p/>
+ * Listing directories and reading security descriptors may be given a
+ * simulated latency, and the time spent in each is recorded, for use by
+ * {@link TraversalBenchmark}.
+ */
+public class SyntheticFileSystemType
+    extends AbstractFileSystemType<SyntheticReadonlyFile> {
+
+  /** The operations that are timed, and may be given a latency. */
+  public static enum Stage {
+    /** Opening a directory listing, or reading the next entry. */
+    LIST,
+    /** Reading the security descriptor of an entry. */
+    ACL
+  }
+
+  private final String rootPath;
+  private final long seed;
+  private final int maxDepth;
+  private final int meanDirs;
+  private final int meanFiles;
+  private final SyntheticReadonlyFile root;
+
+  private final long[] latencies = new long[Stage.values().length];
+  private final AtomicLongArray counts =
+      new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray nanos =
+      new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray maxNanos =
+      new AtomicLongArray(Stage.values().length);
+
+  /**
+   * @param rootPath the path of the root directory, such as "/synthetic"
+   * @param seed the seed from which the tree is generated
+   * @param maxDepth the depth of the deepest directories, which have no
+   *        subdirectories; the root is at depth 0
+   * @param meanDirs the mean number of subdirectories of a directory
+   *        above the maximum depth
+   * @param meanFiles the mean number of files in a directory
+   */
+  public SyntheticFileSystemType(String rootPath, long seed, int maxDepth,
+      int meanDirs, int meanFiles) {
+    Preconditions.checkArgument(rootPath.startsWith("/")
+        && !rootPath.endsWith("/"), "Invalid root path: %s", rootPath);
+    Preconditions.checkArgument(maxDepth >= 0 && meanDirs >= 0
+        && meanFiles >= 1, "Invalid tree shape");
+    this.rootPath = rootPath;
+    this.seed = seed;
+    this.maxDepth = maxDepth;
+    this.meanDirs = meanDirs;
+    this.meanFiles = meanFiles;
+    this.root = new SyntheticReadonlyFile(this, null, rootPath, 0,
+        mix(seed), true);
+  }
+
+  /**
+   * Returns the expected number of entries in the tree, including the
+   * root, for the given shape.
+   */
+  public static double expectedSize(int maxDepth, int meanDirs,
+      int meanFiles) {
+    double dirs = 0;
+    double level = 1;
+    for (int depth = 0; depth <= maxDepth; depth++) {
+      dirs += level;
+      level *= meanDirs;
+    }
+    return dirs * (1 + meanFiles);
+  }
+
+  @Override
+  public String getName() {
+    return "synthetic " + rootPath;
+  }
+
+  @Override
+  public boolean isPath(String path) {
+    return path != null
+        && (path.equals(rootPath) || path.startsWith(rootPath + "/"));
+  }
+
+  @Override
+  public SyntheticReadonlyFile getFile(String path, Credentials credentials)
+      throws RepositoryDocumentException {
+    if (!isPath(path)) {
+      throw new IllegalArgumentException("Invalid path " + path);
+    }
+    SyntheticReadonlyFile result = root;
+    for (String name : path.substring(rootPath.length()).split("/")) {
+      if (name.length() != 0) {
+        SyntheticReadonlyFile child = result.getChild(name);
+        if (child == null) {
+          throw new RepositoryDocumentException("No such file or directory: "
+              + result.getPath() + "/" + name);
+        }
+        result = child;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean supportsAcls() {
+    return true;
+  }
+
+  public SyntheticReadonlyFile getRoot() {
+    return root;
+  }
+
+  long getSeed() {
+    return seed;
+  }
+
+  int getMaxDepth() {
+    return maxDepth;
+  }
+
+  int getMeanDirs() {
+    return meanDirs;
+  }
+
+  int getMeanFiles() {
+    return meanFiles;
+  }
+
+  /**
+   * Sets the simulated latency of each operation in the given stage.
+   * The latency is spent in the calling thread, as for a network round
+   * trip.
+   */
+  public void setLatency(Stage stage, long latencyNanos) {
+    latencies[stage.ordinal()] = latencyNanos;
+  }
+
+  /** Returns the number of operations recorded in the given stage. */
+  public long getCount(Stage stage) {
+    return counts.get(stage.ordinal());
+  }
+
+  /** Returns the total time of the operations in the given stage. */
+  public long getTotalNanos(Stage stage) {
+    return nanos.get(stage.ordinal());
+  }
+
+  /** Returns the time of the slowest operation in the given stage. */
+  public long getMaxNanos(Stage stage) {
+    return maxNanos.get(stage.ordinal());
+  }
+
+  /** Forgets the recorded operations. */
+  public void resetStats() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0L);
+      nanos.set(i, 0L);
+      maxNanos.set(i, 0L);
+    }
+  }
+
+  /**
+   * Spends the simulated latency of the stage, then records an operation
+   * that started at {@code startNanos}.
+   */
+  void endOperation(Stage stage, long startNanos) {
+    int i = stage.ordinal();
+    long end = startNanos + latencies[i];
+    long now = System.nanoTime();
+    while (now < end) {
+      LockSupport.parkNanos(end - now);
+      now = System.nanoTime();
+    }
+    long elapsed = now - startNanos;
+    counts.incrementAndGet(i);
+    nanos.addAndGet(i, elapsed);
+    long max;
+    while ((max = maxNanos.get(i)) < elapsed
+           && !maxNanos.compareAndSet(i, max, elapsed)) {
+    }
+  }
+
+  /**
+   * Returns a well-mixed function of {@code z}, from which the seeds and
+   * attributes of entries are derived.  This is the finalizer of the
+   * SplitMix64 generator.
+   */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
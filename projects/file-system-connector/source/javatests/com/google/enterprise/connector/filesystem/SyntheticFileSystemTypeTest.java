@@ -0,0 +1,160 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.connector.filesystem.SyntheticFileSystemType.Stage;
+import com.google.enterprise.connector.spi.Principal;
+import com.google.enterprise.connector.spi.RepositoryDocumentException;
+
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link SyntheticFileSystemType} and
+ * {@link SyntheticReadonlyFile}.
+ */
+public class SyntheticFileSystemTypeTest extends TestCase {
+  private static final String ROOT = "/synthetic";
+
+  private final SyntheticFileSystemType type =
+      new SyntheticFileSystemType(ROOT, 42L, 3, 4, 10);
+
+  /** Returns the paths of all the entries under the directory. */
+  private static List<String> walk(SyntheticReadonlyFile dir)
+      throws Exception {
+    List<String> paths = Lists.newArrayList();
+    paths.add(dir.getPath());
+    for (SyntheticReadonlyFile file : dir.listFiles()) {
+      if (file.isDirectory()) {
+        paths.addAll(walk(file));
+      } else {
+        paths.add(file.getPath() + " " + file.length() + " "
+                  + file.getLastModified());
+      }
+    }
+    return paths;
+  }
+
+  private static List<String> names(Collection<Principal> principals) {
+    List<String> names = Lists.newArrayList();
+    for (Principal principal : principals) {
+      names.add(principal.getName());
+    }
+    return names;
+  }
+
+  public void testDeterministic() throws Exception {
+    SyntheticFileSystemType same =
+        new SyntheticFileSystemType(ROOT, 42L, 3, 4, 10);
+    SyntheticFileSystemType other =
+        new SyntheticFileSystemType(ROOT, 43L, 3, 4, 10);
+    List<String> paths = walk(type.getRoot());
+    assertEquals(paths, walk(same.getRoot()));
+    assertFalse(paths.equals(walk(other.getRoot())));
+  }
+
+  public void testShape() throws Exception {
+    int entries = walk(type.getRoot()).size();
+    double expected = SyntheticFileSystemType.expectedSize(3, 4, 10);
+    assertEquals(935.0, expected);
+    assertTrue(String.valueOf(entries),
+               entries > expected / 3 && entries < expected * 3);
+  }
+
+  public void testGetFile() throws Exception {
+    assertSame(type.getRoot(), type.getFile(ROOT, null));
+    for (String path : walk(type.getRoot())) {
+      path = path.split(" ")[0];
+      SyntheticReadonlyFile file = type.getFile(path, null);
+      assertEquals(path, file.getPath());
+      assertTrue(file.exists());
+    }
+    assertTrue(type.isPath(ROOT + "/dir-0"));
+    assertFalse(type.isPath(ROOT + "x/dir-0"));
+  }
+
+  public void testGetMissingFile() throws Exception {
+    for (String name : new String[] { "dir-1000", "file-1000.txt", "dir-01",
+             "dir-x", "other", "file-0.bogus" }) {
+      try {
+        type.getFile(ROOT + "/" + name, null);
+        fail("Expected a RepositoryDocumentException for " + name);
+      } catch (RepositoryDocumentException expected) {
+      }
+    }
+  }
+
+  public void testContent() throws Exception {
+    SyntheticReadonlyFile file = null;
+    for (SyntheticReadonlyFile child : type.getRoot().listFiles()) {
+      if (child.isRegularFile()) {
+        file = child;
+        break;
+      }
+    }
+    assertNotNull(file);
+    InputStream in = file.getInputStream();
+    byte[] content;
+    try {
+      content = ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+    assertEquals(file.length(), content.length);
+    in = type.getFile(file.getPath(), null).getInputStream();
+    try {
+      assertTrue(Arrays.equals(content, ByteStreams.toByteArray(in)));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testAcls() throws Exception {
+    SyntheticReadonlyFile root = type.getRoot();
+    assertEquals(Collections.singletonList(SyntheticReadonlyFile.DOMAIN_USERS),
+                 names(root.getAcl().getGroups()));
+    assertEquals(
+        Collections.singletonList(SyntheticReadonlyFile.ADMINISTRATORS),
+        names(root.getInheritedAcl().getGroups()));
+    for (SyntheticReadonlyFile child : root.listFiles()) {
+      assertTrue(child.hasInheritedAcls() || child.isDirectory());
+      if (child.hasInheritedAcls()) {
+        assertEquals(root.getFileInheritAcl(), child.getInheritedAcl());
+      }
+    }
+  }
+
+  public void testStats() throws Exception {
+    type.setLatency(Stage.ACL, 1000000L);
+    long start = System.nanoTime();
+    type.getRoot().getAcl();
+    type.getRoot().getContainerInheritAcl();
+    assertTrue(System.nanoTime() - start >= 1000000L);
+    assertEquals(1, type.getCount(Stage.ACL));
+    assertTrue(type.getMaxNanos(Stage.ACL) >= 1000000L);
+
+    type.getRoot().listFiles();
+    assertEquals(1, type.getCount(Stage.LIST));
+    type.resetStats();
+    assertEquals(0, type.getCount(Stage.LIST));
+  }
+}
@@ -0,0 +1,453 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.enterprise.connector.filesystem.SyntheticFileSystemType.Stage;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An entry in a {@link SyntheticFileSystemType}.  Every attribute is a
+ * function of the seed of the entry, which is a function of the seed of
+ * its parent and its position in the parent, so entries may be created
+ * in any order, and are created again rather than kept.
+ */
+public class SyntheticReadonlyFile
+    implements ReadonlyFile<SyntheticReadonlyFile> {
+  /** The time before which all entries were last modified. */
+  static final long BASE_TIME = 1388534400000L;  // 2014-01-01 UTC.
+
+  /** The number of entries returned by each simulated listing request. */
+  static final int PAGE_SIZE = 100;
+
+  static final String DOMAIN_USERS = "SYNTHETIC\\Domain Users";
+  static final String ADMINISTRATORS = "BUILTIN\\Administrators";
+
+  private static final String[] EXTENSIONS = {
+      ".txt", ".doc", ".docx", ".pdf", ".xls", ".html", ".ppt", ".zip" };
+  private static final long MEAN_AGE = 365L * 24 * 60 * 60 * 1000;
+  private static final double LOG_MEDIAN_SIZE = Math.log(16 * 1024);
+  private static final double SIGMA_SIZE = 2.0;
+  private static final long MAX_SIZE = 4L * 1024 * 1024 * 1024;
+
+  // Attribute keys, mixed with the seed of the entry.
+  private static final int DIR_COUNT = 1;
+  private static final int FILE_COUNT = 2;
+  private static final int LAST_MODIFIED = 3;
+  private static final int EXPLICIT_ACE = 4;
+  private static final int NO_INHERIT = 5;
+  private static final int SIZE_1 = 6;
+  private static final int SIZE_2 = 7;
+  private static final int EXTENSION = 8;
+  private static final int PRINCIPAL = 9;
+  private static final int CONTENT = 10;
+
+  private final SyntheticFileSystemType type;
+  private final SyntheticReadonlyFile parent;
+  private final String name;
+  private final String path;
+  private final int depth;
+  private final long seed;
+  private final boolean isDir;
+
+  /** The explicit ACL, read with the simulated security descriptor. */
+  private Acl explicitAcl;
+
+  SyntheticReadonlyFile(SyntheticFileSystemType type,
+      SyntheticReadonlyFile parent, String name, int depth, long seed,
+      boolean isDir) {
+    this.type = type;
+    this.parent = parent;
+    this.name = name;
+    this.path = (parent == null) ? name : parent.getPath() + "/" + name;
+    this.depth = depth;
+    this.seed = seed;
+    this.isDir = isDir;
+  }
+
+  /**
+   * Returns a uniformly distributed value in [0, 1) for the key, in the
+   * entry with the given seed.
+   */
+  private static double uniform(long seed, int key) {
+    return (SyntheticFileSystemType.mix(seed + key * 0x9e3779b97f4a7c15L)
+            >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Returns a uniformly distributed value in [min, max] for the key, in
+   * the entry with the given seed.
+   */
+  private static int uniform(long seed, int key, int min, int max) {
+    return min + (int) (uniform(seed, key) * (max - min + 1));
+  }
+
+  private double uniform(int key) {
+    return uniform(seed, key);
+  }
+
+  int getDirCount() {
+    if (!isDir || depth >= type.getMaxDepth()) {
+      return 0;
+    }
+    return uniform(seed, DIR_COUNT, 0, 2 * type.getMeanDirs());
+  }
+
+  int getFileCount() {
+    return isDir ? uniform(seed, FILE_COUNT, 1, 2 * type.getMeanFiles()) : 0;
+  }
+
+  private SyntheticReadonlyFile newChild(int index) {
+    int dirs = getDirCount();
+    if (index < dirs) {
+      return new SyntheticReadonlyFile(type, this, "dir-" + index, depth + 1,
+          SyntheticFileSystemType.mix(seed ^ (2L * index + 2)), true);
+    } else {
+      long fileSeed = SyntheticFileSystemType.mix(seed ^ (2L * index + 3));
+      String extension = EXTENSIONS[
+          uniform(fileSeed, EXTENSION, 0, EXTENSIONS.length - 1)];
+      return new SyntheticReadonlyFile(type, this,
+          "file-" + (index - dirs) + extension, depth + 1, fileSeed, false);
+    }
+  }
+
+  /**
+   * Returns the child with the given name, or {@code null} if there is
+   * no such child.
+   */
+  SyntheticReadonlyFile getChild(String childName) {
+    if (!isDir) {
+      return null;
+    }
+    int index;
+    try {
+      if (childName.startsWith("dir-")) {
+        index = Integer.parseInt(childName.substring(4));
+        if (index < 0 || index >= getDirCount()) {
+          return null;
+        }
+      } else if (childName.startsWith("file-")) {
+        int dot = childName.indexOf('.');
+        index = Integer.parseInt(childName.substring(5,
+            (dot < 0) ? childName.length() : dot));
+        if (index < 0 || index >= getFileCount()) {
+          return null;
+        }
+        index += getDirCount();
+      } else {
+        return null;
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    SyntheticReadonlyFile child = newChild(index);
+    return child.getName().equals(childName) ? child : null;
+  }
+
+  @Override
+  public FileSystemType<?> getFileSystemType() {
+    return type;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getParent() {
+    return (parent == null) ? null : parent.getPath();
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return isDir;
+  }
+
+  @Override
+  public boolean isRegularFile() {
+    return !isDir;
+  }
+
+  @Override
+  public long getLastModified() {
+    return BASE_TIME - (long) (-Math.log(1.0 - uniform(LAST_MODIFIED))
+                               * MEAN_AGE);
+  }
+
+  @Override
+  public boolean isModifiedSince(long time) {
+    return getLastModified() >= time;
+  }
+
+  @Override
+  public long length() {
+    if (isDir) {
+      return 0L;
+    }
+    // Log-normal, by the Box-Muller transform.
+    double gaussian = Math.sqrt(-2.0 * Math.log(1.0 - uniform(SIZE_1)))
+        * Math.cos(2.0 * Math.PI * uniform(SIZE_2));
+    return Math.min(MAX_SIZE,
+        (long) Math.exp(LOG_MEDIAN_SIZE + SIGMA_SIZE * gaussian));
+  }
+
+  @Override
+  public boolean exists() {
+    return true;
+  }
+
+  @Override
+  public boolean isHidden() {
+    return false;
+  }
+
+  @Override
+  public boolean canRead() {
+    return true;
+  }
+
+  @Override
+  public String getDisplayUrl() {
+    return "file://synthetic" + path;
+  }
+
+  @Override
+  public boolean acceptedBy(FilePatternMatcher matcher) {
+    return matcher.acceptName(path);
+  }
+
+  /**
+   * Reads the simulated security descriptor, once.  About 5% of
+   * directories grant a group of their own, 1% of directories do not
+   * inherit, and 2% of files grant a user of their own.
+   */
+  private synchronized Acl fetchSecurity() {
+    if (explicitAcl == null) {
+      long start = System.nanoTime();
+      List<String> users = Collections.emptyList();
+      List<String> groups = Collections.emptyList();
+      String principal = "-" + (SyntheticFileSystemType.mix(seed + PRINCIPAL)
+                                >>> 48);
+      if (parent == null) {
+        groups = ImmutableList.of(DOMAIN_USERS);
+      } else if (isDir) {
+        if (!hasInheritedAcls()) {
+          groups = ImmutableList.of(ADMINISTRATORS, "SYNTHETIC\\group"
+                                    + principal);
+        } else if (uniform(EXPLICIT_ACE) < 0.05) {
+          groups = ImmutableList.of("SYNTHETIC\\group" + principal);
+        }
+      } else if (uniform(EXPLICIT_ACE) < 0.02) {
+        users = ImmutableList.of("SYNTHETIC\\user" + principal);
+      }
+      List<String> none = Collections.emptyList();
+      explicitAcl = Acl.newAcl(users, groups, none, none);
+      type.endOperation(Stage.ACL, start);
+    }
+    return explicitAcl;
+  }
+
+  @Override
+  public Acl getAcl() {
+    return fetchSecurity();
+  }
+
+  @Override
+  public boolean hasInheritedAcls() {
+    return parent == null || !isDir || uniform(NO_INHERIT) >= 0.01;
+  }
+
+  @Override
+  public Acl getInheritedAcl() {
+    fetchSecurity();
+    if (parent == null) {
+      List<String> none = Collections.emptyList();
+      return Acl.newAcl(none, ImmutableList.of(ADMINISTRATORS), none, none);
+    }
+    return hasInheritedAcls() ? parent.fetchSecurity() : null;
+  }
+
+  @Override
+  public Acl getContainerInheritAcl() {
+    return isDir ? fetchSecurity() : null;
+  }
+
+  @Override
+  public Acl getFileInheritAcl() {
+    return isDir ? fetchSecurity() : null;
+  }
+
+  @Override
+  public Acl getShareAcl() {
+    List<String> none = Collections.emptyList();
+    return Acl.newAcl(none, ImmutableList.of(DOMAIN_USERS), none, none);
+  }
+
+  @Override
+  public List<SyntheticReadonlyFile> listFiles()
+      throws IOException, RepositoryException {
+    List<SyntheticReadonlyFile> files = Lists.newArrayList();
+    DirectoryIterator<SyntheticReadonlyFile> iter = iterateFiles();
+    while (iter.hasNext()) {
+      files.add(iter.next());
+    }
+    Collections.sort(files, new Comparator<SyntheticReadonlyFile>() {
+      @Override
+      public int compare(SyntheticReadonlyFile f1, SyntheticReadonlyFile f2) {
+        return f1.getName().compareTo(f2.getName());
+      }
+    });
+    return files;
+  }
+
+  /**
+   * Returns the entries of the directory, a page at a time, as they
+   * would be returned by a network file system.
+   */
+  @Override
+  public DirectoryIterator<SyntheticReadonlyFile> iterateFiles()
+      throws IOException {
+    if (!isDir) {
+      throw new IOException("Not a directory: " + path);
+    }
+    final int count = getDirCount() + getFileCount();
+    return new DirectoryIterator<SyntheticReadonlyFile>() {
+      private final List<SyntheticReadonlyFile> page = Lists.newArrayList();
+      private int next = 0;
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (next == page.size() && index < count) {
+          long start = System.nanoTime();
+          page.clear();
+          next = 0;
+          int end = Math.min(count, index + PAGE_SIZE);
+          for (; index < end; index++) {
+            page.add(newChild(index));
+          }
+          type.endOperation(Stage.LIST, start);
+        }
+        return next < page.size();
+      }
+
+      @Override
+      public SyntheticReadonlyFile next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return page.get(next++);
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  @Override
+  public DirectoryIterator<SyntheticReadonlyFile> iterateFiles(
+      NameTable.Budget budget) throws IOException {
+    return iterateFiles();
+  }
+
+  /** Returns pseudo-random content, of the length of the file. */
+  @Override
+  public InputStream getInputStream() throws IOException {
+    if (isDir) {
+      throw new IOException("Not a file: " + path);
+    }
+    final long length = length();
+    final long contentSeed = seed + CONTENT;
+    return new InputStream() {
+      private long position = 0;
+
+      private byte byteAt(long offset) {
+        return (byte) (SyntheticFileSystemType.mix(contentSeed + (offset >>> 3))
+                       >>> ((offset & 7) << 3));
+      }
+
+      @Override
+      public int read() {
+        return (position < length) ? byteAt(position++) & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+          throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+          return 0;
+        } else if (position >= length) {
+          return -1;
+        }
+        int count = (int) Math.min(len, length - position);
+        for (int i = 0; i < count; i++) {
+          b[off + i] = byteAt(position++);
+        }
+        return count;
+      }
+
+      @Override
+      public long skip(long n) {
+        long count = Math.max(0L, Math.min(n, length - position));
+        position += count;
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return (int) Math.min(length - position, Integer.MAX_VALUE);
+      }
+    };
+  }
+
+  @Override
+  public void openHandle() {
+  }
+
+  @Override
+  public void closeHandle() {
+  }
+
+  @Override
+  public ChangeWatcher newChangeWatcher() {
+    return null;
+  }
+
+  @Override
+  public Object getFileKey() {
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -35,6 +35,10 @@ public class TestFileSystemPropertyManager extends FileSystemPropertyManager {
     super.setUserAclFormat("domain\\user");
     super.setIfModifiedSinceCushionMinutes(60);
     super.setThreadPoolSize(10);
+    super.setShareAclCacheMinutes(60);
+    super.setFrontierMemoryMegabytes(64);
+    super.setAclSweepIntervalMinutes(0);
+    super.setWatchForChanges(false);
     super.setSupportsInheritedAcls(true);
     super.setUseAuthzOnAclError(false);
   }
@@ -0,0 +1,243 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.enterprise.connector.filesystem.OperationTrace.Operation;
+import com.google.enterprise.connector.filesystem.OperationTrace.Record;
+import com.google.enterprise.connector.spi.Document;
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.google.enterprise.connector.spi.SimpleTraversalContext;
+import com.google.enterprise.connector.spi.SpiConstants;
+import com.google.enterprise.connector.spi.Value;
+import com.google.enterprise.connector.util.MimeTypeDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays an {@link OperationTrace} recorded by a connector, to reproduce
+ * the performance of a customer's file system without access to it.  The
+ * tree of the trace is rebuilt as a {@link ReplayFileSystemType}, which
+ * is traversed once by {@link FileLister}, after which the content of
+ * every document is read by {@link FileRetriever}, as the search
+ * appliance would in a content URL feed.  The elapsed time of each phase,
+ * and the recorded and replayed time of each operation, are reported,
+ * along with a summary of the SMB requests in the trace, which are not
+ * replayed.
+ * <p/>
+ * The replay is run by the {@code replay} ant target, and is configured
+ * by these system properties:
+ * <ul>
+ * <li>{@code replay.trace} - the trace file (required)
+ * <li>{@code replay.timeScale} - the factor by which the recorded
+ *     latencies are multiplied (default 1.0)
+ * <li>{@code replay.threads} - the number of threads retrieving content
+ *     (default 4)
+ * </ul>
+ */
+public class TraceReplay {
+  private static final String ROOT = "/replay";
+
+  public static void main(String[] args) throws Exception {
+    String traceFile = System.getProperty("replay.trace");
+    if (traceFile == null) {
+      System.err.println("Usage: -Dreplay.trace=<trace file>");
+      System.exit(1);
+    }
+    File trace = new File(traceFile);
+    double timeScale = Double.parseDouble(
+        System.getProperty("replay.timeScale", "1.0"));
+    int threads = Integer.getInteger("replay.threads", 4);
+
+    long[] recordedCounts = new long[Operation.values().length];
+    long[] recordedMicros = new long[Operation.values().length];
+    Map<String, long[]> commands = Maps.newTreeMap();
+    OperationTrace.Reader reader = new OperationTrace.Reader(trace);
+    try {
+      summarize(reader, recordedCounts, recordedMicros, commands);
+    } finally {
+      reader.close();
+    }
+
+    ReplayFileSystemType type;
+    reader = new OperationTrace.Reader(trace);
+    try {
+      type = new ReplayFileSystemType(ROOT, reader);
+    } finally {
+      reader.close();
+    }
+    type.setTimeScale(timeScale);
+    List<String> startPaths = type.getStartPaths();
+    System.out.printf("Trace: %d entries under %d start paths%n",
+                      type.size(), startPaths.size());
+    if (startPaths.isEmpty()) {
+      return;
+    }
+
+    FileLister lister =
+        TraversalBenchmark.newLister(type, startPaths, false);
+    DocidCollector collector = new DocidCollector(lister);
+    lister.setDocumentAcceptor(collector);
+    long start = System.nanoTime();
+    lister.start();
+    long listNanos = System.nanoTime() - start;
+    System.out.printf("Listed: %d documents in %.3f s%n",
+                      collector.getCount(), listNanos / 1e9);
+
+    long[] listedCounts = new long[Operation.values().length];
+    long[] listedNanos = new long[Operation.values().length];
+    for (Operation operation : Operation.values()) {
+      listedCounts[operation.ordinal()] = type.getCount(operation);
+      listedNanos[operation.ordinal()] = type.getTotalNanos(operation);
+    }
+
+    start = System.nanoTime();
+    long bytes = retrieve(type, collector.getDocids(), threads);
+    long retrieveNanos = System.nanoTime() - start;
+    System.out.printf("Retrieved: %d bytes of %d documents in %.3f s, "
+        + "%d threads%n", bytes, collector.getDocids().size(),
+        retrieveNanos / 1e9, threads);
+
+    System.out.printf("%-12s %21s %21s %21s%n", "", "Recorded",
+                      "Listing", "Retrieval");
+    for (Operation operation : Operation.values()) {
+      int op = operation.ordinal();
+      System.out.printf("%-12s %s %s %s%n", operation,
+          format(recordedCounts[op], recordedMicros[op] * 1000L),
+          format(listedCounts[op], listedNanos[op]),
+          format(type.getCount(operation) - listedCounts[op],
+                 type.getTotalNanos(operation) - listedNanos[op]));
+    }
+    if (!commands.isEmpty()) {
+      System.out.printf("%-12s %21s %12s %8s%n", "SMB", "Recorded", "Bytes",
+                        "Errors");
+      for (Map.Entry<String, long[]> entry : commands.entrySet()) {
+        long[] stats = entry.getValue();
+        System.out.printf("%-12s %s %12d %8d%n", entry.getKey(),
+            format(stats[0], stats[1] * 1000L), stats[2], stats[3]);
+      }
+    }
+  }
+
+  /**
+   * Totals the recorded operations, and the count, time, bytes, and
+   * errors of each SMB command.
+   */
+  private static void summarize(OperationTrace.Reader reader, long[] counts,
+      long[] micros, Map<String, long[]> commands) throws IOException {
+    Record record;
+    while ((record = reader.next()) != null) {
+      if (record.operation != null) {
+        counts[record.operation.ordinal()]++;
+        micros[record.operation.ordinal()] += record.latencyMicros;
+      } else {
+        String command = String.format((record.subcommand < 0)
+            ? "0x%02x" : "0x%02x/%d", record.command, record.subcommand);
+        long[] stats = commands.get(command);
+        if (stats == null) {
+          stats = new long[4];
+          commands.put(command, stats);
+        }
+        stats[0]++;
+        stats[1] += record.latencyMicros;
+        stats[2] += record.bytes;
+        if (record.status != 0) {
+          stats[3]++;
+        }
+      }
+    }
+  }
+
+  /** Reads the content of the documents, returning the total bytes. */
+  private static long retrieve(ReplayFileSystemType type,
+      List<String> docids, int threads) throws Exception {
+    SimpleTraversalContext traversalContext = new SimpleTraversalContext();
+    List<String> none = ImmutableList.of();
+    DocumentContext context = new DocumentContext(null, null, null,
+        new MimeTypeDetector(), new TestFileSystemPropertyManager(false),
+        type.getStartPaths(), ImmutableList.of("/"), none);
+    final FileRetriever retriever = new FileRetriever(new PathParser(
+        new FileSystemTypeRegistry(Arrays.asList(type))), context);
+    retriever.setTraversalContext(traversalContext);
+
+    final AtomicLong bytes = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (final String docid : docids) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            InputStream in = retriever.getContent(docid);
+            if (in != null) {
+              try {
+                bytes.addAndGet(
+                    ByteStreams.copy(in, ByteStreams.nullOutputStream()));
+              } finally {
+                in.close();
+              }
+            }
+          } catch (IOException e) {
+            System.err.println("Failed to read " + docid + ": " + e);
+          } catch (RepositoryException e) {
+            System.err.println("Failed to read " + docid + ": " + e);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    return bytes.get();
+  }
+
+  private static String format(long count, long nanos) {
+    return String.format("%9d x %8.1f us", count,
+        (count == 0) ? 0.0 : nanos / 1e3 / count);
+  }
+
+  /** Counts the documents, and remembers their docids. */
+  private static class DocidCollector
+      extends TraversalBenchmark.CountingDocumentAcceptor {
+    private final List<String> docids =
+        Collections.synchronizedList(Lists.<String>newArrayList());
+
+    DocidCollector(FileLister lister) {
+      super(lister, 0L);
+    }
+
+    @Override
+    public void take(Document document) throws RepositoryException {
+      docids.add(Value.getSingleValueString(document,
+                                            SpiConstants.PROPNAME_DOCID));
+      super.take(document);
+    }
+
+    List<String> getDocids() {
+      return docids;
+    }
+  }
+}
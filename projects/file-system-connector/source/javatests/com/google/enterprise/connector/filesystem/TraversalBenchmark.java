@@ -0,0 +1,205 @@
+// Copyright 2014 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.filesystem;
+
+import com.google.common.collect.ImmutableList;
+import com.google.enterprise.connector.filesystem.SyntheticFileSystemType.Stage;
+import com.google.enterprise.connector.spi.Document;
+import com.google.enterprise.connector.spi.DocumentAcceptor;
+import com.google.enterprise.connector.spi.Property;
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.google.enterprise.connector.spi.SimpleTraversalContext;
+import com.google.enterprise.connector.spi.SpiConstants;
+import com.google.enterprise.connector.util.MimeTypeDetector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A macro-benchmark of a single full traversal by {@link FileLister} of a
+ * {@link SyntheticFileSystemType}.  The documents are taken by a
+ * {@link DocumentAcceptor} that reads their properties, as the connector
+ * manager would, and counts them.  At the end of the traversal, or once
+ * the document limit is reached, the rate of documents, the peak heap
+ * use, and the latency of each stage are reported.
+ * <p/>
+ * The benchmark is run by the {@code benchmark} ant target, and is
+ * configured by these system properties:
+ * <ul>
+ * <li>{@code benchmark.seed} - the seed of the tree (default 1)
+ * <li>{@code benchmark.depth} - the depth of the deepest directories
+ *     (default 5)
+ * <li>{@code benchmark.dirs} - the mean number of subdirectories
+ *     (default 10)
+ * <li>{@code benchmark.files} - the mean number of files in a directory
+ *     (default 50)
+ * <li>{@code benchmark.limit} - the number of documents after which to
+ *     stop, or 0 to traverse the whole tree (default 0)
+ * <li>{@code benchmark.listLatencyMicros} - the simulated latency of each
+ *     page of a directory listing (default 0)
+ * <li>{@code benchmark.aclLatencyMicros} - the simulated latency of
+ *     reading a security descriptor (default 0)
+ * <li>{@code benchmark.pushAcls} - whether to feed ACLs (default true)
+ * </ul>
+ * A depth of 6, with 90 files per directory, is a tree of 10^8 entries.
+ */
+public class TraversalBenchmark {
+  private static final String ROOT = "/synthetic";
+
+  public static void main(String[] args) throws Exception {
+    long seed = Long.getLong("benchmark.seed", 1L);
+    int depth = Integer.getInteger("benchmark.depth", 5);
+    int dirs = Integer.getInteger("benchmark.dirs", 10);
+    int files = Integer.getInteger("benchmark.files", 50);
+    long limit = Long.getLong("benchmark.limit", 0L);
+    boolean pushAcls = Boolean.valueOf(
+        System.getProperty("benchmark.pushAcls", "true"));
+
+    SyntheticFileSystemType type =
+        new SyntheticFileSystemType(ROOT, seed, depth, dirs, files);
+    type.setLatency(Stage.LIST, TimeUnit.MICROSECONDS.toNanos(
+        Long.getLong("benchmark.listLatencyMicros", 0L)));
+    type.setLatency(Stage.ACL, TimeUnit.MICROSECONDS.toNanos(
+        Long.getLong("benchmark.aclLatencyMicros", 0L)));
+
+    System.out.printf("Tree: seed %d, depth %d, %d dirs and %d files per "
+        + "directory, about %.3g entries%n", seed, depth, dirs, files,
+        SyntheticFileSystemType.expectedSize(depth, dirs, files));
+
+    FileLister lister = newLister(type, ImmutableList.of(ROOT), pushAcls);
+    CountingDocumentAcceptor acceptor =
+        new CountingDocumentAcceptor(lister, limit);
+    lister.setDocumentAcceptor(acceptor);
+
+    List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+    System.gc();
+    for (MemoryPoolMXBean pool : pools) {
+      pool.resetPeakUsage();
+    }
+    long start = System.nanoTime();
+    lister.start();
+    long elapsed = System.nanoTime() - start;
+
+    long peakHeap = 0L;
+    for (MemoryPoolMXBean pool : pools) {
+      MemoryUsage peak = pool.getPeakUsage();
+      if (pool.getType() == MemoryType.HEAP && peak != null) {
+        peakHeap += peak.getUsed();
+      }
+    }
+
+    long docs = acceptor.getCount();
+    System.out.printf("Documents: %d in %.3f s, %.0f docs/sec%n", docs,
+        elapsed / 1e9, docs / (elapsed / 1e9));
+    System.out.printf("Peak heap: %.1f MB%n", peakHeap / (1024.0 * 1024.0));
+    for (Stage stage : Stage.values()) {
+      printStage(stage.toString(), type.getCount(stage),
+          type.getTotalNanos(stage), type.getMaxNanos(stage));
+    }
+    printStage("TAKE", docs, acceptor.getTotalNanos(),
+               acceptor.getMaxNanos());
+  }
+
+  /** Returns a lister of the start paths, which are all of the given type. */
+  static FileLister newLister(FileSystemType<?> type, List<String> startPaths,
+      boolean pushAcls) throws RepositoryException {
+    SimpleTraversalContext traversalContext = new SimpleTraversalContext();
+    traversalContext.setSupportsInheritedAcls(true);
+    MimeTypeDetector.setTraversalContext(traversalContext);
+    List<String> none = ImmutableList.of();
+    DocumentContext context = new DocumentContext(null, null, null,
+        new MimeTypeDetector(), new TestFileSystemPropertyManager(pushAcls),
+        startPaths, ImmutableList.of("/"), none);
+    FileLister lister = new FileLister(new PathParser(
+        new FileSystemTypeRegistry(Arrays.asList(type))), context);
+    lister.setTraversalContext(traversalContext);
+    lister.setTraversalSchedule(new MockTraversalSchedule());
+    return lister;
+  }
+
+  static void printStage(String stage, long count, long nanos,
+                                 long maxNanos) {
+    System.out.printf("%-5s %12d ops, mean %9.1f us, max %9.1f us%n", stage,
+        count, (count == 0) ? 0.0 : nanos / 1e3 / count, maxNanos / 1e3);
+  }
+
+  /**
+   * Reads the properties of each document, and counts them.  The content
+   * and MIME type are not read; in a content URL feed they are read by
+   * the {@link FileRetriever}.  The lister is shut down when the first
+   * traversal is flushed, or once the limit is reached.
+   */
+  static class CountingDocumentAcceptor implements DocumentAcceptor {
+    private final FileLister lister;
+    private final long limit;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    CountingDocumentAcceptor(FileLister lister, long limit) {
+      this.lister = lister;
+      this.limit = limit;
+    }
+
+    @Override
+    public void take(Document document) throws RepositoryException {
+      long start = System.nanoTime();
+      for (String name : document.getPropertyNames()) {
+        if (!SpiConstants.PROPNAME_CONTENT.equals(name)
+            && !SpiConstants.PROPNAME_MIMETYPE.equals(name)) {
+          Property property = document.findProperty(name);
+          while (property != null && property.nextValue() != null) {
+          }
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      totalNanos.addAndGet(elapsed);
+      long max;
+      while ((max = maxNanos.get()) < elapsed
+             && !maxNanos.compareAndSet(max, elapsed)) {
+      }
+      if (count.incrementAndGet() == limit) {
+        lister.shutdown();
+      }
+    }
+
+    @Override
+    public void flush() throws RepositoryException {
+      lister.shutdown();
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    long getMaxNanos() {
+      return maxNanos.get();
+    }
+  }
+}
@@ -22,6 +22,7 @@ package jcifs.dcerpc;
 import java.io.*;
 import java.net.*;
 import java.security.Principal;
+import java.util.HashMap;
 
 import jcifs.smb.NtlmPasswordAuthentication;
 import jcifs.util.Hexdump;
@@ -109,6 +110,13 @@ public abstract class DcerpcHandle implements DcerpcConstants {
     protected DcerpcSecurityProvider securityProvider = null;
     private static int call_id = 1;
 
+    /* Used by DcerpcHandlePool. The attributes are state that is bound
+     * to the lifetime of the handle, such as open policy handles.
+     */
+    Object poolKey = null;
+    long lastUsed = 0L;
+    private HashMap attributes = null;
+
     public static DcerpcHandle getHandle(String url,
                 NtlmPasswordAuthentication auth)
                 throws UnknownHostException, MalformedURLException, DcerpcException {
@@ -250,6 +258,28 @@ synchronized (this) {
             throw de;
     }
 
+    /**
+     * Returns true if this handle is bound and its transport is still
+     * usable. A handle that is not open must not be returned to a
+     * <tt>DcerpcHandlePool</tt>.
+     */
+    public boolean isOpen() {
+        return state != 0;
+    }
+    /**
+     * Returns the value of an attribute associated with this handle, or
+     * <tt>null</tt>. Attributes allow state such as open policy handles
+     * to be reused for as long as the handle itself is reused.
+     */
+    public synchronized Object getAttribute(Object key) {
+        return attributes == null ? null : attributes.get(key);
+    }
+    public synchronized void setAttribute(Object key, Object value) {
+        if (attributes == null)
+            attributes = new HashMap();
+        attributes.put(key, value);
+    }
+
     public void setDcerpcSecurityProvider(DcerpcSecurityProvider securityProvider)
     {
         this.securityProvider = securityProvider;
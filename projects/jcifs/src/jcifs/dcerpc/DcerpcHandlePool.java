@@ -0,0 +1,194 @@
+/* jcifs msrpc client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.dcerpc;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import jcifs.Config;
+import jcifs.smb.NtlmPasswordAuthentication;
+import jcifs.util.LogStream;
+
+/**
+ * A pool of bound <tt>DcerpcHandle</tt>s, keyed by binding URL and
+ * credentials. Binding a handle requires opening the named pipe and a
+ * DCERPC bind exchange, and callers typically also open a policy handle
+ * on it, so reusing handles saves several round trips for every call.
+ * <p>
+ * A handle obtained with <tt>getHandle</tt> is used by one thread at a
+ * time. When the caller is finished, it must pass the handle to
+ * <tt>release</tt> if the call succeeded, or to <tt>invalidate</tt> if it
+ * failed, in which case the handle is closed rather than reused. Handles
+ * are validated before they are handed out, and handles that have been
+ * idle for longer than <tt>jcifs.dcerpc.idleTimeout</tt> milliseconds
+ * are closed. Setting <tt>jcifs.dcerpc.maxIdleHandles</tt> to 0 disables
+ * pooling.
+ */
+public class DcerpcHandlePool {
+
+    static final long IDLE_TIMEOUT =
+            Config.getLong("jcifs.dcerpc.idleTimeout", 60000L);
+    static final int MAX_IDLE_HANDLES =
+            Config.getInt("jcifs.dcerpc.maxIdleHandles", 4);
+
+    static LogStream log = LogStream.getInstance();
+
+    /* Maps Key to a LinkedList of idle handles, most recently used last. */
+    private static final HashMap pool = new HashMap();
+
+    static class Key {
+        final String url;
+        final NtlmPasswordAuthentication auth;
+
+        Key(String url, NtlmPasswordAuthentication auth) {
+            this.url = url;
+            this.auth = auth;
+        }
+        public int hashCode() {
+            return url.hashCode() ^ (auth == null ? 0 : auth.hashCode());
+        }
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key key = (Key)obj;
+                return url.equals(key.url) &&
+                        (auth == null ? key.auth == null : auth.equals(key.auth));
+            }
+            return false;
+        }
+        public String toString() {
+            return url;
+        }
+    }
+
+    /**
+     * Returns an open handle for the binding URL, reusing an idle pooled
+     * handle if one is available. Otherwise a new handle is created; it
+     * will be bound when it is first used.
+     */
+    public static DcerpcHandle getHandle(String url,
+                NtlmPasswordAuthentication auth)
+                throws UnknownHostException, MalformedURLException, DcerpcException {
+        Key key = new Key(url, auth);
+        if (MAX_IDLE_HANDLES > 0) {
+            for ( ;; ) {
+                DcerpcHandle handle;
+                synchronized (pool) {
+                    LinkedList idle = (LinkedList)pool.get(key);
+                    if (idle == null || idle.isEmpty())
+                        break;
+                    handle = (DcerpcHandle)idle.removeLast();
+                }
+                if (handle.isOpen() &&
+                        System.currentTimeMillis() - handle.lastUsed < IDLE_TIMEOUT) {
+                    if (log.level >= 4)
+                        log.println("Reusing DCERPC handle " + key);
+                    return handle;
+                }
+                close(handle);
+            }
+        }
+        DcerpcHandle handle = DcerpcHandle.getHandle(url, auth);
+        handle.poolKey = key;
+        return handle;
+    }
+
+    /**
+     * Returns a handle to the pool after a successful call, or closes it
+     * if the pool is full or the handle is no longer open.
+     */
+    public static void release(DcerpcHandle handle) {
+        if (handle == null)
+            return;
+        long now = System.currentTimeMillis();
+        boolean pooled = false;
+        ArrayList expired = new ArrayList();
+        synchronized (pool) {
+            if (MAX_IDLE_HANDLES > 0 && handle.poolKey != null && handle.isOpen()) {
+                LinkedList idle = (LinkedList)pool.get(handle.poolKey);
+                if (idle == null) {
+                    idle = new LinkedList();
+                    pool.put(handle.poolKey, idle);
+                }
+                if (idle.size() < MAX_IDLE_HANDLES) {
+                    handle.lastUsed = now;
+                    idle.addLast(handle);
+                    pooled = true;
+                }
+            }
+            removeExpired(now, expired);
+        }
+        if (!pooled)
+            expired.add(handle);
+        for (int i = 0; i < expired.size(); i++)
+            close((DcerpcHandle)expired.get(i));
+    }
+
+    /**
+     * Closes a handle that failed, so that it is not reused.
+     */
+    public static void invalidate(DcerpcHandle handle) {
+        if (handle != null)
+            close(handle);
+    }
+
+    /**
+     * Closes all idle handles.
+     */
+    public static void clear() {
+        ArrayList handles = new ArrayList();
+        synchronized (pool) {
+            Iterator iter = pool.values().iterator();
+            while (iter.hasNext())
+                handles.addAll((LinkedList)iter.next());
+            pool.clear();
+        }
+        for (int i = 0; i < handles.size(); i++)
+            close((DcerpcHandle)handles.get(i));
+    }
+
+    /* Must be called while holding the pool lock. Handles are closed by
+     * the caller after the lock is released, as closing requires I/O.
+     */
+    private static void removeExpired(long now, ArrayList expired) {
+        Iterator iter = pool.values().iterator();
+        while (iter.hasNext()) {
+            LinkedList idle = (LinkedList)iter.next();
+            // The least recently used handles are at the front of the list.
+            while (!idle.isEmpty() &&
+                    now - ((DcerpcHandle)idle.getFirst()).lastUsed >= IDLE_TIMEOUT)
+                expired.add(idle.removeFirst());
+            if (idle.isEmpty())
+                iter.remove();
+        }
+    }
+
+    private static void close(DcerpcHandle handle) {
+        try {
+            handle.close();
+        } catch (IOException ioe) {
+            if (log.level >= 3)
+                ioe.printStackTrace(log);
+        }
+    }
+}
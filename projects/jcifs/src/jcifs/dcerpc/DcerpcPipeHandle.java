@@ -99,6 +99,9 @@ public class DcerpcPipeHandle extends DcerpcHandle {
             off += in.readDirect(buf, off, length - off);
         }
     }
+    public boolean isOpen() {
+        return state != 0 && out != null && out.isOpen();
+    }
     public void close() throws IOException {
         state = 0;
         if (out != null)
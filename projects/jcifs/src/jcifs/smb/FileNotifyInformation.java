@@ -0,0 +1,65 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+/**
+ * A change to a file or directory reported by an {@link SmbFileWatcher}.
+ */
+public class FileNotifyInformation {
+
+    /** The file was added to the directory. */
+    public static final int FILE_ACTION_ADDED = 0x00000001;
+    /** The file was removed from the directory. */
+    public static final int FILE_ACTION_REMOVED = 0x00000002;
+    /** The file was modified. */
+    public static final int FILE_ACTION_MODIFIED = 0x00000003;
+    /** The file was renamed, and this is its old name. */
+    public static final int FILE_ACTION_RENAMED_OLD_NAME = 0x00000004;
+    /** The file was renamed, and this is its new name. */
+    public static final int FILE_ACTION_RENAMED_NEW_NAME = 0x00000005;
+
+    private final int action;
+    private final String fileName;
+
+    FileNotifyInformation( int action, String fileName ) {
+        this.action = action;
+        this.fileName = fileName;
+    }
+
+/**
+ * Returns the change that was made, one of the <tt>FILE_ACTION_</tt>
+ * constants.
+ */
+    public int getAction() {
+        return action;
+    }
+
+/**
+ * Returns the name of the file, relative to the watched directory,
+ * with <tt>'\'</tt> separating the components of the path.
+ */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String toString() {
+        return "FileNotifyInformation[action=" + action +
+            ",fileName=" + fileName + "]";
+    }
+}
@@ -124,27 +124,43 @@ public class SID extends rpc.sid_t {
                 NtlmPasswordAuthentication auth,
                 SID[] sids) throws IOException {
         DcerpcHandle handle = null;
-        LsaPolicyHandle policyHandle = null;
+        boolean success = false;
 
-synchronized (sid_cache) {
         try {
-            handle = DcerpcHandle.getHandle("ncacn_np:" + authorityServerName +
+            handle = DcerpcHandlePool.getHandle("ncacn_np:" + authorityServerName +
                     "[\\PIPE\\lsarpc]", auth);
             String server = authorityServerName;
             int dot = server.indexOf('.');
             if (dot > 0 && Character.isDigit(server.charAt(0)) == false)
                 server = server.substring(0, dot);
-            policyHandle = new LsaPolicyHandle(handle, "\\\\" + server, 0x00000800);
+            LsaPolicyHandle policyHandle =
+                    getPolicyHandle(handle, "\\\\" + server, 0x00000800);
             SID.resolveSids(handle, policyHandle, sids);
+            success = true;
         } finally {
-            if (handle != null) {
-                if (policyHandle != null) {
-                    policyHandle.close();
-                }
-                handle.close();
+            if (success) {
+                DcerpcHandlePool.release(handle);
+            } else {
+                DcerpcHandlePool.invalidate(handle);
             }
         }
-}
+    }
+
+    /**
+     * Returns an LSA policy handle opened on a pooled DCERPC handle,
+     * opening it only if one with the same access has not already been
+     * opened on that handle.
+     */
+    static LsaPolicyHandle getPolicyHandle(DcerpcHandle handle,
+                String server,
+                int access) throws IOException {
+        String key = "LsaPolicyHandle:" + server + ":" + access;
+        LsaPolicyHandle policyHandle = (LsaPolicyHandle)handle.getAttribute(key);
+        if (policyHandle == null) {
+            policyHandle = new LsaPolicyHandle(handle, server, access);
+            handle.setAttribute(key, policyHandle);
+        }
+        return policyHandle;
     }
 
     static public void resolveSids(String authorityServerName,
@@ -166,15 +182,19 @@ synchronized (sid_cache) {
                 list.add(sids[offset + si]);
             }
         }
+}
 
         if (list.size() > 0) {
+            // The lookup uses a pooled handle, so it need not be
+            // serialized with lookups by other threads.
             sids = (SID[])list.toArray(new SID[0]);
             SID.resolveSids0(authorityServerName, auth, sids);
+synchronized (sid_cache) {
             for (si = 0; si < sids.length; si++) {
                 sid_cache.put(sids[si], sids[si]);
             }
-        }
 }
+        }
     }
     /**
      * Resolve an array of SIDs using a cache and at most one MSRPC request.
@@ -205,29 +225,30 @@ synchronized (sid_cache) {
                 list.add(sids[si]);
             }
         }
+}
 
         if (list.size() > 0) {
             sids = (SID[])list.toArray(new SID[0]);
             SID.resolveSids0(authorityServerName, auth, sids);
+synchronized (sid_cache) {
             for (si = 0; si < sids.length; si++) {
                 sid_cache.put(sids[si], sids[si]);
             }
-        }
 }
+        }
     }
     public static SID getServerSid(String server,
                     NtlmPasswordAuthentication auth) throws IOException {
         DcerpcHandle handle = null;
-        LsaPolicyHandle policyHandle = null;
+        boolean success = false;
         lsarpc.LsarDomainInfo info = new lsarpc.LsarDomainInfo();
         MsrpcQueryInformationPolicy rpc;
 
-synchronized (sid_cache) {
         try {
-            handle = DcerpcHandle.getHandle("ncacn_np:" + server +
+            handle = DcerpcHandlePool.getHandle("ncacn_np:" + server +
                     "[\\PIPE\\lsarpc]", auth);
             // NetApp doesn't like the 'generic' access mask values
-            policyHandle = new LsaPolicyHandle(handle, null, 0x00000001);
+            LsaPolicyHandle policyHandle = getPolicyHandle(handle, null, 0x00000001);
             rpc = new MsrpcQueryInformationPolicy(policyHandle,
                         (short)lsarpc.POLICY_INFO_ACCOUNT_DOMAIN,
                         info);
@@ -235,20 +256,20 @@ synchronized (sid_cache) {
             if (rpc.retval != 0)
                 throw new SmbException(rpc.retval, false);
 
-            return new SID(info.sid,
+            SID sid = new SID(info.sid,
                         SID.SID_TYPE_DOMAIN,
                         (new UnicodeString(info.name, false)).toString(),
                         null,
                         false);
+            success = true;
+            return sid;
         } finally {
-            if (handle != null) {
-                if (policyHandle != null) {
-                    policyHandle.close();
-                }
-                handle.close();
+            if (success) {
+                DcerpcHandlePool.release(handle);
+            } else {
+                DcerpcHandlePool.invalidate(handle);
             }
         }
-}
     }
     public static byte[] toByteArray(rpc.sid_t sid) {
         byte[] dst = new byte[1 + 1 + 6 + sid.sub_authority_count * 4];
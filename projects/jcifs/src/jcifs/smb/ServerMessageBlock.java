@@ -154,6 +154,7 @@ abstract class ServerMessageBlock extends Response implements Request, SmbConsta
     static final byte SMB_COM_NT_TRANSACT        = (byte)0xA0;
     static final byte SMB_COM_NT_TRANSACT_SECONDARY = (byte)0xA1;
     static final byte SMB_COM_NT_CREATE_ANDX     = (byte)0xA2;
+    static final byte SMB_COM_NT_CANCEL          = (byte)0xA4;
 
     /*
      * Some fields specify the offset from the beginning of the header. This
@@ -180,10 +181,12 @@ abstract class ServerMessageBlock extends Response implements Request, SmbConsta
     long responseTimeout = 1;
     int signSeq;
     boolean verifyFailed;
+    byte[] unverifiedHeader;    /* Set by SmbTransport.doRecv if verification is deferred */
     NtlmPasswordAuthentication auth = null;
     String path;
     SigningDigest digest = null;
     ServerMessageBlock response;
+    SmbStatistics.Stats commandStats, serverStats; /* until sent */
 
     ServerMessageBlock() {
         flags = (byte)( FLAGS_PATH_NAMES_CASELESS | FLAGS_PATH_NAMES_CANONICALIZED );
@@ -515,6 +518,9 @@ Hexdump.hexdump( System.err, src, srcIndex, maxLen < 128 ? maxLen + 8 : 128 );
             case SMB_COM_NT_TRANSACT_SECONDARY:
                 c = "SMB_COM_NT_TRANSACT_SECONDARY";
                 break;
+            case SMB_COM_NT_CANCEL:
+                c = "SMB_COM_NT_CANCEL";
+                break;
             default:
                 c = "UNKNOWN";
         }
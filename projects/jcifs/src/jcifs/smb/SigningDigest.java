@@ -16,6 +16,7 @@ public class SigningDigest implements SmbConstants {
     static LogStream log = LogStream.getInstance();
 
     private MessageDigest digest;
+    private MessageDigest keyed;    /* MD5 state after the MAC signing key */
     private byte[] macSigningKey;
     private boolean bypass = false;
     private int updates;
@@ -95,6 +96,32 @@ public class SigningDigest implements SmbConstants {
         digest.update( input, offset, len );
         updates++;
     }
+    /* Returns a digest that has already been updated with the MAC signing
+     * key. The keyed state is computed once and cloned for each message, so
+     * signing and verification may run concurrently on different threads.
+     */
+    private MessageDigest newKeyedDigest() throws SmbException {
+        try {
+            synchronized (this) {
+                if (keyed == null) {
+                    MessageDigest md = MessageDigest.getInstance("MD5");
+                    md.update(macSigningKey, 0, macSigningKey.length);
+                    keyed = md;
+                }
+                return (MessageDigest)keyed.clone();
+            }
+        } catch (CloneNotSupportedException cnse) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("MD5");
+                md.update(macSigningKey, 0, macSigningKey.length);
+                return md;
+            } catch (NoSuchAlgorithmException ex) {
+                throw new SmbException( "MD5", ex );
+            }
+        } catch (NoSuchAlgorithmException ex) {
+            throw new SmbException( "MD5", ex );
+        }
+    }
     public byte[] digest() {
         byte[] b;
 
@@ -122,19 +149,29 @@ public class SigningDigest implements SmbConstants {
      */
     void sign(byte[] data, int offset, int length,
                 ServerMessageBlock request, ServerMessageBlock response) {
-        request.signSeq = signSequence;
+        /* An NT_CANCEL is signed with the sequence number of the request
+         * it cancels, and does not use a sequence number of its own.
+         */
+        boolean cancel = request.command == ServerMessageBlock.SMB_COM_NT_CANCEL;
+        int seq = cancel ? request.signSeq : signSequence;
+        request.signSeq = seq;
         if( response != null ) {
-            response.signSeq = signSequence + 1;
+            response.signSeq = seq + 1;
             response.verifyFailed = false;
         }
 
         try {
-            update(macSigningKey, 0, macSigningKey.length);
+            MessageDigest md = newKeyedDigest();
             int index = offset + ServerMessageBlock.SIGNATURE_OFFSET;
             for (int i = 0; i < 8; i++) data[index + i] = 0;
-            ServerMessageBlock.writeInt4(signSequence, data, index);
-            update(data, offset, length);
-            System.arraycopy(digest(), 0, data, index, 8);
+            ServerMessageBlock.writeInt4(seq, data, index);
+            md.update(data, offset, length);
+            byte[] signature = md.digest();
+            if( log.level >= 5 ) {
+                log.println( "sign: " + seq );
+                Hexdump.hexdump( log, signature, 0, 8 );
+            }
+            System.arraycopy(signature, 0, data, index, 8);
             if (bypass) {
                 bypass = false;
                 System.arraycopy("BSRSPYL ".getBytes(), 0, data, index, 8);
@@ -143,7 +180,8 @@ public class SigningDigest implements SmbConstants {
             if( log.level > 0 )
                 ex.printStackTrace( log );
         } finally {
-            signSequence += 2;
+            if( !cancel )
+                signSequence += 2;
         }
     } 
 
@@ -156,25 +194,37 @@ public class SigningDigest implements SmbConstants {
      * @param length The length of the SMB data starting at offset. 
      */
     boolean verify(byte[] data, int offset, ServerMessageBlock response) {
-        update(macSigningKey, 0, macSigningKey.length);
+        MessageDigest md;
+        try {
+            md = newKeyedDigest();
+        } catch (SmbException se) {
+            if( log.level > 0 )
+                se.printStackTrace( log );
+            return response.verifyFailed = true;
+        }
         int index = offset;
-        update(data, index, ServerMessageBlock.SIGNATURE_OFFSET); 
+        md.update(data, index, ServerMessageBlock.SIGNATURE_OFFSET);
         index += ServerMessageBlock.SIGNATURE_OFFSET;
-        byte[] sequence = new byte[8]; 
-        ServerMessageBlock.writeInt4(response.signSeq, sequence, 0); 
-        update(sequence, 0, sequence.length); 
+        /* The signature field holds the sequence number while signing. */
+        int seq = response.signSeq;
+        md.update((byte)seq);
+        md.update((byte)(seq >> 8));
+        md.update((byte)(seq >> 16));
+        md.update((byte)(seq >> 24));
+        for (int i = 0; i < 4; i++) md.update((byte)0);
         index += 8;
         if( response.command == ServerMessageBlock.SMB_COM_READ_ANDX ) {
             /* SmbComReadAndXResponse reads directly from the stream into separate byte[] b.
              */
             SmbComReadAndXResponse raxr = (SmbComReadAndXResponse)response;
             int length = response.length - raxr.dataLength;
-            update(data, index, length - ServerMessageBlock.SIGNATURE_OFFSET - 8);
-            update(raxr.b, raxr.off, raxr.dataLength);
+            md.update(data, index, length - ServerMessageBlock.SIGNATURE_OFFSET - 8);
+            if (raxr.dataLength > 0)
+                md.update(raxr.b, raxr.off, raxr.dataLength);
         } else {
-            update(data, index, response.length - ServerMessageBlock.SIGNATURE_OFFSET - 8);
+            md.update(data, index, response.length - ServerMessageBlock.SIGNATURE_OFFSET - 8);
         }
-        byte[] signature = digest();
+        byte[] signature = md.digest();
         for (int i = 0; i < 8; i++) {
             if (signature[i] != data[offset + ServerMessageBlock.SIGNATURE_OFFSET + i]) {
                 if( log.level >= 2 ) {
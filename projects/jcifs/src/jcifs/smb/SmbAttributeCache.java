@@ -0,0 +1,228 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import jcifs.Config;
+
+/**
+ * A process-wide cache of the attributes of files and directories, keyed
+ * by credentials and path. Each <tt>SmbFile</tt> caches its own attributes
+ * for <tt>jcifs.smb.client.attrExpirationPeriod</tt> milliseconds, but
+ * applications often create a new <tt>SmbFile</tt> for every access to a
+ * path, so that cache rarely helps them. This cache lets a new
+ * <tt>SmbFile</tt> use the attributes recently read by another, including
+ * those returned in directory listings.
+ * <p>
+ * At most <tt>jcifs.smb.client.attrCacheSize</tt> paths are cached, the
+ * least recently used being evicted first, for at most
+ * <tt>jcifs.smb.client.attrCacheTtl</tt> milliseconds. The cache is
+ * disabled by default. Entries are invalidated when a file is written,
+ * renamed or deleted, or its attributes are set, through this client.
+ * Changes made by other clients are not seen until the entries expire.
+ */
+public class SmbAttributeCache {
+
+    static final int MAX_SIZE =
+            Config.getInt( "jcifs.smb.client.attrCacheSize", 0 );
+    static final long TTL =
+            Config.getLong( "jcifs.smb.client.attrCacheTtl",
+                    SmbFile.DEFAULT_ATTR_EXPIRATION_PERIOD );
+
+    static class Entry {
+        int attributes;
+        long createTime;
+        long lastModified;
+        long lastAccess;
+        boolean isExists;
+        long size;
+        boolean sizeKnown;
+        long expiration;
+    }
+
+    static class Key {
+        final NtlmPasswordAuthentication auth;
+        final String path;
+
+        Key( NtlmPasswordAuthentication auth, String path ) {
+            this.auth = auth;
+            this.path = path;
+        }
+        public int hashCode() {
+            return path.hashCode() ^ auth.hashCode();
+        }
+        public boolean equals( Object obj ) {
+            if( obj instanceof Key ) {
+                Key key = (Key)obj;
+                return path.equals( key.path ) && auth.equals( key.auth );
+            }
+            return false;
+        }
+        public String toString() {
+            return path;
+        }
+    }
+
+    /* Access ordered, so that the least recently used entry is first. */
+    private static final LinkedHashMap cache =
+            new LinkedHashMap( 16, 0.75f, true ) {
+                protected boolean removeEldestEntry( Map.Entry eldest ) {
+                    if( size() > MAX_SIZE ) {
+                        unindex( (Key)eldest.getKey() );
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /* The cached paths, sorted, in a set for each credentials, so that
+     * the entries beneath a directory can be found without scanning the
+     * whole cache. Guarded by the cache lock.
+     */
+    private static final HashMap paths = new HashMap();
+
+    private static void index( Key key ) {
+        TreeSet set = (TreeSet)paths.get( key.auth );
+        if( set == null ) {
+            set = new TreeSet();
+            paths.put( key.auth, set );
+        }
+        set.add( key.path );
+    }
+
+    private static void unindex( Key key ) {
+        TreeSet set = (TreeSet)paths.get( key.auth );
+        if( set != null ) {
+            set.remove( key.path );
+            if( set.isEmpty() ) {
+                paths.remove( key.auth );
+            }
+        }
+    }
+
+    static boolean isEnabled() {
+        return MAX_SIZE > 0 && TTL > 0;
+    }
+
+    /* Returns the key for a file, which is its UNC path, without any
+     * trailing backslash, ignoring case.
+     */
+    static Key getKey( SmbFile file ) {
+        String path = file.getUncPath();
+        if( path.endsWith( "\\" )) {
+            path = path.substring( 0, path.length() - 1 );
+        }
+        return new Key( file.auth, path.toLowerCase() );
+    }
+
+    /**
+     * Returns the cached attributes of a file, or <tt>null</tt> if there
+     * are none that have not expired.
+     */
+    static Entry get( SmbFile file ) {
+        if( isEnabled() == false ) {
+            return null;
+        }
+        Key key = getKey( file );
+        synchronized( cache ) {
+            Entry entry = (Entry)cache.get( key );
+            if( entry == null ) {
+                return null;
+            }
+            if( entry.expiration <= System.currentTimeMillis() ) {
+                cache.remove( key );
+                unindex( key );
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Caches the attributes of a file. The entry must not be modified
+     * after it is cached.
+     */
+    static void put( SmbFile file, Entry entry ) {
+        if( isEnabled() == false ) {
+            return;
+        }
+        entry.expiration = System.currentTimeMillis() + TTL;
+        Key key = getKey( file );
+        synchronized( cache ) {
+            if( cache.put( key, entry ) == null ) {
+                index( key );
+            }
+        }
+    }
+
+    /**
+     * Removes the cached attributes of a file and, if <tt>subtree</tt> is
+     * <tt>true</tt>, of everything beneath it, as when a directory is
+     * renamed or deleted.
+     */
+    static void invalidate( SmbFile file, boolean subtree ) {
+        if( isEnabled() == false ) {
+            return;
+        }
+        Key key = getKey( file );
+        synchronized( cache ) {
+            if( cache.remove( key ) != null ) {
+                unindex( key );
+            }
+            if( subtree == false ) {
+                return;
+            }
+            TreeSet set = (TreeSet)paths.get( key.auth );
+            if( set == null ) {
+                return;
+            }
+            /* The paths beneath the directory sort between its path
+             * followed by '\\' and its path followed by ']', the next
+             * character.
+             */
+            SortedSet beneath = set.subSet( key.path + "\\", key.path + "]" );
+            Iterator iter = beneath.iterator();
+            while( iter.hasNext() ) {
+                cache.remove( new Key( key.auth, (String)iter.next() ));
+            }
+            beneath.clear();
+            if( set.isEmpty() ) {
+                paths.remove( key.auth );
+            }
+        }
+    }
+
+    /**
+     * Removes all cached attributes. Applications that know files have
+     * been changed by another client may call this to see the changes
+     * before the cached attributes expire.
+     */
+    public static void clear() {
+        synchronized( cache ) {
+            cache.clear();
+            paths.clear();
+        }
+    }
+}
@@ -127,7 +127,10 @@ int flags0, desiredAccess;
             }
         }
 
-        if ((createOptions & 0x0001) == 0) {
+        /* Unless a directory is wanted, require a file, except when the
+         * caller does not know which this is.
+         */
+        if ((createOptions & 0x0001) == 0 && (flags & SmbFile.O_EITHER) == 0) {
             this.createOptions = createOptions | 0x0040;
         } else {
             this.createOptions = createOptions;
@@ -0,0 +1,55 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+/* Asks the server to complete an outstanding request early. The cancel
+ * has no response of its own; the server responds to the request being
+ * cancelled, normally with STATUS_CANCELLED.
+ */
+class SmbComNtCancel extends ServerMessageBlock {
+
+    SmbComNtCancel( ServerMessageBlock request ) {
+        command = SMB_COM_NT_CANCEL;
+        flags2 = request.flags2;
+        useUnicode = request.useUnicode;
+        tid = request.tid;
+        pid = request.pid;
+        uid = request.uid;
+        mid = request.mid;
+        /* Signed with the sequence number of the cancelled request. */
+        signSeq = request.signSeq;
+        digest = request.digest;
+    }
+
+    int writeParameterWordsWireFormat( byte[] dst, int dstIndex ) {
+        return 0;
+    }
+    int writeBytesWireFormat( byte[] dst, int dstIndex ) {
+        return 0;
+    }
+    int readParameterWordsWireFormat( byte[] buffer, int bufferIndex ) {
+        return 0;
+    }
+    int readBytesWireFormat( byte[] buffer, int bufferIndex ) {
+        return 0;
+    }
+    public String toString() {
+        return new String( "SmbComNtCancel[" + super.toString() + "]" );
+    }
+}
@@ -78,6 +78,12 @@ abstract class SmbComTransaction extends ServerMessageBlock implements Enumerati
     int maxParameterCount;
     int maxDataCount = DEFAULT_MAX_DATA_COUNT;
     byte maxSetupCount;
+
+    /* If not 0, the time to wait for the response before asking the server
+     * to cancel the request, for requests that the server completes only
+     * when something happens, such as NT_TRANSACT_NOTIFY_CHANGE.
+     */
+    long cancelTimeout;
     int timeout = 0;
     int setupCount = 1;
     byte subCommand;
@@ -0,0 +1,54 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+/**
+ * Receives the outcome of every SMB request sent by any transport. A
+ * listener is installed with <tt>SmbTransport.setCommandListener</tt>.
+ * <p>
+ * The listener is called in the thread that sent the request, after the
+ * response has been received or the request has failed, so it must be
+ * quick and must not block. When no listener is installed, requests are
+ * not timed.
+ */
+public interface SmbCommandListener {
+
+    /**
+     * Called when a request has completed.
+     *
+     * @param server the address of the server
+     * @param command the SMB command code, such as <tt>0x32</tt> for
+     * SMB_COM_TRANSACTION2
+     * @param subcommand the transaction subcommand or NT transaction
+     * function, or <tt>-1</tt> if the command is not a transaction
+     * @param path the path named by the request, relative to the share, or
+     * <tt>null</tt> if the request does not name a path
+     * @param nanos the time from sending the request to receiving the
+     * response, including any time spent connecting
+     * @param bytesSent the size of the request, or of the last fragment of
+     * a transaction
+     * @param bytesReceived the size of the response, including the data of
+     * a read or transaction
+     * @param status the NT status of the response, or of the error that
+     * prevented a response
+     */
+    void commandCompleted( String server, int command, int subcommand,
+                String path, long nanos, int bytesSent, int bytesReceived,
+                int status );
+}
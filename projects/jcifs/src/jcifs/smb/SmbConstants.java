@@ -155,6 +155,14 @@ interface SmbConstants {
             Config.getInt( "jcifs.smb.client.soTimeout", DEFAULT_SO_TIMEOUT );
     static final int CONN_TIMEOUT =
             Config.getInt( "jcifs.smb.client.connTimeout", DEFAULT_CONN_TIMEOUT );
+    static final long KEEP_ALIVE =
+            Config.getLong( "jcifs.smb.client.keepAlive", 0L );
+    static final boolean RECONNECT_TREES =
+            Config.getBoolean( "jcifs.smb.client.reconnectTrees", true );
+    static final boolean STATISTICS =
+            Config.getBoolean( "jcifs.smb.client.statistics", false );
+    static final int READ_RETRIES =
+            Config.getInt( "jcifs.smb.client.readRetries", 3 );
     static final String NATIVE_OS =
             Config.getProperty( "jcifs.smb.client.nativeOs", System.getProperty( "os.name" ));
     static final String NATIVE_LANMAN =
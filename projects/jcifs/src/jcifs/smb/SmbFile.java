@@ -29,6 +29,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.security.Principal;
 import jcifs.Config;
 import jcifs.util.LogStream;
@@ -281,6 +287,8 @@ public class SmbFile extends URLConnection implements SmbConstants {
     static final int O_EXCL   = 0x0020;
     // truncate if the file exists
     static final int O_TRUNC  = 0x0040;
+    // open a file or a directory, whichever is found
+    static final int O_EITHER = 0x0100;
 
     // share access
 /**
@@ -354,14 +362,15 @@ public class SmbFile extends URLConnection implements SmbConstants {
 
     static final int DEFAULT_ATTR_EXPIRATION_PERIOD = 5000;
 
-    static final int HASH_DOT     = ".".hashCode();
-    static final int HASH_DOT_DOT = "..".hashCode();
-
     static LogStream log = LogStream.getInstance();
     static long attrExpirationPeriod;
     static boolean ignoreCopyToException;
+    static boolean asyncClose;
+    static int backgroundThreads;
     static Random random = new Random();
 
+    private static ExecutorService backgroundExecutor;
+
     static {
 
         try {
@@ -371,6 +380,8 @@ public class SmbFile extends URLConnection implements SmbConstants {
         }
         attrExpirationPeriod = Config.getLong( "jcifs.smb.client.attrExpirationPeriod", DEFAULT_ATTR_EXPIRATION_PERIOD );
         ignoreCopyToException = Config.getBoolean( "jcifs.smb.client.ignoreCopyToException", true );
+        asyncClose = Config.getBoolean( "jcifs.smb.client.asyncClose", true );
+        backgroundThreads = Config.getInt( "jcifs.smb.client.backgroundThreads", 8 );
         dfs = new Dfs();
     }
 
@@ -434,6 +445,9 @@ public class SmbFile extends URLConnection implements SmbConstants {
     int type;
     boolean opened;
     int tree_num;
+    boolean handleHeld;              // Set by openHandle()
+    int handleAccess;
+    boolean openedForWrite;          // Set by open()
 
 /** 
  * Constructs an SmbFile representing a resource on an SMB network such as
@@ -658,8 +672,55 @@ public class SmbFile extends URLConnection implements SmbConstants {
 
         attrExpiration = sizeExpiration =
                 System.currentTimeMillis() + attrExpirationPeriod;
+        storeCachedAttributes( true );
+    }
+
+/**
+ * Constructs a copy of an <tt>SmbFile</tt>, including its cached
+ * attributes, that may be used independently of the original.
+ *
+ * @param   file The <tt>SmbFile</tt> to copy
+ */
+    protected SmbFile( SmbFile file ) {
+        super( file.url );
+        this.auth = file.auth;
+        this.canon = file.canon;
+        this.share = file.share;
+        this.unc = file.unc;
+        this.tree = file.tree;
+        this.dfsReferral = file.dfsReferral;
+        this.type = file.type;
+        this.shareAccess = file.shareAccess;
+        this.createTime = file.createTime;
+        this.lastModified = file.lastModified;
+        this.lastAccess = file.lastAccess;
+        this.attributes = file.attributes;
+        this.attrExpiration = file.attrExpiration;
+        this.size = file.size;
+        this.sizeExpiration = file.sizeExpiration;
+        this.isExists = file.isExists;
+    }
+
+    /* Returns a shared pool of daemon threads used to send requests whose
+     * responses the caller need not wait for. Each task may wait for a
+     * response until it times out, so the pool is limited to
+     * jcifs.smb.client.backgroundThreads threads and tasks are not queued.
+     * A task submitted while every thread is busy is rejected with a
+     * RejectedExecutionException, and the caller should do the work itself.
+     */
+    static synchronized ExecutorService getBackgroundExecutor() {
+        if( backgroundExecutor == null ) {
+            backgroundExecutor = new ThreadPoolExecutor( 0, Math.max( backgroundThreads, 1 ),
+                    60L, TimeUnit.SECONDS, new SynchronousQueue(), new ThreadFactory() {
+                public Thread newThread( Runnable r ) {
+                    Thread t = new Thread( r, "JCIFS-Background" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            });
+        }
+        return backgroundExecutor;
     }
-
     private SmbComBlankResponse blank_resp() {
         if( blank_resp == null ) {
             blank_resp = new SmbComBlankResponse();
@@ -1044,6 +1105,11 @@ int addressIndex;
         if( log.level >= 3 )
             log.println( "open0: " + unc );
 
+        boolean write = isWrite( flags, access );
+        if( write ) {
+            invalidateCachedAttributes();
+        }
+
         /*
          * NT Create AndX / Open AndX Request / Response
          */
@@ -1059,8 +1125,21 @@ if (this instanceof SmbNamedPipe) {
             send( request, response );
             f = response.fid;
             attributes = response.extFileAttributes & ATTR_GET_MASK;
+            if( response.isExtended == false ) {
+                createTime = response.creationTime;
+                lastAccess = response.lastAccessTime;
+                lastModified = response.lastWriteTime;
+                if( getUncPath0().length() > 1 &&
+                        ( flags & ( O_WRONLY | O_APPEND | O_CREAT | O_TRUNC )) == 0 ) {
+                    size = response.endOfFile;
+                    sizeExpiration = System.currentTimeMillis() + attrExpirationPeriod;
+                }
+            }
             attrExpiration = System.currentTimeMillis() + attrExpirationPeriod;
             isExists = true;
+            if( response.isExtended == false && write == false ) {
+                storeCachedAttributes( sizeExpiration > System.currentTimeMillis() );
+            }
         } else {
             SmbComOpenAndXResponse response = new SmbComOpenAndXResponse();
             send( new SmbComOpenAndX( unc, access, flags, null ), response );
@@ -1075,12 +1154,49 @@ if (this instanceof SmbNamedPipe) {
         }
         fid = open0( flags, access, attrs, options );
         opened = true;
+        openedForWrite = isWrite( flags, access );
         tree_num = tree.tree_num;
     }
+    static boolean isWrite( int flags, int access ) {
+        return ( flags & ( O_WRONLY | O_APPEND | O_CREAT | O_TRUNC )) != 0 ||
+                ( access & ( FILE_WRITE_DATA | FILE_APPEND_DATA | GENERIC_WRITE )) != 0;
+    }
     boolean isOpen() {
         boolean ans = opened && isConnected() && tree_num == tree.tree_num;
         return ans;
     }
+    /* Returns true if a handle opened by openHandle() is still usable.
+     * The handle is lost if the tree is reconnected.
+     */
+    boolean isHandleHeld() {
+        if( handleHeld && isOpen() == false ) {
+            handleHeld = false;
+        }
+        return handleHeld;
+    }
+    int openOptions() throws SmbException {
+        /* Avoid querying the attributes just to find out whether this is a
+         * directory. If they are not already known, open the file without
+         * specifying whether it is a file or a directory.
+         */
+        if( getUncPath0().length() == 1 ) {
+            return 1;
+        } else if( attrExpiration > System.currentTimeMillis() ) {
+            return ( attributes & ATTR_DIRECTORY ) != 0 ? 1 : 0;
+        }
+        return 0;
+    }
+    /* Returns the flags with which to open this file for reading. If it is
+     * not known whether this is a file or a directory, O_EITHER lets the
+     * open succeed for either.
+     */
+    int openFlags() {
+        if( getUncPath0().length() == 1 ||
+                attrExpiration > System.currentTimeMillis() ) {
+            return O_RDONLY;
+        }
+        return O_RDONLY | O_EITHER;
+    }
     void close( int f, long lastWriteTime ) throws SmbException {
 
         if( log.level >= 3 )
@@ -1092,17 +1208,109 @@ if (this instanceof SmbNamedPipe) {
 
         send( new SmbComClose( f, lastWriteTime ), blank_resp() );
     }
+    /* Closes a handle that has been used only for reading, without waiting
+     * for the response. The request is sent from a background thread using
+     * a copy of this file, so that it may be used concurrently by the caller.
+     * Falls back to a synchronous close if <tt>jcifs.smb.client.asyncClose</tt>
+     * is <tt>false</tt>, or if every background thread is busy.
+     */
+    void closeAsync( final int f ) throws SmbException {
+        if( asyncClose ) {
+            final SmbFile file = new SmbFile( this );
+            try {
+                getBackgroundExecutor().execute( new Runnable() {
+                    public void run() {
+                        try {
+                            file.close( f, 0L );
+                        } catch( SmbException se ) {
+                            /* The handle is left open on the server until
+                             * the session is closed.
+                             */
+                            if( log.level >= 1 )
+                                log.println( "Failed to close handle " + f + " of " + file + ": " + se );
+                            if( log.level >= 3 )
+                                se.printStackTrace( log );
+                        }
+                    }
+                });
+                return;
+            } catch( RejectedExecutionException ree ) {
+                if( log.level >= 4 )
+                    log.println( "Closing " + f + " synchronously; background threads busy" );
+            }
+        }
+        close( f, 0L );
+    }
     void close( long lastWriteTime ) throws SmbException {
-        if( isOpen() == false ) {
+        if( isOpen() == false || isHandleHeld() ) {
             return;
         }
         close( fid, lastWriteTime );
         opened = false;
+        if( openedForWrite ) {
+            openedForWrite = false;
+            invalidateCachedAttributes();
+        }
     }
     void close() throws SmbException {
         close( 0L );
     }
 
+/**
+ * Opens a handle to this file and holds it until <tt>closeHandle</tt> is
+ * called. While the handle is held, it is used to read the security
+ * descriptor and the content of the file and, if <tt>writeAttributes</tt>
+ * is <tt>true</tt>, to set its times and attributes, rather than opening
+ * and closing a separate handle for each of those operations. The
+ * attributes, times and size of the file are refreshed from the response
+ * to the open.
+ * <p>
+ * If the handle cannot be opened with permission to write attributes, it
+ * is opened without it. If the file is already open, this method has no
+ * effect. The handle is opened for reading only, so a file with a held
+ * handle must not be written.
+ *
+ * @param writeAttributes <tt>true</tt> if the handle will be used to set
+ * the times or attributes of the file
+ */
+    public void openHandle( boolean writeAttributes ) throws SmbException {
+        if( isOpen() ) {
+            return;
+        }
+        int access = READ_CONTROL | FILE_READ_DATA | FILE_READ_ATTRIBUTES;
+        int flags = openFlags();
+        int options = openOptions();
+        if( writeAttributes ) {
+            try {
+                open( flags, access | FILE_WRITE_ATTRIBUTES, 0, options );
+                access |= FILE_WRITE_ATTRIBUTES;
+            } catch( SmbException se ) {
+                if( se.getNtStatus() != NtStatus.NT_STATUS_ACCESS_DENIED ) {
+                    throw se;
+                }
+                open( flags, access, 0, options );
+            }
+        } else {
+            open( flags, access, 0, options );
+        }
+        handleAccess = access;
+        handleHeld = true;
+    }
+
+/**
+ * Closes the handle opened by <tt>openHandle</tt>. The close request is
+ * sent in the background, as with the handles used by
+ * <tt>getSecurity</tt>.
+ */
+    public void closeHandle() throws SmbException {
+        if( isHandleHeld() == false ) {
+            return;
+        }
+        handleHeld = false;
+        opened = false;
+        closeAsync( fid );
+    }
+
 /**
  * Returns the <tt>NtlmPasswordAuthentication</tt> object used as
  * credentials with this file or pipe. This can be used to retrieve the
@@ -1320,6 +1528,18 @@ if (this instanceof SmbNamedPipe) {
         }
         return getServer();
     }
+    /* Returns the server to bind DCERPC handles to. A named pipe binding
+     * names only the host, so a port other than the default is appended,
+     * or the pipe would be opened on port 445 rather than this server.
+     */
+    String getRpcServerWithDfs() {
+        String server = getServerWithDfs();
+        int port = url.getPort();
+        if (dfsReferral == null && port > 0 && port != DEFAULT_PORT) {
+            server += ":" + port;
+        }
+        return server;
+    }
 /** 
  * Retrieve the hostname of the server for this SMB resource. If this
  * <code>SmbFile</code> references a workgroup, the name of the workgroup
@@ -1466,6 +1686,9 @@ if (this instanceof SmbNamedPipe) {
         if( attrExpiration > System.currentTimeMillis() ) {
             return isExists;
         }
+        if( loadCachedAttributes() ) {
+            return isExists;
+        }
 
         attributes = ATTR_READONLY | ATTR_DIRECTORY;
         createTime = 0L;
@@ -1512,10 +1735,71 @@ if (this instanceof SmbNamedPipe) {
         }
 
         attrExpiration = System.currentTimeMillis() + attrExpirationPeriod;
+        storeCachedAttributes( sizeExpiration > System.currentTimeMillis() );
 
         return isExists;
     }
 
+    /* Returns true if the attributes of this file may be kept in the
+     * process-wide attribute cache. Servers, shares and pipes are not.
+     */
+    private boolean isAttributeCacheable() {
+        return SmbAttributeCache.isEnabled() && share != null &&
+                getUncPath0().length() > 1 &&
+                share.equalsIgnoreCase( "IPC$" ) == false;
+    }
+
+    /* Fills in the attributes, and the size if known, from the attribute
+     * cache. Returns false if they are not cached.
+     */
+    private boolean loadCachedAttributes() {
+        if( isAttributeCacheable() == false ) {
+            return false;
+        }
+        SmbAttributeCache.Entry entry = SmbAttributeCache.get( this );
+        if( entry == null ) {
+            return false;
+        }
+        attributes = entry.attributes;
+        createTime = entry.createTime;
+        lastModified = entry.lastModified;
+        lastAccess = entry.lastAccess;
+        isExists = entry.isExists;
+        attrExpiration = entry.expiration;
+        if( entry.sizeKnown ) {
+            size = entry.size;
+            sizeExpiration = entry.expiration;
+        }
+        return true;
+    }
+
+    private void storeCachedAttributes( boolean sizeKnown ) {
+        if( isAttributeCacheable() == false ) {
+            return;
+        }
+        SmbAttributeCache.Entry entry = new SmbAttributeCache.Entry();
+        entry.attributes = attributes;
+        entry.createTime = createTime;
+        entry.lastModified = lastModified;
+        entry.lastAccess = lastAccess;
+        entry.isExists = isExists;
+        entry.size = size;
+        entry.sizeKnown = sizeKnown;
+        SmbAttributeCache.put( this, entry );
+    }
+
+    /* Removes the cached attributes of this file and, if subtree is true,
+     * of everything beneath it.
+     */
+    private void invalidateCachedAttributes( boolean subtree ) {
+        if( isAttributeCacheable() ) {
+            SmbAttributeCache.invalidate( this, subtree );
+        }
+    }
+    private void invalidateCachedAttributes() {
+        invalidateCachedAttributes( false );
+    }
+
 /**
  * Tests to see if the file this <code>SmbFile</code> represents can be
  * read. Because any file, directory, or other resource can be read if it
@@ -1785,6 +2069,64 @@ if (this instanceof SmbNamedPipe) {
     public SmbFile[] listFiles( SmbFileFilter filter ) throws SmbException {
         return listFiles( "*", ATTR_DIRECTORY | ATTR_HIDDEN | ATTR_SYSTEM, null, filter );
     }
+/**
+ * Returns an iterator over the contents of this directory. Unlike
+ * <code>listFiles()</code>, which reads the entire directory before
+ * returning, the iterator returns entries as they are read from the
+ * server, so the first entries of a large directory are available
+ * sooner and the directory is never held in memory in its entirety.
+ * Entries are returned in the order the server returns them.
+ * <p>
+ * The iterator must be closed if it is abandoned before all entries
+ * have been read.
+ *
+ * @return An <tt>SmbFileIterator</tt> over the contents of this resource
+ * @throws SmbException
+ */
+    public SmbFileIterator listFilesIterator() throws SmbException {
+        return listFilesIterator( "*", ATTR_DIRECTORY | ATTR_HIDDEN | ATTR_SYSTEM, null, null );
+    }
+/**
+ * Returns an iterator over the contents of this directory, minus files
+ * filtered by the specified filter.
+ *
+ * @param filter a file filter to exclude files from the results
+ * @return An <tt>SmbFileIterator</tt> over the contents of this resource
+ * @throws SmbException
+ */
+    public SmbFileIterator listFilesIterator( SmbFileFilter filter ) throws SmbException {
+        return listFilesIterator( "*", ATTR_DIRECTORY | ATTR_HIDDEN | ATTR_SYSTEM, null, filter );
+    }
+/**
+ * Returns a watcher that reports changes to the contents of this
+ * directory, as they are made. The watcher holds the directory open, and
+ * must be closed when it is no longer needed.
+ *
+ * @param filter the kinds of changes to report, the
+ * <tt>SmbFileWatcher.FILE_NOTIFY_CHANGE_</tt> flags logically OR'd together
+ * @param watchTree <tt>true</tt> to also report changes to the contents of
+ * all the subdirectories
+ * @return An <tt>SmbFileWatcher</tt> for this directory
+ * @throws SmbException
+ */
+    public SmbFileWatcher watch( int filter, boolean watchTree ) throws SmbException {
+        return new SmbFileWatcher( this, filter, watchTree );
+    }
+    SmbFileIterator listFilesIterator( String wildcard, int searchAttributes,
+                SmbFilenameFilter fnf, SmbFileFilter ff ) throws SmbException {
+        if (ff != null && ff instanceof DosFileFilter) {
+            DosFileFilter dff = (DosFileFilter)ff;
+            if (dff.wildcard != null)
+                wildcard = dff.wildcard;
+            searchAttributes = dff.attributes;
+        }
+        /* Servers, workgroups and shares are listed all at once. */
+        if (url.getHost().length() == 0 || getType() == TYPE_WORKGROUP ||
+                    share == null) {
+            return new SmbFileIterator(listFiles(wildcard, searchAttributes, fnf, ff));
+        }
+        return new SmbFileIterator(this, wildcard, searchAttributes, fnf, ff);
+    }
     String[] list( String wildcard, int searchAttributes,
                 SmbFilenameFilter fnf, SmbFileFilter ff ) throws SmbException {
         ArrayList list = new ArrayList();
@@ -2078,14 +2420,10 @@ if (this instanceof SmbNamedPipe) {
         for( ;; ) {
             for( int i = 0; i < resp.numEntries; i++ ) {
                 FileEntry e = resp.results[i];
-                String name = e.getName();
-                if( name.length() < 3 ) {
-                    int h = name.hashCode();
-                    if( h == HASH_DOT || h == HASH_DOT_DOT ) {
-                        if (name.equals(".") || name.equals(".."))
-                            continue;
-                    }
+                if( isDotOrDotDot( e )) {
+                    continue;
                 }
+                String name = e.getName();
                 if( fnf != null && fnf.accept( this, name ) == false ) {
                     continue;
                 }
@@ -2120,6 +2458,13 @@ if (this instanceof SmbNamedPipe) {
         }
     }
 
+    /* Returns true if a directory entry is "." or "..".
+     */
+    static boolean isDotOrDotDot( FileEntry e ) {
+        String name = e.getName();
+        return name.length() < 3 && ( name.equals( "." ) || name.equals( ".." ));
+    }
+
 /**
  * Changes the name of the file this <code>SmbFile</code> represents to the name
  * designated by the <code>SmbFile</code> argument.
@@ -2150,6 +2495,8 @@ if (this instanceof SmbNamedPipe) {
 
         attrExpiration = sizeExpiration = 0;
         dest.attrExpiration = 0;
+        invalidateCachedAttributes( true );
+        dest.invalidateCachedAttributes( true );
 
         /*
          * Rename Request / Response
@@ -2509,6 +2856,7 @@ if (this instanceof SmbNamedPipe) {
         }
 
         attrExpiration = sizeExpiration = 0;
+        invalidateCachedAttributes( true );
     }
 
 /**
@@ -2536,9 +2884,17 @@ if (this instanceof SmbNamedPipe) {
 
             size = response.info.getCapacity();
         } else if( getUncPath0().length() > 1 && type != TYPE_NAMED_PIPE ) {
+            if( loadCachedAttributes() && sizeExpiration > System.currentTimeMillis() ) {
+                return size;
+            }
             Info info = queryPath( getUncPath0(),
                     Trans2QueryPathInformationResponse.SMB_QUERY_FILE_STANDARD_INFO );
             size = info.getSize();
+            sizeExpiration = System.currentTimeMillis() + attrExpirationPeriod;
+            if( attrExpiration > System.currentTimeMillis() ) {
+                storeCachedAttributes( true );
+            }
+            return size;
         } else {
             size = 0L;
         }
@@ -2616,6 +2972,7 @@ if (this instanceof SmbNamedPipe) {
         send( new SmbComCreateDirectory( path ), blank_resp() );
 
         attrExpiration = sizeExpiration = 0;
+        invalidateCachedAttributes();
     }
 
 /**
@@ -2660,6 +3017,14 @@ if (this instanceof SmbNamedPipe) {
         exists();
         dir = attributes & ATTR_DIRECTORY;
 
+        if( isHandleHeld() && ( handleAccess & FILE_WRITE_ATTRIBUTES ) != 0 ) {
+            send( new Trans2SetFileInformation( fid, attrs | dir, ctime, mtime, latime ),
+                  new Trans2SetFileInformationResponse() );
+            attrExpiration = 0;
+            invalidateCachedAttributes();
+            return;
+        }
+
         f = open0( O_RDONLY, FILE_WRITE_ATTRIBUTES,
                 dir, dir != 0 ? 0x0001 : 0x0040 );
         try {
@@ -2670,6 +3035,7 @@ if (this instanceof SmbNamedPipe) {
         }
 
         attrExpiration = 0;
+        invalidateCachedAttributes();
     }
 
 /**
@@ -2951,7 +3317,7 @@ if (this instanceof SmbNamedPipe) {
     }
 
     private void processAces(ACE[] aces, boolean resolveSids) throws IOException {
-        String server = getServerWithDfs();
+        String server = getRpcServerWithDfs();
         int ai;
 
         if (resolveSids) {
@@ -2985,20 +3351,24 @@ if (this instanceof SmbNamedPipe) {
     public ACE[] getSecurity(boolean resolveSids) throws IOException {
         int f;
         ACE[] aces;
+        NtTransQuerySecurityDescResponse response = new NtTransQuerySecurityDescResponse();
 
-        f = open0( O_RDONLY, READ_CONTROL, 0, isDirectory() ? 1 : 0 );
+        if( isHandleHeld() && ( handleAccess & READ_CONTROL ) != 0 ) {
+            send( new NtTransQuerySecurityDesc( fid, 0x04 ), response );
+        } else {
+            f = open0( openFlags(), READ_CONTROL, 0, openOptions() );
 
-        /*
-         * NtTrans Query Security Desc Request / Response
-         */
+            /*
+             * NtTrans Query Security Desc Request / Response
+             */
 
-        NtTransQuerySecurityDesc request = new NtTransQuerySecurityDesc( f, 0x04 );
-        NtTransQuerySecurityDescResponse response = new NtTransQuerySecurityDescResponse();
+            NtTransQuerySecurityDesc request = new NtTransQuerySecurityDesc( f, 0x04 );
 
-        try {
-            send( request, response );
-        } finally {
-            close( f, 0L );
+            try {
+                send( request, response );
+            } finally {
+                closeAsync( f );
+            }
         }
 
         aces = response.securityDescriptor.aces;
@@ -3034,23 +3404,25 @@ if (this instanceof SmbNamedPipe) {
         String server = getServerWithDfs();
 
         rpc = new MsrpcShareGetInfo(server, tree.share);
-        handle = DcerpcHandle.getHandle("ncacn_np:" + server + "[\\PIPE\\srvsvc]", auth);
+        handle = DcerpcHandlePool.getHandle("ncacn_np:" + getRpcServerWithDfs() +
+                "[\\PIPE\\srvsvc]", auth);
 
+        boolean success = false;
         try {
             handle.sendrecv(rpc);
-            if (rpc.retval != 0)
-                throw new SmbException(rpc.retval, true);
-            aces = rpc.getSecurity();
-            if (aces != null)
-                processAces(aces, resolveSids);
+            success = true;
         } finally {
-            try {
-                handle.close();
-            } catch(IOException ioe) {
-                if (log.level >= 1)
-                    ioe.printStackTrace(log);
+            if (success) {
+                DcerpcHandlePool.release(handle);
+            } else {
+                DcerpcHandlePool.invalidate(handle);
             }
         }
+        if (rpc.retval != 0)
+            throw new SmbException(rpc.retval, true);
+        aces = rpc.getSecurity();
+        if (aces != null)
+            processAces(aces, resolveSids);
 
         return aces;
     }
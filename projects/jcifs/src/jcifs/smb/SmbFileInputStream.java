@@ -35,6 +35,7 @@ public class SmbFileInputStream extends InputStream {
 
     private long fp;
     private int readSize, openFlags, access;
+    private long lastModified, length;
     private byte[] tmp = new byte[1];
 
     SmbFile file;
@@ -72,6 +73,12 @@ public class SmbFileInputStream extends InputStream {
         if (file.type != SmbFile.TYPE_NAMED_PIPE) {
             file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
             this.openFlags &= ~(SmbFile.O_CREAT | SmbFile.O_TRUNC);
+            /* Remember the file as it was opened, so that a read that is
+             * resumed after a dropped connection can check that it has
+             * not changed.
+             */
+            lastModified = file.lastModified();
+            length = file.length();
         } else {
             file.connect0();
         }
@@ -79,6 +86,29 @@ public class SmbFileInputStream extends InputStream {
                             file.tree.session.transport.server.maxBufferSize - 70 );
     }
 
+    /* Returns true if the request failed because the connection was lost,
+     * rather than with an error from the server, or by being interrupted.
+     */
+    private static boolean isDisconnect( SmbException se ) {
+        Throwable root = se.getRootCause();
+        if (root instanceof TransportException) {
+            root = ((TransportException)root).getRootCause();
+            return root instanceof InterruptedException == false;
+        }
+        return root instanceof IOException;
+    }
+
+    /* Reopens the file after the connection was lost, reconnecting if
+     * necessary, and checks that the file has not changed since the stream
+     * was opened, so that the read can continue from the same offset.
+     */
+    private void reopen() throws IOException {
+        file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
+        if (file.lastModified() != lastModified || file.length() != length) {
+            throw new IOException( "File changed while reading: " + file );
+        }
+    }
+
     protected IOException seToIoe(SmbException se) {
         IOException ioe = se;
         Throwable root = se.getRootCause();
@@ -166,26 +196,54 @@ public class SmbFileInputStream extends InputStream {
             response.responseTimeout = 0;
         }
 
-        int r, n;
+        int r, n, retries = 0;
         do {
             r = len > readSize ? readSize : len;
 
             if( file.log.level >= 4 )
                 file.log.println( "read: len=" + len + ",r=" + r + ",fp=" + fp );
 
-            try {
+            for( ;; ) {
+                try {
+                    if( retries > 0 ) {
+                        reopen();
+                    }
 SmbComReadAndX request = new SmbComReadAndX( file.fid, fp, r, null );
 if( file.type == SmbFile.TYPE_NAMED_PIPE ) {
     request.minCount = request.maxCount = request.remaining = 1024;
 }
-                file.send( request, response );
-            } catch( SmbException se ) {
-                if( file.type == SmbFile.TYPE_NAMED_PIPE &&
-                        se.getNtStatus() == NtStatus.NT_STATUS_PIPE_BROKEN ) {
-                    return -1;
+                    file.send( request, response );
+                    break;
+                } catch( SmbException se ) {
+                    if( file.type == SmbFile.TYPE_NAMED_PIPE &&
+                            se.getNtStatus() == NtStatus.NT_STATUS_PIPE_BROKEN ) {
+                        return -1;
+                    }
+                    /* A long read over a slow network may well lose its
+                     * connection. Rather than failing, resume reading at
+                     * the same offset after reconnecting, a few times.
+                     */
+                    if( file.type == SmbFile.TYPE_NAMED_PIPE ||
+                            retries >= SmbConstants.READ_RETRIES ||
+                            isDisconnect( se ) == false ) {
+                        throw seToIoe(se);
+                    }
+                    retries++;
+                    if( file.log.level >= 2 )
+                        file.log.println( "Retrying (" + retries + ") read at " +
+                                fp + ": " + file + ": " + se.getMessage() );
+                    response.reset();
+                    try {
+                        Thread.sleep( 500L * retries );
+                    } catch( InterruptedException ie ) {
+                        InterruptedIOException iioe =
+                                new InterruptedIOException( ie.getMessage() );
+                        iioe.initCause( ie );
+                        throw iioe;
+                    }
                 }
-                throw seToIoe(se);
             }
+            retries = 0;
             if(( n = response.dataLength ) <= 0 ) {
                 return (int)((fp - start) > 0L ? fp - start : -1);
             }
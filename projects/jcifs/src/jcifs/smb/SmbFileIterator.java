@@ -0,0 +1,327 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import jcifs.Config;
+import jcifs.util.LogStream;
+
+/**
+ * An iterator over the contents of a directory that returns entries as
+ * they are read from the server, rather than reading the entire directory
+ * before returning the first entry as <tt>listFiles</tt> does.
+ * <p>
+ * Entries are read a page at a time using TRANS2_FIND_FIRST2 and
+ * TRANS2_FIND_NEXT2. While the caller consumes one page, the next page is
+ * requested in the background (unless <tt>jcifs.smb.client.listPrefetch</tt>
+ * is <tt>false</tt>), so at most two pages of the directory are held in
+ * memory. Entries are returned in the order the server returns them.
+ * The returned <tt>SmbFile</tt>s carry the attributes returned in the
+ * listing, so no further requests are needed to query them until the
+ * attributes expire.
+ * <p>
+ * The iterator holds an open search on the server until the last entry
+ * has been read, and must be closed when it is no longer needed. If the
+ * server forgets the search before then, the directory is searched again
+ * and the entries already returned are skipped. This relies on the server
+ * returning the entries in the same order each time, as servers do for an
+ * unchanged directory; if the directory changed, some entries may be
+ * returned twice.
+ */
+public class SmbFileIterator {
+
+    static final boolean PREFETCH =
+            Config.getBoolean( "jcifs.smb.client.listPrefetch", true );
+
+    static LogStream log = LogStream.getInstance();
+
+    private final SmbFile dir;
+    private final SmbFilenameFilter fnf;
+    private final SmbFileFilter ff;
+    private final String wildcard;
+    private final int searchAttributes;
+
+    /* Used instead of a search if the directory is a server or workgroup. */
+    private final SmbFile[] files;
+
+    private int sid;
+    private boolean searchOpen;
+    private Trans2FindFirst2Response page;
+    private boolean endOfSearch;
+    private int index;
+    private Future pending;
+    /* True if the pending page is being fetched by a background thread. */
+    private boolean prefetching;
+    private SmbFile next;
+    private boolean closed;
+
+    /* The number of entries consumed from the current search. */
+    private int position;
+    /* When a search is restarted, the number of entries to skip, and the
+     * name of the last entry returned by the old search.
+     */
+    private int skip;
+    private String resumeName;
+    private int resumedAt;
+
+    SmbFileIterator( SmbFile[] files ) {
+        this.dir = null;
+        this.fnf = null;
+        this.ff = null;
+        this.wildcard = null;
+        this.searchAttributes = 0;
+        this.files = files;
+        this.endOfSearch = true;
+    }
+
+    SmbFileIterator( SmbFile dir,
+                String wildcard,
+                int searchAttributes,
+                SmbFilenameFilter fnf,
+                SmbFileFilter ff ) throws SmbException {
+        /* Use a copy of the directory, as it is also used by the
+         * prefetch thread.
+         */
+        this.dir = new SmbFile( dir );
+        this.fnf = fnf;
+        this.ff = ff;
+        this.files = null;
+        this.wildcard = wildcard;
+        this.searchAttributes = searchAttributes;
+
+        String p = dir.getURL().getPath();
+        if( p.lastIndexOf( '/' ) != ( p.length() - 1 )) {
+            throw new SmbException( dir.getURL().toString() + " directory must end with '/'" );
+        }
+
+        nextPage( firstPage() );
+    }
+
+    /* Starts a search, and returns its first page. */
+    private Trans2FindFirst2Response firstPage() throws SmbException {
+        Trans2FindFirst2 req = new Trans2FindFirst2( dir.getUncPath0(), wildcard, searchAttributes );
+        Trans2FindFirst2Response resp = new Trans2FindFirst2Response();
+
+        if( log.level >= 3 )
+            log.println( "SmbFileIterator: " + req.path );
+
+        dir.send( req, resp );
+        sid = resp.sid;
+        searchOpen = true;
+        position = 0;
+        return resp;
+    }
+
+    /* Returns the next page of the search, searching again from the
+     * start if the server no longer knows the search.
+     */
+    private Trans2FindFirst2Response followingPage() throws SmbException {
+        try {
+            return waitForPage();
+        } catch( SmbException se ) {
+            /* Only restart a search that got further than the last
+             * restart, so a server that keeps forgetting the search
+             * cannot make the iterator loop forever.
+             */
+            if( se.getNtStatus() != NtStatus.NT_STATUS_INVALID_HANDLE ||
+                        position <= resumedAt ) {
+                throw se;
+            }
+            if( log.level >= 2 )
+                log.println( "SmbFileIterator: search of " + dir + " lost, resuming after " + page.lastName );
+            searchOpen = false;
+            skip = resumedAt = position;
+            resumeName = page.lastName;
+            return firstPage();
+        }
+    }
+
+    /* Prepares to consume a page, and requests the one after it. */
+    private void nextPage( Trans2FindFirst2Response page ) {
+        this.page = page;
+        index = 0;
+        endOfSearch = page.isEndOfSearch || page.numEntries == 0;
+        if( endOfSearch == false ) {
+            final Trans2FindNext2 req = new Trans2FindNext2( sid, page.resumeKey, page.lastName );
+            final Trans2FindFirst2Response resp = new Trans2FindFirst2Response();
+            /* The only difference between first2 and next2 responses is subCommand. */
+            resp.subCommand = SmbComTransaction.TRANS2_FIND_NEXT2;
+            Callable fetch = new Callable() {
+                public Object call() throws SmbException {
+                    dir.send( req, resp );
+                    return resp;
+                }
+            };
+            prefetching = false;
+            if( PREFETCH ) {
+                try {
+                    pending = SmbFile.getBackgroundExecutor().submit( fetch );
+                    prefetching = true;
+                } catch( RejectedExecutionException ree ) {
+                    /* All the background threads are busy, so the page
+                     * is fetched when it is needed.
+                     */
+                }
+            }
+            if( prefetching == false ) {
+                pending = new java.util.concurrent.FutureTask( fetch );
+            }
+        }
+    }
+
+    private Trans2FindFirst2Response waitForPage() throws SmbException {
+        Future f = pending;
+        pending = null;
+        if( prefetching == false ) {
+            ((Runnable)f).run();
+        }
+        try {
+            return (Trans2FindFirst2Response)f.get();
+        } catch( InterruptedException ie ) {
+            throw new SmbException( "Interrupted listing " + dir, ie );
+        } catch( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if( cause instanceof SmbException ) {
+                throw (SmbException)cause;
+            }
+            throw new SmbException( "Failed listing " + dir, cause );
+        }
+    }
+
+/**
+ * Returns <tt>true</tt> if there are more entries in the directory.
+ * This may block while the next page of entries is read from the server.
+ */
+    public boolean hasNext() throws SmbException {
+        if( next != null ) {
+            return true;
+        }
+        if( closed ) {
+            return false;
+        }
+        if( files != null ) {
+            if( index < files.length ) {
+                next = files[index++];
+                return true;
+            }
+            return false;
+        }
+        for( ;; ) {
+            while( index < page.numEntries ) {
+                FileEntry e = page.results[index++];
+                position++;
+                if( skip > 0 ) {
+                    /* Skip the entries returned before the search was
+                     * restarted, up to the last one returned.
+                     */
+                    skip--;
+                    if( resumeName != null && resumeName.equalsIgnoreCase( e.getName() )) {
+                        skip = 0;
+                    }
+                    continue;
+                }
+                if( SmbFile.isDotOrDotDot( e )) {
+                    continue;
+                }
+                String name = e.getName();
+                if( fnf != null && fnf.accept( dir, name ) == false ) {
+                    continue;
+                }
+                if( name.length() > 0 ) {
+                    SmbFile f;
+                    try {
+                        f = new SmbFile( dir, name, SmbFile.TYPE_FILESYSTEM,
+                                e.getAttributes(), e.createTime(), e.lastModified(), e.length(), e.lastAccess() );
+                    } catch( MalformedURLException mue ) {
+                        throw new SmbException( dir.getURL().toString(), mue );
+                    } catch( UnknownHostException uhe ) {
+                        throw new SmbException( dir.getURL().toString(), uhe );
+                    }
+                    if( ff != null && ff.accept( f ) == false ) {
+                        continue;
+                    }
+                    next = f;
+                    return true;
+                }
+            }
+            if( endOfSearch ) {
+                close();
+                return false;
+            }
+            nextPage( followingPage() );
+        }
+    }
+
+/**
+ * Returns the next entry in the directory.
+ *
+ * @throws NoSuchElementException if there are no more entries
+ */
+    public SmbFile next() throws SmbException {
+        if( hasNext() == false ) {
+            throw new NoSuchElementException();
+        }
+        SmbFile f = next;
+        next = null;
+        return f;
+    }
+
+/**
+ * Closes the search on the server. This is done automatically when the
+ * last entry has been read, but must be called if the iteration is
+ * abandoned early.
+ */
+    public void close() {
+        if( closed ) {
+            return;
+        }
+        closed = true;
+        page = null;
+        if( pending != null ) {
+            if( prefetching ) {
+                /* Wait for the outstanding request, so that the search
+                 * is not closed while a FIND_NEXT2 is in flight.
+                 */
+                try {
+                    pending.get();
+                } catch( Exception e ) {
+                    if( log.level >= 4 )
+                        e.printStackTrace( log );
+                }
+            }
+            pending = null;
+        }
+        if( searchOpen ) {
+            searchOpen = false;
+            try {
+                dir.send( new SmbComFindClose2( sid ), new SmbComBlankResponse() );
+            } catch( SmbException se ) {
+                if( log.level >= 4 )
+                    se.printStackTrace( log );
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package jcifs.smb;
+
+import jcifs.util.LogStream;
+
+/**
+ * Watches a directory for changes using NT_TRANSACT_NOTIFY_CHANGE.
+ * <p>
+ * The directory is held open while it is watched. The server records
+ * changes from the first call to <tt>next</tt> until the watcher is
+ * closed, including changes made between calls, so no changes are missed
+ * as long as the handle remains open. If the server cannot record all of
+ * the changes, or the handle is lost because the connection to the server
+ * is re-established, <tt>next</tt> returns <tt>null</tt> and the caller
+ * must rescan the directory to find out what has changed.
+ * <p>
+ * The watcher must be closed when it is no longer needed. It may be
+ * closed from another thread to end a call to <tt>next</tt> early.
+ */
+public class SmbFileWatcher {
+
+    /** Notify of changes to file names, including files added and removed. */
+    public static final int FILE_NOTIFY_CHANGE_FILE_NAME = 0x00000001;
+    /** Notify of changes to directory names, including directories added and removed. */
+    public static final int FILE_NOTIFY_CHANGE_DIR_NAME = 0x00000002;
+    /** Notify of changes to file attributes. */
+    public static final int FILE_NOTIFY_CHANGE_ATTRIBUTES = 0x00000004;
+    /** Notify of changes to file sizes. */
+    public static final int FILE_NOTIFY_CHANGE_SIZE = 0x00000008;
+    /** Notify of changes to last modified times. */
+    public static final int FILE_NOTIFY_CHANGE_LAST_WRITE = 0x00000010;
+    /** Notify of changes to last access times. */
+    public static final int FILE_NOTIFY_CHANGE_LAST_ACCESS = 0x00000020;
+    /** Notify of changes to creation times. */
+    public static final int FILE_NOTIFY_CHANGE_CREATION = 0x00000040;
+    /** Notify of changes to extended attributes. */
+    public static final int FILE_NOTIFY_CHANGE_EA = 0x00000080;
+    /** Notify of changes to security descriptors. */
+    public static final int FILE_NOTIFY_CHANGE_SECURITY = 0x00000100;
+
+    /* The server could not record all of the changes. */
+    static final int NT_STATUS_NOTIFY_ENUM_DIR = 0x0000010C;
+    static final int NT_STATUS_CANCELLED = 0xC0000120;
+
+    static LogStream log = LogStream.getInstance();
+
+    private final SmbFile dir;
+    private final int filter;
+    private final boolean watchTree;
+    private volatile boolean closed;
+
+    SmbFileWatcher( SmbFile dir, int filter, boolean watchTree ) throws SmbException {
+        /* Use a copy of the directory, as it holds the open handle. */
+        this.dir = new SmbFile( dir );
+        this.filter = filter;
+        this.watchTree = watchTree;
+
+        String p = dir.getURL().getPath();
+        if( p.lastIndexOf( '/' ) != ( p.length() - 1 )) {
+            throw new SmbException( dir.getURL().toString() + " directory must end with '/'" );
+        }
+
+        open();
+    }
+
+    private void open() throws SmbException {
+        this.dir.open( SmbFile.O_RDONLY, SmbConstants.FILE_READ_DATA, 0, 0x01 /* FILE_DIRECTORY_FILE */ );
+    }
+
+/**
+ * Waits for changes to the directory, and returns them. If there are no
+ * changes within <tt>timeout</tt> milliseconds, the request is cancelled
+ * and an empty array is returned.
+ *
+ * @return the changes, or <tt>null</tt> if some changes were not recorded
+ * and the directory must be rescanned
+ * @throws SmbException if the directory could not be watched, or the
+ * watcher was closed
+ */
+    public synchronized FileNotifyInformation[] next( long timeout ) throws SmbException {
+        if( closed ) {
+            throw new SmbException( "Watcher closed: " + dir );
+        }
+        if( dir.isOpen() == false ) {
+            /* The handle was lost, and with it any changes recorded by
+             * the server since it was last watched.
+             */
+            open();
+            return null;
+        }
+
+        NtTransNotifyChange request = new NtTransNotifyChange( dir.fid, filter, watchTree );
+        request.cancelTimeout = timeout;
+        NtTransNotifyChangeResponse response = new NtTransNotifyChangeResponse();
+        try {
+            dir.send( request, response );
+        } catch( SmbException se ) {
+            if( closed ) {
+                throw new SmbException( "Watcher closed: " + dir, se );
+            } else if( se.getNtStatus() == NT_STATUS_CANCELLED ) {
+                return new FileNotifyInformation[0];
+            }
+            throw se;
+        }
+
+        if( response.enumDir ) {
+            if( log.level >= 3 )
+                log.println( "Too many changes to record in " + dir );
+            return null;
+        }
+        return (FileNotifyInformation[])response.notifications.toArray(
+                new FileNotifyInformation[response.notifications.size()] );
+    }
+
+/**
+ * Stops watching the directory, and closes the handle. A call to
+ * <tt>next</tt> in another thread fails when the server responds to the
+ * close.
+ */
+    public void close() {
+        if( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            dir.close();
+        } catch( SmbException se ) {
+            if( log.level >= 4 )
+                se.printStackTrace( log );
+        }
+    }
+}
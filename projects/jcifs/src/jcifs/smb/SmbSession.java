@@ -424,6 +424,8 @@ synchronized (transport()) {
                         throw new SmbException("Unexpected session setup state: " + state);
                 }
             } while (state != 0);
+
+            reconnectTrees();
         } catch (SmbException se) {
             logoff(true);
             connectionState = 0;
@@ -433,6 +435,37 @@ synchronized (transport()) {
         }
 }
     }
+    /* When a session is re-established, for instance after the transport
+     * was disconnected, reconnect the trees that were in use in parallel
+     * in the background, rather than one at a time as each is next used.
+     * The tree being connected by the caller, if any, is already in the
+     * connecting state and is skipped.
+     */
+    private void reconnectTrees() {
+        if (SmbConstants.RECONNECT_TREES == false)
+            return;
+        for( Enumeration e = trees.elements(); e.hasMoreElements(); ) {
+            final SmbTree t = (SmbTree)e.nextElement();
+            if (t.connectionState != 0 || t.wasConnected == false)
+                continue;
+            try {
+                SmbFile.getBackgroundExecutor().execute( new Runnable() {
+                    public void run() {
+                        try {
+                            t.treeConnect( null, null );
+                        } catch( SmbException se ) {
+                            if (transport.log.level >= 3)
+                                se.printStackTrace( transport.log );
+                        }
+                    }
+                });
+            } catch( RuntimeException re ) {
+                if (transport.log.level >= 3)
+                    re.printStackTrace( transport.log );
+                return;
+            }
+        }
+    }
     void logoff( boolean inError ) {
 synchronized (transport()) {
 
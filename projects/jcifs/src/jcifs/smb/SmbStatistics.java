@@ -0,0 +1,261 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jcifs.util.LogStream;
+
+/**
+ * Counts the SMB requests sent by all transports, and times them, by
+ * kind of request and by server. The statistics are published over JMX
+ * as {@link SmbStatisticsMXBean}s named
+ * <tt>jcifs:type=SmbCommand,name=</tt><i>request class</i>, such as
+ * <tt>Trans2FindNext2</tt> or <tt>SmbComReadAndX</tt>, and
+ * <tt>jcifs:type=SmbServer,name=</tt><i>server address</i>.
+ * <p>
+ * Statistics are enabled by setting <tt>jcifs.smb.client.statistics</tt>
+ * to <tt>true</tt>, or by calling {@link #enable}. When they are not
+ * enabled, requests are not timed or counted.
+ */
+public class SmbStatistics {
+
+    static final int BUCKETS = 32;
+
+    static LogStream log = LogStream.getInstance();
+
+    private static SmbStatistics instance = null;
+
+    private final ConcurrentHashMap commands = new ConcurrentHashMap();
+    private final ConcurrentHashMap servers = new ConcurrentHashMap();
+
+    private SmbStatistics() {
+    }
+
+    /**
+     * Starts recording the statistics of SMB requests, if they are not
+     * already being recorded, and returns the statistics.
+     */
+    public static synchronized SmbStatistics enable() {
+        if (instance == null) {
+            instance = new SmbStatistics();
+            SmbTransport.statistics = instance;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the statistics of the given kind of request, such as
+     * <tt>Trans2FindNext2</tt>, or <tt>null</tt> if none has been sent.
+     */
+    public SmbStatisticsMXBean getCommandStatistics( String name ) {
+        Object[] entries = commands.values().toArray();
+        for (int i = 0; i < entries.length; i++) {
+            Stats stats = (Stats)entries[i];
+            if (stats.name.equals( name )) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the statistics of the requests to the server with the given
+     * address, or <tt>null</tt> if none has been sent.
+     */
+    public SmbStatisticsMXBean getServerStatistics( String address ) {
+        return (Stats)servers.get( address );
+    }
+
+    Stats getCommand( ServerMessageBlock request ) {
+        Class c = request.getClass();
+        Stats stats = (Stats)commands.get( c );
+        if (stats == null) {
+            String name = c.getName();
+            stats = register( commands, c, "SmbCommand",
+                    name.substring( name.lastIndexOf( '.' ) + 1 ));
+        }
+        return stats;
+    }
+
+    Stats getServer( String address ) {
+        Stats stats = (Stats)servers.get( address );
+        if (stats == null) {
+            stats = register( servers, address, "SmbServer", address );
+        }
+        return stats;
+    }
+
+    private static Stats register( ConcurrentHashMap map, Object key,
+                String type, String name ) {
+        Stats stats = new Stats( name );
+        Stats existing = (Stats)map.putIfAbsent( key, stats );
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName( "jcifs:type=" + type +
+                    ",name=" + quote( name ));
+            if (server.isRegistered( objectName ) == false) {
+                server.registerMBean( stats, objectName );
+            }
+        } catch( Exception e ) {
+            if (log.level > 1)
+                e.printStackTrace( log );
+        }
+        return stats;
+    }
+
+    private static String quote( String value ) {
+        for (int i = 0; i < value.length(); i++) {
+            if (",=:\"*?".indexOf( value.charAt( i )) >= 0) {
+                return ObjectName.quote( value );
+            }
+        }
+        return value;
+    }
+
+    /**
+     * The statistics of one kind of request, or of one server.
+     */
+    static class Stats implements SmbStatisticsMXBean {
+
+        final String name;
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLongArray histogram = new AtomicLongArray( BUCKETS );
+
+        Stats( String name ) {
+            this.name = name;
+        }
+
+        void started() {
+            outstanding.incrementAndGet();
+            waiting.incrementAndGet();
+        }
+
+        void sent() {
+            waiting.decrementAndGet();
+        }
+
+        void completed( long nanos, int sent, int received, boolean failed ) {
+            outstanding.decrementAndGet();
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            bytesSent.addAndGet( sent );
+            bytesReceived.addAndGet( received );
+            totalNanos.addAndGet( nanos );
+            long max;
+            while ((max = maxNanos.get()) < nanos &&
+                        maxNanos.compareAndSet( max, nanos ) == false) {
+            }
+            int bucket = 64 - Long.numberOfLeadingZeros( nanos / 1000L );
+            histogram.incrementAndGet( Math.min( bucket, BUCKETS - 1 ));
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+        public long getErrors() {
+            return errors.get();
+        }
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+        public int getWaiting() {
+            return waiting.get();
+        }
+        public double getMeanLatencyMillis() {
+            long n = requests.get();
+            return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+        }
+        public double getMaxLatencyMillis() {
+            return maxNanos.get() / 1e6;
+        }
+        public double getMedianLatencyMillis() {
+            return getPercentileMillis( 0.5 );
+        }
+        public double get99thPercentileLatencyMillis() {
+            return getPercentileMillis( 0.99 );
+        }
+        public long[] getLatencyHistogram() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get( i );
+            }
+            return counts;
+        }
+        public void reset() {
+            requests.set( 0L );
+            errors.set( 0L );
+            bytesSent.set( 0L );
+            bytesReceived.set( 0L );
+            totalNanos.set( 0L );
+            maxNanos.set( 0L );
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set( i, 0L );
+            }
+        }
+
+        /* Returns the upper bound of the histogram bucket that holds the
+         * given fraction of the requests.
+         */
+        private double getPercentileMillis( double fraction ) {
+            long[] counts = getLatencyHistogram();
+            long total = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts[i];
+            }
+            if (total == 0L) {
+                return 0.0;
+            }
+            long rank = (long)Math.ceil( total * fraction );
+            long seen = 0L;
+            int i = 0;
+            for ( ; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    break;
+                }
+            }
+            return Math.min( 1L << i, getMaxLatencyMillis() * 1000.0 ) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/* jcifs smb client library in Java
+ * Copyright (C) 2014  Google Inc.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package jcifs.smb;
+
+/**
+ * The statistics of the SMB requests of one kind, or to one server, as
+ * published over JMX by {@link SmbStatistics}.
+ */
+public interface SmbStatisticsMXBean {
+
+    /**
+     * Returns the number of requests that have completed, successfully
+     * or not.
+     */
+    long getRequests();
+
+    /**
+     * Returns the number of requests that failed, either with an error
+     * status from the server or because no response was received.
+     */
+    long getErrors();
+
+    /**
+     * Returns the number of bytes sent, including the SMB headers.
+     */
+    long getBytesSent();
+
+    /**
+     * Returns the number of bytes received, including the SMB headers and
+     * the data of reads and transactions.
+     */
+    long getBytesReceived();
+
+    /**
+     * Returns the number of requests that have been started but have not
+     * yet completed.
+     */
+    int getOutstanding();
+
+    /**
+     * Returns the number of outstanding requests that have not yet been
+     * sent, because they are waiting to connect, or for another thread
+     * to finish sending a request.
+     */
+    int getWaiting();
+
+    /**
+     * Returns the mean time from starting a request to its completion.
+     */
+    double getMeanLatencyMillis();
+
+    /**
+     * Returns the longest time from starting a request to its completion.
+     */
+    double getMaxLatencyMillis();
+
+    /**
+     * Returns an upper bound on the median latency, from the histogram.
+     */
+    double getMedianLatencyMillis();
+
+    /**
+     * Returns an upper bound on the 99th percentile latency, from the
+     * histogram.
+     */
+    double get99thPercentileLatencyMillis();
+
+    /**
+     * Returns the number of requests by latency. Element <tt>i</tt>
+     * counts the requests that took less than 2<sup>i</sup> microseconds,
+     * and at least half that; the last element counts all longer requests.
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Forgets the completed requests. The outstanding requests are not
+     * forgotten.
+     */
+    void reset();
+}
@@ -36,6 +36,23 @@ public class SmbTransport extends Transport implements SmbConstants {
     static final SmbComNegotiate NEGOTIATE_REQUEST = new SmbComNegotiate();
     static LogStream log = LogStream.getInstance();
     static HashMap dfsRoots = null;
+    static volatile SmbCommandListener commandListener = null;
+
+    /**
+     * Installs a listener that is told the outcome of every request sent
+     * by any transport, or removes it if <tt>listener</tt> is <tt>null</tt>.
+     */
+    public static void setCommandListener( SmbCommandListener listener ) {
+        commandListener = listener;
+    }
+
+    static volatile SmbStatistics statistics = null;
+
+    static {
+        if (STATISTICS) {
+            SmbStatistics.enable();
+        }
+    }
 
     static synchronized SmbTransport getSmbTransport( UniAddress address, int port ) {
         return getSmbTransport( address, port, LADDR, LPORT, null );
@@ -108,6 +125,8 @@ public class SmbTransport extends Transport implements SmbConstants {
     int sessionKey = 0x00000000;
     boolean useUnicode = USE_UNICODE;
     String tconHostName = null;
+    long lastUsed = System.currentTimeMillis();
+    boolean partlyRead = false;
 
     SmbTransport( UniAddress address, int port, InetAddress localAddr, int localPort ) {
         this.address = address;
@@ -359,6 +378,57 @@ public class SmbTransport extends Transport implements SmbConstants {
             }
         }
     }
+    /* Returns the time, in milliseconds, for which an idle connection to
+     * this server is kept alive, from jcifs.smb.client.keepAlive.<server>
+     * for either the name or address of the server, or
+     * jcifs.smb.client.keepAlive. The default of 0 closes connections
+     * after jcifs.smb.client.soTimeout.
+     */
+    long getKeepAlive() {
+        String value = Config.getProperty( "jcifs.smb.client.keepAlive." + address.getHostName() );
+        if (value == null)
+            value = Config.getProperty( "jcifs.smb.client.keepAlive." + address.getHostAddress() );
+        if (value != null) {
+            try {
+                return Long.parseLong( value.trim() );
+            } catch( NumberFormatException nfe ) {
+                if (log.level > 0)
+                    nfe.printStackTrace( log );
+            }
+        }
+        return KEEP_ALIVE;
+    }
+    protected boolean keepAlive() {
+        if (sessions.isEmpty() ||
+                System.currentTimeMillis() - lastUsed >= getKeepAlive())
+            return false;
+        if (log.level >= 4)
+            log.println( "Sending SMB_COM_ECHO to keep " + this + " alive" );
+        /* The echo cannot be sent from the transport thread, as that
+         * thread must read the response.
+         */
+        try {
+            SmbFile.getBackgroundExecutor().execute( new Runnable() {
+                public void run() {
+                    try {
+                        /* Do not reconnect if the connection was closed
+                         * in the meantime.
+                         */
+                        if (isConnected())
+                            send( new SmbComEcho( 1 ), new SmbComEchoResponse() );
+                    } catch( SmbException se ) {
+                        if (log.level >= 3)
+                            se.printStackTrace( log );
+                    }
+                }
+            });
+        } catch( RuntimeException re ) {
+            if (log.level >= 3)
+                re.printStackTrace( log );
+            return false;
+        }
+        return true;
+    }
     protected void doDisconnect( boolean hard ) throws IOException {
         ListIterator iter = sessions.listIterator();
         try {
@@ -382,10 +452,20 @@ public class SmbTransport extends Transport implements SmbConstants {
         if (++mid == 32000) mid = 1;
         ((ServerMessageBlock)request).mid = mid;
     }
+    protected boolean isMessagePartlyRead() {
+        return partlyRead;
+    }
     protected Request peekKey() throws IOException {
         int n;
         do {
-            if ((n = readn( in, sbuf, 0, 4 )) < 4)
+            /* Read the first byte on its own, so that a read timeout before
+             * it is known not to have consumed any of the message.
+             */
+            partlyRead = false;
+            if (in.read( sbuf, 0, 1 ) < 1)
+                return null;
+            partlyRead = true;
+            if ((n = readn( in, sbuf, 1, 3 )) < 3)
                 return null;
         } while (sbuf[0] == (byte)0x85);  /* Dodge NetBIOS keep-alive */
                                                    /* read smb header */
@@ -436,6 +516,11 @@ public class SmbTransport extends Transport implements SmbConstants {
     protected void doSend( Request request ) throws IOException {
         synchronized (BUF) {
             ServerMessageBlock smb = (ServerMessageBlock)request;
+            if (smb.commandStats != null) {
+                smb.commandStats.sent();
+                smb.serverStats.sent();
+                smb.commandStats = smb.serverStats = null;
+            }
             int n = smb.encode( BUF, 4 );
             Encdec.enc_uint32be( n & 0xFFFF, BUF, 0 ); /* 4 byte session message header */
             if (log.level >= 4) {
@@ -508,7 +593,21 @@ public class SmbTransport extends Transport implements SmbConstants {
              * (perhaps for DOS reasons).
              */
             if (digest != null && resp.errorCode == 0) {
-                digest.verify( BUF, 4, resp );
+                int hlen = -1;
+                if (resp.command == ServerMessageBlock.SMB_COM_READ_ANDX) {
+                    hlen = resp.length - ((SmbComReadAndXResponse)resp).dataLength;
+                }
+                if (hlen >= HEADER_LENGTH && hlen <= size) {
+                    /* The data was read directly into the caller's buffer,
+                     * so only the header need be kept to verify it later
+                     * in the calling thread (see checkStatus). This keeps
+                     * digesting the data off this thread and out of BUF.
+                     */
+                    resp.unverifiedHeader = new byte[hlen];
+                    System.arraycopy( BUF, 4, resp.unverifiedHeader, 0, hlen );
+                } else {
+                    digest.verify( BUF, 4, resp );
+                }
             }
 
             if (log.level >= 4) {
@@ -529,6 +628,12 @@ public class SmbTransport extends Transport implements SmbConstants {
         }
     }
     void checkStatus( ServerMessageBlock req, ServerMessageBlock resp ) throws SmbException {
+        if (resp.errorCode == SmbFileWatcher.NT_STATUS_NOTIFY_ENUM_DIR &&
+                    resp instanceof NtTransNotifyChangeResponse) {
+            /* Not an error; the changes must be found by listing the directory. */
+            ((NtTransNotifyChangeResponse)resp).enumDir = true;
+            resp.errorCode = NtStatus.NT_STATUS_OK;
+        }
         resp.errorCode = SmbException.getStatusByCode( resp.errorCode );
         switch( resp.errorCode ) {
             case NtStatus.NT_STATUS_OK:
@@ -562,14 +667,85 @@ public class SmbTransport extends Transport implements SmbConstants {
             default:
                 throw new SmbException( resp.errorCode, null );
         }
+        if (resp.unverifiedHeader != null) {
+            byte[] header = resp.unverifiedHeader;
+            resp.unverifiedHeader = null;
+            if (digest != null) {
+                digest.verify( header, 0, resp );
+            }
+        }
         if (resp.verifyFailed) {
             throw new SmbException( "Signature verification failed." );
         }
     }
     void send( ServerMessageBlock request, ServerMessageBlock response ) throws SmbException {
+        SmbCommandListener listener = commandListener;
+        SmbStatistics stats = statistics;
+        if (listener == null && stats == null) {
+            send0( request, response );
+            return;
+        }
+        SmbStatistics.Stats commandStats = null;
+        SmbStatistics.Stats serverStats = null;
+        if (stats != null) {
+            commandStats = stats.getCommand( request );
+            serverStats = stats.getServer( address.getHostAddress() );
+            commandStats.started();
+            serverStats.started();
+            request.commandStats = commandStats;
+            request.serverStats = serverStats;
+        }
+        long start = System.nanoTime();
+        int status = NtStatus.NT_STATUS_UNSUCCESSFUL;
+        try {
+            send0( request, response );
+            status = response == null ? NtStatus.NT_STATUS_OK : response.errorCode;
+        } catch( SmbException se ) {
+            status = se.getNtStatus();
+            throw se;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            /* The length of a READ_ANDX response already includes its
+             * data, which is counted in the byte count.
+             */
+            int received = 0;
+            if (response instanceof SmbComTransactionResponse) {
+                SmbComTransactionResponse resp = (SmbComTransactionResponse)response;
+                received = resp.length + resp.totalParameterCount + resp.totalDataCount;
+            } else if (response != null) {
+                received = response.length;
+            }
+            if (stats != null) {
+                if (request.commandStats != null) {
+                    /* Never sent */
+                    commandStats.sent();
+                    serverStats.sent();
+                    request.commandStats = request.serverStats = null;
+                }
+                boolean failed = status != NtStatus.NT_STATUS_OK;
+                commandStats.completed( elapsed, request.length, received, failed );
+                serverStats.completed( elapsed, request.length, received, failed );
+            }
+            if (listener != null) {
+                int subcommand = -1;
+                if (request instanceof SmbComNtTransaction) {
+                    subcommand = ((SmbComNtTransaction)request).function;
+                } else if (request instanceof SmbComTransaction) {
+                    subcommand = ((SmbComTransaction)request).subCommand & 0xFF;
+                }
+                listener.commandCompleted( address.getHostAddress(), request.command & 0xFF,
+                        subcommand, request.path, elapsed,
+                        request.length, received, status );
+            }
+        }
+    }
+    void send0( ServerMessageBlock request, ServerMessageBlock response ) throws SmbException {
 
         connect(); /* must negotiate before we can test flags2, useUnicode, etc */
 
+        if (request instanceof SmbComEcho == false)
+            lastUsed = System.currentTimeMillis();
+
         request.flags2 |= flags2;
         request.useUnicode = useUnicode;
         request.response = response; /* needed by sign */
@@ -610,6 +786,7 @@ public class SmbTransport extends Transport implements SmbConstants {
                     synchronized (this) {
                         response.received = false;
                         resp.isReceived = false;
+                        int d = disconnects;
                         try {
                             response_map.put( req, resp );
 
@@ -625,12 +802,26 @@ public class SmbTransport extends Transport implements SmbConstants {
                              * Receive multiple fragments
                              */
 
-                            long timeout = RESPONSE_TIMEOUT;
+                            boolean cancel = req.cancelTimeout > 0;
+                            long timeout = cancel ? req.cancelTimeout : RESPONSE_TIMEOUT;
                             resp.expiration = System.currentTimeMillis() + timeout;
                             while( resp.hasMoreElements() ) {
                                 wait( timeout );
+                                if (disconnects != d) {
+                                    throw new TransportException( this +
+                                            " disconnected waiting for response to " +
+                                            req );
+                                }
                                 timeout = resp.expiration - System.currentTimeMillis();
-                                if (timeout <= 0) {
+                                if (timeout <= 0 && cancel) {
+                                    /* The server responds to the cancelled
+                                     * request, so keep waiting for that.
+                                     */
+                                    cancel = false;
+                                    doSend0( new SmbComNtCancel( req ));
+                                    timeout = RESPONSE_TIMEOUT;
+                                    resp.expiration = System.currentTimeMillis() + timeout;
+                                } else if (timeout <= 0) {
                                     throw new TransportException( this +
                                             " timedout waiting for response to " +
                                             req );
@@ -42,6 +42,7 @@ class SmbTree {
     SmbSession session;
     boolean inDfs, inDomainDfs;
     int tree_num; // used by SmbFile.isOpen
+    boolean wasConnected; // reconnected with the session if true
 
     SmbTree( SmbSession session, String share, String service ) {
         this.session = session;
@@ -181,9 +182,11 @@ synchronized (session.transport()) {
             tree_num = tree_conn_counter++;
     
             connectionState = 2; // connected
+            wasConnected = true;
         } catch (SmbException se) {
             treeDisconnect(true);
             connectionState = 0;
+            wasConnected = false;
             throw se;
         } finally {
             session.transport.notifyAll();
@@ -164,6 +164,27 @@ class Trans2FindFirst2Response extends SmbComTransactionResponse {
 
         return bufferIndex - start;
     }
+    /* Every listing returns "." and "..", which callers skip, so they are
+     * recognized in the buffer and not decoded into new Strings.
+     */
+    String readDotName( byte[] src, int srcIndex, int len ) {
+        int step = 1;
+        if( useUnicode ) {
+            step = 2;
+        } else if( len > 0 && src[srcIndex + len - 1] == '\0' ) {
+            len--;
+        }
+        if( len != step && len != 2 * step ) {
+            return null;
+        }
+        for( int i = 0; i < len; i += step ) {
+            if( src[srcIndex + i] != '.' ||
+                    ( step == 2 && src[srcIndex + i + 1] != 0 )) {
+                return null;
+            }
+        }
+        return len == step ? "." : "..";
+    }
     int readDataWireFormat( byte[] buffer, int bufferIndex, int len ) {
         int start = bufferIndex;
         SmbFindFileBothDirectoryInfo e;
@@ -191,7 +212,10 @@ class Trans2FindFirst2Response extends SmbComTransactionResponse {
              */
 
     //      e.shortName = readString( buffer, bufferIndex + 70, e.shortNameLength );
-            e.filename = readString( buffer, bufferIndex + 94, e.fileNameLength );
+            e.filename = readDotName( buffer, bufferIndex + 94, e.fileNameLength );
+            if( e.filename == null ) {
+                e.filename = readString( buffer, bufferIndex + 94, e.fileNameLength );
+            }
 
             /* lastNameOffset ends up pointing to either to
              * the exact location of the filename(e.g. Win98)
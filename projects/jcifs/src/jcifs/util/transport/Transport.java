@@ -49,6 +49,11 @@ public abstract class Transport implements Runnable {
     Thread thread;
     TransportException te;
 
+    /* Incremented each time the transport is disconnected, so that threads
+     * waiting for a response can tell that it will never arrive.
+     */
+    protected int disconnects = 0;
+
     protected HashMap response_map = new HashMap( 4 );
 
     protected abstract void makeKey( Request request ) throws IOException;
@@ -64,10 +69,16 @@ public abstract class Transport implements Runnable {
             response.isReceived = false;
             try {
                 response_map.put( request, response );
+                int d = disconnects;
                 doSend( request );
                 response.expiration = System.currentTimeMillis() + timeout;
                 while (!response.isReceived) {
                     wait( timeout );
+                    if (disconnects != d) {
+                        throw new TransportException( name +
+                                " disconnected waiting for response to " +
+                                request );
+                    }
                     timeout = response.expiration - System.currentTimeMillis();
                     if (timeout <= 0) {
                         throw new TransportException( name +
@@ -111,6 +122,13 @@ public abstract class Transport implements Runnable {
             } catch( Exception ex ) {
                 String msg = ex.getMessage();
                 boolean timeout = msg != null && msg.equals( "Read timed out" );
+                /* A timeout in the middle of a message leaves the stream
+                 * out of step with the messages, so it is an error.
+                 */
+                if (timeout && isMessagePartlyRead())
+                    timeout = false;
+                if (timeout && keepAlive())
+                    continue;
                 /* If just a timeout, try to disconnect gracefully
                  */
                 boolean hard = timeout == false;
@@ -135,6 +153,25 @@ public abstract class Transport implements Runnable {
 
     protected abstract void doConnect() throws Exception;
 
+    /* Called by the transport thread when no data has been received for
+     * the socket timeout. Returns true if the connection should be kept
+     * open rather than disconnected as idle, in which case the
+     * implementation should send something to keep the connection alive.
+     */
+
+    protected boolean keepAlive() {
+        return false;
+    }
+
+    /* Called by the transport thread when a read times out. Returns true
+     * if part of a message had already been read, so that the connection
+     * cannot be kept.
+     */
+
+    protected boolean isMessagePartlyRead() {
+        return false;
+    }
+
     /* Tear down a connection. If the hard parameter is true, the diconnection
      * procedure should not initiate or wait for any outstanding requests on
      * this transport.
@@ -197,6 +234,9 @@ public abstract class Transport implements Runnable {
             }
         }
     }
+    protected synchronized boolean isConnected() {
+        return state == 3;
+    }
     public synchronized void disconnect( boolean hard ) throws IOException {
         IOException ioe = null;
 
@@ -226,6 +266,14 @@ public abstract class Transport implements Runnable {
                 break;
         }
 
+        if (state == 0) {
+            /* Wake up the threads waiting for responses that will never
+             * arrive, rather than leaving them to time out.
+             */
+            disconnects++;
+            notifyAll();
+        }
+
         if (ioe != null)
             throw ioe;
     }